@@ -269,6 +269,26 @@ public class DirectoryManager {
 
     }
 
+    public static synchronized File getBigWigCacheDirectory() {
+
+        File dir = new File(DirectoryManager.getIgvDirectory(), "bigwig");
+        if (!dir.exists()) {
+            dir.mkdir();
+        }
+        return dir;
+
+    }
+
+    public static synchronized File getSummaryCacheDirectory() {
+
+        File dir = new File(DirectoryManager.getIgvDirectory(), "summaries");
+        if (!dir.exists()) {
+            dir.mkdir();
+        }
+        return dir;
+
+    }
+
     public static synchronized File getLogFile() throws IOException {
 
         File logFile = new File(getIgvDirectory(), "igv.log");
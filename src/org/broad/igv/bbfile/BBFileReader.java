@@ -27,13 +27,19 @@ package org.broad.igv.bbfile;
 
 import htsjdk.samtools.seekablestream.SeekableStream;
 import org.apache.log4j.Logger;
+import org.broad.igv.util.CompressionUtils;
 import org.broad.igv.util.stream.IGVSeekableBufferedStream;
 import org.broad.igv.util.stream.IGVSeekableStreamFactory;
+import org.broad.igv.util.stream.MappedFile;
+import org.broad.igv.util.stream.MappedSeekableStream;
 
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.util.ArrayList;
+import java.util.HashMap;
 
 /*
 *   Broad Institute Interactive Genome Viewer Big Binary File (BBFile) Reader
@@ -93,6 +99,8 @@ public class BBFileReader {
 
     private static Logger log = Logger.getLogger(BBFileReader.class);
 
+    private static final ThreadLocal<CompressionUtils> compressionUtils = ThreadLocal.withInitial(CompressionUtils::new);
+
     private SeekableStream fis;      // BBFile input stream handle
     private long fileOffset;           // file offset for next item to be read
 
@@ -126,7 +134,11 @@ public class BBFileReader {
 
         log.debug("Opening BBFile source  " + path);
 
-        fis = new IGVSeekableBufferedStream(IGVSeekableStreamFactory.getInstance().getStreamFor(path), 128000);
+        if (MappedFile.isMappable(path)) {
+            fis = new MappedSeekableStream(path);
+        } else {
+            fis = new IGVSeekableBufferedStream(IGVSeekableStreamFactory.getInstance().getStreamFor(path), 128000);
+        }
 
         // read in file header
         fileOffset = BBFILE_HEADER_OFFSET;
@@ -379,6 +391,48 @@ public class BBFileReader {
     }
 
 
+    /**
+     * Returns the R+ tree leaf items for BigWig data blocks intersecting a chromosome region.  Blocks are read
+     * with {@link #getBigWigDataBlock(RPTreeLeafNodeItem)},  for callers decoding data directly into arrays.
+     * <p/>
+     * Returns:
+     * Leaf items in file order; an empty list if the chromosome has no data or the file is not BigWig.
+     */
+    synchronized public ArrayList<RPTreeLeafNodeItem> getBigWigLeafItems(String chromosome, int startBase,
+                                                                       int endBase) {
+
+        if (!isBigWigFile())
+            return new ArrayList<>();
+
+        RPChromosomeRegion selectionRegion = getChromosomeBounds(chromosome, startBase, chromosome, endBase);
+        if (selectionRegion == null)
+            return new ArrayList<>();
+
+        return chromosomeDataTree.getChromosomeDataHits(selectionRegion, false);
+    }
+
+    /**
+     * Reads and decompresses the BigWig data block referenced by an R+ tree leaf item.
+     */
+    synchronized public BigWigDataBlock getBigWigDataBlock(RPTreeLeafNodeItem leafItem) {
+
+        int startChromID = leafItem.getChromosomeBounds().getStartChromID();
+        int endChromID = leafItem.getChromosomeBounds().getEndChromID();
+        HashMap<Integer, String> chromosomeMap = chromosomeIDTree.getChromosomeIDMap(startChromID, endChromID);
+
+        return new BigWigDataBlock(fis, leafItem, chromosomeMap, isLowToHigh, uncompressBufSize);
+    }
+
+    /**
+     * Returns the ID of a chromosome, or -1 if the chromosome has no data.
+     */
+    public int getChromosomeID(String chromosome) {
+        if (chromosome.length() > chromosomeIDTree.getKeySize()) {
+            return -1;
+        }
+        return chromosomeIDTree.getChromosomeID(chromosomeIDTree.getChromosomeKey(chromosome));
+    }
+
     /**
      * Returns an iterator for zoom level records for the chromosome selection region.
      * <p/>
@@ -500,6 +554,48 @@ public class BBFileReader {
     }
 
 
+    /*
+    *   Method reads a data block,  decompressing it if necessary.  Uncompressed blocks of a
+    *   memory mapped file are returned as a view of the mapping,  without copying.
+    *
+    *   Parameters:
+    *       fis - file input stream handle
+    *       offset - file offset of the data block
+    *       size - byte size of the data block
+    *       uncompressBufSize - byte size for decompression buffer; else 0 for uncompressed
+    *       isLowToHigh - byte order is low to high if true; else high to low
+    *
+    *   Returns:
+    *       Buffer of uncompressed block data positioned at 0, in the byte order of the file
+    * */
+    static ByteBuffer readDataBlock(SeekableStream fis, long offset, int size, int uncompressBufSize,
+                                    boolean isLowToHigh) throws IOException {
+
+        ByteBuffer buffer = null;
+        byte[] bytes = null;
+        if (fis instanceof MappedSeekableStream) {
+            buffer = ((MappedSeekableStream) fis).slice(offset, size);
+            if (uncompressBufSize > 0) {
+                // The inflater only accepts arrays
+                bytes = new byte[buffer.remaining()];
+                buffer.get(bytes);
+            }
+        } else {
+            bytes = new byte[size];
+            fis.seek(offset);
+            fis.readFully(bytes);
+        }
+
+        // Note:  BBFile Table C specifies a decompression buffer size
+        if (uncompressBufSize > 0) {
+            buffer = ByteBuffer.wrap(compressionUtils.get().decompress(bytes, uncompressBufSize));
+        } else if (buffer == null) {
+            buffer = ByteBuffer.wrap(bytes);
+        }
+        buffer.order(isLowToHigh ? ByteOrder.LITTLE_ENDIAN : ByteOrder.BIG_ENDIAN);
+        return buffer;
+    }
+
     private static String readNullTerminatedString(InputStream fis) throws IOException {
         ByteArrayOutputStream bos = new ByteArrayOutputStream(100);
         byte b;
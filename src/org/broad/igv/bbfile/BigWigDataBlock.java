@@ -27,10 +27,12 @@ package org.broad.igv.bbfile;
 
 import htsjdk.samtools.seekablestream.SeekableStream;
 import org.apache.log4j.Logger;
-import org.broad.igv.util.CompressionUtils;
+import org.broad.igv.util.collections.FloatArrayList;
+import org.broad.igv.util.collections.IntArrayList;
 
 import java.util.ArrayList;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.HashMap;
 
 /**
@@ -59,7 +61,7 @@ public class BigWigDataBlock {
     private RPTreeLeafNodeItem leafHitItem;   // R+ leaf item containing data block location
 
     // uncompressed byte stream buffer and readers
-    private byte[] wigBuffer;      // buffer containing leaf block data uncompressed
+    private ByteBuffer wigBuffer;  // buffer containing leaf block data uncompressed, or a view of a mapped file
     private int remDataSize;       // number of uncompressed data bytes not extracted
 
     // Wig data extraction members
@@ -84,19 +86,10 @@ public class BigWigDataBlock {
 
         fileOffset = this.leafHitItem.getDataOffset();
         leafDataSize = this.leafHitItem.geDataSize();
-        byte[] buffer = new byte[(int) leafDataSize];
 
-        // read Wig data block into a buffer
+        // read Wig data block into a buffer, decompressing if necessary
         try {
-            fis.seek(fileOffset);
-            fis.readFully(buffer);
-
-            // decompress if necessary - the buffer size is 0 for uncompressed data
-            // Note:  BBFile Table C specifies a decompression buffer size
-            if(uncompressBufSize > 0)
-                wigBuffer = (new CompressionUtils()).decompress(buffer, uncompressBufSize);
-            else
-                wigBuffer = buffer;    // use uncompressed read buffer directly
+            wigBuffer = BBFileReader.readDataBlock(fis, fileOffset, (int) leafDataSize, uncompressBufSize, isLowToHigh);
         }catch(IOException ex) {
             log.error("Error reading Wig section for leaf item ", ex);
             String error = String.format("Error reading Wig section for leaf item %d\n");
@@ -104,7 +97,7 @@ public class BigWigDataBlock {
         }
 
         // initialize unread data size
-        remDataSize = wigBuffer.length;
+        remDataSize = wigBuffer.remaining();
 
         // use getWigData to extract data block items
     }
@@ -127,11 +120,13 @@ public class BigWigDataBlock {
 
         wigItemList = new ArrayList<WigItem>();
 
+        // each section advances the buffer past its data
+        ByteBuffer sectionBuffer = wigBuffer.duplicate().order(wigBuffer.order());
         for(int index = 0; remDataSize > 0; ++index) {
 
             // extract items in the Wig data section
             // Note: A RuntimeException is thrown if wig section is not read properly
-            BigWigSection wigSection = new BigWigSection(wigBuffer, chromosomeMap, isLowToHigh, leafHitItem);
+            BigWigSection wigSection = new BigWigSection(sectionBuffer, chromosomeMap, leafHitItem);
 
             // get wig section items and section bytes read
             int sectionBytes = wigSection.getSectionData(selectionRegion, contained, wigItemList);
@@ -143,6 +138,30 @@ public class BigWigDataBlock {
         return wigItemList;
     }
 
+    /*
+    *   Method reads the Wig data of all sections for a chromosome into primitive arrays,
+    *   without creating an object per data item.  The block data is not consumed, so
+    *   this may be called more than once.
+    *
+    *   Parameters:
+    *       chromID - chromosome ID of sections to read;  sections of other chromosomes are skipped
+    *       starts - receives item start bases
+    *       ends - receives item end bases
+    *       values - receives item values
+    * */
+    public void getWigData(int chromID, IntArrayList starts, IntArrayList ends, FloatArrayList values) {
+
+        ByteBuffer sectionBuffer = wigBuffer.duplicate().order(wigBuffer.order());
+        while (sectionBuffer.hasRemaining()) {
+            BigWigSection wigSection = new BigWigSection(sectionBuffer, chromosomeMap, leafHitItem);
+            if (wigSection.getSectionHeader().getChromID() == chromID) {
+                wigSection.getSectionData(starts, ends, values);
+            } else {
+                wigSection.skipSectionData();
+            }
+        }
+    }
+
     public void print() {
 
         log.debug("Wig section data referenced by leaf item ");
@@ -26,11 +26,12 @@
 package org.broad.igv.bbfile;
 
 import org.apache.log4j.Logger;
-import org.broad.igv.util.LittleEndianInputStream;
+import org.broad.igv.util.collections.FloatArrayList;
+import org.broad.igv.util.collections.IntArrayList;
 
-import java.io.ByteArrayInputStream;
-import java.io.DataInputStream;
-import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.util.ArrayList;
 import java.util.HashMap;
 
@@ -45,9 +46,7 @@ public class BigWigSection {
 
     private static Logger log = Logger.getLogger(BigWigSection.class);
 
-    private boolean isLowToHigh;       // byte order is low to high if true; else high to low
-    private LittleEndianInputStream lbdis;   // input stream reader for low to high byte ordered data
-    private DataInputStream dis;      // input stream reader for high to low byte ordered data
+    private ByteBuffer buffer;         // section data, in the byte order of the file
 
     private RPTreeLeafNodeItem leafHitItem;    // leaf item defines chromosome region and file data location
     private int sectionDataSize;       // byte size of decompressed data for this section
@@ -68,22 +67,30 @@ public class BigWigSection {
     * */
     public BigWigSection(byte[] sectionBuffer, HashMap<Integer, String> chromosomeMap,
                          boolean isLowToHigh, RPTreeLeafNodeItem leafHitItem){
+        this(ByteBuffer.wrap(sectionBuffer).order(isLowToHigh ? ByteOrder.LITTLE_ENDIAN : ByteOrder.BIG_ENDIAN),
+                chromosomeMap, leafHitItem);
+    }
+
+    /*
+    *   Constructor for a BigWig data section read from a buffer,  which may be a view of a
+    *   memory mapped file.  Reading the section advances the buffer past its data.
+    *
+    *   Parameters:
+    *       sectionBuffer - buffer positioned at the section header,  in the byte order of the file
+    *       chromIDTree - B+ chromosome index tree returns chromosome names for ID's
+    *       leafHitItem - contains leaf node information for testing against selection region
+    *
+    * */
+    public BigWigSection(ByteBuffer sectionBuffer, HashMap<Integer, String> chromosomeMap,
+                         RPTreeLeafNodeItem leafHitItem){
 
         this.chromosomeMap =  chromosomeMap;
-        this.isLowToHigh = isLowToHigh;
         this.leafHitItem = leafHitItem;
+        this.buffer = sectionBuffer;
 
-        // wrap the Wig section buffer as an input stream and get the section header
+        // get the section header
         // Note: A RuntimeException is thrown if header is not read properly
-        if(this.isLowToHigh) {
-            lbdis = new LittleEndianInputStream(new ByteArrayInputStream(sectionBuffer));
-            wigSectionHeader = new BigWigSectionHeader(lbdis);
-
-        }
-        else  {
-            dis = new DataInputStream(new ByteArrayInputStream(sectionBuffer));
-            wigSectionHeader = new BigWigSectionHeader(dis);
-        }
+        wigSectionHeader = new BigWigSectionHeader(buffer);
 
         // check for valid Wig item type
         if(wigSectionHeader.getItemType() == BigWigSectionHeader.WigItemType.Unknown){
@@ -181,52 +188,28 @@ public class BigWigSection {
 
 
         // extract Wig data records
-        // Note: the buffer input stream is positioned past section header
+        // Note: the buffer is positioned past section header
         try {
             for(int index = 0; index < itemCount; ++index) {
                 ++itemIndex;
-                if(isLowToHigh){
-                    if(itemType == BigWigSectionHeader.WigItemType.FixedStep){
-                        startBase = chromStart;
-                        endBase = startBase + itemSpan;
-                        value = lbdis.readFloat();
-                        chromStart = startBase + itemStep;
-                        sectionDataSize += BigWigSectionHeader.FIXEDSTEP_ITEM_SIZE;
-                    }
-                    else if(itemType == BigWigSectionHeader.WigItemType.VarStep){
-
-                        startBase = lbdis.readInt();
-                        endBase = startBase + itemSpan;
-                        value = lbdis.readFloat();
-                        sectionDataSize += BigWigSectionHeader.VARSTEP_ITEM_SIZE;
-                    }
-                    else if(itemType == BigWigSectionHeader.WigItemType.BedGraph){
-                        startBase = lbdis.readInt();
-                        endBase = lbdis.readInt();
-                        value = lbdis.readFloat();
-                        sectionDataSize += BigWigSectionHeader.BEDGRAPH_ITEM_SIZE;
-                    }
+                if(itemType == BigWigSectionHeader.WigItemType.FixedStep){
+                    startBase = chromStart;
+                    endBase = startBase + itemSpan;
+                    value = buffer.getFloat();
+                    chromStart = startBase + itemStep;
+                    sectionDataSize += BigWigSectionHeader.FIXEDSTEP_ITEM_SIZE;
                 }
-                else {  // byte order is high to low
-                    if(itemType == BigWigSectionHeader.WigItemType.FixedStep){
-                        startBase = chromStart;
-                        endBase = startBase + itemSpan;
-                        value = dis.readFloat();
-                        chromStart = startBase + itemStep;
-                        sectionDataSize += BigWigSectionHeader.FIXEDSTEP_ITEM_SIZE;
-                    }
-                    else if(itemType == BigWigSectionHeader.WigItemType.VarStep){
-                        startBase = dis.readInt();
-                        endBase = startBase + itemSpan;
-                        value = dis.readFloat();
-                        sectionDataSize += BigWigSectionHeader.VARSTEP_ITEM_SIZE;
-                    }
-                    else if(itemType == BigWigSectionHeader.WigItemType.BedGraph){
-                        startBase = dis.readInt();
-                        endBase = dis.readInt();
-                        value = dis.readFloat();
-                        sectionDataSize += BigWigSectionHeader.BEDGRAPH_ITEM_SIZE;
-                    }
+                else if(itemType == BigWigSectionHeader.WigItemType.VarStep){
+                    startBase = buffer.getInt();
+                    endBase = startBase + itemSpan;
+                    value = buffer.getFloat();
+                    sectionDataSize += BigWigSectionHeader.VARSTEP_ITEM_SIZE;
+                }
+                else if(itemType == BigWigSectionHeader.WigItemType.BedGraph){
+                    startBase = buffer.getInt();
+                    endBase = buffer.getInt();
+                    value = buffer.getFloat();
+                    sectionDataSize += BigWigSectionHeader.BEDGRAPH_ITEM_SIZE;
                 }
 
                 // contained leaf region items are always added - otherwise test conditions
@@ -247,7 +230,7 @@ public class BigWigSection {
 
             }
 
-        }catch(IOException ex) {
+        }catch(BufferUnderflowException ex) {
             log.error("Read error for Wig section item " + itemIndex);
             throw new RuntimeException("Read error for Wig section item " + itemIndex);
         }
@@ -255,6 +238,81 @@ public class BigWigSection {
         return sectionDataSize;
     }
 
+    /*
+    *   Method reads all Wig data items of the section into primitive arrays,  without
+    *   creating an object per item.
+    *
+    *   Parameters:
+    *       starts - receives item start bases
+    *       ends - receives item end bases
+    *       values - receives item values
+    *
+    *   Returns:
+    *     Size in bytes for the wig data section.
+    * */
+    public int getSectionData(IntArrayList starts, IntArrayList ends, FloatArrayList values) {
+
+        int itemCount = wigSectionHeader.getItemCount();
+        int chromStart = wigSectionHeader.getChromosomeStart();
+        int itemStep = wigSectionHeader.getItemStep();
+        int itemSpan =  wigSectionHeader.getItemSpan();
+        BigWigSectionHeader.WigItemType itemType = wigSectionHeader.getItemType();
+
+        try {
+            for(int index = 0; index < itemCount; ++index) {
+                if(itemType == BigWigSectionHeader.WigItemType.FixedStep){
+                    starts.add(chromStart);
+                    ends.add(chromStart + itemSpan);
+                    values.add(buffer.getFloat());
+                    chromStart += itemStep;
+                }
+                else if(itemType == BigWigSectionHeader.WigItemType.VarStep){
+                    int startBase = buffer.getInt();
+                    starts.add(startBase);
+                    ends.add(startBase + itemSpan);
+                    values.add(buffer.getFloat());
+                }
+                else if(itemType == BigWigSectionHeader.WigItemType.BedGraph){
+                    starts.add(buffer.getInt());
+                    ends.add(buffer.getInt());
+                    values.add(buffer.getFloat());
+                }
+            }
+        }catch(BufferUnderflowException ex) {
+            log.error("Read error for Wig section of " + itemCount + " items");
+            throw new RuntimeException("Read error for Wig section of " + itemCount + " items");
+        }
+
+        sectionDataSize += itemCount * getItemSize(itemType);
+        return sectionDataSize;
+    }
+
+    /*
+    *   Method advances the buffer past the section's data items without reading them.
+    *
+    *   Returns:
+    *     Size in bytes for the wig data section.
+    * */
+    public int skipSectionData() {
+        int nBytes = wigSectionHeader.getItemCount() * getItemSize(wigSectionHeader.getItemType());
+        buffer.position(Math.min(buffer.limit(), buffer.position() + nBytes));
+        sectionDataSize += nBytes;
+        return sectionDataSize;
+    }
+
+    private static int getItemSize(BigWigSectionHeader.WigItemType itemType) {
+        switch (itemType) {
+            case FixedStep:
+                return BigWigSectionHeader.FIXEDSTEP_ITEM_SIZE;
+            case VarStep:
+                return BigWigSectionHeader.VARSTEP_ITEM_SIZE;
+            case BedGraph:
+                return BigWigSectionHeader.BEDGRAPH_ITEM_SIZE;
+            default:
+                return 0;
+        }
+    }
+
     /*
     *   Method prints out the data items for this Wig section.
     * */
@@ -30,6 +30,8 @@ import org.broad.igv.util.LittleEndianInputStream;
 
 import java.io.IOException;
 import java.io.DataInputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
 
 /**
  * Created by IntelliJ IDEA.
@@ -130,6 +132,35 @@ public class BigWigSectionHeader {
         isValidType = getItemType(type);
     }
 
+    /*
+    *   Constructor creates a Wig Section Header (Table J) from uncompressed buffer.
+    *
+    *   Parameters:
+    *       buffer - buffer positioned at the section header,  in the byte order of the file
+    * */
+    public BigWigSectionHeader(ByteBuffer buffer) {
+
+        byte type;
+
+        // get Wig Section Header
+        try {
+            chromID = buffer.getInt();
+            chromStart = buffer.getInt();
+            chromEnd = buffer.getInt();
+            itemStep = buffer.getInt();
+            itemSpan = buffer.getInt();
+            type = buffer.get();
+            reserved = buffer.get();
+            itemCount = buffer.getShort() & 0xFFFF;
+        }catch(BufferUnderflowException ex) {
+            log.error("Error reading wig section header ", ex);
+            throw new RuntimeException("Error reading wig section header", ex);
+        }
+
+        // tag as valid
+        isValidType = getItemType(type);
+    }
+
     /*
     *   Method returns the chromosome ID
     *
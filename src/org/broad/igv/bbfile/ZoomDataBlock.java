@@ -27,12 +27,10 @@ package org.broad.igv.bbfile;
 
 import htsjdk.samtools.seekablestream.SeekableStream;
 import org.apache.log4j.Logger;
-import org.broad.igv.util.CompressionUtils;
-import org.broad.igv.util.LittleEndianInputStream;
 
-import java.io.ByteArrayInputStream;
-import java.io.DataInputStream;
 import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.HashMap;
 
@@ -60,14 +58,10 @@ public class ZoomDataBlock {
     private HashMap<Integer, String> chromosomeMap;  // map of chromosome ID's and corresponding names
     private RPTreeLeafNodeItem leafHitItem;   //R+ leaf item with chromosome region and file data location
 
-    // Provides uncompressed byte stream data reader
-    private byte[] zoomBuffer;  // buffer containing leaf block data uncompressed
+    // Provides uncompressed data, in the byte order of the file
+    private ByteBuffer zoomBuffer;  // buffer containing leaf block data uncompressed, or a view of a mapped file
     private int remDataSize;   // number of unread decompressed data bytes
 
-    // byte stream readers
-    private LittleEndianInputStream lbdis = null;    // low to high byte stream reader
-    private DataInputStream dis = null;       // high to low byte stream reader
-
     // Bed data extraction members
     private ArrayList<ZoomDataRecord> zoomDataList; // array of zoom level data
 
@@ -93,34 +87,19 @@ public class ZoomDataBlock {
 
         fileOffset = this.leafHitItem.getDataOffset();
         dataBlockSize = this.leafHitItem.geDataSize();
-        byte[] buffer = new byte[(int) dataBlockSize];
 
-        // read Bed data block into a buffer
+        // read zoom data block into a buffer, decompressing if necessary
         try {
-            fis.seek(fileOffset);
-            fis.readFully(buffer);
-
-            // decompress if necessary - the buffer size is 0 for uncomressed data
-            // Note:  BBFile Table C specifies a decompression buffer size
-            if (uncompressBufSize > 0)
-                zoomBuffer = (new CompressionUtils()).decompress(buffer, uncompressBufSize);
-            else
-                zoomBuffer = buffer;    // use uncompressed read buffer directly
-
+            zoomBuffer = BBFileReader.readDataBlock(fis, fileOffset, (int) dataBlockSize, uncompressBufSize,
+                    isLowToHigh);
         } catch (IOException ex) {
             log.error("Error reading Zoom level " + this.zoomLevel + " data for leaf item ",  ex);
             String error = String.format("Error reading zoom level %d data for leaf item %d\n", this.zoomLevel);
             throw new RuntimeException(error, ex);
         }
 
-        // wrap the bed buffer as an input stream
-        if (this.isLowToHigh)
-            lbdis = new LittleEndianInputStream(new ByteArrayInputStream(zoomBuffer));
-        else
-            dis = new DataInputStream(new ByteArrayInputStream(zoomBuffer));
-
         // initialize unread data size
-        remDataSize = zoomBuffer.length;
+        remDataSize = zoomBuffer.remaining();
 
         // use method getZoomData to extract block data
     }
@@ -160,25 +139,15 @@ public class ZoomDataBlock {
             for (int index = 0; remDataSize > 0; ++index) {
                 recordNumber = index + 1;
 
-                if (isLowToHigh) {  // buffer stream arranged low to high bytes
-                    chromID = lbdis.readInt();
-                    chromStart = lbdis.readInt();
-                    chromEnd = lbdis.readInt();
-                    validCount = lbdis.readInt();
-                    minVal = lbdis.readFloat();
-                    maxVal = lbdis.readFloat();
-                    sumData = lbdis.readFloat();
-                    sumSquares = lbdis.readFloat();
-                } else { // buffer stream arranged high to low bytes
-                    chromID = dis.readInt();
-                    chromStart = dis.readInt();
-                    chromEnd = dis.readInt();
-                    validCount = dis.readInt();
-                    minVal = dis.readFloat();
-                    maxVal = dis.readFloat();
-                    sumData = dis.readFloat();
-                    sumSquares = dis.readFloat();
-                }
+                // the buffer is in the byte order of the file
+                chromID = zoomBuffer.getInt();
+                chromStart = zoomBuffer.getInt();
+                chromEnd = zoomBuffer.getInt();
+                validCount = zoomBuffer.getInt();
+                minVal = zoomBuffer.getFloat();
+                maxVal = zoomBuffer.getFloat();
+                sumData = zoomBuffer.getFloat();
+                sumSquares = zoomBuffer.getFloat();
 
                 if (leafHitValue == 0) {     // contained leaf region always a hit
                     String chromName = chromosomeMap.get(chromID);
@@ -202,7 +171,7 @@ public class ZoomDataBlock {
                 remDataSize -= ZoomDataRecord.RECORD_SIZE;
             }
 
-        } catch (IOException ex) {
+        } catch (BufferUnderflowException ex) {
             log.error("Read error for zoom level " + zoomLevel + " leaf item " );
 
             // accept this as an end of block condition unless no items were read
@@ -31,6 +31,8 @@ import org.broad.igv.bbfile.*;
 import org.broad.igv.data.AbstractDataSource;
 import org.broad.igv.data.BasicScore;
 import org.broad.igv.data.DataTile;
+import org.broad.igv.data.TileCache;
+import org.broad.igv.data.WholeGenomeSummary;
 import org.broad.igv.feature.*;
 import org.broad.igv.feature.genome.Genome;
 import org.broad.igv.feature.tribble.IGVBEDCodec;
@@ -43,6 +45,7 @@ import htsjdk.tribble.Feature;
 
 import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.Future;
 
 /**
  * A hybrid source, implements both DataSource and FeatureSource.   Way of the future?
@@ -66,11 +69,14 @@ public class BigWigDataSource extends AbstractDataSource implements FeatureSourc
 
     private Map<WindowFunction, List<LocusScore>> wholeGenomeScores;
 
+    // Reduction levels computed from raw data to fill gaps in the zoom levels,  set when ready.  The levels are
+    // held in the tile cache under this source's id.
+    private volatile ZoomPyramid pyramid;
+    private Future<?> pyramidFuture;
+
     // Lookup table to support chromosome aliasing.
     private Map<String, String> chrNameMap = new HashMap();
 
-    private RawDataInterval currentInterval = null;
-
     private double dataMin = 0;
     private double dataMax = 100;
 
@@ -103,6 +109,8 @@ public class BigWigDataSource extends AbstractDataSource implements FeatureSourc
         }
 
         bedCodec = new IGVBEDCodec(genome);
+
+        pyramidFuture = ZoomPyramidBuilder.submit(reader, cacheSource, p -> pyramid = p);
     }
 
 
@@ -230,19 +238,30 @@ public class BigWigDataSource extends AbstractDataSource implements FeatureSourc
 
         double scale = c.getLength() / (nBins * 700);
 
-        BBZoomLevelHeader zlHeader = getZoomLevelForScale(scale);
-        if (zlHeader == null) return null;
-
-        int bbLevel = zlHeader.getZoomLevel();
-        int reductionLevel = zlHeader.getReductionLevel();
-
+        String tmp = chrNameMap.get(chr);
+        String querySeq = tmp == null ? chr : tmp;
 
         // If we are at the highest precomputed resolution compare to the requested resolution.  If they differ
         // by more than a factor of 2 compute "on the fly"
-        String tmp = chrNameMap.get(chr);
-        String querySeq = tmp == null ? chr : tmp;
+        BBZoomLevelHeader zlHeader = getZoomLevelForScale(scale);
+        int bbLevel = zlHeader == null ? 0 : zlHeader.getZoomLevel();
+        int reductionLevel = zlHeader == null ? 0 : zlHeader.getReductionLevel();
+        boolean precomputed = zlHeader != null &&
+                (reader.isBigBedFile() || bbLevel > 1 || (bbLevel == 1 && (reductionLevel / scale) < 2));
+
+        // Prefer a computed level if it is closer to the requested resolution
+        ZoomPyramid pyramid = this.pyramid;
+        if (pyramid != null) {
+            int r = pyramid.getReductionForScale(scale);
+            if (r > 0 && (!precomputed || isCloser(r, reductionLevel, scale))) {
+                List<LocusScore> scores = pyramid.getScores(querySeq, start, end, r, windowFunction);
+                if (scores != null) {
+                    return scores;
+                }
+            }
+        }
 
-        if (reader.isBigBedFile() || bbLevel > 1 || (bbLevel == 1 && (reductionLevel / scale) < 2)) {
+        if (precomputed) {
             ArrayList<LocusScore> scores = new ArrayList(1000);
             ZoomLevelIterator zlIter = reader.getZoomLevelIterator(bbLevel, querySeq, start, querySeq, end, false);
             while (zlIter.hasNext()) {
@@ -260,6 +279,18 @@ public class BigWigDataSource extends AbstractDataSource implements FeatureSourc
         }
     }
 
+    /**
+     * Return true if reduction level r1 suits the scale better than r2.  Levels no coarser than the scale are
+     * preferred,  the coarsest of them first.
+     */
+    private static boolean isCloser(int r1, int r2, double scale) {
+        if (r1 <= scale) {
+            return r2 > scale || r1 > r2;
+        } else {
+            return r2 > scale && r1 < r2;
+        }
+    }
+
     private float getValue(ZoomDataRecord rec) {
 
         if(rec == null) {
@@ -281,6 +312,18 @@ public class BigWigDataSource extends AbstractDataSource implements FeatureSourc
     }
 
 
+    /**
+     * Raw data requests are serialized,  but binning can still proceed in parallel.
+     */
+    @Override
+    protected boolean supportsConcurrentRawData() {
+        return true;
+    }
+
+    /**
+     * Return the raw data overlapping chr:start-end.  Data blocks are decoded directly into primitive arrays, and
+     * cached by block, so panning and zooming within the same region does not decode blocks again.
+     */
     @Override
     protected synchronized DataTile getRawData(String chr, int start, int end) {
 
@@ -288,31 +331,69 @@ public class BigWigDataSource extends AbstractDataSource implements FeatureSourc
             return null;
         }
 
-
-        if (currentInterval != null && currentInterval.contains(chr, start, end)) {
-            return currentInterval.tile;
-        }
-
-        // TODO -- fetch data directly in arrays to avoid creation of multiple "WigItem" objects?
-        IntArrayList startsList = new IntArrayList(100000);
-        IntArrayList endsList = new IntArrayList(100000);
-        FloatArrayList valuesList = new FloatArrayList(100000);
-
         String chrAlias = chrNameMap.containsKey(chr) ? chrNameMap.get(chr) : chr;
-        Iterator<WigItem> iter = reader.getBigWigIterator(chrAlias, start, chrAlias, end, false);
+        int chromID = reader.getChromosomeID(chrAlias);
+        if (chromID < 0) {
+            return new DataTile(new int[0], new int[0], new float[0], null);
+        }
 
-        while (iter.hasNext()) {
-            WigItem wi = iter.next();
-            startsList.add(wi.getStartBase());
-            endsList.add(wi.getEndBase());
-            valuesList.add(wi.getWigValue());
+        List<RPTreeLeafNodeItem> leafItems = reader.getBigWigLeafItems(chrAlias, start, end);
+        List<DataTile> blockTiles = new ArrayList<>(leafItems.size());
+        int nPts = 0;
+        for (RPTreeLeafNodeItem leafItem : leafItems) {
+            DataTile blockTile = getBlockTile(leafItem, chromID);
+            blockTiles.add(blockTile);
+            int[] starts = blockTile.getStartLocations();
+            int[] ends = blockTile.getEndLocations();
+            for (int i = 0; i < starts.length; i++) {
+                if (overlaps(starts[i], ends[i], start, end)) nPts++;
+            }
         }
 
-        DataTile tile = new DataTile(startsList.toArray(), endsList.toArray(), valuesList.toArray(), null);
-        currentInterval = new RawDataInterval(chr, start, end, tile);
+        int[] starts = new int[nPts];
+        int[] ends = new int[nPts];
+        float[] values = new float[nPts];
+        int n = 0;
+        for (DataTile blockTile : blockTiles) {
+            int[] blockStarts = blockTile.getStartLocations();
+            int[] blockEnds = blockTile.getEndLocations();
+            float[] blockValues = blockTile.getValues();
+            for (int i = 0; i < blockStarts.length; i++) {
+                if (overlaps(blockStarts[i], blockEnds[i], start, end)) {
+                    starts[n] = blockStarts[i];
+                    ends[n] = blockEnds[i];
+                    values[n] = blockValues[i];
+                    n++;
+                }
+            }
+        }
+        return new DataTile(starts, ends, values, null);
+    }
 
+    /**
+     * Return the data of chromosome {@code chromID} in the block referenced by {@code leafItem}
+     */
+    private DataTile getBlockTile(RPTreeLeafNodeItem leafItem, int chromID) {
+        TileCache cache = TileCache.getInstance();
+        TileCache.Key key = cache.key(cacheSource, chromID, -1, leafItem.getDataOffset(), 0);
+        DataTile tile = (DataTile) cache.get(key);
+        if (tile == null) {
+            IntArrayList starts = new IntArrayList(1024);
+            IntArrayList ends = new IntArrayList(1024);
+            FloatArrayList values = new FloatArrayList(1024);
+            reader.getBigWigDataBlock(leafItem).getWigData(chromID, starts, ends, values);
+            tile = new DataTile(starts.toArray(), ends.toArray(), values.toArray(), null);
+            cache.put(key, tile, TileCache.sizeOf(tile));
+        }
         return tile;
+    }
 
+    /**
+     * The selection of BigWigIterator for intersecting items:  items overlapping the region, and empty items
+     * within it.
+     */
+    private static boolean overlaps(int itemStart, int itemEnd, int start, int end) {
+        return (itemEnd > start && itemStart < end) || (itemStart >= start && itemEnd <= end);
     }
 
 
@@ -320,59 +401,97 @@ public class BigWigDataSource extends AbstractDataSource implements FeatureSourc
 
         if (genome.getHomeChromosome().equals(Globals.CHR_ALL) && windowFunction != WindowFunction.none) {
             if (wholeGenomeScores.get(windowFunction) == null) {
-                double scale = genome.getNominalLength() / screenWidth;
-                ArrayList<LocusScore> scores = new ArrayList<LocusScore>();
-                wholeGenomeScores.put(windowFunction, scores);
+                WholeGenomeSummary summary = getWholeGenomeSummary();
+                if (summary == null) return null;
+
+                int track = windowFunction == WindowFunction.min ? 0 : windowFunction == WindowFunction.max ? 2 : 1;
+                wholeGenomeScores.put(windowFunction, summary.getScores(track));
+            }
+            return wholeGenomeScores.get(windowFunction);
+        } else {
+            return null;
+        }
 
-                for (String chrName : genome.getLongChromosomeNames()) {
-                    Chromosome chr = genome.getChromosome(chrName);
+    }
 
-                    BBZoomLevelHeader lowestResHeader = this.getZoomLevelForScale(scale);
-                    if (lowestResHeader == null) return null;
+    /**
+     * Return the whole genome view from the lowest resolution zoom level,  with min,  mean and max rows so it is
+     * read once for all window functions.
+     */
+    private WholeGenomeSummary getWholeGenomeSummary() {
 
-                    int lastGenomeEnd = -1;
-                    int end = chr.getLength();
+        String path = reader.getBBFileHeader().getPath();
+        WholeGenomeSummary summary = WholeGenomeSummary.get(path, genome, "bigwig");
+        if (summary != null) {
+            return summary;
+        }
 
-                    String tmp = chrNameMap.get(chrName);
-                    String querySeq = tmp == null ? chrName : tmp;
+        double scale = genome.getNominalLength() / screenWidth;
+        BBZoomLevelHeader lowestResHeader = this.getZoomLevelForScale(scale);
+        if (lowestResHeader == null) return null;
 
-                    ZoomLevelIterator zlIter = reader.getZoomLevelIterator(
-                            lowestResHeader.getZoomLevel(), querySeq, 0, querySeq, end, false);
+        IntArrayList starts = new IntArrayList();
+        IntArrayList ends = new IntArrayList();
+        FloatArrayList minVals = new FloatArrayList();
+        FloatArrayList meanVals = new FloatArrayList();
+        FloatArrayList maxVals = new FloatArrayList();
 
-                    while (zlIter.hasNext()) {
-                        ZoomDataRecord rec = zlIter.next();
+        for (String chrName : genome.getLongChromosomeNames()) {
+            Chromosome chr = genome.getChromosome(chrName);
 
-                        if(rec == null) {
-                            continue;
-                        }
+            int lastGenomeEnd = -1;
+            int end = chr.getLength();
 
-                        float value = getValue(rec);
-                        if(Float.isNaN(value) || Float.isInfinite(value)) {
-                            continue;
-                        }
-                        int genomeStart = genome.getGenomeCoordinate(chrName, rec.getChromStart());
-                        if (genomeStart < lastGenomeEnd) {
-                            continue;
-                        }
+            String tmp = chrNameMap.get(chrName);
+            String querySeq = tmp == null ? chrName : tmp;
 
-                        int genomeEnd = genome.getGenomeCoordinate(chrName, rec.getChromEnd());
-                        scores.add(new BasicScore(genomeStart, genomeEnd, value));
-                        lastGenomeEnd = genomeEnd;
-                    }
+            ZoomLevelIterator zlIter = reader.getZoomLevelIterator(
+                    lowestResHeader.getZoomLevel(), querySeq, 0, querySeq, end, false);
+
+            while (zlIter.hasNext()) {
+                ZoomDataRecord rec = zlIter.next();
+
+                if (rec == null) {
+                    continue;
                 }
 
+                float min = finiteOrNaN(rec.getMinVal());
+                float mean = finiteOrNaN(rec.getMeanVal());
+                float max = finiteOrNaN(rec.getMaxVal());
+                if (Float.isNaN(min) && Float.isNaN(mean) && Float.isNaN(max)) {
+                    continue;
+                }
+                int genomeStart = genome.getGenomeCoordinate(chrName, rec.getChromStart());
+                if (genomeStart < lastGenomeEnd) {
+                    continue;
+                }
 
+                int genomeEnd = genome.getGenomeCoordinate(chrName, rec.getChromEnd());
+                starts.add(genomeStart);
+                ends.add(genomeEnd);
+                minVals.add(min);
+                meanVals.add(mean);
+                maxVals.add(max);
+                lastGenomeEnd = genomeEnd;
             }
-            return wholeGenomeScores.get(windowFunction);
-        } else {
-            return null;
         }
 
+        summary = new WholeGenomeSummary(starts.toArray(), ends.toArray(),
+                new float[][]{minVals.toArray(), meanVals.toArray(), maxVals.toArray()});
+        WholeGenomeSummary.put(path, genome, "bigwig", summary);
+        return summary;
+    }
+
+    private static float finiteOrNaN(float v) {
+        return Float.isInfinite(v) ? Float.NaN : v;
     }
 
     @Override
     public void dispose() {
         super.dispose();
+        if (pyramidFuture != null) {
+            pyramidFuture.cancel(true);
+        }
         if (reader != null) {
             reader.close();
         }
@@ -440,23 +559,4 @@ public class BigWigDataSource extends AbstractDataSource implements FeatureSourc
 
     //  End FeatureSource interface ----------------------------------------------------------------------
 
-    static class RawDataInterval {
-        String chr;
-        int start;
-        int end;
-        DataTile tile;
-
-        RawDataInterval(String chr, int start, int end, DataTile tile) {
-            this.chr = chr;
-            this.start = start;
-            this.end = end;
-            this.tile = tile;
-        }
-
-        public boolean contains(String chr, int start, int end) {
-            return chr.equals(this.chr) && start >= this.start && end <= this.end;
-        }
-    }
-
-
 }
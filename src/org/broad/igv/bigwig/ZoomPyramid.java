@@ -0,0 +1,367 @@
+package org.broad.igv.bigwig;
+
+import org.apache.log4j.Logger;
+import org.broad.igv.data.BasicScore;
+import org.broad.igv.data.TileCache;
+import org.broad.igv.feature.LocusScore;
+import org.broad.igv.track.WindowFunction;
+
+import java.io.*;
+import java.util.*;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Reduction levels computed from the raw data of a bigWig file,  to fill gaps between the zoom levels stored in
+ * the file.  Each level holds,  for every bin with data,  the statistics of a bigWig zoom record:  bases covered,
+ * min,  max,  sum and sum of squares.  See {@link ZoomPyramidBuilder}.
+ * <p/>
+ * Once {@link #moveToCache moved} to the {@link TileCache} the levels count against the data source's share of
+ * the cache.  Evicted chromosomes are re-read from the sidecar file when next needed.
+ */
+public class ZoomPyramid {
+
+    private static Logger log = Logger.getLogger(ZoomPyramid.class);
+
+    static final int MAGIC = 0x49505952;   // "IPYR"
+    static final int VERSION = 1;
+
+    // Zoom level under which chromosomes are cached,  below those of the data source's own tiles
+    static final int CACHE_ZOOM = -1;
+
+    private final int[] reductions;
+    private final Set<String> chromosomes;
+    private volatile Map<String, Level[]> levels;
+
+    // Set by moveToCache
+    private int cacheSource;
+    private File file;
+    private String path;
+    private long length;
+    private long lastModified;
+
+    ZoomPyramid(int[] reductions, Map<String, Level[]> levels) {
+        this.reductions = reductions;
+        this.levels = levels;
+        this.chromosomes = new HashSet<>(levels.keySet());
+    }
+
+    /**
+     * Hand the levels to the tile cache under {@code cacheSource},  to be re-read from {@code file} when evicted.
+     * {@code file} must have been written by {@link #write} with the same path,  length and modification time.
+     */
+    void moveToCache(int cacheSource, File file, String path, long length, long lastModified) {
+        this.cacheSource = cacheSource;
+        this.file = file;
+        this.path = path;
+        this.length = length;
+        this.lastModified = lastModified;
+        TileCache cache = TileCache.getInstance();
+        for (Map.Entry<String, Level[]> entry : levels.entrySet()) {
+            cache.put(cache.key(cacheSource, entry.getKey(), CACHE_ZOOM, 0, 0), entry.getValue(),
+                    sizeOf(entry.getValue()));
+        }
+        levels = null;
+    }
+
+    /**
+     * Return the levels for {@code chr},  or null if there are none or they could not be re-read
+     */
+    private Level[] getLevels(String chr) {
+        Map<String, Level[]> levels = this.levels;
+        if (levels != null) {
+            return levels.get(chr);
+        }
+        if (!chromosomes.contains(chr)) {
+            return null;
+        }
+        TileCache cache = TileCache.getInstance();
+        TileCache.Key key = cache.key(cacheSource, chr, CACHE_ZOOM, 0, 0);
+        Level[] chrLevels = (Level[]) cache.get(key);
+        if (chrLevels == null) {
+            try {
+                chrLevels = readChromosome(file, path, length, lastModified, chr);
+            } catch (IOException e) {
+                log.error("Error reading zoom level cache " + file, e);
+            }
+            if (chrLevels != null) {
+                cache.put(key, chrLevels, sizeOf(chrLevels));
+            }
+        }
+        return chrLevels;
+    }
+
+    public int[] getReductions() {
+        return reductions;
+    }
+
+    /**
+     * Return the reduction level best suited to {@code scale} in bp / pixel:  the coarsest level no coarser than
+     * the scale,  or the finest level if it is within a factor of 2.  Returns -1 if there is none.
+     */
+    public int getReductionForScale(double scale) {
+        int best = -1;
+        for (int r : reductions) {
+            if (r <= scale) {
+                best = r;
+            }
+        }
+        if (best < 0 && reductions.length > 0 && reductions[0] / scale < 2) {
+            best = reductions[0];
+        }
+        return best;
+    }
+
+    /**
+     * Return scores for bins overlapping chr:start-end at reduction level {@code reduction},  or null if the
+     * pyramid has no such level or it is no longer available.  An empty list is returned for chromosomes without
+     * data.
+     */
+    public List<LocusScore> getScores(String chr, int start, int end, int reduction, WindowFunction wf) {
+        int idx = indexOf(reduction);
+        if (idx < 0) {
+            return null;
+        }
+        if (!chromosomes.contains(chr)) {
+            return new ArrayList<>();
+        }
+        Level[] chrLevels = getLevels(chr);
+        if (chrLevels == null) {
+            return null;
+        }
+        Level level = chrLevels[idx];
+
+        // Bins are sorted and do not overlap,  so ends are sorted too
+        int lo = 0;
+        int hi = level.size();
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (level.ends[mid] <= start) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+
+        List<LocusScore> scores = new ArrayList<>();
+        for (int i = lo; i < level.size() && level.starts[i] < end; i++) {
+            scores.add(new BasicScore(level.starts[i], level.ends[i], level.getValue(i, wf)));
+        }
+        return scores;
+    }
+
+    Level getLevel(String chr, int reduction) {
+        Level[] chrLevels = getLevels(chr);
+        int idx = indexOf(reduction);
+        return chrLevels == null || idx < 0 ? null : chrLevels[idx];
+    }
+
+    private int indexOf(int reduction) {
+        for (int i = 0; i < reductions.length; i++) {
+            if (reductions[i] == reduction) return i;
+        }
+        return -1;
+    }
+
+    /**
+     * Write the pyramid to {@code file},  tagged with the length and modification time of the bigWig it was
+     * computed from.
+     */
+    void write(File file, String path, long length, long lastModified) throws IOException {
+        File tmp = new File(file.getPath() + ".tmp");
+        try (DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(
+                new GZIPOutputStream(new FileOutputStream(tmp))))) {
+            dos.writeInt(MAGIC);
+            dos.writeInt(VERSION);
+            dos.writeUTF(path);
+            dos.writeLong(length);
+            dos.writeLong(lastModified);
+            dos.writeInt(reductions.length);
+            for (int r : reductions) {
+                dos.writeInt(r);
+            }
+            Map<String, Level[]> levels = this.levels;
+            dos.writeInt(levels.size());
+            for (Map.Entry<String, Level[]> entry : levels.entrySet()) {
+                dos.writeUTF(entry.getKey());
+                for (Level level : entry.getValue()) {
+                    level.write(dos);
+                }
+            }
+        }
+        if (!tmp.renameTo(file)) {
+            tmp.delete();
+            throw new IOException("Could not rename " + tmp + " to " + file);
+        }
+    }
+
+    /**
+     * Read a pyramid written by {@link #write}.  Returns null if the file was computed from a different version
+     * of the bigWig.
+     */
+    static ZoomPyramid read(File file, String path, long length, long lastModified) throws IOException {
+        try (DataInputStream dis = new DataInputStream(new BufferedInputStream(
+                new GZIPInputStream(new FileInputStream(file))))) {
+            int[] reductions = readHeader(dis, path, length, lastModified);
+            if (reductions == null) {
+                return null;
+            }
+            int nChr = dis.readInt();
+            Map<String, Level[]> levels = new HashMap<>();
+            for (int c = 0; c < nChr; c++) {
+                String chr = dis.readUTF();
+                Level[] chrLevels = new Level[reductions.length];
+                for (int i = 0; i < reductions.length; i++) {
+                    chrLevels[i] = Level.read(dis);
+                }
+                levels.put(chr, chrLevels);
+            }
+            return new ZoomPyramid(reductions, levels);
+        }
+    }
+
+    /**
+     * Read the levels of {@code chr} from a file written by {@link #write},  skipping other chromosomes.  Returns
+     * null if the file was computed from a different version of the bigWig or has no such chromosome.
+     */
+    static Level[] readChromosome(File file, String path, long length, long lastModified, String chr)
+            throws IOException {
+        try (DataInputStream dis = new DataInputStream(new BufferedInputStream(
+                new GZIPInputStream(new FileInputStream(file))))) {
+            int[] reductions = readHeader(dis, path, length, lastModified);
+            if (reductions == null) {
+                return null;
+            }
+            int nChr = dis.readInt();
+            for (int c = 0; c < nChr; c++) {
+                boolean match = dis.readUTF().equals(chr);
+                Level[] chrLevels = new Level[reductions.length];
+                for (int i = 0; i < reductions.length; i++) {
+                    if (match) {
+                        chrLevels[i] = Level.read(dis);
+                    } else {
+                        Level.skip(dis);
+                    }
+                }
+                if (match) {
+                    return chrLevels;
+                }
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Read the header of a pyramid file and return its reductions,  or null if it was computed from a different
+     * version of the bigWig.
+     */
+    private static int[] readHeader(DataInputStream dis, String path, long length, long lastModified)
+            throws IOException {
+        if (dis.readInt() != MAGIC || dis.readInt() != VERSION ||
+                !dis.readUTF().equals(path) || dis.readLong() != length || dis.readLong() != lastModified) {
+            return null;
+        }
+        int[] reductions = new int[dis.readInt()];
+        for (int i = 0; i < reductions.length; i++) {
+            reductions[i] = dis.readInt();
+        }
+        return reductions;
+    }
+
+    static long sizeOf(Level[] chrLevels) {
+        long size = 16 + 8L * chrLevels.length;
+        for (Level level : chrLevels) {
+            size += 7 * 16 + 28L * level.size();
+        }
+        return size;
+    }
+
+    /**
+     * The bins of one reduction level for one chromosome,  in columns
+     */
+    static class Level {
+
+        final int[] starts;
+        final int[] ends;
+        final int[] basesCovered;
+        final float[] minVals;
+        final float[] maxVals;
+        final float[] sums;
+        final float[] sumSquares;
+
+        Level(int[] starts, int[] ends, int[] basesCovered, float[] minVals, float[] maxVals, float[] sums,
+              float[] sumSquares) {
+            this.starts = starts;
+            this.ends = ends;
+            this.basesCovered = basesCovered;
+            this.minVals = minVals;
+            this.maxVals = maxVals;
+            this.sums = sums;
+            this.sumSquares = sumSquares;
+        }
+
+        int size() {
+            return starts.length;
+        }
+
+        float getMean(int i) {
+            return basesCovered[i] == 0 ? 0 : sums[i] / basesCovered[i];
+        }
+
+        /**
+         * Value of bin {@code i} for window function {@code wf},  as BigWigDataSource computes it for zoom records
+         */
+        float getValue(int i, WindowFunction wf) {
+            switch (wf) {
+                case min:
+                    return minVals[i];
+                case max:
+                    return maxVals[i];
+                default:
+                    return getMean(i);
+            }
+        }
+
+        void write(DataOutputStream dos) throws IOException {
+            int n = size();
+            dos.writeInt(n);
+            for (int i = 0; i < n; i++) dos.writeInt(starts[i]);
+            for (int i = 0; i < n; i++) dos.writeInt(ends[i]);
+            for (int i = 0; i < n; i++) dos.writeInt(basesCovered[i]);
+            for (int i = 0; i < n; i++) dos.writeFloat(minVals[i]);
+            for (int i = 0; i < n; i++) dos.writeFloat(maxVals[i]);
+            for (int i = 0; i < n; i++) dos.writeFloat(sums[i]);
+            for (int i = 0; i < n; i++) dos.writeFloat(sumSquares[i]);
+        }
+
+        static Level read(DataInputStream dis) throws IOException {
+            int n = dis.readInt();
+            int[] starts = new int[n];
+            int[] ends = new int[n];
+            int[] basesCovered = new int[n];
+            float[] minVals = new float[n];
+            float[] maxVals = new float[n];
+            float[] sums = new float[n];
+            float[] sumSquares = new float[n];
+            for (int i = 0; i < n; i++) starts[i] = dis.readInt();
+            for (int i = 0; i < n; i++) ends[i] = dis.readInt();
+            for (int i = 0; i < n; i++) basesCovered[i] = dis.readInt();
+            for (int i = 0; i < n; i++) minVals[i] = dis.readFloat();
+            for (int i = 0; i < n; i++) maxVals[i] = dis.readFloat();
+            for (int i = 0; i < n; i++) sums[i] = dis.readFloat();
+            for (int i = 0; i < n; i++) sumSquares[i] = dis.readFloat();
+            return new Level(starts, ends, basesCovered, minVals, maxVals, sums, sumSquares);
+        }
+
+        static void skip(DataInputStream dis) throws IOException {
+            long n = 28L * dis.readInt();
+            while (n > 0) {
+                int skipped = dis.skipBytes((int) Math.min(n, Integer.MAX_VALUE));
+                if (skipped <= 0) {
+                    throw new EOFException();
+                }
+                n -= skipped;
+            }
+        }
+    }
+}
@@ -0,0 +1,311 @@
+package org.broad.igv.bigwig;
+
+import org.apache.log4j.Logger;
+import org.broad.igv.DirectoryManager;
+import org.broad.igv.bbfile.BBFileReader;
+import org.broad.igv.bbfile.BBZoomLevelHeader;
+import org.broad.igv.bbfile.BBZoomLevels;
+import org.broad.igv.bbfile.RPTreeLeafNodeItem;
+import org.broad.igv.prefs.PreferencesManager;
+import org.broad.igv.util.collections.FloatArrayList;
+import org.broad.igv.util.collections.IntArrayList;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+
+import static org.broad.igv.prefs.Constants.BIGWIG_PYRAMID;
+
+/**
+ * Computes a {@link ZoomPyramid} for bigWig files whose zoom levels leave gaps,  on a background thread,  in a
+ * single pass over the raw data.  Pyramids are saved in the IGV directory and reused while the bigWig is
+ * unchanged.  In memory they are held by the {@link org.broad.igv.data.TileCache} under the data source's share.
+ * <p/>
+ * Candidate levels are spaced by a factor of 4 from {@link #BASE_REDUCTION} bp;  candidates within a factor of 2
+ * of a zoom level in the file are skipped.  Levels with more than {@link #MAX_LEVEL_BINS} bins are dropped,  to
+ * bound memory.
+ */
+public class ZoomPyramidBuilder {
+
+    private static Logger log = Logger.getLogger(ZoomPyramidBuilder.class);
+
+    static final int BASE_REDUCTION = 256;
+    static final int MAX_REDUCTION = 1 << 24;
+    static final int MAX_LEVEL_BINS = 1000000;
+
+    private static final ExecutorService executor = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "bigwig-pyramid");
+        t.setDaemon(true);
+        t.setPriority(Thread.MIN_PRIORITY);
+        return t;
+    });
+
+    /**
+     * Load or compute the pyramid for a local bigWig in the background,  and pass it to {@code callback}.
+     * Returns null,  and does nothing,  if the file needs no pyramid or pyramids are disabled.
+     * <p/>
+     * {@code reader} is only consulted for its headers.  The data is read through a reader of its own,  as
+     * BBFileReader streams are not safe for concurrent use.
+     *
+     * @param cacheSource the data source's id in the tile cache
+     */
+    public static Future<?> submit(BBFileReader reader, int cacheSource, Consumer<ZoomPyramid> callback) {
+
+        if (!PreferencesManager.getPreferences().getAsBoolean(BIGWIG_PYRAMID) || !reader.isBigWigFile()) {
+            return null;
+        }
+        String path = reader.getBBFileHeader().getPath();
+        File file = new File(path);
+        if (!file.isFile()) {
+            return null;   // A full pass over a remote file would download all of it
+        }
+        int[] reductions = getMissingReductions(reader.getZoomLevels());
+        if (reductions.length == 0) {
+            return null;
+        }
+
+        return executor.submit(() -> {
+            BBFileReader buildReader = null;
+            try {
+                buildReader = new BBFileReader(path);
+                ZoomPyramid pyramid = load(buildReader, file, reductions, cacheSource);
+                if (pyramid != null && !Thread.currentThread().isInterrupted()) {
+                    callback.accept(pyramid);
+                }
+            } catch (Exception e) {
+                log.error("Error computing zoom levels for " + path, e);
+            } finally {
+                if (buildReader != null) {
+                    buildReader.close();
+                }
+            }
+        });
+    }
+
+    /**
+     * Read the pyramid from its sidecar file,  or compute and write it,  and move it to the tile cache.  A pyramid
+     * which cannot be written is not used,  as evicted levels could not be re-read.
+     */
+    private static ZoomPyramid load(BBFileReader reader, File file, int[] reductions, int cacheSource)
+            throws IOException {
+
+        String path = file.getCanonicalPath();
+        long length = file.length();
+        long lastModified = file.lastModified();
+        File sidecar = getSidecarFile(file);
+
+        if (sidecar.exists()) {
+            try {
+                ZoomPyramid pyramid = ZoomPyramid.read(sidecar, path, length, lastModified);
+                if (pyramid != null) {
+                    pyramid.moveToCache(cacheSource, sidecar, path, length, lastModified);
+                    return pyramid;
+                }
+            } catch (IOException e) {
+                log.info("Ignoring unreadable zoom level cache " + sidecar + ": " + e.getMessage());
+            }
+        }
+
+        long t0 = System.currentTimeMillis();
+        ZoomPyramid pyramid = build(reader, reductions);
+        if (pyramid == null) {
+            return null;  // Interrupted
+        }
+        log.info("Computed zoom levels " + Arrays.toString(pyramid.getReductions()) + " for " + path + " in " +
+                (System.currentTimeMillis() - t0) + " ms");
+        try {
+            pyramid.write(sidecar, path, length, lastModified);
+        } catch (IOException e) {
+            log.error("Error writing zoom level cache " + sidecar, e);
+            return null;
+        }
+        pyramid.moveToCache(cacheSource, sidecar, path, length, lastModified);
+        return pyramid;
+    }
+
+    static File getSidecarFile(File file) throws IOException {
+        String path = file.getCanonicalPath();
+        String name = file.getName() + "_" + Integer.toHexString(path.hashCode()) + ".pyramid";
+        return new File(DirectoryManager.getBigWigCacheDirectory(), name);
+    }
+
+    /**
+     * Return the candidate reduction levels not within a factor of 2 of a zoom level in the file
+     */
+    static int[] getMissingReductions(BBZoomLevels zoomLevels) {
+        IntArrayList missing = new IntArrayList();
+        for (int r = BASE_REDUCTION; r <= MAX_REDUCTION; r *= 4) {
+            boolean covered = false;
+            if (zoomLevels != null) {
+                for (BBZoomLevelHeader header : zoomLevels.getZoomLevelHeaders()) {
+                    int zr = header.getReductionLevel();
+                    if (zr > r / 2 && zr < r * 2) {
+                        covered = true;
+                        break;
+                    }
+                }
+            }
+            if (!covered) {
+                missing.add(r);
+            }
+        }
+        return missing.toArray();
+    }
+
+    /**
+     * Compute levels at {@code reductions} from the raw data of {@code reader}.  Returns null if the thread is
+     * interrupted.
+     */
+    static ZoomPyramid build(BBFileReader reader, int[] reductions) {
+
+        LevelBuilder[] builders = new LevelBuilder[reductions.length];
+        for (int i = 0; i < reductions.length; i++) {
+            builders[i] = new LevelBuilder(reductions[i]);
+        }
+
+        Map<String, ZoomPyramid.Level[]> levels = new LinkedHashMap<>();
+        IntArrayList starts = new IntArrayList(1024);
+        IntArrayList ends = new IntArrayList(1024);
+        FloatArrayList values = new FloatArrayList(1024);
+
+        for (String chr : reader.getChromosomeNames()) {
+            int chromID = reader.getChromosomeID(chr);
+            if (chromID < 0) continue;
+
+            for (RPTreeLeafNodeItem leafItem : reader.getBigWigLeafItems(chr, 0, Integer.MAX_VALUE)) {
+                if (Thread.currentThread().isInterrupted()) {
+                    return null;
+                }
+                starts.clear();
+                ends.clear();
+                values.clear();
+                reader.getBigWigDataBlock(leafItem).getWigData(chromID, starts, ends, values);
+                for (int i = 0; i < starts.size(); i++) {
+                    float v = values.get(i);
+                    if (Float.isNaN(v)) continue;
+                    for (LevelBuilder b : builders) {
+                        b.add(starts.get(i), ends.get(i), v);
+                    }
+                }
+            }
+
+            ZoomPyramid.Level[] chrLevels = new ZoomPyramid.Level[reductions.length];
+            for (int i = 0; i < reductions.length; i++) {
+                chrLevels[i] = builders[i].finish();
+            }
+            levels.put(chr, chrLevels);
+        }
+
+        // Drop levels over the size limit
+        IntArrayList kept = new IntArrayList();
+        for (int i = 0; i < reductions.length; i++) {
+            if (!builders[i].dropped) kept.add(i);
+        }
+        int[] keptReductions = new int[kept.size()];
+        for (int k = 0; k < kept.size(); k++) {
+            keptReductions[k] = reductions[kept.get(k)];
+        }
+        for (Map.Entry<String, ZoomPyramid.Level[]> entry : levels.entrySet()) {
+            ZoomPyramid.Level[] chrLevels = new ZoomPyramid.Level[kept.size()];
+            for (int k = 0; k < kept.size(); k++) {
+                chrLevels[k] = entry.getValue()[kept.get(k)];
+            }
+            entry.setValue(chrLevels);
+        }
+        return new ZoomPyramid(keptReductions, levels);
+    }
+
+    /**
+     * Accumulates the bins of one level.  Items must be added in order of start position.  An item spanning
+     * several bins contributes to each the bases it covers there,  as in bigWig zoom records.
+     */
+    private static class LevelBuilder {
+
+        final int reduction;
+        boolean dropped = false;
+        int totalBins = 0;
+
+        IntArrayList starts = new IntArrayList();
+        IntArrayList ends = new IntArrayList();
+        IntArrayList basesCovered = new IntArrayList();
+        FloatArrayList minVals = new FloatArrayList();
+        FloatArrayList maxVals = new FloatArrayList();
+        FloatArrayList sums = new FloatArrayList();
+        FloatArrayList sumSquares = new FloatArrayList();
+
+        int bin = -1;
+        int binStart;
+        int binEnd;
+        int binBases;
+        float binMin;
+        float binMax;
+        double binSum;
+        double binSumSquares;
+
+        LevelBuilder(int reduction) {
+            this.reduction = reduction;
+        }
+
+        void add(int start, int end, float v) {
+            if (dropped) return;
+            for (int b = start / reduction; b <= (end - 1) / reduction; b++) {
+                int s = Math.max(start, b * reduction);
+                int e = Math.min(end, (b + 1) * reduction);
+                if (b > bin) {
+                    flush();
+                    bin = b;
+                    binStart = s;
+                    binEnd = e;
+                    binBases = 0;
+                    binMin = v;
+                    binMax = v;
+                    binSum = 0;
+                    binSumSquares = 0;
+                }
+                int n = e - s;
+                binEnd = Math.max(binEnd, e);
+                binBases += n;
+                binMin = Math.min(binMin, v);
+                binMax = Math.max(binMax, v);
+                binSum += (double) v * n;
+                binSumSquares += (double) v * v * n;
+            }
+        }
+
+        private void flush() {
+            if (bin < 0) return;
+            starts.add(binStart);
+            ends.add(binEnd);
+            basesCovered.add(binBases);
+            minVals.add(binMin);
+            maxVals.add(binMax);
+            sums.add((float) binSum);
+            sumSquares.add((float) binSumSquares);
+            bin = -1;
+            if (++totalBins > MAX_LEVEL_BINS) {
+                dropped = true;
+            }
+        }
+
+        /**
+         * Return the bins of the current chromosome,  or null if the level has been dropped
+         */
+        ZoomPyramid.Level finish() {
+            flush();
+            ZoomPyramid.Level level = dropped ? null : new ZoomPyramid.Level(starts.toArray(), ends.toArray(),
+                    basesCovered.toArray(), minVals.toArray(), maxVals.toArray(), sums.toArray(), sumSquares.toArray());
+            starts = new IntArrayList();
+            ends = new IntArrayList();
+            basesCovered = new IntArrayList();
+            minVals = new FloatArrayList();
+            maxVals = new FloatArrayList();
+            sums = new FloatArrayList();
+            sumSquares = new FloatArrayList();
+            return level;
+        }
+    }
+}
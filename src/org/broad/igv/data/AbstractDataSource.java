@@ -32,12 +32,17 @@ import org.broad.igv.Globals;
 import org.broad.igv.feature.Chromosome;
 import org.broad.igv.feature.LocusScore;
 import org.broad.igv.feature.genome.Genome;
-import org.broad.igv.tdf.Accumulator;
+import org.broad.igv.prefs.PreferencesManager;
 import org.broad.igv.track.WindowFunction;
 import org.broad.igv.ui.panel.FrameManager;
-import org.broad.igv.util.collections.LRUCache;
 
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.broad.igv.prefs.Constants.PARALLEL_SUMMARY_TILES;
 
 /**
  * @author jrobinso
@@ -60,7 +65,11 @@ public abstract class AbstractDataSource implements DataSource {
     // DataManager dataManager;
     boolean cacheSummaryTiles = true;
     protected WindowFunction windowFunction = WindowFunction.mean;
-    LRUCache<String, SummaryTile> summaryTileCache = new LRUCache(10);
+    protected final int cacheSource = TileCache.getInstance().newSource();
+
+    // Summary tiles being computed,  shared so concurrent requests for the same tile compute it once
+    private static final ConcurrentHashMap<TileCache.Key, CompletableFuture<SummaryTile>> tilesInFlight =
+            new ConcurrentHashMap<>();
     protected Genome genome;
 
     public AbstractDataSource(Genome genome) {
@@ -139,6 +148,8 @@ public abstract class AbstractDataSource implements DataSource {
 
         List<LocusScore> scores = null;
 
+        // Read the window function once,  it may be changed while tiles are computed
+        WindowFunction windowFunction = this.windowFunction;
         if (windowFunction != WindowFunction.none) {
             scores = getPrecomputedSummaryScores(chr, startLocation, endLocation, zoom);
             if (scores != null) {
@@ -146,7 +157,21 @@ public abstract class AbstractDataSource implements DataSource {
             }
         }
 
-        List<SummaryTile> tiles = getSummaryTilesForRange(chr, startLocation, endLocation, zoom);
+        List<SummaryTile> tiles = getSummaryTilesForRange(chr, startLocation, endLocation, zoom, windowFunction);
+
+        // Packed tiles are joined without creating score objects
+        List<PackedScores> packed = new ArrayList<>(tiles.size());
+        for (SummaryTile tile : tiles) {
+            if (tile.getScores() instanceof PackedScores) {
+                packed.add((PackedScores) tile.getScores());
+            } else {
+                packed = null;
+                break;
+            }
+        }
+        if (packed != null) {
+            return PackedScores.concat(packed);
+        }
 
         scores = new ArrayList(tiles.size() * 700);
 
@@ -159,7 +184,8 @@ public abstract class AbstractDataSource implements DataSource {
 
     }
 
-    private List<SummaryTile> getSummaryTilesForRange(String chr, int startLocation, int endLocation, int zReq) {
+    private List<SummaryTile> getSummaryTilesForRange(String chr, int startLocation, int endLocation, int zReq,
+                                                      WindowFunction windowFunction) {
 
         int chrLength = getChrLength(chr);
         if (chrLength == 0) {
@@ -183,34 +209,78 @@ public abstract class AbstractDataSource implements DataSource {
             double tileWidth = ((double) chrLength) / virtualTileCount;
             int startTile = (int) (adjustedStart / tileWidth);
             int endTile = (int) (Math.min(chrLength, adjustedEnd) / tileWidth) + 1;
-            List<SummaryTile> tiles = null;
-
-            tiles = new ArrayList(endTile - startTile + 1);
+            TileCache cache = TileCache.getInstance();
+            int chrId = cache.getNameId(chr);
+            int variant = windowFunction.ordinal();
+
+            // Tiles found in the cache,  or futures for tiles being computed by this or another thread
+            int nTiles = endTile - startTile + 1;
+            SummaryTile[] cached = new SummaryTile[nTiles];
+            List<CompletableFuture<SummaryTile>> pending = new ArrayList<>();
+            List<Runnable> computations = new ArrayList<>();
             for (int t = startTile; t <= endTile; t++) {
-                int tileStart = (int) (t * tileWidth);
-                int tileEnd = Math.min(chrLength, (int) ((t + 1) * tileWidth));
-
-                String key = chr + "_" + z + "_" + t + getWindowFunction();
-                SummaryTile summaryTile = summaryTileCache.get(key);
-                if (summaryTile == null) {
-
-                    summaryTile = computeSummaryTile(chr, tileStart, tileEnd, 700);
+                TileCache.Key key = cache.key(cacheSource, chrId, z, t, variant);
+                SummaryTile summaryTile = (SummaryTile) cache.get(key);
+                if (summaryTile != null) {
+                    cached[t - startTile] = summaryTile;
+                    pending.add(null);
+                    continue;
+                }
 
-                    if (cacheSummaryTiles && !FrameManager.isGeneListMode()) {
-                        synchronized (summaryTileCache) {
-                            summaryTileCache.put(key, summaryTile);
+                CompletableFuture<SummaryTile> future = new CompletableFuture<>();
+                CompletableFuture<SummaryTile> inFlight = tilesInFlight.putIfAbsent(key, future);
+                if (inFlight != null) {
+                    pending.add(inFlight);
+                } else if ((summaryTile = (SummaryTile) cache.get(key)) != null) {
+                    // Completed by another thread since the first lookup
+                    tilesInFlight.remove(key, future);
+                    future.complete(summaryTile);
+                    cached[t - startTile] = summaryTile;
+                    pending.add(null);
+                } else {
+                    int tileStart = (int) (t * tileWidth);
+                    int tileEnd = Math.min(chrLength, (int) ((t + 1) * tileWidth));
+                    pending.add(future);
+                    computations.add(() -> {
+                        try {
+                            SummaryTile tile = computeSummaryTile(chr, tileStart, tileEnd, 700, windowFunction);
+                            if (tile != null) {
+                                cache.put(key, tile, TileCache.sizeOf(tile));
+                            }
+                            future.complete(tile);
+                        } catch (Throwable e) {
+                            future.completeExceptionally(e);
+                        } finally {
+                            tilesInFlight.remove(key, future);
                         }
-                    }
+                    });
                 }
+            }
 
+            // Compute missing tiles,  all but the last on the fork-join pool if enabled,  the last on this thread
+            int nComputations = computations.size();
+            boolean parallel = nComputations > 1 && isParallelSummaryEnabled();
+            for (int i = 0; i < nComputations; i++) {
+                if (parallel && i < nComputations - 1) {
+                    ForkJoinPool.commonPool().execute(computations.get(i));
+                } else {
+                    computations.get(i).run();
+                }
+            }
 
+            List<SummaryTile> tiles = new ArrayList(nTiles);
+            for (int i = 0; i < nTiles; i++) {
+                SummaryTile summaryTile = cached[i];
+                if (summaryTile == null) {
+                    summaryTile = join(pending.get(i));
+                }
                 if (summaryTile != null) {
                     tiles.add(summaryTile);
                 }
             }
             return tiles;
         } else {
-            SummaryTile summaryTile = computeSummaryTile(chr, startLocation, endLocation, 700);
+            SummaryTile summaryTile = computeSummaryTile(chr, startLocation, endLocation, 700, windowFunction);
             return Arrays.asList(summaryTile);
         }
 
@@ -218,6 +288,38 @@ public abstract class AbstractDataSource implements DataSource {
     }
 
 
+    private static SummaryTile join(CompletableFuture<SummaryTile> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Return true if missing summary tiles should be computed concurrently.  Requires a source whose
+     * {@link #getRawData(String, int, int)} is safe to call from several threads.
+     */
+    protected boolean isParallelSummaryEnabled() {
+        return supportsConcurrentRawData() &&
+                ForkJoinPool.getCommonPoolParallelism() > 1 &&
+                PreferencesManager.getPreferences().getAsBoolean(PARALLEL_SUMMARY_TILES);
+    }
+
+    /**
+     * Return true if {@link #getRawData(String, int, int)} may be called from several threads at once.  Default
+     * is false,  subclasses which are thread safe can override.
+     */
+    protected boolean supportsConcurrentRawData() {
+        return false;
+    }
+
     /**
      * Note:  Package scope used so this method can be unit tested
      *
@@ -229,116 +331,24 @@ public abstract class AbstractDataSource implements DataSource {
      */
 
     SummaryTile computeSummaryTile(String chr, int startLocation, int endLocation, int nBins) {
-
-        DataTile rawTile = getRawData(chr, startLocation, endLocation);
-        SummaryTile tile = new SummaryTile();
-
-        if (rawTile != null && !rawTile.isEmpty() && nBins > 0) {
-            int[] starts = rawTile.getStartLocations();
-            int[] ends = rawTile.getEndLocations();
-            float[] values = rawTile.getValues();
-            String[] features = rawTile.getFeatureNames();
-
-            if (windowFunction == WindowFunction.none) {
-
-                for (int i = 0; i < starts.length; i++) {
-                    int s = starts[i];
-                    int e = ends == null ? s + 1 : Math.max(s + 1, ends[i]);
-
-                    if (e < startLocation) {
-                        continue;
-                    } else if (s >= endLocation) {
-                        break;
-                    }
-
-                    String probeName = features == null ? null : features[i];
-                    float v = values[i];
-
-                    BasicScore score = new NamedScore(s, e, v, probeName);
-                    tile.addScore(score);
-
-                }
-
-
-            } else {
-                float normalizationFactor = 1.0f;
-                List<LocusScore> scores = new ArrayList(nBins);
-                double scale = (double) (endLocation - startLocation) / nBins;
-
-                Accumulator accumulator = new Accumulator(windowFunction, 5);
-                int accumulatedStart = -1;
-                int accumulatedEnd = -1;
-                int lastEndBin = 0;
-
-                int size = starts.length;
-
-                // Loop through and bin scores for this interval.
-                for (int i = 0; i < size; i++) {
-
-                    int true_end = ends == null ? starts[i] + 1 : ends[i];
-
-                    float v = values[i] * normalizationFactor;
-                    if (starts[i] >= endLocation) {
-                        break;  // We're beyond the end of the requested interval
-                    } else if (true_end <= startLocation || Float.isNaN(v)) {
-                        //Not yet to interval, or not a number
-                        continue;
-                    }
-
-                    // Bound feature at interval, other "piece" will be in another tile.
-                    int s = Math.max(startLocation, starts[i]);
-                    int e = Math.min(endLocation, true_end);
-
-                    String probeName = features == null ? null : features[i];
-
-                    // Compute bin numbers, relative to start of this tile
-                    int endBin = (int) ((e - startLocation) / scale);
-                    int startBin = (int) ((s - startLocation) / scale);
-
-                    // If this feature spans multiple bins, or extends beyond last end bin, record
-                    if (endBin > lastEndBin || endBin > startBin) {
-                        if (accumulator.hasData()) {
-                            scores.add(getCompositeScore(accumulator, accumulatedStart, accumulatedEnd));
-                            accumulator = new Accumulator(windowFunction, 5);
-                        }
-                    }
-
-                    if (endBin > startBin) {
-                        scores.add(new NamedScore(s, e, v, probeName));
-                    } else {
-                        if (!accumulator.hasData()) accumulatedStart = s;
-                        accumulatedEnd = e;
-                        accumulator.add(e - s, v, probeName);
-                    }
-
-                    lastEndBin = endBin;
-                }
-
-                // Cleanup
-                if (accumulator.hasData()) {
-                    scores.add(getCompositeScore(accumulator, accumulatedStart, accumulatedEnd));
-                }
-
-                tile.addAllScores(scores);
-            }
-
-        }
-
-
-        return tile;
+        return computeSummaryTile(chr, startLocation, endLocation, nBins, windowFunction);
     }
 
-    private LocusScore getCompositeScore(Accumulator accumulator, int accumulatedStart, int accumulatedEnd) {
-        LocusScore ls;
-        if (accumulator.getNpts() == 1) {
-            ls = new NamedScore(accumulatedStart, accumulatedEnd, accumulator.getRepData()[0], accumulator.getRepProbes()[0]);
-        } else {
-            float value = accumulator.getValue();
-            ls = new CompositeScore(accumulatedStart, accumulatedEnd, value, accumulator.getRepData(),
-                    accumulator.getRepProbes(), windowFunction);
+    /**
+     * Compute a summary tile with {@code windowFunction},  the function the tile is cached under
+     */
+    private SummaryTile computeSummaryTile(String chr, int startLocation, int endLocation, int nBins,
+                                           WindowFunction windowFunction) {
+
+        DataTile rawTile = getRawData(chr, startLocation, endLocation);
+        if (rawTile == null || rawTile.isEmpty() || nBins <= 0) {
+            return new SummaryTile(PackedScores.EMPTY);
         }
-        return ls;
 
+        PackedScores scores = ScoreReducer.getInstance().reduce(rawTile.getStartLocations(),
+                rawTile.getEndLocations(), rawTile.getValues(), rawTile.getFeatureNames(),
+                startLocation, endLocation, nBins, windowFunction);
+        return new SummaryTile(scores);
     }
 
 
@@ -354,7 +364,6 @@ public abstract class AbstractDataSource implements DataSource {
 
     public void setWindowFunction(WindowFunction statType) {
         this.windowFunction = statType;
-        this.summaryTileCache.clear();
     }
 
 
@@ -373,7 +382,7 @@ public abstract class AbstractDataSource implements DataSource {
 
     @Override
     public void dispose() {
-        // default is to do nothing
+        TileCache.getInstance().removeSource(cacheSource);
     }
 
 }
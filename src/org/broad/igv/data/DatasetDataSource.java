@@ -83,6 +83,13 @@ public class DatasetDataSource extends AbstractDataSource {
         }
     }
 
+    /**
+     * The dataset is fully loaded and read only,  so raw data can be fetched from several threads.
+     */
+    @Override
+    protected boolean supportsConcurrentRawData() {
+        return true;
+    }
 
     @Override
     protected DataTile getRawData(String chr, int startLocation, int endLocation) {
@@ -0,0 +1,153 @@
+package org.broad.igv.data;
+
+import org.broad.igv.feature.LocusScore;
+import org.broad.igv.track.WindowFunction;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * Summary scores held in parallel primitive arrays,  one entry per bin.  Renderers read the arrays with
+ * {@link #getStart(int)},  {@link #getEnd(int)} and {@link #getScore(int)};  {@link #get(int)} creates a score object
+ * on demand,  for popup text and code written against {@link LocusScore}.
+ * <p/>
+ * Bins summarizing more than one value keep the first {@link #N_REP_VALUES} of them,  with their names,  for the
+ * popup text.  The list is read only;  sub lists share the arrays.
+ */
+public class PackedScores extends AbstractList<LocusScore> implements RandomAccess {
+
+    public static final int N_REP_VALUES = 5;
+
+    public static final PackedScores EMPTY = new PackedScores(new int[0], new int[0], new float[0], new int[0],
+            new float[0], null, null);
+
+    private final int offset;
+    private final int size;
+    private final int[] starts;
+    private final int[] ends;
+    private final float[] values;
+    private final int[] nPts;
+    private final float[] repData;
+    private final String[] repProbes;
+    private final WindowFunction windowFunction;
+
+    /**
+     * @param nPts      number of values summarized by each bin
+     * @param repData   representative values,  {@link #N_REP_VALUES} per bin
+     * @param repProbes names of the representative values,  or null if the data has no names
+     */
+    public PackedScores(int[] starts, int[] ends, float[] values, int[] nPts, float[] repData, String[] repProbes,
+                        WindowFunction windowFunction) {
+        this(0, starts.length, starts, ends, values, nPts, repData, repProbes, windowFunction);
+    }
+
+    private PackedScores(int offset, int size, int[] starts, int[] ends, float[] values, int[] nPts,
+                         float[] repData, String[] repProbes, WindowFunction windowFunction) {
+        this.offset = offset;
+        this.size = size;
+        this.starts = starts;
+        this.ends = ends;
+        this.values = values;
+        this.nPts = nPts;
+        this.repData = repData;
+        this.repProbes = repProbes;
+        this.windowFunction = windowFunction;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    public int getStart(int index) {
+        return starts[offset + index];
+    }
+
+    public int getEnd(int index) {
+        return ends[offset + index];
+    }
+
+    public float getScore(int index) {
+        return values[offset + index];
+    }
+
+    @Override
+    public LocusScore get(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+        }
+        int i = offset + index;
+        int r = i * N_REP_VALUES;
+        if (nPts[i] <= 1) {
+            return new NamedScore(starts[i], ends[i], values[i], repProbes == null ? null : repProbes[r]);
+        } else {
+            float[] data = Arrays.copyOfRange(repData, r, r + N_REP_VALUES);
+            String[] probes = repProbes == null ? new String[N_REP_VALUES] :
+                    Arrays.copyOfRange(repProbes, r, r + N_REP_VALUES);
+            return new CompositeScore(starts[i], ends[i], values[i], data, probes, windowFunction);
+        }
+    }
+
+    @Override
+    public List<LocusScore> subList(int fromIndex, int toIndex) {
+        if (fromIndex < 0 || toIndex > size || fromIndex > toIndex) {
+            throw new IndexOutOfBoundsException("From: " + fromIndex + ", to: " + toIndex + ", size: " + size);
+        }
+        return new PackedScores(offset + fromIndex, toIndex - fromIndex, starts, ends, values, nPts, repData,
+                repProbes, windowFunction);
+    }
+
+    long getSizeInBytes() {
+        long size = 64 + TileCache.sizeOf(starts) + TileCache.sizeOf(ends) + TileCache.sizeOf(values) +
+                TileCache.sizeOf(nPts) + TileCache.sizeOf(repData);
+        if (repProbes != null) {
+            size += 16 + 8L * repProbes.length;
+        }
+        return size;
+    }
+
+    /**
+     * Return the scores of {@code parts},  in order,  as one list
+     */
+    public static PackedScores concat(List<PackedScores> parts) {
+
+        int total = 0;
+        boolean named = false;
+        PackedScores last = EMPTY;
+        int nNonEmpty = 0;
+        for (PackedScores p : parts) {
+            if (p.size > 0) {
+                total += p.size;
+                named |= p.repProbes != null;
+                last = p;
+                nNonEmpty++;
+            }
+        }
+        if (nNonEmpty <= 1) {
+            return last;
+        }
+
+        int[] starts = new int[total];
+        int[] ends = new int[total];
+        float[] values = new float[total];
+        int[] nPts = new int[total];
+        float[] repData = new float[total * N_REP_VALUES];
+        String[] repProbes = named ? new String[total * N_REP_VALUES] : null;
+        int idx = 0;
+        for (PackedScores p : parts) {
+            System.arraycopy(p.starts, p.offset, starts, idx, p.size);
+            System.arraycopy(p.ends, p.offset, ends, idx, p.size);
+            System.arraycopy(p.values, p.offset, values, idx, p.size);
+            System.arraycopy(p.nPts, p.offset, nPts, idx, p.size);
+            System.arraycopy(p.repData, p.offset * N_REP_VALUES, repData, idx * N_REP_VALUES, p.size * N_REP_VALUES);
+            if (p.repProbes != null) {
+                System.arraycopy(p.repProbes, p.offset * N_REP_VALUES, repProbes, idx * N_REP_VALUES,
+                        p.size * N_REP_VALUES);
+            }
+            idx += p.size;
+        }
+        return new PackedScores(starts, ends, values, nPts, repData, repProbes, last.windowFunction);
+    }
+}
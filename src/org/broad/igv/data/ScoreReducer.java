@@ -0,0 +1,275 @@
+package org.broad.igv.data;
+
+import org.broad.igv.track.WindowFunction;
+
+import java.util.Arrays;
+
+/**
+ * Summarizes raw data into bins with a window function,  producing {@link PackedScores}.  The reduction works on
+ * primitive arrays and allocates nothing per value or bin;  output and scratch buffers are kept by the reducer and
+ * grow as needed.  Use {@link #getInstance()},  one reducer per thread.
+ * <p/>
+ * Results are those of summing with {@link org.broad.igv.tdf.Accumulator}:  a feature spanning several bins is kept
+ * as is,  NaN values are skipped,  and percentiles are computed as by commons-math,  over all values of a bin.
+ */
+public class ScoreReducer {
+
+    private static final int N_REP = PackedScores.N_REP_VALUES;
+
+    // Window functions,  as computed by the reduction
+    private static final int MEAN = 0;
+    private static final int MIN = 1;
+    private static final int MAX = 2;
+    private static final int PERCENTILE = 3;
+    private static final int OTHER = 4;
+
+    private static final ThreadLocal<ScoreReducer> instances = ThreadLocal.withInitial(ScoreReducer::new);
+
+    // Output
+    private int size;
+    private int[] starts = new int[1024];
+    private int[] ends = new int[1024];
+    private float[] values = new float[1024];
+    private int[] nPts = new int[1024];
+    private float[] repData = new float[1024 * N_REP];
+    private String[] repProbes = new String[1024 * N_REP];
+    private boolean named;
+
+    // Values of the bin being accumulated,  for percentiles
+    private double[] accValues = new double[256];
+
+    public static ScoreReducer getInstance() {
+        return instances.get();
+    }
+
+    /**
+     * Summarize the data between {@code startLocation} and {@code endLocation} into {@code nBins} bins.
+     *
+     * @param ends  end locations,  or null if every feature is 1 bp
+     * @param names feature names,  or null
+     */
+    public PackedScores reduce(int[] starts, int[] ends, float[] values, String[] names,
+                               int startLocation, int endLocation, int nBins, WindowFunction windowFunction) {
+
+        size = 0;
+        named = names != null;
+
+        if (windowFunction == WindowFunction.none) {
+            for (int i = 0; i < starts.length; i++) {
+                int s = starts[i];
+                int e = ends == null ? s + 1 : Math.max(s + 1, ends[i]);
+                if (e < startLocation) {
+                    continue;
+                } else if (s >= endLocation) {
+                    break;
+                }
+                addSingle(s, e, values[i], names == null ? null : names[i]);
+            }
+        } else {
+            double scale = (double) (endLocation - startLocation) / nBins;
+            int mode = getMode(windowFunction);
+            double p = getPercentile(windowFunction);
+            int lastEndBin = 0;
+
+            // The bin being accumulated
+            int accStart = 0;
+            int accEnd = 0;
+            int accPts = 0;
+            int accBases = 0;
+            float accSum = 0;
+            float accValue = 0;
+
+            for (int i = 0; i < starts.length; i++) {
+
+                int trueEnd = ends == null ? starts[i] + 1 : ends[i];
+                float v = values[i];
+                if (starts[i] >= endLocation) {
+                    break;
+                } else if (trueEnd <= startLocation || Float.isNaN(v)) {
+                    continue;
+                }
+
+                // Bound feature at interval,  other "piece" will be in another tile
+                int s = Math.max(startLocation, starts[i]);
+                int e = Math.min(endLocation, trueEnd);
+                String name = names == null ? null : names[i];
+
+                int endBin = (int) ((e - startLocation) / scale);
+                int startBin = (int) ((s - startLocation) / scale);
+
+                // A feature spanning bins,  or extending beyond the last end bin,  closes the current bin
+                if ((endBin > lastEndBin || endBin > startBin) && accPts > 0) {
+                    addBin(accStart, accEnd, binValue(mode, p, accPts, accBases, accSum, accValue), accPts);
+                    accPts = 0;
+                }
+
+                if (endBin > startBin) {
+                    addSingle(s, e, v, name);
+                } else {
+                    if (accPts == 0) {
+                        accStart = s;
+                        accBases = 0;
+                        accSum = 0;
+                        accValue = v;
+                    }
+                    accEnd = e;
+
+                    // Older TDF files have features with start == end,  count them as 1 bp
+                    int nBases = Math.max(1, e - s);
+
+                    if (accPts < N_REP) {
+                        repData[size * N_REP + accPts] = v;
+                        repProbes[size * N_REP + accPts] = name;
+                    }
+                    switch (mode) {
+                        case MEAN:
+                            accSum += nBases * v;
+                            break;
+                        case MIN:
+                            accValue = Math.min(accValue, v);
+                            break;
+                        case MAX:
+                            accValue = Math.max(accValue, v);
+                            break;
+                        case PERCENTILE:
+                            if (accPts == accValues.length) {
+                                accValues = Arrays.copyOf(accValues, 2 * accPts);
+                            }
+                            accValues[accPts] = v;
+                    }
+                    accPts++;
+                    accBases += nBases;
+                }
+                lastEndBin = endBin;
+            }
+            if (accPts > 0) {
+                addBin(accStart, accEnd, binValue(mode, p, accPts, accBases, accSum, accValue), accPts);
+            }
+        }
+
+        if (size == 0) {
+            return PackedScores.EMPTY;
+        }
+        return new PackedScores(Arrays.copyOf(this.starts, size), Arrays.copyOf(this.ends, size),
+                Arrays.copyOf(this.values, size), Arrays.copyOf(this.nPts, size),
+                Arrays.copyOf(this.repData, size * N_REP),
+                named ? Arrays.copyOf(this.repProbes, size * N_REP) : null, windowFunction);
+    }
+
+    private float binValue(int mode, double p, int nPts, int basesCovered, float sum, float value) {
+        if (nPts == 1) {
+            return repData[size * N_REP];
+        }
+        switch (mode) {
+            case MEAN:
+                return Float.isNaN(sum) ? Float.NaN : sum / basesCovered;
+            case MIN:
+            case MAX:
+                return value;
+            case PERCENTILE:
+                return (float) percentile(accValues, nPts, p);
+            default:
+                return Float.NaN;
+        }
+    }
+
+    /**
+     * Add the bin being accumulated.  Its representative values are already in place.
+     */
+    private void addBin(int start, int end, float value, int nPts) {
+        for (int r = nPts; r < N_REP; r++) {
+            repData[size * N_REP + r] = 0;
+            repProbes[size * N_REP + r] = null;
+        }
+        starts[size] = start;
+        ends[size] = end;
+        values[size] = value;
+        this.nPts[size] = nPts;
+        size++;
+        ensureCapacity();
+    }
+
+    private void addSingle(int s, int e, float v, String name) {
+        int r = size * N_REP;
+        repData[r] = v;
+        repProbes[r] = name;
+        for (int k = 1; k < N_REP; k++) {
+            repData[r + k] = 0;
+            repProbes[r + k] = null;
+        }
+        starts[size] = s;
+        ends[size] = e;
+        values[size] = v;
+        nPts[size] = 1;
+        size++;
+        ensureCapacity();
+    }
+
+    /**
+     * Make room for the next bin
+     */
+    private void ensureCapacity() {
+        if (size == starts.length) {
+            int capacity = 2 * size;
+            starts = Arrays.copyOf(starts, capacity);
+            ends = Arrays.copyOf(ends, capacity);
+            values = Arrays.copyOf(values, capacity);
+            nPts = Arrays.copyOf(nPts, capacity);
+            repData = Arrays.copyOf(repData, capacity * N_REP);
+            repProbes = Arrays.copyOf(repProbes, capacity * N_REP);
+        }
+    }
+
+    /**
+     * The {@code p}th percentile of the first {@code n} values,  which are sorted in place.  Estimated as by
+     * commons-math {@code StatUtils.percentile}.
+     */
+    static double percentile(double[] values, int n, double p) {
+        if (n == 1) {
+            return values[0];
+        }
+        Arrays.sort(values, 0, n);
+        double pos = p * (n + 1) / 100;
+        double fpos = Math.floor(pos);
+        int intPos = (int) fpos;
+        double dif = pos - fpos;
+        if (pos < 1) {
+            return values[0];
+        } else if (pos >= n) {
+            return values[n - 1];
+        }
+        double lower = values[intPos - 1];
+        double upper = values[intPos];
+        return lower + dif * (upper - lower);
+    }
+
+    private static int getMode(WindowFunction wf) {
+        switch (wf) {
+            case mean:
+                return MEAN;
+            case min:
+                return MIN;
+            case max:
+                return MAX;
+            default:
+                return getPercentile(wf) > 0 ? PERCENTILE : OTHER;
+        }
+    }
+
+    static double getPercentile(WindowFunction wf) {
+        switch (wf) {
+            case percentile2:
+                return 2;
+            case percentile10:
+                return 10;
+            case median:
+                return 50;
+            case percentile90:
+                return 90;
+            case percentile98:
+                return 98;
+            default:
+                return -1;
+        }
+    }
+}
@@ -0,0 +1,337 @@
+package org.broad.igv.data;
+
+import org.apache.log4j.Logger;
+import org.broad.igv.feature.LocusScore;
+import org.broad.igv.prefs.PreferencesManager;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import static org.broad.igv.prefs.Constants.TILE_CACHE_SIZE_MB;
+
+/**
+ * A cache of decoded data tiles shared by all data sources,  bounded by the estimated size of the tiles in bytes
+ * rather than their number.  Least recently used tiles are evicted first,  regardless of which source they belong
+ * to,  so a few busy tracks can use the memory left idle by many others.  A source can be given a quota to stop it
+ * from crowding out the rest.
+ * <p/>
+ * Tiles are identified by a {@link Key} of primitive fields:  the source,  a sequence name (chromosome or dataset),
+ * a zoom level,  a tile number or file offset,  and a variant such as the window function.  Values may be null,
+ * to record a tile known to be empty.
+ */
+public class TileCache {
+
+    private static Logger log = Logger.getLogger(TileCache.class);
+
+    private static TileCache instance;
+
+    public static synchronized TileCache getInstance() {
+        if (instance == null) {
+            long mb = PreferencesManager.getPreferences().getAsInt(TILE_CACHE_SIZE_MB);
+            long capacity = Math.min(mb << 20, Runtime.getRuntime().maxMemory() / 4);
+            instance = new TileCache(capacity);
+        }
+        return instance;
+    }
+
+    private final long capacity;
+    private final LinkedHashMap<Key, Entry> entries = new LinkedHashMap<>(256, 0.75f, true);
+    private final Map<Integer, Source> sources = new HashMap<>();
+    private final ConcurrentHashMap<String, Integer> names = new ConcurrentHashMap<>();
+    private final AtomicInteger nextSourceId = new AtomicInteger();
+    private final AtomicInteger nextNameId = new AtomicInteger();
+    private long bytes;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    TileCache(long capacity) {
+        this.capacity = capacity;
+    }
+
+    /**
+     * Register a new source of tiles,  with no quota beyond the capacity of the cache.
+     *
+     * @return the source id,  for use in keys
+     */
+    public int newSource() {
+        return newSource(capacity);
+    }
+
+    /**
+     * Register a new source of tiles which may hold at most {@code quota} bytes of the cache.
+     */
+    public int newSource(long quota) {
+        int id = nextSourceId.incrementAndGet();
+        synchronized (this) {
+            sources.put(id, new Source(Math.min(quota, capacity)));
+        }
+        return id;
+    }
+
+    /**
+     * Return a small integer standing for {@code name},  the same for the life of the cache.  Used to key tiles
+     * by chromosome or dataset name without holding or comparing strings.
+     */
+    public int getNameId(String name) {
+        Integer id = names.get(name);
+        return id != null ? id : names.computeIfAbsent(name, k -> nextNameId.incrementAndGet());
+    }
+
+    public Key key(int source, String name, int zoom, long tile, int variant) {
+        return new Key(source, getNameId(name), zoom, tile, variant);
+    }
+
+    public Key key(int source, int nameId, int zoom, long tile, int variant) {
+        return new Key(source, nameId, zoom, tile, variant);
+    }
+
+    /**
+     * @return true if the cache holds a tile,  possibly null,  for {@code key}
+     */
+    public synchronized boolean containsKey(Key key) {
+        return entries.containsKey(key);
+    }
+
+    /**
+     * Return the tile for {@code key},  or null if there is none.
+     */
+    public Object get(Key key) {
+        return get(key, null);
+    }
+
+    /**
+     * Return the tile for {@code key},  or {@code missing} if there is none.  Used by sources which cache empty
+     * tiles as null.
+     */
+    public synchronized Object get(Key key, Object missing) {
+        Entry e = entries.get(key);
+        if (e == null) {
+            misses.increment();
+            return missing;
+        }
+        hits.increment();
+        return e.value;
+    }
+
+    /**
+     * Cache {@code value},  estimated at {@code size} bytes,  evicting least recently used tiles of the same source
+     * if it is over quota,  then of any source if the cache is over capacity.  Tiles larger than the source's quota
+     * are not cached.
+     */
+    public synchronized void put(Key key, Object value, long size) {
+        Source source = sources.get(key.source);
+        if (source == null || size > source.quota) {
+            return;
+        }
+        Entry old = entries.put(key, new Entry(value, size));
+        if (old != null) {
+            release(key, old);
+        }
+        source.bytes += size;
+        bytes += size;
+
+        if (source.bytes > source.quota) {
+            Iterator<Map.Entry<Key, Entry>> iter = entries.entrySet().iterator();
+            while (source.bytes > source.quota && iter.hasNext()) {
+                Map.Entry<Key, Entry> e = iter.next();
+                if (e.getKey().source == key.source && !e.getKey().equals(key)) {
+                    iter.remove();
+                    release(e.getKey(), e.getValue());
+                    evictions.increment();
+                }
+            }
+        }
+        if (bytes > capacity) {
+            Iterator<Map.Entry<Key, Entry>> iter = entries.entrySet().iterator();
+            while (bytes > capacity && iter.hasNext()) {
+                Map.Entry<Key, Entry> e = iter.next();
+                iter.remove();
+                release(e.getKey(), e.getValue());
+                evictions.increment();
+            }
+        }
+    }
+
+    /**
+     * Remove all tiles of {@code source}.
+     */
+    public synchronized void invalidate(int source) {
+        Iterator<Map.Entry<Key, Entry>> iter = entries.entrySet().iterator();
+        while (iter.hasNext()) {
+            Map.Entry<Key, Entry> e = iter.next();
+            if (e.getKey().source == source) {
+                iter.remove();
+                release(e.getKey(), e.getValue());
+            }
+        }
+    }
+
+    /**
+     * Remove all tiles of {@code source} for sequence {@code name}.
+     */
+    public synchronized void invalidate(int source, String name) {
+        int nameId = getNameId(name);
+        Iterator<Map.Entry<Key, Entry>> iter = entries.entrySet().iterator();
+        while (iter.hasNext()) {
+            Map.Entry<Key, Entry> e = iter.next();
+            if (e.getKey().source == source && e.getKey().nameId == nameId) {
+                iter.remove();
+                release(e.getKey(), e.getValue());
+            }
+        }
+    }
+
+    /**
+     * Remove all tiles of {@code source} and forget the source.
+     */
+    public synchronized void removeSource(int source) {
+        invalidate(source);
+        sources.remove(source);
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+        for (Source s : sources.values()) {
+            s.bytes = 0;
+        }
+        bytes = 0;
+    }
+
+    private void release(Key key, Entry entry) {
+        Source source = sources.get(key.source);
+        if (source != null) {
+            source.bytes -= entry.size;
+        }
+        bytes -= entry.size;
+    }
+
+    public long getCapacity() {
+        return capacity;
+    }
+
+    public synchronized long getBytes() {
+        return bytes;
+    }
+
+    public synchronized long getBytes(int source) {
+        Source s = sources.get(source);
+        return s == null ? 0 : s.bytes;
+    }
+
+    public synchronized int getEntryCount() {
+        return entries.size();
+    }
+
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    public long getMissCount() {
+        return misses.sum();
+    }
+
+    public long getEvictionCount() {
+        return evictions.sum();
+    }
+
+    public void logStatistics() {
+        log.info("Tile cache: " + getEntryCount() + " tiles, " + (getBytes() >> 10) + " of " + (capacity >> 10) +
+                " kb, hits=" + getHitCount() + " misses=" + getMissCount() + " evictions=" + getEvictionCount());
+    }
+
+    // Size estimates,  in bytes,  of common tile types
+
+    public static long sizeOf(DataTile tile) {
+        if (tile == null) {
+            return 16;
+        }
+        long size = 64 + sizeOf(tile.getStartLocations()) + sizeOf(tile.getEndLocations()) + sizeOf(tile.getValues());
+        if (tile.getFeatureNames() != null) {
+            size += 16 + 48L * tile.getFeatureNames().length;
+        }
+        return size;
+    }
+
+    /**
+     * Summary tiles hold packed scores,  or a list of score objects estimated at 48 bytes each including the list slot.
+     */
+    public static long sizeOf(SummaryTile tile) {
+        if (tile == null) {
+            return 16;
+        }
+        List<LocusScore> scores = tile.getScores();
+        return scores instanceof PackedScores ? 48 + ((PackedScores) scores).getSizeInBytes() : 48 + 48L * tile.getSize();
+    }
+
+    public static long sizeOf(int[] a) {
+        return a == null ? 0 : 16 + 4L * a.length;
+    }
+
+    public static long sizeOf(float[] a) {
+        return a == null ? 0 : 16 + 4L * a.length;
+    }
+
+    public static final class Key {
+
+        final int source;
+        final int nameId;
+        final int zoom;
+        final long tile;
+        final int variant;
+        private final int hash;
+
+        Key(int source, int nameId, int zoom, long tile, int variant) {
+            this.source = source;
+            this.nameId = nameId;
+            this.zoom = zoom;
+            this.tile = tile;
+            this.variant = variant;
+            int h = source;
+            h = 31 * h + nameId;
+            h = 31 * h + zoom;
+            h = 31 * h + (int) (tile ^ (tile >>> 32));
+            h = 31 * h + variant;
+            this.hash = h;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Key)) return false;
+            Key k = (Key) o;
+            return source == k.source && nameId == k.nameId && zoom == k.zoom && tile == k.tile && variant == k.variant;
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+    private static final class Entry {
+        final Object value;
+        final long size;
+
+        Entry(Object value, long size) {
+            this.value = value;
+            this.size = size;
+        }
+    }
+
+    private static final class Source {
+        final long quota;
+        long bytes;
+
+        Source(long quota) {
+            this.quota = quota;
+        }
+    }
+}
@@ -0,0 +1,217 @@
+package org.broad.igv.data;
+
+import org.apache.log4j.Logger;
+import org.broad.igv.DirectoryManager;
+import org.broad.igv.feature.LocusScore;
+import org.broad.igv.feature.genome.Genome;
+import org.broad.igv.prefs.PreferencesManager;
+import org.broad.igv.util.FileUtils;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import static org.broad.igv.prefs.Constants.WHOLE_GENOME_SIDECAR;
+
+/**
+ * The whole genome ("All") view of a data source:  bins in genome coordinates with one row of values per track.
+ * Computing it means reading the lowest zoom level of every chromosome,  so summaries are kept in the
+ * {@link TileCache},  shared by all sources reading the same file,  and saved in the IGV directory for local files.
+ * A saved summary is used while the file,  and the genome it was computed for,  are unchanged.
+ * <p/>
+ * Summaries are identified by file path,  genome,  and a variant chosen by the source,  e.g. the window function.
+ */
+public class WholeGenomeSummary {
+
+    private static Logger log = Logger.getLogger(WholeGenomeSummary.class);
+
+    static final int MAGIC = 0x49574753;   // "IWGS"
+    static final int VERSION = 1;
+
+    private static int cacheSource = -1;
+
+    private final int[] starts;
+    private final int[] ends;
+    private final float[][] values;
+
+    public WholeGenomeSummary(int[] starts, int[] ends, float[][] values) {
+        this.starts = starts;
+        this.ends = ends;
+        this.values = values;
+    }
+
+    public int size() {
+        return starts.length;
+    }
+
+    public int[] getStarts() {
+        return starts;
+    }
+
+    public int[] getEnds() {
+        return ends;
+    }
+
+    public float[][] getValues() {
+        return values;
+    }
+
+    /**
+     * Return scores for {@code track},  skipping bins without a value
+     */
+    public List<LocusScore> getScores(int track) {
+        float[] v = values[track];
+        List<LocusScore> scores = new ArrayList<>(starts.length);
+        for (int i = 0; i < starts.length; i++) {
+            if (!Float.isNaN(v[i])) {
+                scores.add(new BasicScore(starts[i], ends[i], v[i]));
+            }
+        }
+        return scores;
+    }
+
+    long getSizeInBytes() {
+        long size = 64 + TileCache.sizeOf(starts) + TileCache.sizeOf(ends);
+        for (float[] row : values) {
+            size += TileCache.sizeOf(row);
+        }
+        return size;
+    }
+
+    /**
+     * Return the summary of {@code path} for {@code genome},  from memory or the saved file,  or null if there is
+     * none.
+     */
+    public static WholeGenomeSummary get(String path, Genome genome, String variant) {
+
+        TileCache cache = TileCache.getInstance();
+        TileCache.Key key = key(path, genome, variant);
+        WholeGenomeSummary summary = (WholeGenomeSummary) cache.get(key);
+        if (summary != null) {
+            return summary;
+        }
+
+        File file = getLocalFile(path);
+        if (file != null) {
+            try {
+                File sidecar = getSidecarFile(file, genome, variant);
+                if (sidecar.exists()) {
+                    summary = read(sidecar, file.getCanonicalPath(), file.length(), file.lastModified(),
+                            getGenomeTag(genome), variant);
+                    if (summary != null) {
+                        cache.put(key, summary, summary.getSizeInBytes());
+                    }
+                }
+            } catch (IOException e) {
+                log.info("Ignoring unreadable whole genome summary for " + path + ": " + e.getMessage());
+            }
+        }
+        return summary;
+    }
+
+    /**
+     * Keep {@code summary} for later requests,  and save it if {@code path} is a local file
+     */
+    public static void put(String path, Genome genome, String variant, WholeGenomeSummary summary) {
+
+        TileCache.getInstance().put(key(path, genome, variant), summary, summary.getSizeInBytes());
+
+        File file = getLocalFile(path);
+        if (file != null) {
+            File sidecar = null;
+            try {
+                sidecar = getSidecarFile(file, genome, variant);
+                summary.write(sidecar, file.getCanonicalPath(), file.length(), file.lastModified(),
+                        getGenomeTag(genome), variant);
+            } catch (IOException e) {
+                log.error("Error writing whole genome summary " + sidecar, e);
+            }
+        }
+    }
+
+    private static synchronized TileCache.Key key(String path, Genome genome, String variant) {
+        TileCache cache = TileCache.getInstance();
+        if (cacheSource < 0) {
+            cacheSource = cache.newSource();
+        }
+        long lastModified = FileUtils.isRemote(path) ? 0 : new File(path).lastModified();
+        return cache.key(cacheSource, path + "\t" + lastModified + "\t" + getGenomeTag(genome) + "\t" + variant,
+                0, 0, 0);
+    }
+
+    /**
+     * The genome id and length,  which together determine the whole genome coordinates
+     */
+    static String getGenomeTag(Genome genome) {
+        return genome.getId() + ":" + genome.getLongChromosomeNames().size() + ":" + genome.getNominalLength();
+    }
+
+    private static File getLocalFile(String path) {
+        if (!PreferencesManager.getPreferences().getAsBoolean(WHOLE_GENOME_SIDECAR) || FileUtils.isRemote(path)) {
+            return null;
+        }
+        File file = new File(path);
+        return file.isFile() ? file : null;
+    }
+
+    static File getSidecarFile(File file, Genome genome, String variant) throws IOException {
+        String id = file.getCanonicalPath() + "\t" + getGenomeTag(genome) + "\t" + variant;
+        String name = file.getName() + "_" + Integer.toHexString(id.hashCode()) + ".wg";
+        return new File(DirectoryManager.getSummaryCacheDirectory(), name);
+    }
+
+    void write(File file, String path, long length, long lastModified, String genomeTag, String variant)
+            throws IOException {
+        File tmp = new File(file.getPath() + ".tmp");
+        try (DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(
+                new GZIPOutputStream(new FileOutputStream(tmp))))) {
+            dos.writeInt(MAGIC);
+            dos.writeInt(VERSION);
+            dos.writeUTF(path);
+            dos.writeLong(length);
+            dos.writeLong(lastModified);
+            dos.writeUTF(genomeTag);
+            dos.writeUTF(variant);
+            dos.writeInt(starts.length);
+            dos.writeInt(values.length);
+            for (int s : starts) dos.writeInt(s);
+            for (int e : ends) dos.writeInt(e);
+            for (float[] row : values) {
+                for (float v : row) dos.writeFloat(v);
+            }
+        }
+        if (!tmp.renameTo(file)) {
+            tmp.delete();
+            throw new IOException("Could not rename " + tmp + " to " + file);
+        }
+    }
+
+    /**
+     * Read a summary written by {@link #write}.  Returns null if it was computed from a different version of the
+     * file or for a different genome.
+     */
+    static WholeGenomeSummary read(File file, String path, long length, long lastModified, String genomeTag,
+                                   String variant) throws IOException {
+        try (DataInputStream dis = new DataInputStream(new BufferedInputStream(
+                new GZIPInputStream(new FileInputStream(file))))) {
+            if (dis.readInt() != MAGIC || dis.readInt() != VERSION ||
+                    !dis.readUTF().equals(path) || dis.readLong() != length || dis.readLong() != lastModified ||
+                    !dis.readUTF().equals(genomeTag) || !dis.readUTF().equals(variant)) {
+                return null;
+            }
+            int n = dis.readInt();
+            int nTracks = dis.readInt();
+            int[] starts = new int[n];
+            int[] ends = new int[n];
+            float[][] values = new float[nTracks][n];
+            for (int i = 0; i < n; i++) starts[i] = dis.readInt();
+            for (int i = 0; i < n; i++) ends[i] = dis.readInt();
+            for (float[] row : values) {
+                for (int i = 0; i < n; i++) row[i] = dis.readFloat();
+            }
+            return new WholeGenomeSummary(starts, ends, values);
+        }
+    }
+}
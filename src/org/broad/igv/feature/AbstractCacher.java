@@ -27,7 +27,7 @@
 package org.broad.igv.feature;
 
 import org.apache.log4j.Logger;
-import org.broad.igv.util.collections.LRUCache;
+import org.broad.igv.data.TileCache;
 import htsjdk.tribble.CloseableTribbleIterator;
 import htsjdk.tribble.Feature;
 
@@ -36,11 +36,20 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
 
 
 /**
  * Class to handle caching data from any source of features
  * Subclasses must override queryRaw
+ * <p/>
+ * Features are cached in bins,  in the {@link TileCache} shared by all sources,  which bounds them by their
+ * estimated size in bytes (see {@link #estimateSize(Feature)}).  The size of a chromosome's bins adapts to the density of features seen on it,  in powers
+ * of 2 from 1/16 to 16 times the base bin size,  aiming at {@link #TARGET_BIN_FEATURES} features per bin.  Threads
+ * load distinct bins concurrently,  a thread needing a bin another is loading waits for it.
  *
  * @author jrobinso
  * @date Jun 24, 2010
@@ -49,12 +58,28 @@ public abstract class AbstractCacher {
 
     private static Logger log = Logger.getLogger(AbstractCacher.class);
 
+    static final int TARGET_BIN_FEATURES = 1000;
+    static final int MAX_BIN_SHIFT = 4;
+
+    // Estimated size of a simple cached feature,  including its list slot
+    protected static final int FEATURE_BYTES = 160;
+
+    // Bins being loaded,  shared so concurrent requests for the same bin load it once
+    private static final ConcurrentHashMap<TileCache.Key, CompletableFuture<Bin>> binsInFlight =
+            new ConcurrentHashMap<>();
+
     protected int binSize = Integer.MAX_VALUE;
-    protected LRUCache<String, Bin> cache;
+    protected final int cacheSource = TileCache.getInstance().newSource();
+
+    // Bin size,  and features and base pairs loaded,  by chromosome
+    private final ConcurrentHashMap<String, Density> densities = new ConcurrentHashMap<>();
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder coalesced = new LongAdder();
 
 
-    public AbstractCacher(int binCount, int binSize) {
-        this.cache = new LRUCache(binCount);
+    public AbstractCacher(int binSize) {
         setBinSize(binSize);
     }
 
@@ -68,21 +93,36 @@ public abstract class AbstractCacher {
      */
     protected abstract Iterator<Feature> queryRaw(String chr, int start, int end) throws IOException;
 
+    /**
+     * Return the estimated size in bytes of a cached feature.  Sources of large features,  e.g. variants with
+     * genotypes,  should override this so the cache is bounded by what they actually hold.
+     */
+    protected long estimateSize(Feature feature) {
+        return FEATURE_BYTES;
+    }
 
 
     /**
-     * Set the bin size.   This invalidates the cache.
+     * Set the base bin size.   This invalidates the cache.
      *
      * @param newSize
      */
     public void setBinSize(int newSize) {
         this.binSize = newSize == 0 ? Integer.MAX_VALUE : newSize;  // A binSize of zero => use a single bin for the entire chromosome
-        cache.clear();
+        densities.clear();
+        TileCache.getInstance().invalidate(cacheSource);
+    }
 
+    /**
+     * Return the size of the bins of {@code chr}
+     */
+    public int getBinSize(String chr) {
+        Density density = densities.get(chr);
+        return density == null ? binSize : density.binSize;
     }
 
     public void close() throws IOException {
-        cache.clear();
+        TileCache.getInstance().invalidate(cacheSource);
     }
 
     /**
@@ -96,10 +136,11 @@ public abstract class AbstractCacher {
      */
     public Iterator<Feature> queryCached(String chr, int start, int end) throws IOException {
 
-        int  startBin = start / binSize;
-        int endBin = end / binSize;    // <= inclusive
+        int size = getBinSize(chr);
+        int  startBin = start / size;
+        int endBin = end / size;    // <= inclusive
 
-        List<Bin> tiles = getBins(chr, startBin, endBin);
+        List<Bin> tiles = getBins(chr, size, startBin, endBin);
 
         if (tiles.size() == 0) {
             return Collections.<Feature>emptyList().iterator();
@@ -123,59 +164,108 @@ public abstract class AbstractCacher {
     /**
      * Return loaded tiles that span the query interval.
      * <p/>
-     * We synchronize this method because different threads might be using
-     * the same source. Synchronizing here ensures that data
-     * is loaded as few times as possible (first caller loads it into the cache,
-     * the second caller accesses it from there) as well as preventing bugs stemming
-     * from multiple thread access
+     * Bins missing from the cache are loaded by this thread,  each run of adjacent bins with one query,  unless
+     * another thread is loading them already,  in which case this one waits for them.  This ensures that data is
+     * loaded as few times as possible without serializing loads of different bins.
      *
      * @param seq
+     * @param size     the bin size
      * @param startBin
      * @param endBin
      * @return
      */
-    private synchronized List<Bin> getBins(String seq, int startBin, int endBin) {
+    private List<Bin> getBins(String seq, int size, int startBin, int endBin) {
 
-        List<Bin> tiles = new ArrayList(endBin - startBin + 1);
-        List<Bin> tilesToLoad = new ArrayList(endBin - startBin + 1);
+        TileCache cache = TileCache.getInstance();
+        int seqId = cache.getNameId(seq);
 
+        // Bins found in the cache,  or futures for bins being loaded by this or another thread
+        int nTiles = Math.max(0, endBin - startBin + 1);
+        Bin[] cached = new Bin[nTiles];
+        List<CompletableFuture<Bin>> pending = new ArrayList<>(nTiles);
+        List<List<Bin>> runs = new ArrayList<>();
+        List<Bin> run = null;
         for (int t = startBin; t <= endBin; t++) {
-            String key = seq + "_" + t;
-            Bin tile = cache.get(key);
 
-            if (tile == null) {
+            // The bin size stands in for the zoom level
+            TileCache.Key key = cache.key(cacheSource, seqId, size, t, 0);
+            Bin tile = (Bin) cache.get(key);
+            if (tile != null) {
+                hits.increment();
+                cached[t - startBin] = tile;
+                pending.add(null);
+                run = null;
+                continue;
+            }
+
+            CompletableFuture<Bin> future = new CompletableFuture<>();
+            CompletableFuture<Bin> inFlight = binsInFlight.putIfAbsent(key, future);
+            if (inFlight != null) {
+                coalesced.increment();
+                pending.add(inFlight);
+                run = null;
+            } else if ((tile = (Bin) cache.get(key)) != null) {
+                // Loaded by another thread since the first lookup
+                binsInFlight.remove(key, future);
+                future.complete(tile);
+                hits.increment();
+                cached[t - startBin] = tile;
+                pending.add(null);
+                run = null;
+            } else {
                 if (log.isDebugEnabled()) {
                     log.debug("Tile cache miss: " + t);
                 }
-                int start = t * binSize;
-                int end = start + binSize;
-                tile = new Bin(t, start, end);
-                cache.put(key, tile);
+                misses.increment();
+                int start = t * size;
+                int end = (int) Math.min(Integer.MAX_VALUE, (long) start + size);
+                tile = new Bin(t, start, end, key, future);
+                pending.add(future);
+                if (run == null) {
+                    run = new ArrayList<>();
+                    runs.add(run);
+                }
+                run.add(tile);
             }
+        }
 
-            tiles.add(tile);
-
-            // The current tile is loaded,  load any preceding tiles we have pending
-            if (tile.isLoaded()) {
-                if (tilesToLoad.size() > 0) {
-                    if (!loadTiles(seq, tilesToLoad)) {
-                        return tiles;
+        try {
+            for (List<Bin> r : runs) {
+                loadTiles(seq, size, r);
+            }
+        } catch (Throwable e) {
+            // Release the bins of runs not loaded,  so threads waiting for them do not block
+            for (List<Bin> r : runs) {
+                for (Bin t : r) {
+                    if (!t.future.isDone()) {
+                        binsInFlight.remove(t.key, t.future);
+                        t.future.completeExceptionally(e);
                     }
                 }
-                tilesToLoad.clear();
-            } else {
-                tilesToLoad.add(tile);
             }
+            throw e;
         }
 
-        if (tilesToLoad.size() > 0) {
-            loadTiles(seq, tilesToLoad);
+        List<Bin> tiles = new ArrayList(nTiles);
+        for (int i = 0; i < nTiles; i++) {
+            Bin tile = cached[i];
+            if (tile == null) {
+                try {
+                    tile = pending.get(i).join();
+                } catch (CompletionException e) {
+                    Throwable cause = e.getCause();
+                    if (cause instanceof Error) {
+                        throw (Error) cause;
+                    }
+                    throw cause instanceof RuntimeException ? (RuntimeException) cause : new RuntimeException(cause);
+                }
+            }
+            tiles.add(tile);
         }
-
         return tiles;
     }
 
-    private boolean loadTiles(String seq, List<Bin> tiles) {
+    private void loadTiles(String seq, int size, List<Bin> tiles) {
 
         assert (tiles.size() > 0);
 
@@ -199,69 +289,141 @@ public abstract class AbstractCacher {
 
             while (iter != null && iter.hasNext()) {
                 Feature record = iter.next();
+                featureCount++;
 
                 // Range of tile indices that this feature contributes to.
                 int aStart = record.getStart();
                 int aEnd = record.getEnd();
-                int idx0 = 0;
-                int idx1 = 0;
-                if (binSize > 0) {
-                    idx0 = Math.max(0, (aStart - start) / binSize);
-                    idx1 = Math.min(tiles.size() - 1, (aEnd - start) / binSize);
-                }
+                int idx0 = Math.max(0, (aStart - start) / size);
+                int idx1 = Math.min(tiles.size() - 1, (aEnd - start) / size);
 
                 // Loop over tiles this read overlaps
                 for (int i = idx0; i <= idx1; i++) {
                     Bin t = tiles.get(i);
-
-                    // A bin size == 0 means use a single bin for the entire chromosome.  This is a confusing convention.
-                    if (binSize == 0 || ((aStart >= t.start) && (aStart < t.end))) {
+                    if ((aStart >= t.start) && (aStart < t.end)) {
                         t.containedRecords.add(record);
+                        t.featureBytes += estimateSize(record);
                     } else if ((aEnd >= t.start) && (aStart < t.start)) {
                         t.overlappingRecords.add(record);
                     }
                 }
             }
 
+            TileCache cache = TileCache.getInstance();
             for (Bin t : tiles) {
-                t.setLoaded(true);
+                cache.put(t.key, t, t.getSizeInBytes());
+                binsInFlight.remove(t.key, t.future);
+                t.future.complete(t);
             }
+            updateBinSize(seq, size, featureCount, (long) end - start + 1);
             if (log.isDebugEnabled()) {
                 long dt = System.currentTimeMillis() - t0;
                 long rate = dt == 0 ? Long.MAX_VALUE : featureCount / dt;
                 log.debug("Loaded " + featureCount + " reads in " + dt + "ms.  (" + rate + " reads/ms)");
             }
-            return true;
 
-        } catch (IOException e) {
-            log.error("IOError loading feature data", e);
+        } catch (IOException | RuntimeException e) {
+            RuntimeException failure = e instanceof RuntimeException ? (RuntimeException) e : new RuntimeException(e);
+            for (Bin t : tiles) {
+                binsInFlight.remove(t.key, t.future);
+                t.future.completeExceptionally(failure);
+            }
+            if (e instanceof IOException) {
+                log.error("IOError loading feature data", e);
+            }
 
             // TODO -- do something about this,  how do we want to handle this exception?
-            throw new RuntimeException(e);
-        } finally {
-            if (iter != null) {
-                //iter.close();
+            throw failure;
+        }
+    }
+
+    /**
+     * Record {@code featureCount} features loaded over {@code length} base pairs of {@code seq},  and resize the
+     * chromosome's bins if the density of features seen on it calls for another power of 2 of the base size.
+     */
+    private void updateBinSize(String seq, int size, int featureCount, long length) {
+
+        if (binSize == Integer.MAX_VALUE || ((long) binSize << MAX_BIN_SHIFT) > Integer.MAX_VALUE ||
+                (binSize >> MAX_BIN_SHIFT) == 0) {
+            return;
+        }
+
+        Density density = densities.computeIfAbsent(seq, k -> new Density(binSize));
+        synchronized (density) {
+            if (density.binSize != size) {
+                return;     // Loaded with a bin size since replaced
+            }
+            density.featureCount += featureCount;
+            density.length += length;
+
+            double featuresPerBase = Math.max(density.featureCount, 1) / (double) density.length;
+            double ideal = TARGET_BIN_FEATURES / featuresPerBase;
+            int shift = (int) Math.round(Math.log(ideal / binSize) / Math.log(2));
+            shift = Math.max(-MAX_BIN_SHIFT, Math.min(MAX_BIN_SHIFT, shift));
+            int newSize = shift >= 0 ? binSize << shift : binSize >> -shift;
+            if (newSize != density.binSize) {
+                if (log.isDebugEnabled()) {
+                    log.debug("Bin size of " + seq + ": " + density.binSize + " -> " + newSize);
+                }
+                density.binSize = newSize;
             }
-            //IGV.getInstance().resetStatusMessage();
         }
     }
 
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    public long getMissCount() {
+        return misses.sum();
+    }
+
+    /**
+     * @return the number of bins found being loaded by another thread,  and waited for
+     */
+    public long getCoalescedCount() {
+        return coalesced.sum();
+    }
+
+    public long getCachedBytes() {
+        return TileCache.getInstance().getBytes(cacheSource);
+    }
+
+    public void logStatistics() {
+        log.info("Feature cache: " + (getCachedBytes() >> 10) + " kb, hits=" + getHitCount() + " misses=" +
+                getMissCount() + " coalesced=" + getCoalescedCount());
+    }
+
+
+    private static class Density {
+        int binSize;
+        long featureCount;
+        long length;
+
+        Density(int binSize) {
+            this.binSize = binSize;
+        }
+    }
 
     private static class Bin {
 
-        private boolean loaded = false;
         private int start;
         private int end;
         private int binNumber;
         private List<Feature> containedRecords;
         private List<Feature> overlappingRecords;
+        private final TileCache.Key key;
+        private final CompletableFuture<Bin> future;
+        private long featureBytes;
 
-        Bin(int binNumber, int start, int end) {
+        Bin(int binNumber, int start, int end, TileCache.Key key, CompletableFuture<Bin> future) {
             this.binNumber = binNumber;
             this.start = start;
             this.end = end;
-            containedRecords = new ArrayList(1000);
-            overlappingRecords = new ArrayList(100);
+            this.key = key;
+            this.future = future;
+            containedRecords = new ArrayList(100);
+            overlappingRecords = new ArrayList(10);
         }
 
         public int getBinNumber() {
@@ -273,10 +435,6 @@ public abstract class AbstractCacher {
             return start;
         }
 
-        public void setStart(int start) {
-            this.start = start;
-        }
-
         public List<Feature> getContainedRecords() {
             return containedRecords;
         }
@@ -285,14 +443,12 @@ public abstract class AbstractCacher {
             return overlappingRecords;
         }
 
-        public boolean isLoaded() {
-            return loaded;
-        }
-
-        public void setLoaded(boolean loaded) {
-            this.loaded = loaded;
+        /**
+         * Features in the overlapping list are counted as slots only,  they are cached by the bin they start in.
+         */
+        long getSizeInBytes() {
+            return 96 + featureBytes + 8L * overlappingRecords.size();
         }
-
     }
 
     /**
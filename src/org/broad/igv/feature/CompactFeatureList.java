@@ -0,0 +1,566 @@
+package org.broad.igv.feature;
+
+import htsjdk.tribble.Feature;
+import org.broad.igv.prefs.Constants;
+import org.broad.igv.prefs.PreferencesManager;
+import org.broad.igv.util.collections.IntArrayList;
+import org.broad.igv.util.collections.MultiMap;
+
+import java.awt.*;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.List;
+
+/**
+ * The features of a chromosome,  sorted by start,  stored column-wise in primitive arrays rather than as objects.
+ * Coordinates and strands are kept in parallel arrays,  strings and colors are dictionary encoded,  exons,  attributes
+ * and parent ids are packed into int arrays,  and representations (the source line of BED features) are kept as
+ * UTF-8 bytes.
+ * <p/>
+ * Elements are materialized as plain {@link BasicFeature}s on access,  so callers and renderers see the usual feature
+ * classes.  Features that cannot be encoded,  subclasses of BasicFeature for example,  are kept as objects.  Use
+ * {@link #getFeatures(String, int, int)} for overlap queries,  and {@link Ref}s to refer to a feature without
+ * materializing it.
+ */
+public class CompactFeatureList extends AbstractList<Feature> implements RandomAccess {
+
+    // Fields of a feature,  one int each
+    private static final int THICK_START = 0;
+    private static final int THICK_END = 1;
+    private static final int SCORE = 2;
+    private static final int READING_FRAME = 3;
+    private static final int NAME = 4;
+    private static final int TYPE = 5;
+    private static final int IDENTIFIER = 6;
+    private static final int DESCRIPTION = 7;
+    private static final int LINK = 8;
+    private static final int COLOR = 9;
+    private static final int ATTRIBUTES = 10;
+    private static final int PARENT_IDS = 11;
+    private static final int REPRESENTATION = 12;
+    private static final int FIRST_EXON = 13;
+    private static final int EXON_COUNT = 14;
+    private static final int N_FIELDS = 15;
+
+    // Fields of an exon,  one int each
+    private static final int EXON_START = 0;
+    private static final int EXON_END = 1;
+    private static final int CODING_START = 2;
+    private static final int CODING_END = 3;
+    private static final int EXON_NUMBER = 4;
+    private static final int MRNA_BASE = 5;
+    private static final int EXON_READING_FRAME = 6;
+    private static final int NON_CODING = 7;
+    private static final int EXON_NAME = 8;
+    private static final int EXON_TYPE = 9;
+    private static final int EXON_DESCRIPTION = 10;
+    private static final int EXON_COLOR = 11;
+    private static final int EXON_ATTRIBUTES = 12;
+    private static final int N_EXON_FIELDS = 13;
+
+    private static final Strand[] STRANDS = Strand.values();
+
+    private final String chr;
+    private final int size;
+    private final int[] starts;
+    private final int[] ends;
+    private final byte[] strands;
+    private final int[] fields;
+    private final int[] exonFields;
+    private final int[] runs;           // Attributes and parent ids:  a count followed by dictionary ids
+    private final byte[] text;
+    private final int[] textOffsets;
+    private final Object[] dictionary;
+    private final int[] objectRows;     // Rows of features kept as objects,  sorted
+    private final Feature[] objects;
+    private final int maxLength;
+
+    /**
+     * Return true if feature files loaded in their entirety should be stored compactly
+     */
+    public static boolean isEnabled() {
+        return PreferencesManager.getPreferences().getAsBoolean(Constants.FEATURE_COMPACT_STORE);
+    }
+
+    private CompactFeatureList(Builder.Columns columns, Object[] dictionary) {
+
+        int n = columns.starts.size();
+        int[] order = columns.sortOrder();
+
+        this.chr = columns.chr;
+        this.size = n;
+        this.starts = new int[n];
+        this.ends = new int[n];
+        this.strands = new byte[n];
+        this.fields = new int[n * N_FIELDS];
+        int nObjects = columns.objects.size() - Collections.frequency(columns.objects, null);
+        this.objectRows = new int[nObjects];
+        this.objects = new Feature[nObjects];
+
+        int maxLength = 0;
+        int o = 0;
+        for (int i = 0; i < n; i++) {
+            int row = order[i];
+            starts[i] = columns.starts.get(row);
+            ends[i] = columns.ends.get(row);
+            strands[i] = (byte) columns.strands.get(row);
+            maxLength = Math.max(maxLength, ends[i] - starts[i]);
+            Feature object = columns.objects.get(row);
+            if (object != null) {
+                objectRows[o] = i;
+                objects[o++] = object;
+            } else {
+                for (int f = 0; f < N_FIELDS; f++) {
+                    fields[i * N_FIELDS + f] = columns.fields.get(row * N_FIELDS + f);
+                }
+            }
+        }
+        this.maxLength = maxLength;
+
+        this.exonFields = columns.exonFields.toArray();
+        this.runs = columns.runs.toArray();
+        this.text = columns.text.toByteArray();
+        this.textOffsets = columns.textOffsets.toArray();
+        this.dictionary = dictionary;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public Feature get(int row) {
+        if (row < 0 || row >= size) {
+            throw new IndexOutOfBoundsException("Index: " + row + ", Size: " + size);
+        }
+        Feature object = getObject(row);
+        return object != null ? object : materialize(row);
+    }
+
+    /**
+     * Features are sorted by start on creation,  other orders are not supported
+     */
+    @Override
+    public void sort(Comparator<? super Feature> c) {
+        if (c != FeatureUtils.FEATURE_START_COMPARATOR) {
+            throw new UnsupportedOperationException("Compact feature lists are sorted by start");
+        }
+    }
+
+    public String getChr() {
+        return chr;
+    }
+
+    /**
+     * Return the features overlapping the interval,  with the semantics of
+     * {@link FeatureUtils#getOverlapPredicate(String, int, int)},  in order of start
+     */
+    public List<Feature> getFeatures(String chr, int start, int end) {
+
+        List<Feature> result = new ArrayList<>();
+        if (size == 0 || !chr.equals(this.chr) && objects.length == 0) {
+            return result;
+        }
+
+        // First row which might end after start
+        long minStart = (long) start - maxLength;
+        int lo = 0;
+        int hi = size;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (starts[mid] < minStart) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+
+        for (int i = lo; i < size && starts[i] <= end; i++) {
+            if (ends[i] > start) {
+                Feature object = getObject(i);
+                if (object == null) {
+                    if (chr.equals(this.chr)) result.add(materialize(i));
+                } else if (chr.equals(object.getChr())) {
+                    result.add(object);
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Return the feature of the row if it is kept as an object,  otherwise null
+     */
+    public Feature getObject(int row) {
+        if (objects.length == 0) {
+            return null;
+        }
+        int idx = Arrays.binarySearch(objectRows, row);
+        return idx < 0 ? null : objects[idx];
+    }
+
+    /**
+     * Return a lightweight reference to the feature of an encoded row
+     */
+    public Ref getReference(int row) {
+        return new Ref(this, row);
+    }
+
+    private BasicFeature materialize(int row) {
+
+        int offset = row * N_FIELDS;
+        BasicFeature f = new BasicFeature(chr, starts[row], ends[row], strand(strands[row]));
+        f.setThickStart(fields[offset + THICK_START]);
+        f.setThickEnd(fields[offset + THICK_END]);
+        f.score = Float.intBitsToFloat(fields[offset + SCORE]);
+        f.readingFrame = fields[offset + READING_FRAME];
+        f.name = (String) lookup(fields[offset + NAME]);
+        f.type = (String) lookup(fields[offset + TYPE]);
+        f.identifier = (String) lookup(fields[offset + IDENTIFIER]);
+        f.description = (String) lookup(fields[offset + DESCRIPTION]);
+        f.link = (String) lookup(fields[offset + LINK]);
+        f.color = (Color) lookup(fields[offset + COLOR]);
+        f.attributes = getAttributes(fields[offset + ATTRIBUTES]);
+        f.parentIds = getParentIds(fields[offset + PARENT_IDS]);
+        f.representation = getText(fields[offset + REPRESENTATION]);
+
+        int exonCount = fields[offset + EXON_COUNT];
+        if (exonCount >= 0) {
+            List<Exon> exons = new ArrayList<>(exonCount);
+            int firstExon = fields[offset + FIRST_EXON];
+            for (int e = firstExon; e < firstExon + exonCount; e++) {
+                exons.add(materializeExon(e, f.getStrand()));
+            }
+            f.exons = exons;
+        }
+        return f;
+    }
+
+    private Exon materializeExon(int e, Strand strand) {
+
+        int offset = e * N_EXON_FIELDS;
+        Exon exon = new Exon(chr, exonFields[offset + EXON_START], exonFields[offset + EXON_END], strand);
+
+        // Coding bounds are set after the non-coding flag,  which would otherwise reset them
+        exon.setNonCoding(exonFields[offset + NON_CODING] != 0);
+        exon.setCodingStart(exonFields[offset + CODING_START]);
+        exon.setCodingEnd(exonFields[offset + CODING_END]);
+        exon.setNumber(exonFields[offset + EXON_NUMBER]);
+        exon.setMrnaBase(exonFields[offset + MRNA_BASE]);
+        exon.readingFrame = exonFields[offset + EXON_READING_FRAME];
+        exon.name = (String) lookup(exonFields[offset + EXON_NAME]);
+        exon.type = (String) lookup(exonFields[offset + EXON_TYPE]);
+        exon.description = (String) lookup(exonFields[offset + EXON_DESCRIPTION]);
+        exon.color = (Color) lookup(exonFields[offset + EXON_COLOR]);
+        exon.attributes = getAttributes(exonFields[offset + EXON_ATTRIBUTES]);
+        return exon;
+    }
+
+    private Object lookup(int id) {
+        return id < 0 ? null : dictionary[id];
+    }
+
+    private static Strand strand(byte ordinal) {
+        return ordinal < 0 ? null : STRANDS[ordinal];
+    }
+
+    private MultiMap<String, String> getAttributes(int run) {
+        if (run < 0) {
+            return null;
+        }
+        int nPairs = runs[run];
+        MultiMap<String, String> attributes = new MultiMap<>(Math.max(10, nPairs));
+        for (int i = 0; i < nPairs; i++) {
+            attributes.put((String) lookup(runs[run + 1 + 2 * i]), (String) lookup(runs[run + 2 + 2 * i]));
+        }
+        return attributes;
+    }
+
+    private String[] getParentIds(int run) {
+        if (run < 0) {
+            return null;
+        }
+        String[] parentIds = new String[runs[run]];
+        for (int i = 0; i < parentIds.length; i++) {
+            parentIds[i] = (String) lookup(runs[run + 1 + i]);
+        }
+        return parentIds;
+    }
+
+    private String getText(int idx) {
+        if (idx < 0) {
+            return null;
+        }
+        int start = textOffsets[idx];
+        return new String(text, start, textOffsets[idx + 1] - start, StandardCharsets.UTF_8);
+    }
+
+
+    /**
+     * A reference to a feature of a compact list,  for indexes such as {@link FeatureDB} that would otherwise
+     * hold the feature.  Locus and name are read from the list,  use {@link #getFeature()} for the feature itself.
+     */
+    public static class Ref implements NamedFeature {
+
+        private final CompactFeatureList list;
+        private final int row;
+
+        Ref(CompactFeatureList list, int row) {
+            this.list = list;
+            this.row = row;
+        }
+
+        public Feature getFeature() {
+            return list.get(row);
+        }
+
+        public String getName() {
+            return (String) list.lookup(list.fields[row * N_FIELDS + NAME]);
+        }
+
+        public String getChr() {
+            return list.chr;
+        }
+
+        public String getContig() {
+            return list.chr;
+        }
+
+        public int getStart() {
+            return list.starts[row];
+        }
+
+        public int getEnd() {
+            return list.ends[row];
+        }
+    }
+
+
+    /**
+     * Encodes features into compact lists,  by chromosome.  Strings and colors are shared across chromosomes.
+     */
+    public static class Builder {
+
+        private final Map<Object, Integer> dictionaryIndex = new HashMap<>();
+        private final List<Object> dictionary = new ArrayList<>();
+        private final Map<String, Columns> columnsMap = new LinkedHashMap<>();
+
+        public void add(String chr, Feature feature) {
+            Columns columns = columnsMap.get(chr);
+            if (columns == null) {
+                columns = new Columns();
+                columnsMap.put(chr, columns);
+            }
+            columns.add(feature);
+        }
+
+        /**
+         * Return the features by chromosome.  Chromosomes with no encodable features are returned as plain lists.
+         */
+        public Map<String, List<Feature>> build() {
+            Object[] dictionaryArray = dictionary.toArray();
+            Map<String, List<Feature>> featureMap = new HashMap<>(Math.max(25, 2 * columnsMap.size()));
+            for (Map.Entry<String, Columns> entry : columnsMap.entrySet()) {
+                Columns columns = entry.getValue();
+                List<Feature> features;
+                if (columns.chr == null) {
+                    features = new ArrayList<>(columns.objects);
+                    FeatureUtils.sortFeatureList(features);
+                } else {
+                    features = new CompactFeatureList(columns, dictionaryArray);
+                }
+                featureMap.put(entry.getKey(), features);
+            }
+            columnsMap.clear();
+            return featureMap;
+        }
+
+        private int dictionaryIndex(Object value) {
+            if (value == null) {
+                return -1;
+            }
+            Integer idx = dictionaryIndex.get(value);
+            if (idx == null) {
+                idx = dictionary.size();
+                dictionary.add(value);
+                dictionaryIndex.put(value, idx);
+            }
+            return idx;
+        }
+
+        /**
+         * Growable columns of a chromosome,  in order of addition
+         */
+        private class Columns {
+
+            String chr;     // Chromosome of the encoded features
+            IntArrayList starts = new IntArrayList();
+            IntArrayList ends = new IntArrayList();
+            IntArrayList strands = new IntArrayList();
+            IntArrayList fields = new IntArrayList(100 * N_FIELDS);
+            IntArrayList exonFields = new IntArrayList(100 * N_EXON_FIELDS);
+            IntArrayList runs = new IntArrayList();
+            ByteArrayOutputStream text = new ByteArrayOutputStream();
+            IntArrayList textOffsets = new IntArrayList();
+            List<Feature> objects = new ArrayList<>();   // Null for encoded rows
+
+            Columns() {
+                textOffsets.add(0);
+            }
+
+            void add(Feature feature) {
+
+                starts.add(feature.getStart());
+                ends.add(feature.getEnd());
+
+                if (!isEncodable(feature)) {
+                    strands.add(-1);
+                    objects.add(feature);
+                    for (int f = 0; f < N_FIELDS; f++) {
+                        fields.add(0);
+                    }
+                    return;
+                }
+
+                BasicFeature bf = (BasicFeature) feature;
+                if (chr == null) {
+                    chr = bf.getChr();
+                }
+                strands.add(bf.getStrand() == null ? -1 : bf.getStrand().ordinal());
+                objects.add(null);
+
+                int[] row = new int[N_FIELDS];
+                row[THICK_START] = bf.getThickStart();
+                row[THICK_END] = bf.getThickEnd();
+                row[SCORE] = Float.floatToRawIntBits(bf.score);
+                row[READING_FRAME] = bf.readingFrame;
+                row[NAME] = dictionaryIndex(bf.name);
+                row[TYPE] = dictionaryIndex(bf.type);
+                row[IDENTIFIER] = dictionaryIndex(bf.identifier);
+                row[DESCRIPTION] = dictionaryIndex(bf.description);
+                row[LINK] = dictionaryIndex(bf.link);
+                row[COLOR] = dictionaryIndex(bf.color);
+                row[ATTRIBUTES] = putAttributes(bf.attributes);
+                row[PARENT_IDS] = putParentIds(bf.parentIds);
+                row[REPRESENTATION] = putText(bf.representation);
+                row[FIRST_EXON] = exonFields.size() / N_EXON_FIELDS;
+                row[EXON_COUNT] = bf.exons == null ? -1 : bf.exons.size();
+                for (int f : row) {
+                    fields.add(f);
+                }
+
+                if (bf.exons != null) {
+                    for (Exon exon : bf.exons) {
+                        addExon(exon);
+                    }
+                }
+            }
+
+            /**
+             * Plain BasicFeatures on the chromosome of the list are encodable,  if their exons are
+             */
+            private boolean isEncodable(Feature feature) {
+                if (feature.getClass() != BasicFeature.class) {
+                    return false;
+                }
+                BasicFeature bf = (BasicFeature) feature;
+                if (bf.getChr() == null || (chr != null && !chr.equals(bf.getChr())) ||
+                        bf.level != 1 || bf.confidence != 0) {
+                    return false;
+                }
+                if (bf.exons != null) {
+                    for (Exon exon : bf.exons) {
+                        if (exon == null || exon.getClass() != Exon.class ||
+                                !bf.getChr().equals(exon.getChr()) || exon.getStrand() != bf.getStrand() ||
+                                exon.getCdStart() < exon.getStart() || exon.getCdEnd() > exon.getEnd()) {
+                            return false;
+                        }
+                    }
+                }
+                return true;
+            }
+
+            private void addExon(Exon exon) {
+                int[] row = new int[N_EXON_FIELDS];
+                row[EXON_START] = exon.getStart();
+                row[EXON_END] = exon.getEnd();
+                row[CODING_START] = exon.getCdStart();
+                row[CODING_END] = exon.getCdEnd();
+                row[EXON_NUMBER] = exon.getNumber();
+                row[MRNA_BASE] = exon.getMrnaBase();
+                row[EXON_READING_FRAME] = exon.readingFrame;
+                row[NON_CODING] = exon.isNonCoding() ? 1 : 0;
+                row[EXON_NAME] = dictionaryIndex(exon.name);
+                row[EXON_TYPE] = dictionaryIndex(exon.type);
+                row[EXON_DESCRIPTION] = dictionaryIndex(exon.description);
+                row[EXON_COLOR] = dictionaryIndex(exon.color);
+                row[EXON_ATTRIBUTES] = putAttributes(exon.attributes);
+                for (int f : row) {
+                    exonFields.add(f);
+                }
+            }
+
+            private int putAttributes(MultiMap<String, String> attributes) {
+                if (attributes == null) {
+                    return -1;
+                }
+                int run = runs.size();
+                runs.add(0);
+                attributes.forEach((key, value) -> {
+                    runs.add(dictionaryIndex(key));
+                    runs.add(dictionaryIndex(value));
+                });
+                runs.set(run, (runs.size() - run - 1) / 2);
+                return run;
+            }
+
+            private int putParentIds(String[] parentIds) {
+                if (parentIds == null) {
+                    return -1;
+                }
+                int run = runs.size();
+                runs.add(parentIds.length);
+                for (String id : parentIds) {
+                    runs.add(dictionaryIndex(id));
+                }
+                return run;
+            }
+
+            private int putText(String value) {
+                if (value == null) {
+                    return -1;
+                }
+                byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+                text.write(bytes, 0, bytes.length);
+                textOffsets.add(text.size());
+                return textOffsets.size() - 2;
+            }
+
+            /**
+             * Rows in order of start,  stable
+             */
+            int[] sortOrder() {
+                int n = starts.size();
+                int[] order = new int[n];
+                boolean sorted = true;
+                for (int i = 0; i < n; i++) {
+                    order[i] = i;
+                    if (i > 0 && starts.get(i) < starts.get(i - 1)) sorted = false;
+                }
+                if (!sorted) {
+                    long[] keys = new long[n];
+                    for (int i = 0; i < n; i++) {
+                        keys[i] = ((long) starts.get(i) << 32) | i;
+                    }
+                    Arrays.sort(keys);
+                    for (int i = 0; i < n; i++) {
+                        order[i] = (int) keys[i];
+                    }
+                }
+                return order;
+            }
+        }
+    }
+}
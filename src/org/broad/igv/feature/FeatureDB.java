@@ -55,40 +55,117 @@ public class FeatureDB {
     private static final int MAX_DUPLICATE_COUNT = 20;
 
     public static void addFeature(NamedFeature feature, Genome genome) {
+        for (String name : getNames(feature)) {
+            put(name, feature, genome);
+        }
+    }
+
+    /**
+     * Add the features of a compact list,  by reference to their rows.  Entries for the same features already present,
+     * typically added by the parser,  are replaced so the original objects can be collected.
+     */
+    public static void addFeatures(CompactFeatureList features, Genome genome) {
+        for (int i = 0; i < features.size(); i++) {
+            Feature object = features.getObject(i);
+            NamedFeature feature;
+            List<String> names;
+            if (object == null) {
+                feature = features.getReference(i);
+                names = getNames((NamedFeature) features.get(i));
+            } else if (object instanceof NamedFeature) {
+                feature = (NamedFeature) object;
+                names = getNames(feature);
+            } else {
+                continue;
+            }
+            for (String name : names) {
+                replace(name, feature, genome);
+            }
+        }
+    }
+
+    /**
+     * Return the names a feature is found by:  its name and identifier,  and short attribute values of the feature
+     * and its exons
+     */
+    private static List<String> getNames(NamedFeature feature) {
 
+        List<String> names = new ArrayList<String>();
         final String name = feature.getName();
         if (name != null && name.length() > 0 && !name.equals(".")) {
-            put(name, feature, genome);
+            names.add(name);
         }
         if (feature instanceof IGVFeature) {
             final IGVFeature igvFeature = (IGVFeature) feature;
             final String id = igvFeature.getIdentifier();
             if (id != null && id.length() > 0) {
-                put(id, feature, genome);
+                names.add(id);
             }
 
-            addByAttributes(igvFeature, genome);
+            addAttributeValues(igvFeature, names);
 
             List<Exon> exons = igvFeature.getExons();
             if (exons != null) {
                 for (Exon exon : exons) {
-                    addByAttributes(exon, genome);
+                    addAttributeValues(exon, names);
                 }
             }
         }
+        return names;
     }
 
-    private static void addByAttributes(IGVFeature igvFeature, Genome genome) {
+    private static void addAttributeValues(IGVFeature igvFeature, List<String> names) {
         MultiMap<String, String> attributes = igvFeature.getAttributes();
         if (attributes != null) {
             for (String value : attributes.values()) {
                 if (value.length() < 20) {
-                    put(value, igvFeature, genome);
+                    names.add(value);
                 }
             }
         }
     }
 
+    /**
+     * Add feature to the list of features associated with this name,  removing any entry for the same feature
+     */
+    private static boolean replace(String name, NamedFeature feature, Genome genome) {
+        synchronized (featureMap) {
+            List<NamedFeature> currentList = featureMap.get(name.toUpperCase());
+            if (currentList != null) {
+                Iterator<NamedFeature> iter = currentList.iterator();
+                while (iter.hasNext()) {
+                    if (isSameFeature(iter.next(), feature)) {
+                        iter.remove();
+                    }
+                }
+            }
+            return put(name, feature, genome);
+        }
+    }
+
+    /**
+     * Return true if {@code existing} is {@code feature},  or the plain feature a compact list reference was encoded from
+     */
+    private static boolean isSameFeature(NamedFeature existing, NamedFeature feature) {
+        if (existing == feature) {
+            return true;
+        }
+        return feature instanceof CompactFeatureList.Ref &&
+                existing.getClass() == BasicFeature.class &&
+                existing.getStart() == feature.getStart() &&
+                existing.getEnd() == feature.getEnd() &&
+                Objects.equals(existing.getChr(), feature.getChr()) &&
+                Objects.equals(existing.getName(), feature.getName());
+    }
+
+    /**
+     * Return the feature of an entry,  materializing references to compact lists
+     */
+    private static NamedFeature resolve(NamedFeature feature) {
+        return feature instanceof CompactFeatureList.Ref ?
+                (NamedFeature) ((CompactFeatureList.Ref) feature).getFeature() : feature;
+    }
+
     /**
      * Add feature to the list of features associated with this name.
      * Performs no data integrity checks
@@ -174,6 +251,10 @@ public class FeatureDB {
 
 
     public static void addFeatures(List<htsjdk.tribble.Feature> features, Genome genome) {
+        if (features instanceof CompactFeatureList) {
+            addFeatures((CompactFeatureList) features, genome);
+            return;
+        }
         for (htsjdk.tribble.Feature feature : features) {
             if (feature instanceof IGVFeature)
                 addFeature((IGVFeature) feature, genome);
@@ -197,7 +278,7 @@ public class FeatureDB {
         List<NamedFeature> features = featureMap.get(nm);
 
         if (features != null) {
-            return features.get(0);
+            return resolve(features.get(0));
         } else {
             return null;
         }
@@ -260,9 +341,11 @@ public class FeatureDB {
             while (nameIter.hasNext() && ii < limit) {
                 List<NamedFeature> subFeats = resultMap.get(nameIter.next());
                 if (longestOnly) {
-                    features.add(subFeats.get(0));
+                    features.add(resolve(subFeats.get(0)));
                 } else {
-                    features.addAll(subFeats);
+                    for (NamedFeature f : subFeats) {
+                        features.add(resolve(f));
+                    }
                 }
                 ii++;
             }
@@ -296,7 +379,8 @@ public class FeatureDB {
 
         if (possibles != null) {
             synchronized (featureMap) {
-                for (NamedFeature f : possibles) {
+                for (NamedFeature possible : possibles) {
+                    NamedFeature f = resolve(possible);
                     if (!(f instanceof BasicFeature)) {
                         continue;
                     }
@@ -347,7 +431,8 @@ public class FeatureDB {
 
         if (possibles != null) {
             synchronized (featureMap) {
-                for (NamedFeature f : possibles) {
+                for (NamedFeature possible : possibles) {
+                    NamedFeature f = resolve(possible);
                     if (!(f instanceof BasicFeature)) {
                         continue;
                     }
@@ -0,0 +1,150 @@
+package org.broad.igv.feature;
+
+import htsjdk.tribble.Feature;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A static interval tree over a list of features,  answering overlap queries in O(log n + k).  Coordinates are kept in
+ * primitive arrays sorted by start,  and the tree is implicit in the array order:  the node at index i has a level
+ * equal to the number of trailing 1 bits of i,  and records the maximum end of its subtree.  After the implicit
+ * interval tree of H. Li's cgranges.
+ */
+public class FeatureIntervalTree<T extends Feature> {
+
+    // Subtrees at or below this level are scanned rather than descended
+    private static final int SCAN_LEVEL = 3;
+
+    private final List<T> features;
+    private final int[] starts;
+    private final int[] ends;
+    private final int[] maxEnds;
+    private final int maxLevel;
+
+    public FeatureIntervalTree(List<? extends T> featureList) {
+
+        List<T> sorted = new ArrayList<>(featureList);
+        for (int i = 1; i < sorted.size(); i++) {
+            if (sorted.get(i).getStart() < sorted.get(i - 1).getStart()) {
+                sorted.sort(FeatureUtils.FEATURE_START_COMPARATOR);
+                break;
+            }
+        }
+
+        int n = sorted.size();
+        features = sorted;
+        starts = new int[n];
+        ends = new int[n];
+        maxEnds = new int[n];
+        for (int i = 0; i < n; i++) {
+            T f = sorted.get(i);
+            starts[i] = f.getStart();
+            ends[i] = f.getEnd();
+        }
+        maxLevel = index();
+    }
+
+    /**
+     * Compute the maximum end of each subtree,  bottom up
+     *
+     * @return the level of the root,  or -1 if there are no features
+     */
+    private int index() {
+
+        int n = starts.length;
+        if (n == 0) {
+            return -1;
+        }
+
+        // Leaves,  at level 0
+        int lastIndex = 0;
+        int last = 0;
+        for (int i = 0; i < n; i += 2) {
+            lastIndex = i;
+            last = maxEnds[i] = ends[i];
+        }
+
+        // Internal nodes,  level by level.  "last" is the max end of the subtree of the last node,  which may be
+        // missing its right child.
+        int k;
+        for (k = 1; (1L << k) <= n; k++) {
+            int x = 1 << (k - 1);
+            int step = x << 2;
+            for (int i = (x << 1) - 1; i < n; i += step) {
+                int leftMax = maxEnds[i - x];
+                int rightMax = i + x < n ? maxEnds[i + x] : last;
+                maxEnds[i] = Math.max(ends[i], Math.max(leftMax, rightMax));
+            }
+            lastIndex = ((lastIndex >> k) & 1) != 0 ? lastIndex - x : lastIndex + x;
+            if (lastIndex < n && maxEnds[lastIndex] > last) {
+                last = maxEnds[lastIndex];
+            }
+        }
+        return k - 1;
+    }
+
+    public int size() {
+        return starts.length;
+    }
+
+    /**
+     * Return the features overlapping [start, end),  that is with a start before {@code end} and an end after
+     * {@code start},  in order of start
+     */
+    public List<T> getOverlapping(int start, int end) {
+
+        int n = starts.length;
+        if (n == 0) {
+            return Collections.emptyList();
+        }
+
+        List<T> result = new ArrayList<>();
+
+        // Stack of nodes:  index,  level,  and whether the left subtree is done
+        int[] nodes = new int[3 * (maxLevel + 2)];
+        int[] levels = new int[nodes.length];
+        boolean[] leftDone = new boolean[nodes.length];
+        int top = 0;
+        nodes[0] = (1 << maxLevel) - 1;
+        levels[0] = maxLevel;
+        leftDone[0] = false;
+        top++;
+
+        while (top > 0) {
+            top--;
+            int x = nodes[top];
+            int k = levels[top];
+            if (k <= SCAN_LEVEL) {
+                int i0 = x >> k << k;
+                int i1 = (int) Math.min(n, i0 + (1L << (k + 1)) - 1);
+                for (int i = i0; i < i1 && starts[i] < end; i++) {
+                    if (start < ends[i]) {
+                        result.add(features.get(i));
+                    }
+                }
+            } else if (!leftDone[top]) {
+                // Revisit this node once the left child is done.  The left child may be beyond the last node.
+                int y = x - (1 << (k - 1));
+                leftDone[top] = true;
+                top++;
+                if (y >= n || maxEnds[y] > start) {
+                    nodes[top] = y;
+                    levels[top] = k - 1;
+                    leftDone[top] = false;
+                    top++;
+                }
+            } else if (x < n && starts[x] < end) {
+                if (start < ends[x]) {
+                    result.add(features.get(x));
+                }
+                nodes[top] = x + (1 << (k - 1));
+                levels[top] = k - 1;
+                leftDone[top] = false;
+                top++;
+            }
+        }
+        return result;
+    }
+}
@@ -53,6 +53,39 @@ public class FeatureUtils {
         return overlapPredicate;
     }
 
+    /**
+     * Merge ranges near each other on a chromosome,  so they can be loaded with one query.  Overlapping ranges are
+     * merged,  as are ranges separated by a gap no longer than the range following it (the bases loaded at most double),
+     * unless the merged range would be longer than {@code maxLength}.
+     *
+     * @return the merged ranges,  by chromosome in order of first appearance,  then by start
+     */
+    public static List<Range> mergeRanges(List<Range> ranges, int maxLength) {
+
+        Map<String, List<Range>> rangeMap = new LinkedHashMap<>();
+        for (Range r : ranges) {
+            rangeMap.computeIfAbsent(r.getChr(), k -> new ArrayList<>()).add(r);
+        }
+
+        List<Range> merged = new ArrayList<>();
+        for (List<Range> chrRanges : rangeMap.values()) {
+            chrRanges.sort(Comparator.comparingInt(Range::getStart));
+            Range current = null;
+            for (Range r : chrRanges) {
+                if (current != null && (r.getStart() <= current.getEnd() ||
+                        (r.getStart() - current.getEnd() <= r.getLength() &&
+                                Math.max(current.getEnd(), r.getEnd()) - current.getStart() <= maxLength))) {
+                    current = new Range(current.getChr(), current.getStart(), Math.max(current.getEnd(), r.getEnd()));
+                } else {
+                    if (current != null) merged.add(current);
+                    current = new Range(r.getChr(), r.getStart(), r.getEnd());
+                }
+            }
+            if (current != null) merged.add(current);
+        }
+        return merged;
+    }
+
     public static Map<String, List<IGVFeature>> divideByChromosome(List<IGVFeature> features) {
         Map<String, List<IGVFeature>> featureMap = new LinkedHashMap();
         for (IGVFeature f : features) {
@@ -6,6 +6,7 @@ import htsjdk.samtools.util.BlockCompressedInputStream;
 import org.broad.igv.util.LittleEndianInputStream;
 import org.broad.igv.util.ParsingUtils;
 import org.broad.igv.util.stream.IGVSeekableStreamFactory;
+import org.broad.igv.util.stream.ParallelBlockCompressedInputStream;
 
 import java.io.*;
 import java.util.ArrayList;
@@ -41,6 +42,7 @@ public class FastaBlockCompressedSequence extends FastaIndexedSequence {
         long vp1 = m1.compressedOffset << 16 | d1;
 
         SeekableStream ss = null;
+        BlockCompressedInputStream bis = null;
         try {
             int nBytes = (int) (posEnd - posStart);
 
@@ -48,7 +50,12 @@ public class FastaBlockCompressedSequence extends FastaIndexedSequence {
 
             ss = new SeekableBufferedStream(IGVSeekableStreamFactory.getInstance().getStreamFor(path), bufferSize);
 
-            BlockCompressedInputStream bis = new BlockCompressedInputStream(ss);
+            bis = IGVSeekableStreamFactory.getInstance().getBlockCompressedStream(ss);
+            if (bis instanceof ParallelBlockCompressedInputStream) {
+                // Read ahead no further than the block containing the end
+                Mapping m2 = findBlockContaining(posEnd);
+                ((ParallelBlockCompressedInputStream) bis).setReadAheadEnd(m2.compressedOffset + 1);
+            }
 
             byte[] bytes = new byte[nBytes];
 
@@ -57,7 +64,10 @@ public class FastaBlockCompressedSequence extends FastaIndexedSequence {
 
             return bytes;
         } finally {
-            if (ss != null) {
+            // Closing bis cancels its read-ahead,  and closes ss
+            if (bis != null) {
+                bis.close();
+            } else if (ss != null) {
                 ss.close();
             }
         }
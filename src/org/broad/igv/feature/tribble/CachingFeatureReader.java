@@ -30,6 +30,7 @@ import htsjdk.tribble.TribbleIndexedFeatureReader;
 import htsjdk.tribble.index.Index;
 import org.apache.log4j.Logger;
 import org.broad.igv.feature.AbstractCacher;
+import org.broad.igv.variant.Variant;
 import htsjdk.tribble.CloseableTribbleIterator;
 import htsjdk.tribble.Feature;
 import htsjdk.tribble.FeatureReader;
@@ -47,19 +48,21 @@ import java.util.List;
 public class CachingFeatureReader extends AbstractCacher implements IGVFeatureReader {
 
     private static Logger log = Logger.getLogger(CachingFeatureReader.class);
-    private static int maxBinCount = 1000;
     private static int defaultBinSize = 16000; // <= 16 kb
 
+    // Estimated size of a variant's genotype,  with its map entry
+    static final int GENOTYPE_BYTES = 200;
+
     private FeatureReader tribbleFeatureReader;
 
 
     public CachingFeatureReader(FeatureReader tribbleFeatureReader) {
-        this(tribbleFeatureReader, maxBinCount, defaultBinSize);
+        this(tribbleFeatureReader, defaultBinSize);
     }
 
 
-    public CachingFeatureReader(FeatureReader tribbleFeatureReader, int binCount, int binSize) {
-        super(binCount, binSize);
+    public CachingFeatureReader(FeatureReader tribbleFeatureReader, int binSize) {
+        super(binSize);
         this.tribbleFeatureReader = tribbleFeatureReader;
     }
 
@@ -89,6 +92,17 @@ public class CachingFeatureReader extends AbstractCacher implements IGVFeatureRe
     }
 
 
+    /**
+     * Variants hold a genotype per sample
+     */
+    @Override
+    protected long estimateSize(Feature feature) {
+        if (feature instanceof Variant) {
+            return super.estimateSize(feature) + GENOTYPE_BYTES * ((Variant) feature).getSampleNames().size();
+        }
+        return super.estimateSize(feature);
+    }
+
     @Override
     public List<String> getSequenceNames() {
         return tribbleFeatureReader.getSequenceNames();
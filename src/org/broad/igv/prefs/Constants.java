@@ -145,6 +145,23 @@ final public class Constants {
     public static final String SAM_SHOW_GROUP_SEPARATOR = "SAM.SHOW_GROUP_SEPARATOR";
     public static final String SAM_COMPLETE_READS_ONLY = "SAM.COMPLETE_READS_ONLY";
     public static final String SAM_REDUCED_MEMORY_MODE = "SAM.REDUCED_MEMORY_MODE";
+    public static final String SAM_SHARDED_LOADING = "SAM.SHARDED_LOADING";
+    public static final String SAM_COLUMNAR_ALIGNMENT_STORE = "SAM.COLUMNAR_ALIGNMENT_STORE";
+    public static final String SAM_INTERVAL_PACKING = "SAM.INTERVAL_PACKING";
+    public static final String SAM_PREFETCH = "SAM.PREFETCH";
+    public static final String SAM_PREFETCH_MEMORY_BUDGET = "SAM.PREFETCH_MEMORY_BUDGET";
+    public static final String SAM_COUNTS_CACHE = "SAM.COUNTS_CACHE";
+    public static final String SAM_COUNTS_CACHE_SIZE = "SAM.COUNTS_CACHE_SIZE";
+    public static final String SAM_LITE_BAM_READER = "SAM.LITE_BAM_READER";
+    public static final String BGZF_PARALLEL_INFLATE = "BGZF.PARALLEL_INFLATE";
+    public static final String MAPPED_FILE_IO = "IO.MEMORY_MAPPED";
+    public static final String TILE_CACHE_SIZE_MB = "TILE_CACHE.SIZE_MB";
+    public static final String PARALLEL_SUMMARY_TILES = "DATA.PARALLEL_SUMMARY_TILES";
+    public static final String BIGWIG_PYRAMID = "BIGWIG.PYRAMID";
+    public static final String WHOLE_GENOME_SIDECAR = "DATA.WHOLE_GENOME_SIDECAR";
+    public static final String DATA_PANEL_TILE_CACHE = "DATA_PANEL.TILE_CACHE";
+    public static final String DATA_PANEL_CONCURRENT_FRAMES = "DATA_PANEL.CONCURRENT_FRAMES";
+    public static final String FEATURE_COMPACT_STORE = "FEATURE.COMPACT_STORE";
     public static final String SAM_HIDE_SMALL_INDEL = "SAM.HIDE_SMALL_INDEL";
     public static final String SAM_SMALL_INDEL_BP_THRESHOLD = "SAM.SMALL_INDEL_BP_THRESHOLD";
     public static final String SAM_LINK_READS = "SAM.LINK_READS";
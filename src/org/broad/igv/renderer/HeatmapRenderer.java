@@ -25,6 +25,7 @@
 
 package org.broad.igv.renderer;
 
+import org.broad.igv.data.PackedScores;
 import org.broad.igv.data.rnai.RNAIGeneScore;
 import org.broad.igv.feature.LocusScore;
 import org.broad.igv.prefs.PreferencesManager;
@@ -34,6 +35,7 @@ import org.broad.igv.track.TrackType;
 
 import java.awt.*;
 import java.util.Hashtable;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 
@@ -79,15 +81,34 @@ public class HeatmapRenderer extends DataRenderer {
         int lastPStart = 0;
         int lastW = 0;
 
-        for (LocusScore score : scores) {
+        // Packed scores are read from their arrays,  without creating a score object per bin
+        PackedScores packed = scores instanceof PackedScores ? (PackedScores) scores : null;
+        Iterator<LocusScore> iter = packed == null ? scores.iterator() : null;
+        int nScores = scores.size();
+
+        for (int i = 0; i < nScores; i++) {
             if (lastPStart > maxX) {
                 break;
             }
 
+            LocusScore score = null;
+            int start, end;
+            float value;
+            if (packed != null) {
+                start = packed.getStart(i);
+                end = packed.getEnd(i);
+                value = packed.getScore(i);
+            } else {
+                score = iter.next();
+                start = score.getStart();
+                end = score.getEnd();
+                value = score.getScore();
+            }
+
             // Note -- don't cast these to an int until the range is checked,
             // otherwise could get an overflow.
-            float fStart = (float) ((score.getStart() - origin) / locScale);
-            float fEnd = (float) ((score.getEnd() - origin) / locScale);
+            float fStart = (float) ((start - origin) / locScale);
+            float fEnd = (float) ((end - origin) / locScale);
             // float fw = fEnd - fStart;
             int pStart = (int) fStart;
             int pEnd = (int) fEnd;
@@ -101,7 +122,7 @@ public class HeatmapRenderer extends DataRenderer {
 
             int w = Math.max(min, pEnd - pStart);
 
-            float dataY = track.logScaleData(score.getScore());
+            float dataY = track.logScaleData(value);
             Color graphColor = colorScale.getColor(dataY);
 
             if ((pStart + w) >= 0 && (lastPStart <= maxX)) {
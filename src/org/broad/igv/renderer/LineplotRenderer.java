@@ -33,12 +33,14 @@
  */
 package org.broad.igv.renderer;
 
+import org.broad.igv.data.PackedScores;
 import org.broad.igv.feature.LocusScore;
 import org.broad.igv.prefs.PreferencesManager;
 import org.broad.igv.track.RenderContext;
 import org.broad.igv.track.Track;
 
 import java.awt.*;
+import java.util.Iterator;
 import java.util.List;
 
 import static org.broad.igv.prefs.Constants.ENABLE_ANTIALISING;
@@ -88,15 +90,31 @@ public class LineplotRenderer extends XYPlotRenderer {
         // Calculate the Y scale factor.
         double yScaleFactor = adjustedRect.getHeight() / (maxValue - minValue);
 
+        // Packed scores are read from their arrays,  without creating a score object per bin
+        PackedScores packed = locusScores instanceof PackedScores ? (PackedScores) locusScores : null;
+        Iterator<LocusScore> iter = packed == null ? locusScores.iterator() : null;
+        int nScores = locusScores.size();
+
         int lastPx = 0;
         int lastPy = Integer.MIN_VALUE;
-        for (LocusScore score : locusScores) {
+        for (int i = 0; i < nScores; i++) {
+            int start, end;
+            float dataY;
+            if (packed != null) {
+                start = packed.getStart(i);
+                end = packed.getEnd(i);
+                dataY = packed.getScore(i);
+            } else {
+                LocusScore score = iter.next();
+                start = score.getStart();
+                end = score.getEnd();
+                dataY = score.getScore();
+            }
+
             // Note -- don't cast these to an int until the range is checked.
             // could get an overflow.
-            double x = ((score.getStart() - origin) / locScale);
-            double dx = (score.getEnd() - score.getStart()) / locScale;
-
-            float dataY = score.getScore();
+            double x = ((start - origin) / locScale);
+            double dx = (end - start) / locScale;
 
             // Compute the pixel y location.  
             double y = adjustedRect.getY() + (maxValue - dataY) * yScaleFactor;
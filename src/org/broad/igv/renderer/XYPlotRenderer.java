@@ -33,6 +33,7 @@ package org.broad.igv.renderer;
 //~--- non-JDK imports --------------------------------------------------------
 
 import org.broad.igv.Globals;
+import org.broad.igv.data.PackedScores;
 import org.broad.igv.feature.LocusScore;
 import org.broad.igv.prefs.IGVPreferences;
 import org.broad.igv.prefs.PreferencesManager;
@@ -43,6 +44,7 @@ import org.broad.igv.ui.UIConstants;
 
 import java.awt.*;
 import java.text.DecimalFormat;
+import java.util.Iterator;
 import java.util.List;
 
 import static org.broad.igv.prefs.Constants.*;
@@ -108,20 +110,37 @@ public abstract class XYPlotRenderer extends DataRenderer {
             baseY = adjustedRect.y + adjustedRect.height;
         }
 
+        // Packed scores are read from their arrays,  without creating a score object per bin
+        PackedScores packed = locusScores instanceof PackedScores ? (PackedScores) locusScores : null;
+        Iterator<LocusScore> iter = packed == null ? locusScores.iterator() : null;
+        int nScores = locusScores.size();
+
         int lastPx = 0;
-        for (LocusScore score : locusScores) {
+        for (int i = 0; i < nScores; i++) {
+
+            int start, end;
+            float dataY;
+            if (packed != null) {
+                start = packed.getStart(i);
+                end = packed.getEnd(i);
+                dataY = packed.getScore(i);
+            } else {
+                LocusScore score = iter.next();
+                start = score.getStart();
+                end = score.getEnd();
+                dataY = score.getScore();
+            }
 
             // Note -- don't cast these to an int until the range is checked.
             // could get an overflow.
-            double pX = ((score.getStart() - origin) / locScale);
-            double dx = Math.ceil((Math.max(1, score.getEnd() - score.getStart())) / locScale) + 1;
+            double pX = ((start - origin) / locScale);
+            double dx = Math.ceil((Math.max(1, end - start)) / locScale) + 1;
             if ((pX + dx < 0)) {
                 continue;
             } else if (pX > adjustedRect.getMaxX()) {
                 break;
             }
 
-            float dataY = score.getScore();
             if (isLog && dataY <= 0) {
                 continue;
             }
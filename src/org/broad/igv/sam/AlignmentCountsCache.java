@@ -0,0 +1,334 @@
+package org.broad.igv.sam;
+
+import org.apache.log4j.Logger;
+import org.broad.igv.DirectoryManager;
+import org.broad.igv.feature.SpliceJunctionFeature;
+import org.broad.igv.feature.Strand;
+import org.broad.igv.prefs.IGVPreferences;
+import org.broad.igv.prefs.PreferencesManager;
+import org.broad.igv.util.ResourceLocator;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import static org.broad.igv.prefs.Constants.*;
+
+/**
+ * Local disk cache of the coverage counts and splice junctions computed for regions of an alignment file, so that
+ * revisiting a region,  in this session or a later one,  can draw coverage and junctions without first streaming
+ * the reads.
+ * <p/>
+ * Entries are keyed by file path, size, and modification time, and by the preferences that determine which reads
+ * are counted.  Changing any of these starts a new set of entries.  Each entry is a gzipped binary file holding the
+ * {@link DenseAlignmentCounts} arrays and the junction features of one loaded interval.  The total size of the
+ * cache is limited by SAM.COUNTS_CACHE_SIZE (megabytes), least recently written entries are removed first.
+ * <p/>
+ * Only local files are cached.  Regions loaded with bisulfite, reduced memory, or sparse (> 10 mb) counts are not.
+ */
+class AlignmentCountsCache {
+
+    private static Logger log = Logger.getLogger(AlignmentCountsCache.class);
+
+    private static final int MAGIC = 0x49435443;     // "ICTC"
+    private static final int VERSION = 1;
+    private static final String EXTENSION = ".counts";
+
+    private static final ExecutorService writeExecutor = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "alignment-counts-cache");
+        t.setDaemon(true);
+        t.setPriority(Thread.MIN_PRIORITY);
+        return t;
+    });
+
+    private final File file;
+    private final File rootDirectory;
+    private String key;
+    private File directory;
+
+    /**
+     * @return a cache for the file at {@code locator}, or null if it cannot be cached
+     */
+    static AlignmentCountsCache create(ResourceLocator locator) {
+        if (!locator.isLocal()) {
+            return null;
+        }
+        File file = new File(locator.getPath());
+        File cacheDirectory = DirectoryManager.getCacheDirectory();
+        if (!file.isFile() || cacheDirectory == null) {
+            return null;
+        }
+        return new AlignmentCountsCache(file, new File(cacheDirectory, "counts"));
+    }
+
+    AlignmentCountsCache(File file, File rootDirectory) {
+        this.file = file;
+        this.rootDirectory = rootDirectory;
+    }
+
+    static boolean isEnabled() {
+        return PreferencesManager.getPreferences().getAsBoolean(SAM_COUNTS_CACHE);
+    }
+
+    /**
+     * Return an interval containing the range [start, end), with counts and splice junctions but no alignments.
+     *
+     * @return the interval, or null if no cached entry contains the range
+     */
+    AlignmentInterval get(String chr, int start, int end, SpliceJunctionHelper.LoadOptions loadOptions) {
+
+        File[] entries = getDirectory().listFiles((dir, name) -> name.endsWith(EXTENSION));
+        if (entries == null) {
+            return null;
+        }
+
+        String prefix = getEntryPrefix(chr);
+        for (File entry : entries) {
+            String name = entry.getName();
+            if (!name.startsWith(prefix)) continue;
+            String[] tokens = name.substring(prefix.length(), name.length() - EXTENSION.length()).split("_");
+            if (tokens.length != 2) continue;
+            try {
+                int entryStart = Integer.parseInt(tokens[0]);
+                int entryEnd = Integer.parseInt(tokens[1]);
+                if (entryStart <= start && entryEnd >= end) {
+                    return read(entry, chr, loadOptions);
+                }
+            } catch (NumberFormatException e) {
+                // Not an entry
+            } catch (IOException e) {
+                log.error("Error reading cached counts " + entry.getAbsolutePath(), e);
+                entry.delete();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return false for the counts of regions loaded with reduced memory,  sparse (> 10 mb),  or bisulfite counts,
+     * which are not cached
+     */
+    static boolean isCacheable(AlignmentCounts counts) {
+        if (counts instanceof ReducedMemoryAlignment.ReducedMemoryAlignmentCounts) {
+            return false;
+        }
+        if (counts instanceof SparseAlignmentCounts) {
+            return false;
+        }
+        if (counts.getBisulfiteCounts() != null) {
+            return false;
+        }
+        return counts instanceof DenseAlignmentCounts;
+    }
+
+    /**
+     * Write the counts and junctions of a completely loaded interval.  The write is performed asynchronously,
+     * {@code counts} and {@code spliceJunctionHelper} must not be modified afterwards.
+     */
+    void put(String chr, AlignmentCounts counts, SpliceJunctionHelper spliceJunctionHelper) {
+
+        if (!isCacheable(counts)) {
+            return;
+        }
+
+        final File entryDirectory = getDirectory();
+        final String name = getEntryPrefix(chr) + counts.getStart() + "_" + counts.getEnd() + EXTENSION;
+        writeExecutor.submit(() -> {
+            File entry = new File(entryDirectory, name);
+            File tmp = new File(entryDirectory, name + ".tmp");
+            try {
+                entryDirectory.mkdirs();
+                write(tmp, (DenseAlignmentCounts) counts, spliceJunctionHelper);
+                if (!tmp.renameTo(entry)) {
+                    tmp.delete();
+                }
+                trim();
+            } catch (IOException e) {
+                log.error("Error writing cached counts " + entry.getAbsolutePath(), e);
+                tmp.delete();
+            }
+        });
+    }
+
+    /**
+     * Wait for pending writes to complete
+     */
+    void flush() throws InterruptedException, ExecutionException {
+        writeExecutor.submit(() -> {
+        }).get();
+    }
+
+    private AlignmentInterval read(File entry, String chr, SpliceJunctionHelper.LoadOptions loadOptions) throws IOException {
+
+        try (DataInputStream dis = new DataInputStream(new BufferedInputStream(new GZIPInputStream(new FileInputStream(entry))))) {
+
+            if (dis.readInt() != MAGIC || dis.readInt() != VERSION || !dis.readUTF().equals(getKey())) {
+                throw new IOException("Unexpected cache entry header");
+            }
+            int start = dis.readInt();
+            int end = dis.readInt();
+            DenseAlignmentCounts counts = DenseAlignmentCounts.read(dis, start, end);
+
+            SpliceJunctionHelper spliceJunctionHelper = new SpliceJunctionHelper(loadOptions);
+            int nJunctions = dis.readInt();
+            for (int i = 0; i < nJunctions; i++) {
+                String junctionChr = dis.readUTF();
+                int junctionStart = dis.readInt();
+                int junctionEnd = dis.readInt();
+                Strand strand = dis.readBoolean() ? Strand.NEGATIVE : Strand.POSITIVE;
+                SpliceJunctionFeature junction = new SpliceJunctionFeature(junctionChr, junctionStart, junctionEnd, strand);
+                junction.setJunctionDepth(dis.readInt());
+                int[] startFlankingDepth = readArray(dis);
+                int[] endFlankingDepth = readArray(dis);
+                junction.setStartFlankingRegionDepthArray(startFlankingDepth);
+                junction.setEndFlankingRegionDepthArray(endFlankingDepth);
+                junction.setStart(junctionStart - (startFlankingDepth == null ? 0 : startFlankingDepth.length));
+                junction.setEnd(junctionEnd + (endFlankingDepth == null ? 0 : endFlankingDepth.length));
+                spliceJunctionHelper.addJunction(junction);
+            }
+
+            entry.setLastModified(System.currentTimeMillis());
+            return new AlignmentInterval(chr, start, end, new ArrayList<>(), counts, spliceJunctionHelper,
+                    new ArrayList<>());
+        }
+    }
+
+    private void write(File entry, DenseAlignmentCounts counts, SpliceJunctionHelper spliceJunctionHelper) throws IOException {
+
+        try (DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(new GZIPOutputStream(new FileOutputStream(entry))))) {
+
+            dos.writeInt(MAGIC);
+            dos.writeInt(VERSION);
+            dos.writeUTF(getKey());
+            dos.writeInt(counts.getStart());
+            dos.writeInt(counts.getEnd());
+            counts.write(dos);
+
+            List<SpliceJunctionFeature> junctions = spliceJunctionHelper == null ?
+                    Collections.emptyList() : spliceJunctionHelper.allSpliceJunctionFeatures;
+            dos.writeInt(junctions.size());
+            for (SpliceJunctionFeature junction : junctions) {
+                dos.writeUTF(junction.getChr());
+                dos.writeInt(junction.getJunctionStart());
+                dos.writeInt(junction.getJunctionEnd());
+                dos.writeBoolean(junction.getStrand() == Strand.NEGATIVE);
+                dos.writeInt(junction.getJunctionDepth());
+                writeArray(dos, junction.getStartFlankingRegionDepthArray());
+                writeArray(dos, junction.getEndFlankingRegionDepthArray());
+            }
+        }
+    }
+
+    private static void writeArray(DataOutputStream dos, int[] array) throws IOException {
+        if (array == null) {
+            dos.writeInt(-1);
+        } else {
+            dos.writeInt(array.length);
+            for (int value : array) {
+                dos.writeInt(value);
+            }
+        }
+    }
+
+    private static int[] readArray(DataInputStream dis) throws IOException {
+        int length = dis.readInt();
+        if (length < 0) {
+            return null;
+        }
+        int[] array = new int[length];
+        for (int i = 0; i < length; i++) {
+            array[i] = dis.readInt();
+        }
+        return array;
+    }
+
+    /**
+     * Remove the least recently used entries, across all files, until the cache is within its size limit
+     */
+    private void trim() {
+
+        long limit = PreferencesManager.getPreferences().getAsInt(SAM_COUNTS_CACHE_SIZE) * 1000000L;
+
+        List<File> entries = new ArrayList<>();
+        File[] directories = rootDirectory.listFiles(File::isDirectory);
+        if (directories != null) {
+            for (File dir : directories) {
+                File[] files = dir.listFiles((d, name) -> name.endsWith(EXTENSION));
+                if (files != null) {
+                    entries.addAll(Arrays.asList(files));
+                }
+            }
+        }
+
+        long size = 0;
+        for (File entry : entries) {
+            size += entry.length();
+        }
+        if (size <= limit) {
+            return;
+        }
+
+        entries.sort(Comparator.comparingLong(File::lastModified));
+        for (File entry : entries) {
+            if (size <= limit) break;
+            size -= entry.length();
+            entry.delete();
+            File dir = entry.getParentFile();
+            String[] remaining = dir.list();
+            if (remaining != null && remaining.length == 0) {
+                dir.delete();
+            }
+        }
+    }
+
+    /**
+     * The key changes whenever the file, or the settings determining which reads are counted, change.  The file
+     * state is checked on each call,  so a file rewritten during a session does not return stale counts.
+     */
+    private synchronized String getKey() {
+        IGVPreferences prefs = PreferencesManager.getPreferences();
+        String key = file.getAbsolutePath() + "\t" + file.length() + "\t" + file.lastModified() +
+                "\t" + prefs.getAsBoolean(SAM_FILTER_FAILED_READS) +
+                "\t" + prefs.getAsBoolean(SAM_FILTER_SECONDARY_ALIGNMENTS) +
+                "\t" + prefs.getAsBoolean(SAM_FILTER_SUPPLEMENTARY_ALIGNMENTS) +
+                "\t" + (prefs.getAsBoolean(SAM_SHOW_DUPLICATES) || !prefs.getAsBoolean(SAM_FILTER_DUPLICATES)) +
+                "\t" + prefs.getAsInt(SAM_QUALITY_THRESHOLD) +
+                "\t" + prefs.getAsBoolean(SAM_COUNT_DELETED_BASES_COVERED) +
+                "\t" + (prefs.getAsBoolean(SAM_FILTER_ALIGNMENTS) ? prefs.get(SAM_FILTER_URL) : "") +
+                "\t" + prefs.getAsInt(SAM_JUNCTION_MIN_FLANKING_WIDTH);
+        if (!key.equals(this.key)) {
+            this.key = key;
+            this.directory = new File(rootDirectory, digest(key));
+        }
+        return key;
+    }
+
+    private synchronized File getDirectory() {
+        getKey();
+        return directory;
+    }
+
+    private static String getEntryPrefix(String chr) {
+        return chr.replaceAll("[^A-Za-z0-9.-]", "-") + "_";
+    }
+
+    private static String digest(String key) {
+        try {
+            byte[] bytes = MessageDigest.getInstance("SHA-1").digest(key.getBytes(StandardCharsets.UTF_8));
+            StringBuilder buf = new StringBuilder();
+            for (byte b : bytes) {
+                buf.append(String.format("%02x", b));
+            }
+            return buf.toString();
+        } catch (NoSuchAlgorithmException e) {
+            return Integer.toHexString(key.hashCode());
+        }
+    }
+}
@@ -27,6 +27,7 @@ package org.broad.igv.sam;
 
 import org.apache.log4j.Logger;
 import org.broad.igv.event.RefreshEvent;
+import org.broad.igv.feature.FeatureUtils;
 import org.broad.igv.feature.Range;
 import org.broad.igv.feature.genome.Genome;
 import org.broad.igv.prefs.IGVPreferences;
@@ -37,6 +38,7 @@ import org.broad.igv.track.RenderContext;
 import org.broad.igv.event.DataLoadedEvent;
 import org.broad.igv.event.IGVEventBus;
 import org.broad.igv.event.IGVEventObserver;
+import org.broad.igv.ui.IGV;
 import org.broad.igv.ui.panel.FrameManager;
 import org.broad.igv.ui.panel.ReferenceFrame;
 import org.broad.igv.util.ResourceLocator;
@@ -63,6 +65,8 @@ public class AlignmentDataManager implements IGVEventObserver {
     private HashMap<String, String> chrMappings = new HashMap();
     private Set<Range> isLoading = new HashSet<>();
     private AlignmentTileLoader reader;
+    private AlignmentPrefetcher prefetcher;
+    private AlignmentCountsCache countsCache;
     private CoverageTrack coverageTrack;
     private Map<String, PEStats> peStats;
     private SpliceJunctionHelper.LoadOptions loadOptions;
@@ -73,11 +77,12 @@ public class AlignmentDataManager implements IGVEventObserver {
 
     public AlignmentDataManager(ResourceLocator locator, Genome genome) throws IOException {
         this.locator = locator;
-        reader = new AlignmentTileLoader(AlignmentReaderFactory.getReader(locator));
+        reader = new AlignmentTileLoader(AlignmentReaderFactory.getReader(locator), locator);
         peStats = new HashMap();
         initLoadOptions();
         initChrMap(genome);
         intervalCache = Collections.synchronizedList(new ArrayList<>());
+        prefetcher = new AlignmentPrefetcher(this, locator);
 
         IGVEventBus.getInstance().subscribe(FrameManager.ChangeEvent.class, this);
         IGVEventBus.getInstance().subscribe(RefreshEvent.class, this);
@@ -92,13 +97,15 @@ public class AlignmentDataManager implements IGVEventObserver {
 
             // Trim cache to include only current frames
 
+            // Frames may share an interval
             for (ReferenceFrame f : frames) {
                 AlignmentInterval i = getLoadedInterval(f);
-                if (i != null) {
+                if (i != null && !newCache.contains(i)) {
                     newCache.add(i);
                 }
             }
             intervalCache = newCache;
+            prefetcher.clear();
 
 
         } else if (event instanceof RefreshEvent) {
@@ -255,6 +262,18 @@ public class AlignmentDataManager implements IGVEventObserver {
         return getLoadedInterval(frame) != null;
     }
 
+    /**
+     * Prefetch alignments ahead of {@code frame} if it is panning.  The frame's current range must be loaded.
+     */
+    public void prefetch(ReferenceFrame frame, AlignmentTrack.RenderOptions renderOptions) {
+        if (PreferencesManager.getPreferences().getAsBoolean(SAM_PREFETCH)) {
+            AlignmentInterval interval = getLoadedInterval(frame);
+            if (interval != null) {
+                prefetcher.observe(frame, interval, renderOptions);
+            }
+        }
+    }
+
     public boolean isLoading(ReferenceFrame frame) {
 
         Range range = frame.getCurrentRange();
@@ -280,28 +299,40 @@ public class AlignmentDataManager implements IGVEventObserver {
 
             final String chr = referenceFrame.getChrName();
 
-            final int start = (int) range.getStart();
-            final int end = (int) range.getEnd();
-            int adjustedStart = start;
-            int adjustedEnd = end;
-
-            // Expand the interval by the lesser of  +/- a 2 screens, or max visible range
-            int windowSize = Math.min(4 * (end - start), PreferencesManager.getPreferences().getAsInt(SAM_MAX_VISIBLE_RANGE) * 1000);
-            int center = (end + start) / 2;
-            int expand = Math.max(end - start, windowSize / 2);
-
-            if (expandEnds) {
-                adjustedStart = Math.max(0, Math.min(start, center - expand));
-                adjustedEnd = Math.max(end, center + expand);
-            }
+            Range loadRange = getLoadRange(range, expandEnds);
+            int adjustedStart = loadRange.getStart();
+            int adjustedEnd = loadRange.getEnd();
 
 
             log.debug("Loading alignments: " + chr + ":" + adjustedStart + "-" + adjustedEnd + " for " + AlignmentDataManager.this);
 
-            AlignmentInterval loadedInterval = loadInterval(chr, adjustedStart, adjustedEnd, renderOptions);
-            intervalCache.add(loadedInterval);
+            AlignmentInterval loadedInterval = prefetcher.take(range);
+            AlignmentInterval cachedInterval = null;
+            if (loadedInterval == null) {
+
+                // Draw cached coverage and junctions while the alignments are loading
+                if (showAlignments) {
+                    cachedInterval = getCachedInterval(chr, adjustedStart, adjustedEnd, renderOptions);
+                    if (cachedInterval != null) {
+                        cachedInterval.packAlignments(renderOptions);
+                        intervalCache.add(cachedInterval);
+                        if (IGV.hasInstance()) {
+                            IGV.getInstance().repaint();
+                        }
+                    }
+                }
 
-            packAlignments(renderOptions);
+                long t0 = System.currentTimeMillis();
+                loadedInterval = loadInterval(chr, adjustedStart, adjustedEnd, renderOptions);
+                prefetcher.loadCompleted(System.currentTimeMillis() - t0);
+            }
+            // Previously loaded intervals are packed already with the current options,  only the new one needs packing.
+            // Extend the rows of the interval it continues,  if any,  so they do not shift as the view is panned.
+            loadedInterval.packAlignments(renderOptions, getPreviousInterval(loadedInterval, cachedInterval));
+            intervalCache.add(loadedInterval);
+            if (cachedInterval != null) {
+                intervalCache.remove(cachedInterval);
+            }
             isLoading.remove(range);
 
             //  IGVEventBus.getInstance().post(new DataLoadedEvent(referenceFrame));
@@ -310,7 +341,94 @@ public class AlignmentDataManager implements IGVEventObserver {
     }
 
 
+    /**
+     * Return the loaded interval which {@code interval} extends to the right,  if any,  so its packing can be reused
+     */
+    private AlignmentInterval getPreviousInterval(AlignmentInterval interval, AlignmentInterval exclude) {
+        AlignmentInterval previous = null;
+        synchronized (intervalCache) {
+            for (AlignmentInterval i : intervalCache) {
+                if (i != exclude && i.getPackedAlignments() != null && i.getChr().equals(interval.getChr()) &&
+                        i.getStart() <= interval.getStart() && interval.getStart() < i.getEnd() &&
+                        (previous == null || i.getEnd() > previous.getEnd())) {
+                    previous = i;
+                }
+            }
+        }
+        return previous;
+    }
+
+    /**
+     * Load several frames,  e.g. the loci of a gene list.  The intervals of frames near each other on a chromosome
+     * are merged (see {@link FeatureUtils#mergeRanges}) and each merged interval is loaded with a single query.
+     */
+    public void load(List<ReferenceFrame> frames,
+                     AlignmentTrack.RenderOptions renderOptions,
+                     boolean expandEnds) {
+
+        synchronized (loadLock) {
+            List<Range> ranges = new ArrayList<>();
+            for (ReferenceFrame frame : frames) {
+                if (!isLoaded(frame)) {
+                    ranges.add(getLoadRange(frame.getCurrentRange(), expandEnds));
+                }
+            }
+            int maxLength = PreferencesManager.getPreferences().getAsInt(SAM_MAX_VISIBLE_RANGE) * 1000;
+            List<Range> mergedRanges = FeatureUtils.mergeRanges(ranges, maxLength);
+            isLoading.addAll(mergedRanges);
+            try {
+                for (Range range : mergedRanges) {
+                    log.debug("Loading alignments: " + range.printString() + " for " + AlignmentDataManager.this);
+                    AlignmentInterval loadedInterval = loadInterval(range.getChr(), range.getStart(), range.getEnd(), renderOptions);
+                    intervalCache.add(loadedInterval);
+                    loadedInterval.packAlignments(renderOptions);
+                }
+            } finally {
+                isLoading.removeAll(mergedRanges);
+            }
+        }
+    }
+
+    /**
+     * Return the interval to load for a frame's range,  expanded if {@code expandEnds} by the lesser of +/- 2 screens
+     * or the max visible range
+     */
+    private Range getLoadRange(Range range, boolean expandEnds) {
+
+        final int start = range.getStart();
+        final int end = range.getEnd();
+        if (!expandEnds) {
+            return new Range(range.getChr(), start, end);
+        }
+
+        int windowSize = Math.min(4 * (end - start), PreferencesManager.getPreferences().getAsInt(SAM_MAX_VISIBLE_RANGE) * 1000);
+        int center = (end + start) / 2;
+        int expand = Math.max(end - start, windowSize / 2);
+        return new Range(range.getChr(), Math.max(0, Math.min(start, center - expand)), Math.max(end, center + expand));
+    }
+
     AlignmentInterval loadInterval(String chr, int start, int end, AlignmentTrack.RenderOptions renderOptions) {
+        reader.resetCancel();
+        return loadInterval(reader, chr, start, end, renderOptions, peStats);
+    }
+
+    /**
+     * Load an interval with {@code loader}.  Pass a null {@code peStats} to leave paired end statistics unchanged.
+     */
+    AlignmentInterval loadInterval(AlignmentTileLoader loader,
+                                   String chr,
+                                   int start,
+                                   int end,
+                                   AlignmentTrack.RenderOptions renderOptions,
+                                   Map<String, PEStats> peStats) {
+
+        // Without alignments to show the counts are all that is needed
+        if (!showAlignments) {
+            AlignmentInterval cachedInterval = getCachedInterval(chr, start, end, renderOptions);
+            if (cachedInterval != null) {
+                return cachedInterval;
+            }
+        }
 
         String sequence = chrMappings.containsKey(chr) ? chrMappings.get(chr) : chr;
 
@@ -323,7 +441,7 @@ public class AlignmentDataManager implements IGVEventObserver {
 
         ReadStats readStats = new ReadStats();
 
-        AlignmentTileLoader.AlignmentTile t = reader.loadTile(sequence, start, end, spliceJunctionHelper,
+        AlignmentTileLoader.AlignmentTile t = loader.loadTile(sequence, start, end, spliceJunctionHelper,
                 downsampleOptions, readStats, peStats, bisulfiteContext, showAlignments);
 
         if (type == null) {
@@ -331,11 +449,36 @@ public class AlignmentDataManager implements IGVEventObserver {
             inferType(readStats);
         }
 
+        AlignmentCountsCache countsCache = getCountsCache();
+        if (countsCache != null && t.isLoaded() && bisulfiteContext == null) {
+            countsCache.put(chr, t.getCounts(), spliceJunctionHelper);
+        }
+
         List<Alignment> alignments = t.getAlignments();
         List<DownsampledInterval> downsampledIntervals = t.getDownsampledIntervals();
         return new AlignmentInterval(chr, start, end, alignments, t.getCounts(), spliceJunctionHelper, downsampledIntervals);
     }
 
+    /**
+     * Return an interval with the cached counts and splice junctions for a range,  without alignments.
+     *
+     * @return the interval, or null if the counts cache is disabled or does not contain the range
+     */
+    private AlignmentInterval getCachedInterval(String chr, int start, int end, AlignmentTrack.RenderOptions renderOptions) {
+        AlignmentCountsCache countsCache = getCountsCache();
+        if (countsCache == null || (renderOptions != null && renderOptions.bisulfiteContext != null)) {
+            return null;
+        }
+        return countsCache.get(chr, start, end, loadOptions);
+    }
+
+    private synchronized AlignmentCountsCache getCountsCache() {
+        if (countsCache == null && AlignmentCountsCache.isEnabled()) {
+            countsCache = AlignmentCountsCache.create(locator);
+        }
+        return AlignmentCountsCache.isEnabled() ? countsCache : null;
+    }
+
     /**
      * Some empirical metrics for determining experiment type
      *
@@ -367,6 +510,7 @@ public class AlignmentDataManager implements IGVEventObserver {
 
     public void clear() {
         intervalCache.clear();
+        prefetcher.clear();
     }
 
     public void dumpAlignments() {
@@ -442,6 +586,11 @@ public class AlignmentDataManager implements IGVEventObserver {
                 log.error("Error closing AlignmentQueryReader. ", ex);
             }
         }
+        try {
+            prefetcher.close();
+        } catch (IOException ex) {
+            log.error("Error closing AlignmentQueryReader. ", ex);
+        }
 
     }
 
@@ -475,7 +624,7 @@ public class AlignmentDataManager implements IGVEventObserver {
                 dumpAlignments();
             } else {
                 // Change from false => true,  need to reload
-                intervalCache.clear();
+                clear();
             }
         }
 
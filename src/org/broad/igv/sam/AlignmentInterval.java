@@ -165,9 +165,16 @@ public class AlignmentInterval extends Locus {
     }
 
     public void packAlignments(AlignmentTrack.RenderOptions renderOptions) {
+        packAlignments(renderOptions, null);
+    }
+
+    /**
+     * Pack alignments,  extending the rows of {@code previous} if this interval extends it to the right
+     */
+    void packAlignments(AlignmentTrack.RenderOptions renderOptions, AlignmentInterval previous) {
 
         final AlignmentPacker alignmentPacker = new AlignmentPacker();
-        this.packedAlignments = alignmentPacker.packAlignments(this, renderOptions);
+        this.packedAlignments = alignmentPacker.packAlignments(this, renderOptions, previous);
     }
 
     public PackedAlignments getPackedAlignments() {
@@ -32,9 +32,12 @@ package org.broad.igv.sam;
 import org.apache.log4j.Logger;
 import org.broad.igv.feature.Range;
 import org.broad.igv.feature.Strand;
+import org.broad.igv.prefs.PreferencesManager;
 
 import java.util.*;
 
+import static org.broad.igv.prefs.Constants.SAM_INTERVAL_PACKING;
+
 /**
  * Packs alignments such that there is no overlap
  *
@@ -56,15 +59,53 @@ public class AlignmentPacker {
         }
     };
 
+    // Alignments with the same start are taken longest first,  as from the start position buckets
+    private static final Comparator<Alignment> startComparator =
+            Comparator.comparingInt(Alignment::getStart).thenComparing(lengthComparator);
+
     private static final String NULL_GROUP_VALUE = "";
     public static final int tenMB = 10000000;
 
+    private final boolean intervalPacking;
+
+    public AlignmentPacker() {
+        this(PreferencesManager.getPreferences().getAsBoolean(SAM_INTERVAL_PACKING));
+    }
+
+    /**
+     * @param intervalPacking if true pack with a {@link RowPacker},  otherwise with the start position buckets of
+     *                        {@link DenseBucketCollection} and {@link SparseBucketCollection}
+     */
+    AlignmentPacker(boolean intervalPacking) {
+        this.intervalPacking = intervalPacking;
+    }
+
     /**
      * Allocates each alignment to row such that there is no overlap.
      */
     public PackedAlignments packAlignments(
             AlignmentInterval interval,
             AlignmentTrack.RenderOptions renderOptions) {
+        return packAlignments(interval, renderOptions, null);
+    }
+
+    /**
+     * Allocates each alignment to row such that there is no overlap.  If {@code previous} is a packed interval which
+     * {@code interval} extends to the right,  e.g. after a pan,  its rows are kept and only alignments beyond its end
+     * are packed.
+     */
+    public PackedAlignments packAlignments(
+            AlignmentInterval interval,
+            AlignmentTrack.RenderOptions renderOptions,
+            AlignmentInterval previous) {
+
+        String packingOptions = getPackingOptions(renderOptions);
+        if (previous != null && canExtend(previous, interval, renderOptions, packingOptions)) {
+            PackedAlignments extended = extendPacking(previous, interval, renderOptions, packingOptions);
+            if (extended != null) {
+                return extended;
+            }
+        }
 
         LinkedHashMap<String, List<Row>> packedAlignments = new LinkedHashMap<String, List<Row>>();
 
@@ -113,19 +154,168 @@ public class AlignmentPacker {
 
         List<AlignmentInterval> tmp = new ArrayList<AlignmentInterval>();
         tmp.add(interval);
-        return new PackedAlignments(tmp, packedAlignments);
+        return new PackedAlignments(tmp, packedAlignments, packingOptions);
+    }
+
+    private boolean canExtend(AlignmentInterval previous, AlignmentInterval interval,
+                              AlignmentTrack.RenderOptions renderOptions, String packingOptions) {
+        PackedAlignments previousPacking = previous.getPackedAlignments();
+        return intervalPacking && !renderOptions.viewPairs && !renderOptions.linkedReads &&
+                previousPacking != null && packingOptions.equals(previousPacking.getPackingOptions()) &&
+                previous.getChr().equals(interval.getChr()) &&
+                previous.getStart() <= interval.getStart() &&
+                interval.getStart() < previous.getEnd() && previous.getEnd() < interval.getEnd();
+    }
+
+    /**
+     * Seed a {@link RowPacker} for each group with the rows of {@code previous},  less alignments which end before
+     * {@code interval},  and add the alignments of {@code interval} which start beyond {@code previous}.  Rows keep
+     * their order,  so the layout does not shift as the view is panned.
+     *
+     * @return the packed alignments,  or null if a soft clipped alignment would be out of order and a full packing is
+     * required
+     */
+    private PackedAlignments extendPacking(AlignmentInterval previous, AlignmentInterval interval,
+                                           AlignmentTrack.RenderOptions renderOptions, String packingOptions) {
+
+        int start = interval.getStart();
+        int previousEnd = previous.getEnd();
+
+        Map<String, List<Alignment>> groupedAlignments = new HashMap<>();
+        for (Alignment al : interval.getAlignments()) {
+            if (al.isMapped() && al.getAlignmentStart() >= previousEnd) {
+                String groupKey = renderOptions.groupByOption == null ? "" : getGroupValue(al, renderOptions);
+                if (groupKey == null) {
+                    groupKey = NULL_GROUP_VALUE;
+                }
+                groupedAlignments.computeIfAbsent(groupKey, k -> new ArrayList<>()).add(al);
+            }
+        }
+
+        Map<String, List<Row>> seedRows = new HashMap<>();
+        for (Map.Entry<String, List<Row>> entry : previous.getPackedAlignments().entrySet()) {
+            List<Row> rows = new ArrayList<>(entry.getValue().size());
+            boolean empty = true;
+            for (Row previousRow : entry.getValue()) {
+                Row row = new Row();
+                for (Alignment al : previousRow.alignments) {
+                    if (al.getEnd() > start) {
+                        row.addAlignment(al);
+                    }
+                }
+                empty &= row.alignments.isEmpty();
+                rows.add(row);
+            }
+            if (!empty) {
+                seedRows.put(entry.getKey(), rows);
+            }
+        }
+
+        Set<String> keySet = new HashSet<>(seedRows.keySet());
+        keySet.addAll(groupedAlignments.keySet());
+        List<String> keys = new ArrayList<>(keySet);
+        if (renderOptions.groupByOption != null) {
+            keys.sort(getGroupComparator(renderOptions.groupByOption));
+        }
+
+        LinkedHashMap<String, List<Row>> packedAlignments = new LinkedHashMap<>();
+        for (String key : keys) {
+            List<Row> rows = seedRows.getOrDefault(key, new ArrayList<>());
+            int lastStart = Integer.MIN_VALUE;
+            for (Row row : rows) {
+                if (!row.alignments.isEmpty()) {
+                    lastStart = Math.max(lastStart, row.alignments.get(row.alignments.size() - 1).getStart());
+                }
+            }
+            List<Alignment> alignments = groupedAlignments.getOrDefault(key, Collections.emptyList());
+            alignments.sort(startComparator);
+            if (!alignments.isEmpty() && alignments.get(0).getStart() < lastStart) {
+                return null;
+            }
+            RowPacker rowPacker = new RowPacker(rows);
+            for (Alignment alignment : alignments) {
+                rowPacker.add(alignment);
+            }
+            packedAlignments.put(key, rows);
+        }
+
+        List<AlignmentInterval> tmp = new ArrayList<AlignmentInterval>();
+        tmp.add(interval);
+        return new PackedAlignments(tmp, packedAlignments, packingOptions);
+    }
+
+    /**
+     * @return a description of the options which determine the layout of a packing,  used to decide if it can be
+     * extended
+     */
+    private static String getPackingOptions(AlignmentTrack.RenderOptions renderOptions) {
+        return renderOptions.groupByOption + "\t" + renderOptions.groupByTag + "\t" + renderOptions.groupByPos + "\t" +
+                renderOptions.viewPairs + "\t" + renderOptions.linkedReads + "\t" + renderOptions.linkByTag;
     }
 
 
     private void pack(List<Alignment> alList, AlignmentTrack.RenderOptions renderOptions, List<Row> alignmentRows) {
+        if (intervalPacking) {
+            packIntervals(alList, renderOptions, alignmentRows);
+        } else {
+            packBuckets(alList, renderOptions, alignmentRows);
+        }
+    }
+
+    /**
+     * Pack alignments with a {@link RowPacker}.  The layout is that of {@link #packBuckets}, without allocating a
+     * bucket per start position.
+     */
+    private void packIntervals(List<Alignment> alList, AlignmentTrack.RenderOptions renderOptions, List<Row> alignmentRows) {
+
+        if (alList == null || alList.size() == 0) return;
+
+        MateIndex<PairedAlignment> pairs = renderOptions.viewPairs ? new MateIndex<>() : null;
+
+        List<Alignment> alignments = new ArrayList<>(alList.size());
+        for (Alignment al : alList) {
+            if (al.isMapped()) {
+                Alignment alignment = al;
+                if (pairs != null && isPairable(al)) {
+                    String readName = al.getReadName();
+                    pairs.advance(al.getAlignmentStart());
+                    PairedAlignment pair = pairs.remove(readName);
+                    if (pair == null) {
+                        pair = new PairedAlignment(al);
+                        pairs.put(readName, pair, al.getMate().getStart());
+                        alignment = pair;
+                    } else {
+                        pair.setSecondAlignment(al);
+                        continue;
+                    }
+                }
+                alignments.add(alignment);
+            }
+        }
+
+        // Alignments are nearly always in start order already,  in which case the sort is a single linear pass
+        alignments.sort(startComparator);
+
+        long t0 = System.currentTimeMillis();
+        RowPacker rowPacker = new RowPacker(alignmentRows);
+        for (Alignment alignment : alignments) {
+            rowPacker.add(alignment);
+        }
+        if (log.isDebugEnabled()) {
+            long dt = System.currentTimeMillis() - t0;
+            log.debug("Packed alignments in " + dt);
+        }
+    }
+
+    private void packBuckets(List<Alignment> alList, AlignmentTrack.RenderOptions renderOptions, List<Row> alignmentRows) {
 
-        Map<String, PairedAlignment> pairs = null;
+        MateIndex<PairedAlignment> pairs = null;
 
         boolean isPairedAlignments = renderOptions.viewPairs;
         String linkByTag = renderOptions.linkByTag;
 
         if (isPairedAlignments) {
-            pairs = new HashMap<>(1000);
+            pairs = new MateIndex<>();
         }
 
 
@@ -160,15 +350,15 @@ public class AlignmentPacker {
                 // Pair alignments -- do not pair secondaryalignments
                 if (isPairedAlignments && isPairable(al)) {
                     String readName = al.getReadName();
-                    PairedAlignment pair = pairs.get(readName);
+                    pairs.advance(al.getAlignmentStart());
+                    PairedAlignment pair = pairs.remove(readName);
                     if (pair == null) {
                         pair = new PairedAlignment(al);
-                        pairs.put(readName, pair);
+                        pairs.put(readName, pair, al.getMate().getStart());
                         alignment = pair;
                     } else {
                         // Add second alignment to pair.
                         pair.setSecondAlignment(al);
-                        pairs.remove(readName);
                         continue;
 
                     }
@@ -0,0 +1,354 @@
+package org.broad.igv.sam;
+
+import org.apache.log4j.Logger;
+import org.broad.igv.feature.Range;
+import org.broad.igv.prefs.PreferencesManager;
+import org.broad.igv.sam.reader.AlignmentReaderFactory;
+import org.broad.igv.ui.panel.LoadScheduler;
+import org.broad.igv.ui.panel.ReferenceFrame;
+import org.broad.igv.util.ResourceLocator;
+import org.broad.igv.util.RuntimeUtils;
+
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+import static org.broad.igv.prefs.Constants.SAM_PREFETCH_MEMORY_BUDGET;
+
+/**
+ * Speculatively loads the alignment intervals ahead of a panning reference frame,  so that panning through a
+ * file on a high latency store does not stall at the edge of every loaded interval.
+ * <p/>
+ * The pan velocity of each frame is tracked from successive observations.  While a frame is moving, the next
+ * interval(s) in the direction of motion are loaded at {@link LoadScheduler.Priority#PREFETCH} priority, with a
+ * reader of their own so foreground loads are not blocked.  The number of intervals loaded ahead scales with velocity and load
+ * latency.  Prefetched intervals are held until the frame reaches them, or until they are stale, that is on another
+ * chromosome or too far from every frame to be reached.  The total estimated size of prefetched intervals is
+ * limited by the SAM.PREFETCH_MEMORY_BUDGET preference (in megabytes).
+ */
+class AlignmentPrefetcher {
+
+    private static Logger log = Logger.getLogger(AlignmentPrefetcher.class);
+
+    static final int MAX_LOOKAHEAD = 3;
+
+    /**
+     * Frames that have not moved for this long (ms) are considered stopped
+     */
+    private static final long MOTION_TIMEOUT = 1000;
+
+    /**
+     * Prefetching stops when the fraction of available heap drops below this value.  Tile loading itself aborts
+     * at 0.2.
+     */
+    private static final double MIN_MEMORY_FRACTION = 0.4;
+
+    // Rough estimates of retained size, used for the memory budget
+    private static final int ALIGNMENT_OVERHEAD_BYTES = 500;
+    private static final int BYTES_PER_ALIGNED_BASE = 3;
+    private static final int COUNTS_BYTES_PER_BASE = 80;
+
+    private final AlignmentDataManager dataManager;
+    private final ResourceLocator locator;
+    private volatile AlignmentTileLoader loader;
+
+    private final Map<String, Motion> motions = new HashMap<>();
+    private final List<Prefetch> prefetches = new ArrayList<>();
+    private volatile long loadTime = 0;
+
+    AlignmentPrefetcher(AlignmentDataManager dataManager, ResourceLocator locator) {
+        this.dataManager = dataManager;
+        this.locator = locator;
+    }
+
+    /**
+     * Record the current position of {@code frame}, and start prefetching ahead of it if it is moving.
+     *
+     * @param frame  a reference frame
+     * @param loaded the interval loaded for the frame's current range
+     */
+    synchronized void observe(ReferenceFrame frame, AlignmentInterval loaded, AlignmentTrack.RenderOptions renderOptions) {
+
+        Range range = frame.getCurrentRange();
+        int width = loaded.getEnd() - loaded.getStart();
+        Motion motion = updateMotion(frame.getName(), range, width);
+
+        cancelStale(width);
+
+        long budget = getBudget();
+        if (motion.velocity == 0 || budget <= 0 || RuntimeUtils.getAvailableMemoryFraction() < MIN_MEMORY_FRACTION) {
+            return;
+        }
+
+        // Overlap successive intervals by a screen width,  so any view in between is contained by one of them
+        int viewWidth = range.getLength();
+        int step = width - viewWidth;
+        if (step <= 0) {
+            return;
+        }
+        int lookahead = (int) Math.ceil(Math.abs(motion.velocity) * loadTime / step);
+        lookahead = Math.max(1, Math.min(MAX_LOOKAHEAD, lookahead));
+
+        String chr = loaded.getChr();
+        int chrLength = frame.getChromosomeLength();
+        int start = loaded.getStart();
+        int end = loaded.getEnd();
+        for (int i = 0; i < lookahead && getPrefetchedSize() < budget; i++) {
+            if (motion.velocity > 0) {
+                if (end >= chrLength) break;
+                start = end - viewWidth;
+                end = start + width;
+            } else {
+                if (start <= 0) break;
+                end = start + viewWidth;
+                start = Math.max(0, end - width);
+            }
+            if (!isCovered(chr, start, end, loaded)) {
+                Prefetch prefetch = new Prefetch(chr, start, end, renderOptions);
+                prefetches.add(prefetch);
+                prefetch.future = LoadScheduler.getInstance().submit(prefetch, null, chr, start, end,
+                        LoadScheduler.Priority.PREFETCH, prefetch);
+            }
+        }
+    }
+
+    /**
+     * Return a prefetched interval containing {@code range}, waiting for it if it is being loaded now.  The
+     * interval is removed from the prefetcher.
+     *
+     * @return the interval, or null if none has been prefetched
+     */
+    AlignmentInterval take(Range range) {
+
+        Prefetch prefetch = null;
+        synchronized (this) {
+            List<Prefetch> queued = new ArrayList<>();
+            for (Prefetch p : prefetches) {
+                if (p.contains(range)) {
+                    if (p.interval != null || p.running) {
+                        prefetch = p;
+                        break;
+                    } else {
+                        queued.add(p);       // Not started, the caller will load the range itself
+                    }
+                }
+            }
+            for (Prefetch p : queued) {
+                cancel(p);
+            }
+            if (prefetch == null) {
+                return null;
+            }
+        }
+
+        if (prefetch.interval == null) {
+            try {
+                prefetch.future.get();
+            } catch (InterruptedException | ExecutionException e) {
+                return null;
+            }
+        }
+
+        synchronized (this) {
+            prefetches.remove(prefetch);
+            return prefetch.canceled ? null : prefetch.interval;
+        }
+    }
+
+    /**
+     * Record the time taken by a foreground load (ms).  Used to estimate how far ahead to prefetch.
+     */
+    void loadCompleted(long time) {
+        loadTime = time;
+    }
+
+    synchronized void clear() {
+        motions.clear();
+        for (Prefetch prefetch : new ArrayList<>(prefetches)) {
+            cancel(prefetch);
+        }
+    }
+
+    void close() throws IOException {
+        clear();
+        if (loader != null) {
+            loader.close();
+        }
+    }
+
+    private Motion updateMotion(String frameName, Range range, int width) {
+
+        long now = System.currentTimeMillis();
+        double center = (range.getStart() + range.getEnd()) / 2.0;
+
+        Motion motion = motions.get(frameName);
+        if (motion == null) {
+            motion = new Motion();
+            motions.put(frameName, motion);
+        } else if (motion.chr.equals(range.getChr())) {
+            double distance = center - motion.center;
+            long dt = Math.max(1, now - motion.time);
+            if (distance == 0) {
+                if (dt > MOTION_TIMEOUT) {
+                    motion.velocity = 0;
+                }
+                return motion;
+            } else if (Math.abs(distance) > width || dt > MOTION_TIMEOUT) {
+                motion.velocity = 0;       // A jump, or the start of a new pan
+            } else {
+                motion.velocity = 0.5 * motion.velocity + 0.5 * distance / dt;
+            }
+        } else {
+            motion.velocity = 0;
+        }
+        motion.chr = range.getChr();
+        motion.center = center;
+        motion.time = now;
+        return motion;
+    }
+
+    /**
+     * Cancel prefetches that cannot be reached from any observed frame without jumping
+     */
+    private void cancelStale(int width) {
+        double reach = (MAX_LOOKAHEAD + 1) * (double) width;
+        for (Prefetch prefetch : new ArrayList<>(prefetches)) {
+            if (distance(prefetch) > reach) {
+                cancel(prefetch);
+            }
+        }
+    }
+
+    private double distance(Prefetch prefetch) {
+        double distance = Double.MAX_VALUE;
+        for (Motion motion : motions.values()) {
+            if (motion.chr.equals(prefetch.chr)) {
+                double center = (prefetch.getStart() + prefetch.getEnd()) / 2.0;
+                distance = Math.min(distance, Math.abs(center - motion.center));
+            }
+        }
+        return distance;
+    }
+
+    private boolean isCovered(String chr, int start, int end, AlignmentInterval loaded) {
+        if (loaded.contains(chr, start, end)) {
+            return true;
+        }
+        for (Prefetch prefetch : prefetches) {
+            if (prefetch.contains(chr, start, end)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void cancel(Prefetch prefetch) {
+        synchronized (prefetch) {
+            prefetch.canceled = true;
+            if (prefetch.running && loader != null) {
+                loader.cancel();
+            }
+        }
+        prefetch.future.cancel(false);
+        prefetches.remove(prefetch);
+    }
+
+    private synchronized void completed(Prefetch prefetch, AlignmentInterval interval) {
+        if (prefetch.canceled || interval == null) {
+            prefetches.remove(prefetch);
+            return;
+        }
+        prefetch.interval = interval;
+        prefetch.size = estimateSize(interval);
+
+        // Evict the farthest prefetched intervals until within budget
+        long budget = getBudget();
+        while (getPrefetchedSize() > budget) {
+            Prefetch farthest = null;
+            for (Prefetch p : prefetches) {
+                if (p.interval != null && (farthest == null || distance(p) > distance(farthest))) {
+                    farthest = p;
+                }
+            }
+            if (farthest == null) break;
+            cancel(farthest);
+        }
+    }
+
+    private long getPrefetchedSize() {
+        long size = 0;
+        for (Prefetch prefetch : prefetches) {
+            size += prefetch.size;
+        }
+        return size;
+    }
+
+    private static long getBudget() {
+        return PreferencesManager.getPreferences().getAsInt(SAM_PREFETCH_MEMORY_BUDGET) * 1000000L;
+    }
+
+    static long estimateSize(AlignmentInterval interval) {
+        long size = (long) COUNTS_BYTES_PER_BASE * (interval.getEnd() - interval.getStart());
+        List<Alignment> alignments = interval.getAlignments();
+        if (alignments != null) {
+            for (Alignment alignment : alignments) {
+                size += ALIGNMENT_OVERHEAD_BYTES +
+                        BYTES_PER_ALIGNED_BASE * (alignment.getAlignmentEnd() - alignment.getAlignmentStart());
+            }
+        }
+        return size;
+    }
+
+    // Only called from the prefetch thread
+    private AlignmentTileLoader getLoader() throws IOException {
+        if (loader == null) {
+            loader = new AlignmentTileLoader(AlignmentReaderFactory.getReader(locator), locator);
+        }
+        return loader;
+    }
+
+    private static class Motion {
+        String chr;
+        double center;
+        long time;
+        double velocity;      // bp per ms
+    }
+
+    private class Prefetch extends Range implements Runnable {
+
+        final AlignmentTrack.RenderOptions renderOptions;
+        Future<?> future;
+        volatile boolean running;
+        volatile boolean canceled;
+        volatile AlignmentInterval interval;
+        long size;
+
+        Prefetch(String chr, int start, int end, AlignmentTrack.RenderOptions renderOptions) {
+            super(chr, start, end);
+            this.renderOptions = renderOptions;
+        }
+
+        public void run() {
+            AlignmentInterval result = null;
+            try {
+                AlignmentTileLoader tileLoader = getLoader();
+                synchronized (this) {
+                    if (canceled) return;
+                    // Reset the loader before the prefetch is marked running,  so a cancel from now on is not lost
+                    tileLoader.resetCancel();
+                    running = true;
+                }
+                log.debug("Prefetching alignments: " + chr + ":" + start + "-" + end);
+                result = dataManager.loadInterval(tileLoader, chr, start, end, renderOptions, null);
+            } catch (Exception e) {
+                log.error("Error prefetching alignments", e);
+            } finally {
+                synchronized (this) {
+                    running = false;
+                }
+            }
+            completed(this, result);
+        }
+    }
+}
@@ -32,13 +32,16 @@ import org.broad.igv.Globals;
 import org.broad.igv.prefs.IGVPreferences;
 import org.broad.igv.prefs.PreferencesManager;
 import org.broad.igv.sam.reader.AlignmentReader;
+import org.broad.igv.sam.reader.AlignmentReaderPool;
+import org.broad.igv.sam.reader.BAMReader;
 import org.broad.igv.sam.reader.ReadGroupFilter;
+import org.broad.igv.sam.reader.ShardedQueryIterator;
 import org.broad.igv.ui.IGV;
 import org.broad.igv.event.IGVEventBus;
 import org.broad.igv.event.IGVEventObserver;
 import org.broad.igv.event.StopEvent;
 import org.broad.igv.ui.util.MessageUtils;
-import org.broad.igv.util.ObjectCache;
+import org.broad.igv.util.ResourceLocator;
 import org.broad.igv.util.RuntimeUtils;
 
 import javax.swing.*;
@@ -65,7 +68,8 @@ public class AlignmentTileLoader implements IGVEventObserver {
     private boolean corruptIndex = false;
 
     private AlignmentReader reader;
-    private boolean cancel = false;
+    private AlignmentReaderPool shardReaderPool;
+    private volatile boolean cancel = false;
     private boolean pairedEnd = false;
     private boolean tenX = false;
     private boolean phased = false;
@@ -84,15 +88,46 @@ public class AlignmentTileLoader implements IGVEventObserver {
     }
 
 
+    /**
+     * Cancel the load in progress, if any.
+     */
+    void cancel() {
+        cancel = true;
+    }
+
+    /**
+     * Clear a cancel requested before the next load starts,  which is stale.  Callers which may cancel the load
+     * reset the flag before the load can be canceled.
+     */
+    void resetCancel() {
+        cancel = false;
+    }
+
     public AlignmentTileLoader(AlignmentReader reader) {
+        this(reader, null);
+    }
+
+    /**
+     * @param reader
+     * @param locator locator for {@code reader}, used to open additional readers for sharded loading.  May be null,
+     *                in which case alignments are always loaded with a single serial query.
+     */
+    public AlignmentTileLoader(AlignmentReader reader, ResourceLocator locator) {
         this.reader = reader;
 
         Set<String> platforms = this.reader.getPlatforms();
         moleculo = platforms != null && platforms.contains("MOLECULO");
+
+        if (locator != null && reader instanceof BAMReader && reader.hasIndex()) {
+            shardReaderPool = new AlignmentReaderPool(locator);
+        }
     }
 
     public void close() throws IOException {
         reader.close();
+        if (shardReaderPool != null) {
+            shardReaderPool.close();
+        }
     }
 
     public SAMFileHeader getFileHeader() {
@@ -149,8 +184,8 @@ public class AlignmentTileLoader implements IGVEventObserver {
         int alignmentCount = 0;
         WeakReference<AlignmentTileLoader> ref = new WeakReference(this);
         try {
-            ObjectCache<String, Alignment> mappedMates = new ObjectCache<String, Alignment>(1000);
-            ObjectCache<String, Alignment> unmappedMates = new ObjectCache<String, Alignment>(1000);
+            MateIndex<Alignment> mappedMates = new MateIndex<>();
+            MateIndex<Alignment> unmappedMates = new MateIndex<>();
 
             activeLoaders.add(ref);
             IGVEventBus.getInstance().subscribe(StopEvent.class, this);
@@ -159,7 +194,7 @@ public class AlignmentTileLoader implements IGVEventObserver {
                 IGV.getInstance().enableStopButton(true);
             }
 
-            iter = reader.query(chr, start, end, false);
+            iter = query(chr, start, end, prefMgr);
 
             while (iter != null && iter.hasNext()) {
 
@@ -174,33 +209,33 @@ public class AlignmentTileLoader implements IGVEventObserver {
                 }
                 ;
 
-                // Set mate sequence of unmapped mates
-                // Put a limit on the total size of this collection.
-                String readName = record.getReadName();
+                // Set mate sequence of unmapped mates.  An unmapped mate is placed at the position of its mapped
+                // mate,  so mates not found by the time the stream has passed that position are discarded.
                 if (record.isPaired()) {
                     pairedEnd = true;
+                    int position = record.getAlignmentStart();
+                    mappedMates.advance(position);
+                    unmappedMates.advance(position);
                     if (record.isMapped()) {
                         if (!record.getMate().isMapped()) {
                             // record is mapped, mate is not
-                            Alignment mate = unmappedMates.get(readName);
+                            String readName = record.getReadName();
+                            Alignment mate = unmappedMates.remove(readName);
                             if (mate == null) {
-                                mappedMates.put(readName, record);
+                                mappedMates.put(readName, record, record.getMate().getStart());
                             } else {
                                 record.setMateSequence(mate.getReadSequence());
-                                unmappedMates.remove(readName);
-                                mappedMates.remove(readName);
                             }
 
                         }
                     } else if (record.getMate().isMapped()) {
                         // record not mapped, mate is
-                        Alignment mappedMate = mappedMates.get(readName);
+                        String readName = record.getReadName();
+                        Alignment mappedMate = mappedMates.remove(readName);
                         if (mappedMate == null) {
-                            unmappedMates.put(readName, record);
+                            unmappedMates.put(readName, record, record.getMate().getStart());
                         } else {
                             mappedMate.setMateSequence(record.getReadSequence());
-                            unmappedMates.remove(readName);
-                            mappedMates.remove(readName);
                         }
                     }
                 }
@@ -254,6 +289,7 @@ public class AlignmentTileLoader implements IGVEventObserver {
                 }
             }
             // End iteration over alignments
+            t.loaded = !cancel;
 
             // Compute peStats
             if (peStats != null) {
@@ -271,21 +307,15 @@ public class AlignmentTileLoader implements IGVEventObserver {
             }
 
 
-            // Clean up any remaining unmapped mate sequences
-            for (String mappedMateName : mappedMates.getKeys()) {
-                Alignment mappedMate = mappedMates.get(mappedMateName);
-                if (mappedMate != null) {
-                    Alignment mate = unmappedMates.get(mappedMate.getReadName());
-                    if (mate != null) {
-                        mappedMate.setMateSequence(mate.getReadSequence());
-                    }
-                }
-            }
             t.finish();
 
             // TODO -- make this optional (on a preference)
             InsertionManager.getInstance().processAlignments(chr, t.alignments);
 
+            if (prefMgr.getAsBoolean(SAM_COLUMNAR_ALIGNMENT_STORE)) {
+                t.compact();
+            }
+
 
         } catch (java.nio.BufferUnderflowException e) {
             // This almost always indicates a corrupt BAM index, or less frequently a corrupt bam file
@@ -325,6 +355,22 @@ public class AlignmentTileLoader implements IGVEventObserver {
     }
 
 
+    /**
+     * Query alignments over [start, end).  If sharded loading is enabled and the window is large enough the query
+     * is split into shards which are decoded concurrently.  The sharded iterator returns alignments in the same
+     * order as a serial query, so downstream processing (mate rescue, downsampling) is unaffected.
+     */
+    private CloseableIterator<Alignment> query(String chr, int start, int end, IGVPreferences prefMgr) throws IOException {
+
+        if (shardReaderPool != null && prefMgr.getAsBoolean(SAM_SHARDED_LOADING)) {
+            int nShards = ShardedQueryIterator.getShardCount(start, end);
+            if (nShards > 1) {
+                return new ShardedQueryIterator(shardReaderPool, chr, start, end, nShards);
+            }
+        }
+        return reader.query(chr, start, end, false);
+    }
+
     private static synchronized boolean memoryTooLow() {
         if (RuntimeUtils.getAvailableMemoryFraction() < 0.2) {
             System.gc();
@@ -652,10 +698,27 @@ public class AlignmentTileLoader implements IGVEventObserver {
             counts.finish();
         }
 
+        /**
+         * @return true if every alignment in the tile range was read,  that is loading was not canceled
+         */
+        public boolean isLoaded() {
+            return loaded;
+        }
+
         public AlignmentCounts getCounts() {
             return counts;
         }
 
+        /**
+         * Replace the loaded alignments with flyweight views over a compact, off-heap {@link ColumnarAlignmentStore}.
+         * Call after {@link #finish()}.
+         */
+        public void compact() {
+            if (alignments != null && alignments.size() > 0) {
+                alignments = ColumnarAlignmentStore.encode(alignments).asList();
+            }
+        }
+
 
         private void finalizeSpliceJunctions() {
             if (spliceJunctionHelper != null) {
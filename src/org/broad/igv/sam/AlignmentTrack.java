@@ -401,7 +401,11 @@ public class AlignmentTrack extends AbstractTrack implements IGVEventObserver {
         } else {
             List<InsertionInterval> insertionIntervals = getInsertionIntervals(frame);
             insertionIntervals.clear();
-            return dataManager.isLoaded(frame);
+            boolean loaded = dataManager.isLoaded(frame);
+            if (loaded) {
+                dataManager.prefetch(frame, renderOptions);
+            }
+            return loaded;
         }
     }
 
@@ -411,6 +415,11 @@ public class AlignmentTrack extends AbstractTrack implements IGVEventObserver {
         dataManager.load(referenceFrame, renderOptions, true);
     }
 
+    @Override
+    public void loadFrames(List<ReferenceFrame> frames) {
+        dataManager.load(frames, renderOptions, true);
+    }
+
     public void render(RenderContext context, Rectangle rect) {
 
         Graphics2D g = context.getGraphics2D("LABEL");
@@ -0,0 +1,369 @@
+package org.broad.igv.sam;
+
+import org.broad.igv.Globals;
+import org.broad.igv.feature.Strand;
+import org.broad.igv.feature.genome.Genome;
+import org.broad.igv.feature.genome.GenomeManager;
+import org.broad.igv.track.WindowFunction;
+
+import java.awt.*;
+import java.lang.ref.SoftReference;
+import java.util.List;
+import java.util.Map;
+
+import static org.broad.igv.sam.ColumnarAlignmentStore.*;
+
+/**
+ * A lightweight view of an alignment record in a {@link ColumnarAlignmentStore}.  Alignment blocks are decoded on
+ * demand and softly cached,  so they can be reclaimed under memory pressure and decoded again when next rendered;
+ * pixel bounds recorded on them are kept by the store.  Changes to start and end are written to the store.
+ */
+public class ColumnarAlignment implements Alignment {
+
+    private final ColumnarAlignmentStore store;
+    private final int index;
+
+    private SoftReference<AlignmentBlock[]> blocksRef;
+    private SoftReference<AlignmentBlock[]> insertionsRef;
+
+    ColumnarAlignment(ColumnarAlignmentStore store, int index) {
+        this.store = store;
+        this.index = index;
+    }
+
+    public String getReadName() {
+        return store.getString(store.getField(index, NAME));
+    }
+
+    public String getReadSequence() {
+        return store.getReadSequence(index);
+    }
+
+    public String getChr() {
+        return store.getDictionaryString(index, CHR);
+    }
+
+    @Override
+    public String getContig() {
+        return getChr();
+    }
+
+    public int getStart() {
+        return store.getField(index, START);
+    }
+
+    public void setStart(int start) {
+        store.setField(index, START, start);
+    }
+
+    public int getEnd() {
+        return store.getField(index, END);
+    }
+
+    public void setEnd(int end) {
+        store.setField(index, END, end);
+    }
+
+    public int getAlignmentStart() {
+        return store.getField(index, ALIGNMENT_START);
+    }
+
+    public int getAlignmentEnd() {
+        return store.getField(index, ALIGNMENT_END);
+    }
+
+    public boolean contains(double location) {
+        return location >= getStart() && location < getEnd();
+    }
+
+    public AlignmentBlock[] getAlignmentBlocks() {
+        SoftReference<AlignmentBlock[]> ref = blocksRef;
+        AlignmentBlock[] blocks = ref == null ? null : ref.get();
+        if (blocks == null) {
+            blocks = store.getBlocks(index, false);
+            if (blocks != null) {
+                blocksRef = new SoftReference<>(blocks);
+            }
+        }
+        return blocks;
+    }
+
+    public AlignmentBlock[] getInsertions() {
+        SoftReference<AlignmentBlock[]> ref = insertionsRef;
+        AlignmentBlock[] insertions = ref == null ? null : ref.get();
+        if (insertions == null) {
+            insertions = store.getBlocks(index, true);
+            if (insertions != null) {
+                insertionsRef = new SoftReference<>(insertions);
+            }
+        }
+        return insertions;
+    }
+
+    @Override
+    public AlignmentBlock getInsertionAt(int position) {
+        AlignmentBlock[] insertions = getInsertions();
+        if (insertions == null) return null;
+        for (AlignmentBlock block : insertions) {
+            if (block.getStart() == position) return block;
+            if (block.getStart() > position) return null;  // Blocks increase lineraly
+        }
+        return null;
+    }
+
+    public String getCigarString() {
+        return store.getCigarString(index);
+    }
+
+    public List<Gap> getGaps() {
+        return store.getGaps(index);
+    }
+
+    public int getInferredInsertSize() {
+        return store.getField(index, INSERT_SIZE);
+    }
+
+    public int getMappingQuality() {
+        return store.getField(index, MAPQ);
+    }
+
+    public ReadMate getMate() {
+        if (!store.hasFlag(index, HAS_MATE_FLAG)) return null;
+        return new ReadMate(store.getDictionaryString(index, MATE_CHR),
+                store.getField(index, MATE_START),
+                store.hasFlag(index, MATE_STRAND_FLAG),
+                store.hasFlag(index, MATE_UNMAPPED_FLAG));
+    }
+
+    public Strand getReadStrand() {
+        return store.getStrand(index, 0);
+    }
+
+    public Strand getFirstOfPairStrand() {
+        return store.getStrand(index, 2);
+    }
+
+    public Strand getSecondOfPairStrand() {
+        return store.getStrand(index, 4);
+    }
+
+    public boolean isProperPair() {
+        return store.hasFlag(index, PROPER_PAIR_FLAG);
+    }
+
+    public boolean isMapped() {
+        return !store.hasFlag(index, UNMAPPED_FLAG);
+    }
+
+    public boolean isPaired() {
+        return store.hasFlag(index, PAIRED_FLAG);
+    }
+
+    public boolean isFirstOfPair() {
+        return store.hasFlag(index, FIRST_OF_PAIR_FLAG);
+    }
+
+    public boolean isSecondOfPair() {
+        return store.hasFlag(index, SECOND_OF_PAIR_FLAG);
+    }
+
+    public boolean isNegativeStrand() {
+        return store.hasFlag(index, STRAND_FLAG);
+    }
+
+    public boolean isDuplicate() {
+        return store.hasFlag(index, DUPLICATE_FLAG);
+    }
+
+    public boolean isPrimary() {
+        return !store.hasFlag(index, SECONDARY_FLAG);
+    }
+
+    public boolean isSupplementary() {
+        return store.hasFlag(index, SUPPLEMENTARY_FLAG);
+    }
+
+    public boolean isVendorFailedRead() {
+        return store.hasFlag(index, VENDOR_FAILED_FLAG);
+    }
+
+    public byte getBase(double position) {
+        int basePosition = (int) position;
+        for (AlignmentBlock block : getBlocksOrEmpty()) {
+            if (block.contains(basePosition)) {
+                return block.getBase(basePosition - block.getStart());
+            }
+        }
+        return 0;
+    }
+
+    public byte getPhred(double position) {
+        int basePosition = (int) position;
+        for (AlignmentBlock block : getBlocksOrEmpty()) {
+            if (block.contains(basePosition)) {
+                return block.getQuality(basePosition - block.getStart());
+            }
+        }
+        return 0;
+    }
+
+    private AlignmentBlock[] getBlocksOrEmpty() {
+        AlignmentBlock[] blocks = getAlignmentBlocks();
+        return blocks == null ? new AlignmentBlock[0] : blocks;
+    }
+
+    public Object getAttribute(String key) {
+        return key.equals("TEMPLATE_ORIENTATION") ? getPairOrientation() : store.getAttribute(index, key);
+    }
+
+    public void setMateSequence(String sequence) {
+        store.setMateSequence(index, sequence);
+    }
+
+    public String getPairOrientation() {
+        String pairOrientation = store.getDictionaryString(index, PAIR_ORIENTATION);
+        return pairOrientation == null ? "" : pairOrientation;
+    }
+
+    public Color getYcColor() {
+        return store.getYcColor(index);
+    }
+
+    public String getSample() {
+        return store.getDictionaryString(index, SAMPLE);
+    }
+
+    public String getReadGroup() {
+        return store.getDictionaryString(index, READ_GROUP);
+    }
+
+    public String getLibrary() {
+        return store.getDictionaryString(index, LIBRARY);
+    }
+
+    public float getScore() {
+        return getMappingQuality();
+    }
+
+    public String getClipboardString(double location, int mouseX) {
+        return getValueString(location, mouseX, null);
+    }
+
+    public String getValueString(double position, int mouseX, WindowFunction windowFunction) {
+
+        int basePosition = (int) position;
+        StringBuffer buf = new StringBuffer();
+
+        AlignmentBlock[] insertions = getInsertions();
+        if (insertions != null) {
+            for (AlignmentBlock block : insertions) {
+                if (block.containsPixel(mouseX)) {
+                    byte[] bases = block.getBases();
+                    return bases == null ? "Insertion: " + block.getLength() + " bases" :
+                            "Insertion (" + bases.length + " bases): " + new String(bases);
+                }
+            }
+        }
+
+        buf.append("Read name = " + getReadName() + "<br>");
+        String sample = getSample();
+        if (sample != null) {
+            buf.append("Sample = " + sample + "<br>");
+        }
+        String library = getLibrary();
+        if (library != null) {
+            buf.append("Library = " + library + "<br>");
+        }
+        String readGroup = getReadGroup();
+        if (readGroup != null) {
+            buf.append("Read group = " + readGroup + "<br>");
+        }
+
+        buf.append("----------------------" + "<br>");
+        buf.append("Mapping = " + (isPrimary() ? (isSupplementary() ? "Supplementary" : "Primary") : "Secondary") +
+                (isDuplicate() ? " Duplicate" : "") + (isVendorFailedRead() ? " Failed QC" : "") +
+                " @ MAPQ " + Globals.DECIMAL_FORMAT.format(getMappingQuality()) + "<br>");
+        buf.append("Reference span = " + getChr() + ":" + Globals.DECIMAL_FORMAT.format(getAlignmentStart() + 1) + "-" +
+                Globals.DECIMAL_FORMAT.format(getAlignmentEnd()) + " (" + (isNegativeStrand() ? "-" : "+") + ")" +
+                " = " + Globals.DECIMAL_FORMAT.format(getAlignmentEnd() - getAlignmentStart()) + "bp<br>");
+        buf.append("Cigar = " + getCigarString() + "<br>");
+
+        if (isPaired()) {
+            ReadMate mate = getMate();
+            buf.append("----------------------<br>");
+            if (mate != null) {
+                buf.append("Mate is mapped = " + (mate.isMapped() ? "yes" : "no") + "<br>");
+                if (mate.isMapped()) {
+                    buf.append("Mate start = " + mate.positionString() + "<br>");
+                    if (getChr().equals(mate.getChr())) {
+                        buf.append("Insert size = " + getInferredInsertSize() + "<br>");
+                    }
+                }
+            }
+            if (isFirstOfPair()) {
+                buf.append("First in pair<br>");
+            }
+            if (isSecondOfPair()) {
+                buf.append("Second in pair<br>");
+            }
+            if (getPairOrientation().length() > 0) {
+                buf.append("Pair orientation = " + getPairOrientation() + "<br>");
+            }
+        }
+
+        Map<String, String> attributes = store.getAttributes(index);
+        if (attributes != null) {
+            buf.append("----------------------");
+            for (Map.Entry<String, String> entry : attributes.entrySet()) {
+                buf.append("<br>" + entry.getKey() + " = " + entry.getValue());
+            }
+        }
+
+        String mateSequence = store.getMateSequence(index);
+        if (mateSequence != null) {
+            buf.append("<br>----------------------<br>");
+            buf.append("Mate sequence: " + mateSequence);
+        }
+
+        for (AlignmentBlock block : getBlocksOrEmpty()) {
+            if (block.contains(basePosition)) {
+                int offset = basePosition - block.getStart();
+                byte base = block.getBase(offset);
+                Genome genome = GenomeManager.getInstance().getCurrentGenome();
+                if (base == '=' && genome != null) {
+                    base = genome.getReference(getChr(), basePosition);
+                }
+                buf.append("<hr>");
+                buf.append("Location = " + getChr() + ":" + Globals.DECIMAL_FORMAT.format(1 + (long) position) + "<br>");
+                buf.append("Base = " + (char) base + " @ QV " + Globals.DECIMAL_FORMAT.format(block.getQuality(offset)) + "<br>");
+                break;
+            }
+        }
+
+        return buf.toString();
+    }
+
+    public void finish() {
+    }
+
+    /**
+     * Views of the same record are equal,  as the store does not keep them
+     */
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof ColumnarAlignment)) return false;
+        ColumnarAlignment that = (ColumnarAlignment) o;
+        return store == that.store && index == that.index;
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * System.identityHashCode(store) + index;
+    }
+
+    @Override
+    public String toString() {
+        return getReadName() + " " + getChr() + ":" + (getAlignmentStart() + 1) + "-" + getAlignmentEnd();
+    }
+}
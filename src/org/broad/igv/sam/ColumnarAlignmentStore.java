@@ -0,0 +1,761 @@
+package org.broad.igv.sam;
+
+import htsjdk.samtools.SAMRecord;
+import org.broad.igv.feature.Strand;
+import org.broad.igv.sam.lite.BAMAlignment;
+
+import java.awt.*;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.*;
+import java.util.List;
+
+/**
+ * Compact, columnar storage for the alignments of a loaded interval.  Alignment data is held in primitive columns
+ * backed by direct (off-heap) ByteBuffers:  fixed width per-alignment records (positions, flags, MAPQ, ...), CIGAR
+ * operators, alignment and insertion blocks, gaps, 4-bit packed bases, and base qualities.  Strings that repeat
+ * across alignments (chromosome, read group, sample, library, pair orientation) are dictionary encoded.
+ * <p/>
+ * {@link ColumnarAlignment} instances are lightweight views over a record,  created on demand.  Use
+ * {@link #asList()} to obtain a list of views suitable for {@link AlignmentInterval}.
+ * <p/>
+ * Bases are packed 4 bits per base using the BAM encoding ("=ACMGRSVTWYHKDBN"), rather than 2 bits,  so that
+ * N and IUPAC ambiguity codes are preserved for rendering.
+ */
+public class ColumnarAlignmentStore {
+
+    // Fields of the fixed width alignment record,  one int each
+    static final int START = 0;
+    static final int END = 1;
+    static final int ALIGNMENT_START = 2;
+    static final int ALIGNMENT_END = 3;
+    static final int FLAGS = 4;
+    static final int MAPQ = 5;
+    static final int INSERT_SIZE = 6;
+    static final int CHR = 7;
+    static final int MATE_CHR = 8;
+    static final int MATE_START = 9;
+    static final int NAME = 10;
+    static final int CIGAR_OFFSET = 11;
+    static final int CIGAR_LENGTH = 12;
+    static final int BLOCK_OFFSET = 13;
+    static final int N_BLOCKS = 14;
+    static final int N_INSERTIONS = 15;
+    static final int GAP_OFFSET = 16;
+    static final int N_GAPS = 17;
+    static final int SEQ_OFFSET = 18;
+    static final int SEQ_LENGTH = 19;
+    static final int READ_GROUP = 20;
+    static final int SAMPLE = 21;
+    static final int LIBRARY = 22;
+    static final int PAIR_ORIENTATION = 23;
+    static final int STRANDS = 24;
+    static final int YC_COLOR = 25;
+    static final int ATTRIBUTES = 26;
+    private static final int N_FIELDS = 27;
+    private static final int RECORD_BYTES = N_FIELDS * 4;
+
+    // Flags,  the SAM flag bits plus IGV specific bits
+    static final int PAIRED_FLAG = 0x1;
+    static final int PROPER_PAIR_FLAG = 0x2;
+    static final int UNMAPPED_FLAG = 0x4;
+    static final int MATE_UNMAPPED_FLAG = 0x8;
+    static final int STRAND_FLAG = 0x10;
+    static final int MATE_STRAND_FLAG = 0x20;
+    static final int FIRST_OF_PAIR_FLAG = 0x40;
+    static final int SECOND_OF_PAIR_FLAG = 0x80;
+    static final int SECONDARY_FLAG = 0x100;
+    static final int VENDOR_FAILED_FLAG = 0x200;
+    static final int DUPLICATE_FLAG = 0x400;
+    static final int SUPPLEMENTARY_FLAG = 0x800;
+    static final int HAS_MATE_FLAG = 0x10000;
+    static final int HAS_YC_COLOR_FLAG = 0x20000;
+
+    // Fields of a block record,  one int each.  Alignment blocks are followed by insertion blocks.
+    static final int BLOCK_START = 0;
+    static final int BLOCK_LENGTH = 1;
+    static final int BLOCK_FLAGS = 2;
+    static final int BLOCK_BASES = 3;
+    static final int BLOCK_QUALITIES = 4;
+    static final int BLOCK_PADDING = 5;
+    private static final int BLOCK_FIELDS = 6;
+
+    static final int SOFT_CLIPPED = 0x1;
+    static final int HAS_BASES = 0x2;
+    static final int HAS_QUALITIES = 0x4;
+
+    // Fields of a gap record,  one int each
+    static final int GAP_START = 0;
+    static final int GAP_LENGTH = 1;
+    static final int GAP_TYPE = 2;
+    static final int GAP_FLANKING_LEFT = 3;
+    static final int GAP_FLANKING_RIGHT = 4;
+    private static final int GAP_FIELDS = 5;
+
+    private static final String CIGAR_OPERATORS = "MIDNSHP=X";
+
+    private static final byte[] NIBBLE_TO_BASE = "=ACMGRSVTWYHKDBN".getBytes();
+    private static final byte[] BASE_TO_NIBBLE = new byte[256];
+
+    static {
+        Arrays.fill(BASE_TO_NIBBLE, (byte) 15);  // N
+        for (int i = 0; i < NIBBLE_TO_BASE.length; i++) {
+            BASE_TO_NIBBLE[NIBBLE_TO_BASE[i]] = (byte) i;
+            BASE_TO_NIBBLE[Character.toLowerCase(NIBBLE_TO_BASE[i])] = (byte) i;
+        }
+    }
+
+    private static final Strand[] STRANDS_VALUES = Strand.values();
+
+    private final int size;
+    private ByteBuffer records;
+    private ByteBuffer cigars;
+    private ByteBuffer blocks;
+    private ByteBuffer gaps;
+    private ByteBuffer bases;
+    private ByteBuffer qualities;
+    private ByteBuffer strings;
+    private final List<String> dictionary;
+
+    /**
+     * Sequences of unmapped mates,  set after loading.  These are rare, and are kept on the heap.
+     */
+    private Map<Integer, String> mateSequences;
+
+    /**
+     * Pixel ranges recorded by renderers on decoded blocks,  two ints per block record,  allocated on first use.
+     * Kept here rather than on the blocks so that decoded blocks can be reclaimed.
+     */
+    private int[] pixelRanges;
+
+    private ColumnarAlignmentStore(Builder builder) {
+        this.mateSequences = builder.mateSequences;
+        this.size = builder.size;
+        this.records = builder.records.trim();
+        this.cigars = builder.cigars.trim();
+        this.blocks = builder.blocks.trim();
+        this.gaps = builder.gaps.trim();
+        this.bases = builder.bases.trim();
+        this.qualities = builder.qualities.trim();
+        this.strings = builder.strings.trim();
+        this.dictionary = builder.dictionary;
+    }
+
+    /**
+     * Encode the alignments.  The source alignments are not retained.
+     */
+    public static ColumnarAlignmentStore encode(List<Alignment> alignments) {
+        Builder builder = new Builder(alignments.size());
+        for (Alignment alignment : alignments) {
+            builder.add(alignment);
+        }
+        return new ColumnarAlignmentStore(builder);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return the total size, in bytes, of the off-heap buffers
+     */
+    public long getByteSize() {
+        return (long) records.capacity() + cigars.capacity() + blocks.capacity() + gaps.capacity() +
+                        bases.capacity() + qualities.capacity() + strings.capacity();
+    }
+
+    /**
+     * @return a view of the alignment at the given index.  Views are created on each call and are not retained by
+     * the store;  views of the same record are equal.
+     */
+    public ColumnarAlignment get(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+        }
+        return new ColumnarAlignment(this, index);
+    }
+
+    /**
+     * Return a list of the alignment views.  Clearing the list drops its reference to the store,  the buffers are
+     * released once the store and all views are unreachable.
+     */
+    public List<Alignment> asList() {
+        return new ViewList(this);
+    }
+
+    private static class ViewList extends AbstractList<Alignment> {
+
+        private ColumnarAlignmentStore store;
+
+        ViewList(ColumnarAlignmentStore store) {
+            this.store = store;
+        }
+
+        @Override
+        public Alignment get(int index) {
+            ColumnarAlignmentStore s = store;
+            if (s == null) throw new IndexOutOfBoundsException("Index: " + index + ", Size: 0");
+            return s.get(index);
+        }
+
+        @Override
+        public int size() {
+            ColumnarAlignmentStore s = store;
+            return s == null ? 0 : s.size();
+        }
+
+        @Override
+        public void clear() {
+            store = null;
+        }
+    }
+
+    // Accessors used by ColumnarAlignment
+
+    int getField(int index, int field) {
+        return records.getInt(index * RECORD_BYTES + field * 4);
+    }
+
+    void setField(int index, int field, int value) {
+        records.putInt(index * RECORD_BYTES + field * 4, value);
+    }
+
+    boolean hasFlag(int index, int flag) {
+        return (getField(index, FLAGS) & flag) != 0;
+    }
+
+    String getDictionaryString(int index, int field) {
+        int idx = getField(index, field);
+        return idx < 0 ? null : dictionary.get(idx);
+    }
+
+    String getString(int offset) {
+        if (offset < 0) return null;
+        int length = strings.getInt(offset);
+        byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++) {
+            bytes[i] = strings.get(offset + 4 + i);
+        }
+        return new String(bytes);
+    }
+
+    Strand getStrand(int index, int shift) {
+        return STRANDS_VALUES[(getField(index, STRANDS) >> shift) & 0x3];
+    }
+
+    Color getYcColor(int index) {
+        return hasFlag(index, HAS_YC_COLOR_FLAG) ? new Color(getField(index, YC_COLOR), true) : null;
+    }
+
+    String getCigarString(int index) {
+        int offset = getField(index, CIGAR_OFFSET);
+        int length = getField(index, CIGAR_LENGTH);
+        if (length == 0) return "*";
+        StringBuilder buf = new StringBuilder(length * 4);
+        for (int i = 0; i < length; i++) {
+            int op = cigars.getInt((offset + i) * 4);
+            int opCode = op & 0xF;
+            buf.append(op >>> 4).append(opCode < CIGAR_OPERATORS.length() ? CIGAR_OPERATORS.charAt(opCode) : '?');
+        }
+        return buf.toString();
+    }
+
+    String getReadSequence(int index) {
+        int length = getField(index, SEQ_LENGTH);
+        if (length < 0) return null;
+        return new String(decodeBases(getField(index, SEQ_OFFSET), length));
+    }
+
+    AlignmentBlock[] getBlocks(int index, boolean insertions) {
+        int nBlocks = getField(index, N_BLOCKS);
+        int nInsertions = getField(index, N_INSERTIONS);
+        if (nBlocks < 0) return null;   // Source alignment had no blocks
+        int first = getField(index, BLOCK_OFFSET) + (insertions ? nBlocks : 0);
+        int n = insertions ? nInsertions : nBlocks;
+        AlignmentBlock[] result = new AlignmentBlock[n];
+        for (int i = 0; i < n; i++) {
+            result[i] = decodeBlock(first + i);
+        }
+        return result;
+    }
+
+    private AlignmentBlock decodeBlock(int blockIndex) {
+        int offset = blockIndex * BLOCK_FIELDS * 4;
+        int start = blocks.getInt(offset + BLOCK_START * 4);
+        int length = blocks.getInt(offset + BLOCK_LENGTH * 4);
+        int flags = blocks.getInt(offset + BLOCK_FLAGS * 4);
+        boolean softClipped = (flags & SOFT_CLIPPED) != 0;
+        if ((flags & HAS_BASES) == 0) {
+            return new ReducedBlock(blockIndex, start, length, softClipped);
+        }
+        byte[] blockBases = decodeBases(blocks.getInt(offset + BLOCK_BASES * 4), length);
+        byte[] blockQualities = null;
+        if ((flags & HAS_QUALITIES) != 0) {
+            blockQualities = new byte[length];
+            int qOffset = blocks.getInt(offset + BLOCK_QUALITIES * 4);
+            for (int i = 0; i < length; i++) {
+                blockQualities[i] = qualities.get(qOffset + i);
+            }
+        }
+        AlignmentBlockImpl block = new Block(blockIndex, start, blockBases, blockQualities);
+        block.setSoftClipped(softClipped);
+        block.setPadding(blocks.getInt(offset + BLOCK_PADDING * 4));
+        return block;
+    }
+
+    synchronized void setPixelRange(int blockIndex, int s, int e) {
+        if (pixelRanges == null) {
+            pixelRanges = new int[2 * blocks.capacity() / (BLOCK_FIELDS * 4)];
+        }
+        pixelRanges[2 * blockIndex] = s;
+        pixelRanges[2 * blockIndex + 1] = e;
+    }
+
+    synchronized boolean containsPixel(int blockIndex, int x) {
+        int s = pixelRanges == null ? 0 : pixelRanges[2 * blockIndex];
+        int e = pixelRanges == null ? 0 : pixelRanges[2 * blockIndex + 1];
+        return x >= s && x <= e;
+    }
+
+    /**
+     * A decoded block whose pixel range is kept by the store
+     */
+    private class Block extends AlignmentBlockImpl {
+
+        private final int blockIndex;
+
+        Block(int blockIndex, int start, byte[] bases, byte[] qualities) {
+            super(start, bases, qualities);
+            this.blockIndex = blockIndex;
+        }
+
+        @Override
+        public void setPixelRange(int s, int e) {
+            ColumnarAlignmentStore.this.setPixelRange(blockIndex, s, e);
+        }
+
+        @Override
+        public boolean containsPixel(int x) {
+            return ColumnarAlignmentStore.this.containsPixel(blockIndex, x);
+        }
+    }
+
+    private class ReducedBlock extends ReducedMemoryAlignment.ReducedMemoryAlignmentBlock {
+
+        private final int blockIndex;
+
+        ReducedBlock(int blockIndex, int start, int length, boolean softClipped) {
+            super(start, length, softClipped);
+            this.blockIndex = blockIndex;
+        }
+
+        @Override
+        public void setPixelRange(int s, int e) {
+            ColumnarAlignmentStore.this.setPixelRange(blockIndex, s, e);
+        }
+
+        @Override
+        public boolean containsPixel(int x) {
+            return ColumnarAlignmentStore.this.containsPixel(blockIndex, x);
+        }
+    }
+
+    List<Gap> getGaps(int index) {
+        int nGaps = getField(index, N_GAPS);
+        if (nGaps < 0) return null;
+        int first = getField(index, GAP_OFFSET);
+        List<Gap> result = new ArrayList<>(nGaps);
+        for (int i = 0; i < nGaps; i++) {
+            int offset = (first + i) * GAP_FIELDS * 4;
+            int start = gaps.getInt(offset + GAP_START * 4);
+            int length = gaps.getInt(offset + GAP_LENGTH * 4);
+            char type = (char) gaps.getInt(offset + GAP_TYPE * 4);
+            int flankingLeft = gaps.getInt(offset + GAP_FLANKING_LEFT * 4);
+            if (flankingLeft < 0) {
+                result.add(new Gap(start, length, type));
+            } else {
+                result.add(new SpliceGap(start, length, type, flankingLeft, gaps.getInt(offset + GAP_FLANKING_RIGHT * 4)));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Attributes are encoded as tab delimited "TAG:type:value" triplets.  Types are 'i' (Integer), 'f' (Float), and
+     * 'Z' (String).
+     */
+    Object getAttribute(int index, String key) {
+        String encoded = getString(getField(index, ATTRIBUTES));
+        if (encoded == null) return null;
+        for (String token : encoded.split("\t")) {
+            if (token.length() > 5 && token.startsWith(key) && token.charAt(2) == ':') {
+                String value = token.substring(5);
+                switch (token.charAt(3)) {
+                    case 'i':
+                        return Integer.valueOf(value);
+                    case 'f':
+                        return Float.valueOf(value);
+                    default:
+                        return value;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return the attributes as an ordered map of tag -> value string, or null if there are none
+     */
+    LinkedHashMap<String, String> getAttributes(int index) {
+        String encoded = getString(getField(index, ATTRIBUTES));
+        if (encoded == null) return null;
+        LinkedHashMap<String, String> result = new LinkedHashMap<>();
+        for (String token : encoded.split("\t")) {
+            if (token.length() >= 5) {
+                result.put(token.substring(0, 2), token.substring(5));
+            }
+        }
+        return result;
+    }
+
+    synchronized void setMateSequence(int index, String sequence) {
+        if (mateSequences == null) {
+            mateSequences = new HashMap<>();
+        }
+        mateSequences.put(index, sequence);
+    }
+
+    synchronized String getMateSequence(int index) {
+        return mateSequences == null ? null : mateSequences.get(index);
+    }
+
+    private byte[] decodeBases(int nibbleOffset, int length) {
+        byte[] result = new byte[length];
+        for (int i = 0; i < length; i++) {
+            int n = nibbleOffset + i;
+            int packed = bases.get(n >> 1);
+            int nibble = (n & 1) == 0 ? (packed >> 4) & 0xF : packed & 0xF;
+            result[i] = NIBBLE_TO_BASE[nibble];
+        }
+        return result;
+    }
+
+
+    /**
+     * Growable direct buffer
+     */
+    private static class Column {
+
+        ByteBuffer buffer;
+
+        Column(int capacity) {
+            buffer = allocate(Math.max(16, capacity));
+        }
+
+        private static ByteBuffer allocate(int capacity) {
+            return ByteBuffer.allocateDirect(capacity).order(ByteOrder.nativeOrder());
+        }
+
+        void ensure(int nBytes) {
+            if (buffer.remaining() < nBytes) {
+                long newCapacity = Math.max((long) buffer.capacity() * 2, (long) buffer.position() + nBytes);
+                if (newCapacity > Integer.MAX_VALUE) {
+                    throw new IllegalStateException("Alignment column exceeds 2GB");
+                }
+                ByteBuffer tmp = allocate((int) newCapacity);
+                buffer.flip();
+                tmp.put(buffer);
+                buffer = tmp;
+            }
+        }
+
+        int position() {
+            return buffer.position();
+        }
+
+        void putInt(int value) {
+            ensure(4);
+            buffer.putInt(value);
+        }
+
+        void put(byte value) {
+            ensure(1);
+            buffer.put(value);
+        }
+
+        ByteBuffer trim() {
+            ByteBuffer result = allocate(buffer.position());
+            buffer.flip();
+            result.put(buffer);
+            result.clear();
+            return result;
+        }
+    }
+
+    private static class Builder {
+
+        int size = 0;
+        Column records;
+        Column cigars;
+        Column blocks;
+        Column gaps;
+        Column bases;
+        Column qualities;
+        Column strings;
+
+        int nBlocks = 0;
+        int nGaps = 0;
+        int nCigarOps = 0;
+        long nBases = 0;    // In nibbles
+
+        List<String> dictionary = new ArrayList<>();
+        Map<String, Integer> dictionaryIndex = new HashMap<>();
+        Map<Integer, String> mateSequences;
+
+        Builder(int expectedSize) {
+            records = new Column(expectedSize * RECORD_BYTES);
+            cigars = new Column(expectedSize * 4 * 4);
+            blocks = new Column(expectedSize * BLOCK_FIELDS * 4 * 2);
+            gaps = new Column(1024);
+            bases = new Column(expectedSize * 100);
+            qualities = new Column(expectedSize * 100);
+            strings = new Column(expectedSize * 32);
+        }
+
+        void add(Alignment al) {
+
+            int[] fields = new int[N_FIELDS];
+
+            fields[START] = al.getStart();
+            fields[END] = al.getEnd();
+            fields[ALIGNMENT_START] = al.getAlignmentStart();
+            fields[ALIGNMENT_END] = al.getAlignmentEnd();
+            fields[FLAGS] = encodeFlags(al);
+            fields[MAPQ] = al.getMappingQuality();
+            fields[INSERT_SIZE] = al.getInferredInsertSize();
+            fields[CHR] = dictionaryIndex(al.getChr());
+
+            ReadMate mate = al.getMate();
+            fields[MATE_CHR] = mate == null ? -1 : dictionaryIndex(mate.getChr());
+            fields[MATE_START] = mate == null ? -1 : mate.getStart();
+
+            fields[NAME] = putString(al.getReadName());
+            encodeCigar(al.getCigarString(), fields);
+            encodeBlocks(al, fields);
+            encodeGaps(al.getGaps(), fields);
+
+            String sequence = al.getReadSequence();
+            if (sequence == null) {
+                fields[SEQ_LENGTH] = -1;
+            } else {
+                fields[SEQ_OFFSET] = putBases(sequence.getBytes());
+                fields[SEQ_LENGTH] = sequence.length();
+            }
+
+            fields[READ_GROUP] = dictionaryIndex(al.getReadGroup());
+            fields[SAMPLE] = dictionaryIndex(al.getSample());
+            fields[LIBRARY] = dictionaryIndex(al.getLibrary());
+            fields[PAIR_ORIENTATION] = dictionaryIndex(al.getPairOrientation());
+            fields[STRANDS] = strandOrdinal(al.getReadStrand()) |
+                    (strandOrdinal(al.getFirstOfPairStrand()) << 2) |
+                    (strandOrdinal(al.getSecondOfPairStrand()) << 4);
+
+            Color yc = al.getYcColor();
+            fields[YC_COLOR] = yc == null ? 0 : yc.getRGB();
+
+            fields[ATTRIBUTES] = putString(encodeAttributes(al));
+
+            if (al instanceof SAMAlignment && ((SAMAlignment) al).mateSequence != null) {
+                if (mateSequences == null) mateSequences = new HashMap<>();
+                mateSequences.put(size, ((SAMAlignment) al).mateSequence);
+            }
+
+            records.ensure(RECORD_BYTES);
+            for (int f : fields) {
+                records.putInt(f);
+            }
+            size++;
+        }
+
+        private int encodeFlags(Alignment al) {
+            int flags = 0;
+            if (al.isPaired()) flags |= PAIRED_FLAG;
+            if (al.isProperPair()) flags |= PROPER_PAIR_FLAG;
+            if (!al.isMapped()) flags |= UNMAPPED_FLAG;
+            if (al.isNegativeStrand()) flags |= STRAND_FLAG;
+            if (al.isFirstOfPair()) flags |= FIRST_OF_PAIR_FLAG;
+            if (al.isSecondOfPair()) flags |= SECOND_OF_PAIR_FLAG;
+            if (!al.isPrimary()) flags |= SECONDARY_FLAG;
+            if (al.isVendorFailedRead()) flags |= VENDOR_FAILED_FLAG;
+            if (al.isDuplicate()) flags |= DUPLICATE_FLAG;
+            if (al.isSupplementary()) flags |= SUPPLEMENTARY_FLAG;
+            ReadMate mate = al.getMate();
+            if (mate != null) {
+                flags |= HAS_MATE_FLAG;
+                if (!mate.isMapped()) flags |= MATE_UNMAPPED_FLAG;
+                if (mate.isNegativeStrand()) flags |= MATE_STRAND_FLAG;
+            }
+            if (al.getYcColor() != null) flags |= HAS_YC_COLOR_FLAG;
+            return flags;
+        }
+
+        private static int strandOrdinal(Strand strand) {
+            return strand == null ? Strand.NONE.ordinal() : strand.ordinal();
+        }
+
+        /**
+         * CIGAR operators are stored as in BAM files,  length << 4 | operator code
+         */
+        private void encodeCigar(String cigarString, int[] fields) {
+            fields[CIGAR_OFFSET] = nCigarOps;
+            int nOps = 0;
+            if (cigarString != null && !cigarString.equals("*")) {
+                int length = 0;
+                for (int i = 0; i < cigarString.length(); i++) {
+                    char c = cigarString.charAt(i);
+                    if (Character.isDigit(c)) {
+                        length = length * 10 + (c - '0');
+                    } else {
+                        int opCode = CIGAR_OPERATORS.indexOf(c);
+                        cigars.putInt((length << 4) | (opCode < 0 ? 0xF : opCode));
+                        nOps++;
+                        length = 0;
+                    }
+                }
+            }
+            nCigarOps += nOps;
+            fields[CIGAR_LENGTH] = nOps;
+        }
+
+        private void encodeBlocks(Alignment al, int[] fields) {
+            AlignmentBlock[] alignmentBlocks = al.getAlignmentBlocks();
+            AlignmentBlock[] insertions = al.getInsertions();
+            fields[BLOCK_OFFSET] = nBlocks;
+            fields[N_BLOCKS] = alignmentBlocks == null ? -1 : alignmentBlocks.length;
+            fields[N_INSERTIONS] = insertions == null ? 0 : insertions.length;
+            if (alignmentBlocks != null) {
+                for (AlignmentBlock block : alignmentBlocks) putBlock(block);
+                if (insertions != null) {
+                    for (AlignmentBlock block : insertions) putBlock(block);
+                }
+            }
+        }
+
+        private void putBlock(AlignmentBlock block) {
+            byte[] blockBases = block.getBases();
+            byte[] blockQualities = block.getQualities();
+            int flags = (block.isSoftClipped() ? SOFT_CLIPPED : 0) |
+                    (blockBases != null ? HAS_BASES : 0) |
+                    (blockBases != null && blockQualities != null ? HAS_QUALITIES : 0);
+            blocks.ensure(BLOCK_FIELDS * 4);
+            blocks.putInt(block.getStart());
+            blocks.putInt(blockBases != null ? blockBases.length : block.getLength());
+            blocks.putInt(flags);
+            blocks.putInt(blockBases == null ? -1 : putBases(blockBases));
+            blocks.putInt(blockBases == null || blockQualities == null ? -1 : putQualities(blockQualities, blockBases.length));
+            blocks.putInt(block.getPadding());
+            nBlocks++;
+        }
+
+        private void encodeGaps(List<Gap> gapList, int[] fields) {
+            fields[GAP_OFFSET] = nGaps;
+            fields[N_GAPS] = gapList == null ? -1 : gapList.size();
+            if (gapList != null) {
+                for (Gap gap : gapList) {
+                    gaps.ensure(GAP_FIELDS * 4);
+                    gaps.putInt(gap.getStart());
+                    gaps.putInt(gap.getnBases());
+                    gaps.putInt(gap.getType());
+                    if (gap instanceof SpliceGap) {
+                        gaps.putInt(((SpliceGap) gap).getFlankingLeft());
+                        gaps.putInt(((SpliceGap) gap).getFlankingRight());
+                    } else {
+                        gaps.putInt(-1);
+                        gaps.putInt(-1);
+                    }
+                    nGaps++;
+                }
+            }
+        }
+
+        /**
+         * @return the offset, in nibbles, of the first base
+         */
+        private int putBases(byte[] seq) {
+            if (nBases + seq.length > 2L * Integer.MAX_VALUE - 2) {
+                throw new IllegalStateException("Alignment base column exceeds 2GB");
+            }
+            int offset = (int) nBases;
+            bases.ensure(seq.length / 2 + 1);
+            for (byte b : seq) {
+                int nibble = BASE_TO_NIBBLE[b & 0xFF];
+                if ((nBases & 1) == 0) {
+                    bases.put((byte) (nibble << 4));
+                } else {
+                    int pos = bases.position() - 1;
+                    bases.buffer.put(pos, (byte) (bases.buffer.get(pos) | nibble));
+                }
+                nBases++;
+            }
+            return offset;
+        }
+
+        private int putQualities(byte[] q, int length) {
+            int offset = qualities.position();
+            qualities.ensure(length);
+            for (int i = 0; i < length; i++) {
+                qualities.put(i < q.length ? q[i] : (byte) 126);
+            }
+            return offset;
+        }
+
+        private int putString(String s) {
+            if (s == null) return -1;
+            byte[] bytes = s.getBytes();
+            int offset = strings.position();
+            strings.ensure(4 + bytes.length);
+            strings.putInt(bytes.length);
+            for (byte b : bytes) strings.put(b);
+            return offset;
+        }
+
+        private int dictionaryIndex(String s) {
+            if (s == null) return -1;
+            Integer idx = dictionaryIndex.get(s);
+            if (idx == null) {
+                idx = dictionary.size();
+                dictionary.add(s);
+                dictionaryIndex.put(s, idx);
+            }
+            return idx;
+        }
+
+        private static String encodeAttributes(Alignment al) {
+            Map<String, Object> attributes = new LinkedHashMap<>();
+            if (al instanceof PicardAlignment) {
+                for (SAMRecord.SAMTagAndValue tag : ((PicardAlignment) al).getRecord().getAttributes()) {
+                    attributes.put(tag.tag, tag.value);
+                }
+            } else if (al instanceof BAMAlignment) {
+                attributes.putAll(((BAMAlignment) al).getAttributes());
+            }
+            if (attributes.isEmpty()) return null;
+            StringBuilder buf = new StringBuilder();
+            for (Map.Entry<String, Object> tag : attributes.entrySet()) {
+                Object value = tag.getValue();
+                if (value == null || value.getClass().isArray()) {
+                    continue;   // Array types are not displayed,  see PicardAlignment.getAttributeString()
+                }
+                char type = (value instanceof Integer || value instanceof Short || value instanceof Byte) ? 'i' :
+                        (value instanceof Float ? 'f' : 'Z');
+                String s = value.toString();
+                if (s.indexOf('\t') >= 0) {
+                    s = s.replace('\t', ' ');
+                }
+                if (buf.length() > 0) buf.append('\t');
+                buf.append(tag.getKey()).append(':').append(type).append(':').append(s);
+            }
+            return buf.length() == 0 ? null : buf.toString();
+        }
+    }
+}
@@ -183,6 +183,11 @@ public class CoverageTrack extends AbstractTrack implements ScalableTrack {
         dataManager.load(referenceFrame, renderOptions, true);
     }
 
+    @Override
+    public void loadFrames(List<ReferenceFrame> frames) {
+        dataManager.load(frames, renderOptions, true);
+    }
+
 
     public void setSnpThreshold(float snpThreshold) {
         this.snpThreshold = snpThreshold;
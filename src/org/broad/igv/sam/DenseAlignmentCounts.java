@@ -27,6 +27,10 @@ package org.broad.igv.sam;
 
 import org.apache.log4j.Logger;
 
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
 /**
  * @author jrobinso
  * @date Feb 23, 2011
@@ -94,6 +98,37 @@ public class DenseAlignmentCounts extends BaseAlignmentCounts {
         log.debug("nPts: " + nPts + " maxCounts.length: " + maxCounts.length);
     }
 
+    /**
+     * Write the count arrays to {@code dos}, to be restored with {@link #read(DataInputStream, int, int)}
+     */
+    void write(DataOutputStream dos) throws IOException {
+        for (int[] array : getArrays()) {
+            for (int value : array) {
+                dos.writeInt(value);
+            }
+        }
+    }
+
+    static DenseAlignmentCounts read(DataInputStream dis, int start, int end) throws IOException {
+        DenseAlignmentCounts counts = new DenseAlignmentCounts(start, end, null);
+        for (int[] array : counts.getArrays()) {
+            for (int i = 0; i < array.length; i++) {
+                array[i] = dis.readInt();
+            }
+        }
+        for (int offset = 0; offset < counts.posTotal.length; offset++) {
+            int total = counts.posTotal[offset] + counts.negTotal[offset];
+            int maxCountInt = offset / MAX_COUNT_INTERVAL;
+            counts.maxCounts[maxCountInt] = Math.max(counts.maxCounts[maxCountInt], total);
+        }
+        return counts;
+    }
+
+    private int[][] getArrays() {
+        return new int[][]{posA, posT, posC, posG, posN, negA, negT, negC, negG, negN,
+                qA, qT, qC, qG, qN, posTotal, negTotal, del, ins, totalQ};
+    }
+
     public int getNumberOfPoints() {
         return end - start;
     }
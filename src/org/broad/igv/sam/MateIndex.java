@@ -0,0 +1,282 @@
+package org.broad.igv.sam;
+
+import java.util.Arrays;
+
+/**
+ * Index of alignments waiting for their mates,  for joining the records of a pair while streaming alignments in
+ * position order.
+ * <p/>
+ * Entries are keyed by a 64-bit hash of the read name,  in an open addressing table,  so lookups neither allocate
+ * nor hash the name twice.  Each entry records the position at which its mate is expected.  When the stream passes
+ * that position,  by more than {@code window} bp,  the mate can no longer appear and the entry is evicted.  Pairing
+ * is therefore complete for any distance between mates,  while the index holds only the pairs spanning the current
+ * position.  As a safeguard the index is bounded at {@code maxSize} entries,  beyond which the entries with the
+ * earliest expected mate positions are evicted first.
+ */
+class MateIndex<T extends Alignment> {
+
+    static final int DEFAULT_WINDOW = 1000;
+    static final int DEFAULT_MAX_SIZE = 100000;
+
+    private final int window;
+    private final int maxSize;
+
+    // Hash table of entry ids + 1,  0 marks an empty slot
+    private int[] table;
+    private int mask;
+
+    // Entries,  indexed by id
+    private long[] hashes;
+    private Object[] values;
+    private int[] positions;
+    private int[] freeIds;
+    private int freeCount;
+    private int nextId;
+    private int size;
+
+    // Binary heap of (expected mate position << 32 | entry id).  Entries removed by a match are left in the heap,
+    // and skipped when popped.
+    private long[] heap;
+    private int heapSize;
+
+    MateIndex() {
+        this(DEFAULT_WINDOW, DEFAULT_MAX_SIZE);
+    }
+
+    /**
+     * @param window  distance (bp) past the expected mate position at which an entry is evicted,  to allow for
+     *                alignments slightly out of position order
+     * @param maxSize maximum number of entries
+     */
+    MateIndex(int window, int maxSize) {
+        this.window = window;
+        this.maxSize = maxSize;
+        table = new int[256];
+        mask = table.length - 1;
+        hashes = new long[128];
+        values = new Object[128];
+        positions = new int[128];
+        freeIds = new int[128];
+        heap = new long[128];
+    }
+
+    /**
+     * Add {@code value},  waiting for the mate of read {@code readName} which is expected at {@code matePosition}.
+     * An existing entry for the read is replaced.
+     */
+    void put(String readName, T value, int matePosition) {
+
+        long hash = hash(readName);
+        int slot = find(hash);
+        if (slot >= 0) {
+            removeSlot(slot);
+        } else if (size >= maxSize) {
+            evictFirst();
+        }
+
+        int id = freeCount > 0 ? freeIds[--freeCount] : nextId++;
+        if (id >= values.length) {
+            int capacity = values.length * 2;
+            hashes = Arrays.copyOf(hashes, capacity);
+            values = Arrays.copyOf(values, capacity);
+            positions = Arrays.copyOf(positions, capacity);
+            freeIds = Arrays.copyOf(freeIds, capacity);
+        }
+        hashes[id] = hash;
+        values[id] = value;
+        positions[id] = matePosition;
+        size++;
+
+        if (2 * size > table.length) {
+            rehash(table.length * 2);       // Inserts the new entry
+        } else {
+            insert(id);
+        }
+        pushHeap(((long) matePosition << 32) | id);
+    }
+
+    /**
+     * @return the entry for read {@code readName}, or null if there is none
+     */
+    T get(String readName) {
+        int slot = find(hash(readName));
+        if (slot < 0) {
+            return null;
+        }
+        T value = (T) values[table[slot] - 1];
+        return readName.equals(value.getReadName()) ? value : null;
+    }
+
+    /**
+     * Remove and return the entry for read {@code readName}.
+     *
+     * @return the entry, or null if there is none
+     */
+    T remove(String readName) {
+        int slot = find(hash(readName));
+        if (slot < 0) {
+            return null;
+        }
+        T value = (T) values[table[slot] - 1];
+        if (!readName.equals(value.getReadName())) {
+            return null;      // A hash collision,  the reads cannot both be indexed
+        }
+        removeSlot(slot);
+        return value;
+    }
+
+    /**
+     * Evict entries whose mates are expected before {@code position - window}.  Call with the position of each
+     * alignment streamed.
+     */
+    void advance(int position) {
+        long limit = (long) position - window;
+        while (heapSize > 0 && (heap[0] >> 32) < limit) {
+            long entry = popHeap();
+            evict((int) entry, (int) (entry >> 32));
+        }
+    }
+
+    int size() {
+        return size;
+    }
+
+    void clear() {
+        Arrays.fill(table, 0);
+        Arrays.fill(values, null);
+        size = 0;
+        nextId = 0;
+        freeCount = 0;
+        heapSize = 0;
+    }
+
+    private void evictFirst() {
+        while (heapSize > 0) {
+            long entry = popHeap();
+            if (evict((int) entry, (int) (entry >> 32))) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Evict entry {@code id} if it is still present for {@code position}.  An id reused since the heap entry was
+     * pushed is evicted only if its position is the same,  in which case it is due anyway.
+     */
+    private boolean evict(int id, int position) {
+        if (values[id] == null || positions[id] != position) {
+            return false;
+        }
+        removeSlot(find(hashes[id]));
+        return true;
+    }
+
+    private int find(long hash) {
+        int slot = slot(hash);
+        int entry;
+        while ((entry = table[slot]) != 0) {
+            if (hashes[entry - 1] == hash) {
+                return slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+
+    private void insert(int id) {
+        int slot = slot(hashes[id]);
+        while (table[slot] != 0) {
+            slot = (slot + 1) & mask;
+        }
+        table[slot] = id + 1;
+    }
+
+    /**
+     * Remove the entry in {@code slot},  shifting back later entries of the probe sequence to close the gap
+     */
+    private void removeSlot(int slot) {
+
+        int id = table[slot] - 1;
+        values[id] = null;
+        freeIds[freeCount++] = id;
+        size--;
+
+        int i = slot;
+        int j = slot;
+        while (true) {
+            table[i] = 0;
+            while (true) {
+                j = (j + 1) & mask;
+                if (table[j] == 0) {
+                    return;
+                }
+                int k = slot(hashes[table[j] - 1]);
+                // Entry j can move to i unless its home slot k lies cyclically in (i, j]
+                if (i <= j ? (i >= k || k > j) : (i >= k && k > j)) {
+                    break;
+                }
+            }
+            table[i] = table[j];
+            i = j;
+        }
+    }
+
+    private void rehash(int capacity) {
+        table = new int[capacity];
+        mask = capacity - 1;
+        for (int id = 0; id < nextId; id++) {
+            if (values[id] != null) {
+                insert(id);
+            }
+        }
+    }
+
+    private int slot(long hash) {
+        return (int) (hash ^ (hash >>> 32)) & mask;
+    }
+
+    private void pushHeap(long entry) {
+        if (heapSize == heap.length) {
+            heap = Arrays.copyOf(heap, heap.length * 2);
+        }
+        int i = heapSize++;
+        while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            if (heap[parent] <= entry) break;
+            heap[i] = heap[parent];
+            i = parent;
+        }
+        heap[i] = entry;
+    }
+
+    private long popHeap() {
+        long result = heap[0];
+        long entry = heap[--heapSize];
+        int i = 0;
+        int half = heapSize >>> 1;
+        while (i < half) {
+            int child = 2 * i + 1;
+            if (child + 1 < heapSize && heap[child + 1] < heap[child]) child++;
+            if (entry <= heap[child]) break;
+            heap[i] = heap[child];
+            i = child;
+        }
+        heap[i] = entry;
+        return result;
+    }
+
+    /**
+     * 64-bit FNV-1a hash of the read name,  with a final mix so the low bits are well distributed
+     */
+    static long hash(String readName) {
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < readName.length(); i++) {
+            h ^= readName.charAt(i);
+            h *= 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        return h;
+    }
+}
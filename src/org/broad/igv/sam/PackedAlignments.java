@@ -45,9 +45,23 @@ public class PackedAlignments extends LinkedHashMap<String, List<Row>> {
      */
     private List<? extends Range> ranges;
 
+    /**
+     * The render options the alignments were packed with,  see {@link AlignmentPacker}
+     */
+    private String packingOptions;
+
     PackedAlignments(List<? extends Range> ranges, Map<String, List<Row>> packedAlignments){
+        this(ranges, packedAlignments, null);
+    }
+
+    PackedAlignments(List<? extends Range> ranges, Map<String, List<Row>> packedAlignments, String packingOptions){
         super(packedAlignments);
         this.ranges = ranges;
+        this.packingOptions = packingOptions;
+    }
+
+    String getPackingOptions() {
+        return packingOptions;
     }
 
     /**
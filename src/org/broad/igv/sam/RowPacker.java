@@ -0,0 +1,150 @@
+package org.broad.igv.sam;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Allocates alignments to rows such that there is no overlap, using an occupancy index of the rows: a heap of
+ * occupied rows ordered by end position, and a heap of free rows ordered by row number.  Each alignment is placed in
+ * the lowest numbered row that is free at its start,  in O(n log r) time for n alignments and r rows.  Given
+ * alignments with equal starts longest first,  as {@link AlignmentPacker} sorts them,  this is the layout of filling
+ * rows one at a time from left to right from start position buckets.  Alignments with equal starts and ends may
+ * be placed in either of their rows.
+ * <p/>
+ * The index persists between calls to {@link #add(Alignment)},  so a packing can be extended with alignments to the
+ * right without repacking those already placed.
+ */
+class RowPacker {
+
+    private final List<Row> rows;
+    private final int spacing;
+
+    // Binary heap of occupied rows,  keyed by the position at which the row is free to accept another alignment.
+    // Entries are (position << 32 | row number),  so the heap is a single array without indirection.
+    private long[] occupied;
+    private int occupiedSize;
+
+    // Binary heap of free row numbers
+    private int[] free;
+    private int freeSize;
+
+    private int lastStart = Integer.MIN_VALUE;
+
+    RowPacker(List<Row> rows) {
+        this(rows, AlignmentPacker.MIN_ALIGNMENT_SPACING);
+    }
+
+    RowPacker(List<Row> rows, int spacing) {
+        this.rows = rows;
+        this.spacing = spacing;
+        this.occupied = new long[64];
+        this.free = new int[64];
+        for (int i = 0; i < rows.size(); i++) {
+            List<Alignment> alignments = rows.get(i).alignments;
+            allocate(i);
+            if (alignments.isEmpty()) {
+                pushFree(i);
+                continue;
+            }
+            Alignment last = alignments.get(alignments.size() - 1);
+            pushOccupied(i, last.getEnd() + spacing);
+            lastStart = Math.max(lastStart, last.getStart());
+        }
+    }
+
+    /**
+     * Add an alignment to the first row with room for it.  Alignments must be added in order of start position.
+     */
+    void add(Alignment alignment) {
+
+        int start = alignment.getStart();
+        if (start < lastStart) {
+            throw new IllegalArgumentException("Alignments must be added in order of start position: " +
+                    alignment.getReadName() + " " + start + " < " + lastStart);
+        }
+        lastStart = start;
+
+        // Release rows that have ended
+        while (occupiedSize > 0 && (int) (occupied[0] >> 32) <= start) {
+            pushFree(popOccupied());
+        }
+
+        int rowNumber;
+        if (freeSize > 0) {
+            rowNumber = popFree();
+        } else {
+            rowNumber = rows.size();
+            allocate(rowNumber);
+            rows.add(new Row());
+        }
+        rows.get(rowNumber).addAlignment(alignment);
+        pushOccupied(rowNumber, alignment.getEnd() + spacing);
+    }
+
+    List<Row> getRows() {
+        return rows;
+    }
+
+    private void allocate(int rowNumber) {
+        if (rowNumber >= free.length) {
+            int capacity = Math.max(rowNumber + 1, free.length * 2);
+            occupied = Arrays.copyOf(occupied, capacity);
+            free = Arrays.copyOf(free, capacity);
+        }
+    }
+
+    private void pushOccupied(int row, int end) {
+        long entry = ((long) end << 32) | row;
+        int i = occupiedSize++;
+        while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            if (occupied[parent] <= entry) break;
+            occupied[i] = occupied[parent];
+            i = parent;
+        }
+        occupied[i] = entry;
+    }
+
+    private int popOccupied() {
+        long result = occupied[0];
+        long entry = occupied[--occupiedSize];
+        int i = 0;
+        int half = occupiedSize >>> 1;
+        while (i < half) {
+            int child = 2 * i + 1;
+            if (child + 1 < occupiedSize && occupied[child + 1] < occupied[child]) child++;
+            if (entry <= occupied[child]) break;
+            occupied[i] = occupied[child];
+            i = child;
+        }
+        occupied[i] = entry;
+        return (int) result;
+    }
+
+    private void pushFree(int row) {
+        int i = freeSize++;
+        while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            if (free[parent] <= row) break;
+            free[i] = free[parent];
+            i = parent;
+        }
+        free[i] = row;
+    }
+
+    private int popFree() {
+        int result = free[0];
+        int row = free[--freeSize];
+        int i = 0;
+        int half = freeSize >>> 1;
+        while (i < half) {
+            int child = 2 * i + 1;
+            if (child + 1 < freeSize && free[child + 1] < free[child]) child++;
+            if (row <= free[child]) break;
+            free[i] = free[child];
+            i = child;
+        }
+        free[i] = row;
+        return result;
+    }
+}
@@ -67,6 +67,12 @@ public abstract class SAMAlignment implements Alignment {
     public static final char UNKNOWN = 0;
     public static final String REDUCE_READS_TAG = "RR";
 
+    /**
+     * CIGAR operators indexed by their BAM operation code
+     */
+    public static final char[] BAM_CIGAR_OPERATORS = {MATCH, INSERTION, DELETION, SKIPPED_REGION, SOFT_CLIP, HARD_CLIP,
+            PADDING, PERFECT_MATCH, MISMATCH, '?', '?', '?', '?', '?', '?', '?'};
+
     /**
      * Converts a DNA integer value to its reverse compliment integer value.
      */
@@ -246,8 +252,29 @@ public abstract class SAMAlignment implements Alignment {
             return;
         }
 
-        // Create list of cigar operators
-        java.util.List<CigarOperator> operators = buildOperators(cigarString);
+        createAlignmentBlocks(buildOperators(cigarString), readBases, readBaseQualities);
+    }
+
+    /**
+     * Create the alignment blocks from a CIGAR in the BAM binary encoding,  that is an array of
+     * (operation length << 4 | operation code).
+     *
+     * @param cigar
+     * @param readBases
+     * @param readBaseQualities
+     */
+    protected void createAlignmentBlocks(int[] cigar, byte[] readBases, byte[] readBaseQualities) {
+
+        if (cigar.length == 0) {
+            alignmentBlocks = new AlignmentBlockImpl[1];
+            alignmentBlocks[0] = new AlignmentBlockImpl(getStart(), readBases, readBaseQualities);
+            return;
+        }
+
+        createAlignmentBlocks(buildOperators(cigar), readBases, readBaseQualities);
+    }
+
+    private void createAlignmentBlocks(List<CigarOperator> operators, byte[] readBases, byte[] readBaseQualities) {
 
         boolean showSoftClipped = PreferencesManager.getPreferences().getAsBoolean(Constants.SAM_SHOW_SOFT_CLIPPED);
 
@@ -422,6 +449,27 @@ public abstract class SAMAlignment implements Alignment {
 
 
 
+    /**
+     * Build a list of cigar operators from a CIGAR in the BAM binary encoding.  Concatenates consecutive operators of
+     * the same type
+     */
+    static List<CigarOperator> buildOperators(int[] cigar) {
+
+        List<CigarOperator> operators = new ArrayList<>(cigar.length);
+        CigarOperator prevOp = null;
+        for (int c : cigar) {
+            char op = BAM_CIGAR_OPERATORS[c & 0xf];
+            int nBases = c >>> 4;
+            if (prevOp != null && prevOp.operator == op) {
+                prevOp.nBases += nBases;
+            } else {
+                prevOp = new CigarOperator(nBases, op);
+                operators.add(prevOp);
+            }
+        }
+        return operators;
+    }
+
     private static AlignmentBlockImpl buildAlignmentBlock(byte[] readBases, byte[] readBaseQualities, int blockStart,
                                                           int fromIdx, int nBases, boolean checkNBasesAvailable) {
 
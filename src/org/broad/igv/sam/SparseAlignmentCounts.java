@@ -26,49 +26,51 @@
 package org.broad.igv.sam;
 
 import org.apache.log4j.Logger;
-import org.broad.igv.util.collections.IntArrayList;
+import org.broad.igv.util.collections.IntIntHashMap;
 
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.HashMap;
-import java.util.List;
+import java.util.Arrays;
 
 /**
+ * Alignment counts for sparsely covered regions.  Counts are stored for covered positions only.
+ * <p/>
+ * Genomic positions are mapped to a record index with a primitive int->int map, and the counts for each position are
+ * stored as one interleaved record of {@code RECORD_SIZE} ints in a single array.  This avoids boxing a key for
+ * every base of every read, and keeps all counts for a position on the same cache line.
+ *
  * @author Jim Robinson
  * @date 11/22/11
  */
 public class SparseAlignmentCounts extends BaseAlignmentCounts {
 
     private static Logger log = Logger.getLogger(SparseAlignmentCounts.class);
+
+    // Offsets of the fields within a position record.  Base fields are ordered A, T, C, G, N (see baseOffset).
+    private static final int POS = 0;
+    private static final int NEG = 5;
+    private static final int QUAL = 10;
+    private static final int POS_TOTAL = 15;
+    private static final int NEG_TOTAL = 16;
+    private static final int DEL = 17;
+    private static final int INS = 18;
+    private static final int TOTAL_Q = 19;
+    private static final int RECORD_SIZE = 20;
+
     private int maxCount = 0;
-    List<Integer> indices;
 
+    /**
+     * Map of genomic position -> record index
+     */
+    private IntIntHashMap indexMap;
+
+    /**
+     * Interleaved count records,  RECORD_SIZE ints per position
+     */
+    private int[] counts;
 
     /**
-     * Map of genomic position -> index of count arrays
+     * Sorted genomic positions,  available after finish()
      */
-    HashMap<Integer, Integer> indexMap;
-
-    IntArrayList posA;
-    IntArrayList posT;
-    IntArrayList posC;
-    IntArrayList posG;
-    IntArrayList posN;
-    IntArrayList negA;
-    IntArrayList negT;
-    IntArrayList negC;
-    IntArrayList negG;
-    IntArrayList negN;
-    IntArrayList qA;
-    IntArrayList qT;
-    IntArrayList qC;
-    IntArrayList qG;
-    IntArrayList qN;
-    IntArrayList posTotal;
-    IntArrayList negTotal;
-    IntArrayList del;
-    IntArrayList ins;
-    private IntArrayList totalQ;
+    private int[] positions;
 
 
     public SparseAlignmentCounts(int start, int end, AlignmentTrack.BisulfiteContext bisulfiteContext) {
@@ -77,28 +79,8 @@ public class SparseAlignmentCounts extends BaseAlignmentCounts {
 
     public SparseAlignmentCounts(int start, int end, AlignmentTrack.BisulfiteContext bisulfiteContext, int initSize) {
         super(start, end, bisulfiteContext);
-
-        indexMap = new HashMap<Integer, Integer>(initSize);
-        posA = new IntArrayList(initSize);
-        posT = new IntArrayList(initSize);
-        posC = new IntArrayList(initSize);
-        posG = new IntArrayList(initSize);
-        posN = new IntArrayList(initSize);
-        posTotal = new IntArrayList(initSize);
-        negA = new IntArrayList(initSize);
-        negT = new IntArrayList(initSize);
-        negC = new IntArrayList(initSize);
-        negG = new IntArrayList(initSize);
-        negN = new IntArrayList(initSize);
-        negTotal = new IntArrayList(initSize);
-        qA = new IntArrayList(initSize);
-        qT = new IntArrayList(initSize);
-        qC = new IntArrayList(initSize);
-        qG = new IntArrayList(initSize);
-        qN = new IntArrayList(initSize);
-        del = new IntArrayList(initSize);
-        ins = new IntArrayList(initSize);
-        totalQ = new IntArrayList(initSize);
+        indexMap = new IntIntHashMap(initSize);
+        counts = new int[initSize * RECORD_SIZE];
     }
 
     public int getStart() {
@@ -110,11 +92,11 @@ public class SparseAlignmentCounts extends BaseAlignmentCounts {
     }
 
     public int getNumberOfPoints() {
-        return indices == null ? 0 : indices.size();
+        return positions == null ? 0 : positions.length;
     }
 
     public int getPosition(int idx) {
-        return indices.get(idx);
+        return positions[idx];
     }
 
     /**
@@ -132,202 +114,63 @@ public class SparseAlignmentCounts extends BaseAlignmentCounts {
     }
 
     public int getTotalCount(int pos) {
-        if (!indexMap.containsKey(pos)) {
-            if (log.isDebugEnabled()) {
-                log.debug("Position out of range: " + pos + " (valid range - " + start + "-" + end);
-            }
-            return 0;
-        } else {
-            int idx = getIndex(pos);
-            return getCountFromList(posTotal, idx) + getCountFromList(negTotal, idx);
-
-        }
+        int offset = getRecordOffset(pos);
+        return offset < 0 ? 0 : counts[offset + POS_TOTAL] + counts[offset + NEG_TOTAL];
     }
 
-
     public int getTotalQuality(int pos) {
-        if (!indexMap.containsKey(pos)) {
-            if (log.isDebugEnabled()) {
-                log.debug("Position out of range: " + pos + " (valid range - " + start + "-" + end);
-            }
-            return 0;
-        } else {
-            int idx = getIndex(pos);
-            return getCountFromList(totalQ, idx);
-
-        }
+        int offset = getRecordOffset(pos);
+        return offset < 0 ? 0 : counts[offset + TOTAL_Q];
     }
 
     public int getCount(int pos, byte b) {
-        if (!indexMap.containsKey(pos)) {
-            if (log.isDebugEnabled()) {
-                log.debug("Position out of range: " + pos + " (valid range - " + start + "-" + end);
-            }
-            return 0;
-        } else {
-            int idx = getIndex(pos);
-            switch (b) {
-                case 'a':
-                case 'A':
-                    return getCountFromList(posA, idx) + getCountFromList(negA, idx);
-                case 't':
-                case 'T':
-                    return getCountFromList(posT, idx) + getCountFromList(negT, idx);
-                case 'c':
-                case 'C':
-                    return getCountFromList(posC, idx) + getCountFromList(negC, idx);
-                case 'g':
-                case 'G':
-                    return getCountFromList(posG, idx) + getCountFromList(negG, idx);
-                case 'n':
-                case 'N':
-                    return getCountFromList(posN, idx) + getCountFromList(negN, idx);
-            }
-            log.debug("Unknown nucleotide: " + b);
-            return 0;
-        }
-    }
-
-    private int getCountFromList(IntArrayList list, int idx) {
-        return idx < list.size() ? list.get(idx) : 0;
+        int offset = getRecordOffset(pos);
+        int baseOffset = baseOffset(b);
+        return (offset < 0 || baseOffset < 0) ? 0 : counts[offset + POS + baseOffset] + counts[offset + NEG + baseOffset];
     }
 
     public int getNegCount(int pos, byte b) {
-        if (!indexMap.containsKey(pos)) {
-            if (log.isDebugEnabled()) {
-                log.debug("Position out of range: " + pos + " (valid range - " + start + "-" + end);
-            }
-            return 0;
-        } else {
-            int idx = getIndex(pos);
-            switch (b) {
-                case 'a':
-                case 'A':
-                    return getCountFromList(negA, idx);
-                case 't':
-                case 'T':
-                    return getCountFromList(negT, idx);
-                case 'c':
-                case 'C':
-                    return getCountFromList(negC, idx);
-                case 'g':
-                case 'G':
-                    return getCountFromList(negG, idx);
-                case 'n':
-                case 'N':
-                    return getCountFromList(negN, idx);
-            }
-            log.error("Unknown nucleotide: " + b);
-            return 0;
-        }
+        int offset = getRecordOffset(pos);
+        int baseOffset = baseOffset(b);
+        return (offset < 0 || baseOffset < 0) ? 0 : counts[offset + NEG + baseOffset];
     }
 
     public int getPosCount(int pos, byte b) {
-        if (!indexMap.containsKey(pos)) {
-            if (log.isDebugEnabled()) {
-                log.debug("Position out of range: " + pos + " (valid range - " + start + "-" + end);
-            }
-            return 0;
-        } else {
-            int idx = getIndex(pos);
-            switch (b) {
-                case 'a':
-                case 'A':
-                    return getCountFromList(posA, idx);
-                case 't':
-                case 'T':
-                    return getCountFromList(posT, idx);
-                case 'c':
-                case 'C':
-                    return getCountFromList(posC, idx);
-                case 'g':
-                case 'G':
-                    return getCountFromList(posG, idx);
-                case 'n':
-                case 'N':
-                    return getCountFromList(posN, idx);
-            }
-            log.error("Unknown nucleotide: " + b);
-            return 0;
-        }
+        int offset = getRecordOffset(pos);
+        int baseOffset = baseOffset(b);
+        return (offset < 0 || baseOffset < 0) ? 0 : counts[offset + POS + baseOffset];
     }
 
     public int getDelCount(int pos) {
-        if (!indexMap.containsKey(pos)) {
-            if (log.isDebugEnabled()) {
-                log.debug("Position out of range: " + pos + " (valid range - " + start + "-" + end);
-            }
-            return 0;
-        } else {
-            int idx = getIndex(pos);
-            return getCountFromList(del, idx);
-        }
+        int offset = getRecordOffset(pos);
+        return offset < 0 ? 0 : counts[offset + DEL];
     }
 
-
     public int getInsCount(int pos) {
-        if (!indexMap.containsKey(pos)) {
-            if (log.isDebugEnabled()) {
-                log.debug("Position out of range: " + pos + " (valid range - " + start + "-" + end);
-            }
-            return 0;
-        } else {
-            int idx = getIndex(pos);
-            return getCountFromList(ins, idx);
-        }
+        int offset = getRecordOffset(pos);
+        return offset < 0 ? 0 : counts[offset + INS];
     }
 
     public int getQuality(int pos, byte b) {
-        if (!indexMap.containsKey(pos)) {
-            if (log.isDebugEnabled()) {
-                log.debug("Position out of range: " + pos + " (valid range - " + start + "-" + end);
-            }
-            return 0;
-        } else {
-            int idx = getIndex(pos);
-            switch (b) {
-                case 'a':
-                case 'A':
-                    return getCountFromList(qA, idx);
-                case 't':
-                case 'T':
-                    return getCountFromList(qT, idx);
-                case 'c':
-                case 'C':
-                    return getCountFromList(qC, idx);
-                case 'g':
-                case 'G':
-                    return getCountFromList(qG, idx);
-                case 'n':
-                case 'N':
-                    return getCountFromList(qN, idx);
-            }
-            log.error("Unknown nucleotide: " + posN);
-            return 0;
-        }
-
+        int offset = getRecordOffset(pos);
+        int baseOffset = baseOffset(b);
+        return (offset < 0 || baseOffset < 0) ? 0 : counts[offset + QUAL + baseOffset];
     }
 
     protected void incrementDeletion(int pos, boolean negativeStrand) {
-        int idx = getIndex(pos);
-        increment(del, idx, 1);
+        int offset = getOrCreateRecordOffset(pos);
+        counts[offset + DEL]++;
         if (countDeletedBasesCovered) {
-            if (negativeStrand) {
-                increment(negTotal, idx, 1);
-            } else {
-                increment(posTotal, idx, 1);
-            }
+            counts[offset + (negativeStrand ? NEG_TOTAL : POS_TOTAL)]++;
         }
     }
 
     protected void incrementInsertion(AlignmentBlock insBlock) {
         int pos = insBlock.getStart();
-        int idx1 = getIndex(pos);
         // Insertions are between bases.  increment count on either side
-        increment(ins, idx1, 1);
+        counts[getOrCreateRecordOffset(pos) + INS]++;
         if (pos > 0) {
-            int idx2 = getIndex(pos - 1);
-            increment(ins, idx2, 1);
+            counts[getOrCreateRecordOffset(pos - 1) + INS]++;
         }
     }
 
@@ -349,130 +192,77 @@ public class SparseAlignmentCounts extends BaseAlignmentCounts {
 
     protected void incPositionCount(int pos, byte b, byte q, boolean isNegativeStrand) {
 
-        int idx = getIndex(pos);
+        int offset = getOrCreateRecordOffset(pos);
+
+        // Everything other than a, c, t, g is counted as "N".  This might be an actual "N",  or an ambiguity code
+        int baseOffset = baseOffset(b);
+        if (baseOffset < 0) baseOffset = 4;
+
+        counts[offset + (isNegativeStrand ? NEG : POS) + baseOffset]++;
+        counts[offset + QUAL + baseOffset] += q;
+        counts[offset + (isNegativeStrand ? NEG_TOTAL : POS_TOTAL)]++;
+        counts[offset + TOTAL_Q] += q;
+
+        maxCount = Math.max(counts[offset + POS_TOTAL] + counts[offset + NEG_TOTAL], maxCount);
+    }
+
+    /**
+     * @return offset of the count record for {@code pos} in the counts array, or -1 if the position is not covered
+     */
+    private int getRecordOffset(int pos) {
+        int idx = indexMap.get(pos, -1);
+        if (idx < 0) {
+            if (log.isDebugEnabled()) {
+                log.debug("Position out of range: " + pos + " (valid range - " + start + "-" + end);
+            }
+            return -1;
+        }
+        return idx * RECORD_SIZE;
+    }
+
+    private int getOrCreateRecordOffset(int pos) {
+        int idx = indexMap.get(pos, -1);
+        if (idx < 0) {
+            idx = indexMap.size();
+            indexMap.put(pos, idx);
+            int requiredLength = (idx + 1) * RECORD_SIZE;
+            if (requiredLength > counts.length) {
+                counts = Arrays.copyOf(counts, Math.max(requiredLength, counts.length * 2));
+            }
+        }
+        return idx * RECORD_SIZE;
+    }
+
+    private static int baseOffset(byte b) {
         switch (b) {
             case 'a':
             case 'A':
-                if (isNegativeStrand) {
-                    increment(negA, idx, 1);
-                } else {
-                    increment(posA, idx, 1);
-                }
-                increment(qA, idx, q);
-                break;
+                return 0;
             case 't':
             case 'T':
-                if (isNegativeStrand) {
-                    increment(negT, idx, 1);
-                } else {
-                    increment(posT, idx, 1);
-                }
-                increment(qT, idx, q);
-                break;
+                return 1;
             case 'c':
             case 'C':
-                if (isNegativeStrand) {
-                    increment(negC, idx, 1);
-                } else {
-                    increment(posC, idx, 1);
-                }
-                increment(qC, idx, q);
-                break;
+                return 2;
             case 'g':
             case 'G':
-                if (isNegativeStrand) {
-                    increment(negG, idx, 1);
-                } else {
-                    increment(posG, idx, 1);
-                }
-                increment(qG, idx, q);
-                break;
-            // Everything else is counted as "N".  This might be an actual "N",  or an ambiguity code
+                return 3;
+            case 'n':
+            case 'N':
+                return 4;
             default:
-                if (isNegativeStrand) {
-                    increment(negN, idx, 1);
-                } else {
-                    increment(posN, idx, 1);
-                }
-                increment(qN, idx, q);
-
-        }
-
-        if (isNegativeStrand) {
-            increment(negTotal, idx, 1);
-        } else {
-            increment(posTotal, idx, 1);
-        }
-        increment(totalQ, idx, q);
-
-        int pt = idx < posTotal.size() ? posTotal.get(idx) : 0;
-        int nt = idx < negTotal.size() ? negTotal.get(idx) : 0;
-        maxCount = Math.max(pt + nt, maxCount);
-
-    }
-
-    private int getIndex(int pos) {
-        Integer index = indexMap.get(pos);
-        if (index == null) {
-            index = new Integer(indexMap.size());
-            indexMap.put(pos, index);
-        }
-        return index.intValue();
-    }
-
-
-    private void increment(IntArrayList list, int idx, int delta) {
-        if (idx < list.size()) {
-            list.set(idx, list.get(idx) + delta);
-        } else {
-            list.set(idx, delta);
+                return -1;
         }
     }
 
     public void finish() {
-        indices = new ArrayList<Integer>(indexMap.keySet());
-        Collections.sort(indices);
-    }
-
-    /**
-     * Take raw data from input and place it into result. Indexing is
-     * consistent within {@code result}, which may not be the same as input.
-     * Previous data is not overwritten
-     *
-     * @param result
-     * @param input
-     */
-    private static void addRawCounts(SparseAlignmentCounts result, SparseAlignmentCounts input) {
-
-        IntArrayList[] inputArrs = getCountArrs(input);
-        IntArrayList[] destArrs = getCountArrs(result);
-        IntArrayList destArr;
-
-        for (int arrayPos = 0; arrayPos < input.getNumberOfPoints(); arrayPos++) {
-            int genomePos = input.indices.get(arrayPos);
-            if (!result.indexMap.containsKey(genomePos)) {
-                for (int arnum = 0; arnum < destArrs.length; arnum++) {
-                    destArr = destArrs[arnum];
-                    destArr.add(inputArrs[arnum].get(arrayPos));
-                }
-                result.getIndex(genomePos);
-            }
+        positions = indexMap.keys();
+        Arrays.sort(positions);
+        // Release unused capacity
+        int length = indexMap.size() * RECORD_SIZE;
+        if (counts.length > length) {
+            counts = Arrays.copyOf(counts, length);
         }
     }
 
-    /**
-     * Create an array of the arrays we use to keep track of data
-     *
-     * @param counts
-     * @return
-     */
-    private static IntArrayList[] getCountArrs(SparseAlignmentCounts counts) {
-
-        IntArrayList[] result = {counts.posA, counts.posT, counts.posC, counts.posG, counts.posN,
-                counts.negA, counts.negT, counts.negC, counts.negG, counts.negN,
-                counts.qA, counts.qT, counts.qC, counts.qG, counts.qN, counts.posTotal, counts.negTotal,
-                counts.del, counts.ins, counts.totalQ};
-        return result;
-    }
-
 }
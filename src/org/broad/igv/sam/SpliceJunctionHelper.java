@@ -146,6 +146,16 @@ public class SpliceJunctionHelper {
         }
     }
 
+    /**
+     * Add a junction computed elsewhere, for example restored from {@link AlignmentCountsCache}
+     */
+    void addJunction(SpliceJunctionFeature junction) {
+        Table<Integer, Integer, SpliceJunctionFeature> startEndJunctionsTableThisStrand =
+                junction.getStrand() == Strand.NEGATIVE ? negStartEndJunctionsMap : posStartEndJunctionsMap;
+        startEndJunctionsTableThisStrand.put(junction.getJunctionStart(), junction.getJunctionEnd(), junction);
+        allSpliceJunctionFeatures.add(junction);
+    }
+
     private static List<SpliceJunctionFeature> filterJunctionList(LoadOptions loadOptions, List<SpliceJunctionFeature> unfiltered) {
 
         if (loadOptions.minJunctionCoverage > 1) {
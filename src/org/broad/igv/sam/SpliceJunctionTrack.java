@@ -268,6 +268,11 @@ public class SpliceJunctionTrack extends FeatureTrack {
 
     }
 
+    @Override
+    public void loadFrames(List<ReferenceFrame> frames) {
+        dataManager.load(frames, renderOptions, true);
+    }
+
     @Override
     public boolean isReadyToPaint(ReferenceFrame frame) {
         if (frame.getChrName().equals(Globals.CHR_ALL) ||  frame.getScale() > dataManager.getMinVisibleScale()) {
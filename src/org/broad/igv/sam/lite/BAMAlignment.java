@@ -1,22 +1,34 @@
 package org.broad.igv.sam.lite;
 
-import htsjdk.samtools.SAMRecord;
+import htsjdk.samtools.SAMFileHeader;
+import htsjdk.samtools.SAMReadGroupRecord;
 import htsjdk.samtools.util.StringUtil;
+import org.apache.log4j.Logger;
 import org.broad.igv.prefs.Constants;
 import org.broad.igv.prefs.IGVPreferences;
 import org.broad.igv.prefs.PreferencesManager;
 import org.broad.igv.sam.*;
 import org.broad.igv.sam.ReadMate;
+import org.broad.igv.track.WindowFunction;
+import org.broad.igv.ui.color.ColorUtilities;
 
+import java.awt.*;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.util.*;
+import java.util.List;
 
 /**
+ * An alignment decoded lazily from a BAM record.  Position, flags, mate, and CIGAR are decoded when the record is
+ * read.  The read name, sequence, qualities, and alignment blocks are decoded on first use,  and tags are scanned
+ * on demand from the record bytes.
+ * <p/>
  * Created by jrobinso on 3/13/17.
  */
 public class BAMAlignment extends SAMAlignment {
 
+    private static Logger log = Logger.getLogger(BAMAlignment.class);
+
     static int READ_PAIRED_FLAG = 0x1;
     static int PROPER_PAIR_FLAG = 0x2;
     static int READ_UNMAPPED_FLAG = 0x4;
@@ -30,49 +42,249 @@ public class BAMAlignment extends SAMAlignment {
     static int DUPLICATE_READ_FLAG = 0x400;
     static int SUPPLEMENTARY_ALIGNMENT_FLAG = 0x800;
 
-    public int flags;
-    public int fragmentLength;
-    public int lengthOnRef;
-    public int start;
-    public byte[] sequence;
-    public byte[] qualities;
-    public int mq;
-    public String readName;
-    public byte[] tagBytes;
-    public byte[] cigarBytes;
-    public String chr;
-    public ReadMate mate;
+    private static final byte[] SEQ_DECODER = "=ACMGRSVTWYHKDBN".getBytes();
+
+    // Offsets of fixed length fields in a record,  excluding the leading block size
+    static final int REF_ID_OFFSET = 0;
+    static final int POS_OFFSET = 4;
+    static final int NAME_LENGTH_OFFSET = 8;
+    static final int MAPQ_OFFSET = 9;
+    static final int N_CIGAR_OFFSET = 12;
+    static final int FLAG_OFFSET = 14;
+    static final int SEQ_LENGTH_OFFSET = 16;
+    static final int MATE_REF_ID_OFFSET = 20;
+    static final int MATE_POS_OFFSET = 24;
+    static final int TLEN_OFFSET = 28;
+    static final int NAME_OFFSET = 32;
+
+    private final byte[] record;
+    private final SAMFileHeader header;
+    private final int flags;
+    private final int[] cigar;
+    private final int seqOffset;
+    private final int seqLength;
+
+    private String readName;
+    private volatile boolean blocksDecoded;
+    private boolean ycColorDecoded;
     private Map<String, Object> tagDictionary;
 
+    /**
+     * @param record          the record bytes,  excluding the leading block size
+     * @param chr             the chromosome name of the record's reference
+     * @param mate            the mate,  or null if the read is not paired
+     * @param header          the file header,  for read group attributes
+     * @param showSoftClipped true if soft clipped bases are shown,  which extends start and end
+     */
+    BAMAlignment(byte[] record, String chr, ReadMate mate, SAMFileHeader header, boolean showSoftClipped) {
+
+        this.record = record;
+        this.header = header;
+        setChr(chr);
+        this.flags = readUShort(record, FLAG_OFFSET);
+
+        int nameLength = record[NAME_LENGTH_OFFSET] & 0xff;
+        int nCigar = readUShort(record, N_CIGAR_OFFSET);
+        int cigarOffset = NAME_OFFSET + nameLength;
+        cigar = new int[nCigar];
+        int lengthOnRef = 0;
+        for (int i = 0; i < nCigar; i++) {
+            int c = BAMReader.readInt(record, cigarOffset + 4 * i);
+            cigar[i] = c;
+            char op = BAM_CIGAR_OPERATORS[c & 0xf];
+            if (op == MATCH || op == PERFECT_MATCH || op == MISMATCH || op == DELETION || op == SKIPPED_REGION) {
+                lengthOnRef += c >>> 4;
+            }
+        }
+        seqOffset = cigarOffset + 4 * nCigar;
+        seqLength = BAMReader.readInt(record, SEQ_LENGTH_OFFSET);
+
+        alignmentStart = BAMReader.readInt(record, POS_OFFSET);
+        alignmentEnd = alignmentStart + Math.max(1, lengthOnRef);
+        start = alignmentStart;
+        end = alignmentEnd;
+        if (showSoftClipped) {
+            start -= getLeadingSoftClip();
+            end += getTrailingSoftClip();
+        }
+
+        setMate(mate);
+        setPairOrientation();
+        setPairStrands();
+    }
+
+    private int getLeadingSoftClip() {
+        int clipped = 0;
+        for (int c : cigar) {
+            char op = BAM_CIGAR_OPERATORS[c & 0xf];
+            if (op == SOFT_CLIP) {
+                clipped += c >>> 4;
+            } else if (op != HARD_CLIP) {
+                break;
+            }
+        }
+        return clipped;
+    }
+
+    private int getTrailingSoftClip() {
+        int clipped = 0;
+        for (int i = cigar.length - 1; i >= 0; i--) {
+            char op = BAM_CIGAR_OPERATORS[cigar[i] & 0xf];
+            if (op != SOFT_CLIP) {
+                break;
+            }
+            clipped += cigar[i] >>> 4;
+        }
+        return clipped;
+    }
+
+    private void ensureBlocks() {
+        if (!blocksDecoded) {
+            decodeBlocks();
+        }
+    }
+
+    private synchronized void decodeBlocks() {
+        if (blocksDecoded) return;
+
+        // Blocks are created relative to the unclipped start,  which createAlignmentBlocks adjusts
+        int s = start;
+        int e = end;
+        start = alignmentStart;
+        end = alignmentEnd;
+        createAlignmentBlocks(cigar, getReadBases(), getBaseQualities());
+        start = s;
+        end = e;
+        blocksDecoded = true;
+    }
+
+    byte[] getReadBases() {
+        byte[] bases = new byte[seqLength];
+        for (int i = 0; i < seqLength; i++) {
+            int b = record[seqOffset + (i >> 1)];
+            bases[i] = SEQ_DECODER[(i & 1) == 0 ? (b >> 4) & 0xf : b & 0xf];
+        }
+        return bases;
+    }
+
+    /**
+     * @return the base qualities,  or an empty array if they are not recorded
+     */
+    byte[] getBaseQualities() {
+        int qualOffset = seqOffset + ((seqLength + 1) >> 1);
+        if (seqLength == 0 || record[qualOffset] == (byte) 0xff) {
+            return new byte[0];
+        }
+        return Arrays.copyOfRange(record, qualOffset, qualOffset + seqLength);
+    }
+
+    private int getTagsOffset() {
+        return seqOffset + ((seqLength + 1) >> 1) + seqLength;
+    }
+
+    @Override
+    public AlignmentBlock[] getAlignmentBlocks() {
+        ensureBlocks();
+        return alignmentBlocks;
+    }
+
+    @Override
+    public AlignmentBlockImpl[] getInsertions() {
+        ensureBlocks();
+        return insertions;
+    }
+
+    @Override
+    public List<Gap> getGaps() {
+        ensureBlocks();
+        return super.getGaps();
+    }
+
+    @Override
+    public AlignmentBlock getInsertionAt(int position) {
+        ensureBlocks();
+        return super.getInsertionAt(position);
+    }
+
+    @Override
+    public byte getBase(double position) {
+        ensureBlocks();
+        return super.getBase(position);
+    }
+
+    @Override
+    public byte getPhred(double position) {
+        ensureBlocks();
+        return super.getPhred(position);
+    }
+
+    @Override
+    public String getValueString(double position, int mouseX, WindowFunction windowFunction) {
+        ensureBlocks();
+        return super.getValueString(position, mouseX, windowFunction);
+    }
+
+    @Override
+    public String getClipboardString(double location, int mouseX) {
+        ensureBlocks();
+        return super.getClipboardString(location, mouseX);
+    }
 
     @Override
     public String getReadName() {
+        if (readName == null) {
+            int nameLength = record[NAME_LENGTH_OFFSET] & 0xff;
+            readName = new String(record, NAME_OFFSET, nameLength - 1);
+        }
         return readName;
     }
 
     @Override
     public int getMappingQuality() {
-        return mq;
+        return record[MAPQ_OFFSET] & 0xff;
     }
 
     @Override
     public int getInferredInsertSize() {
-        return 0;
+        return BAMReader.readInt(record, TLEN_OFFSET);
     }
 
     @Override
     public String getCigarString() {
-        return new String(cigarBytes);
+        if (cigar.length == 0) {
+            return "*";
+        }
+        StringBuilder buf = new StringBuilder(4 * cigar.length);
+        for (int c : cigar) {
+            buf.append(c >>> 4).append(BAM_CIGAR_OPERATORS[c & 0xf]);
+        }
+        return buf.toString();
     }
 
     @Override
     public int getReadLength() {
-        return sequence.length;
+        return seqLength;
     }
 
     @Override
     public String getReadSequence() {
-        return new String(sequence);
+        return seqLength == 0 ? "*" : new String(getReadBases());
+    }
+
+    @Override
+    public Color getYcColor() {
+        if (!ycColorDecoded) {
+            Object colorTag = getAttribute("YC");
+            if (colorTag != null) {
+                try {
+                    ycColor = ColorUtilities.stringToColor(colorTag.toString(), null);
+                } catch (Exception e) {
+                    log.error("Error interpreting color tag: " + colorTag, e);
+                }
+            }
+            ycColorDecoded = true;
+        }
+        return ycColor;
     }
 
     @Override
@@ -82,12 +294,12 @@ public class BAMAlignment extends SAMAlignment {
 
     @Override
     public boolean isFirstOfPair() {
-        return (this.flags & FIRST_OF_PAIR_FLAG) != 0;
+        return isPaired() && (this.flags & FIRST_OF_PAIR_FLAG) != 0;
     }
 
     @Override
     public boolean isSecondOfPair() {
-        return (this.flags & SECOND_OF_PAIR_FLAG) != 0;
+        return isPaired() && (this.flags & SECOND_OF_PAIR_FLAG) != 0;
     }
 
     @Override
@@ -107,7 +319,7 @@ public class BAMAlignment extends SAMAlignment {
 
     @Override
     public boolean isProperPair() {
-        return (this.flags & PROPER_PAIR_FLAG) != 0;
+        return isPaired() && (this.flags & PROPER_PAIR_FLAG) != 0;
     }
 
     @Override
@@ -125,35 +337,111 @@ public class BAMAlignment extends SAMAlignment {
         return (this.flags & SECONDARY_ALIGNMENT_FLAG) == 0;
     }
 
+    public int getFlags() {
+        return flags;
+    }
+
     @Override
     public int getAlignmentStart() {
-        return start;
+        return alignmentStart;
     }
 
     @Override
     public int getAlignmentEnd() {
-        return start + lengthOnRef;
+        return alignmentEnd;
     }
 
+    /**
+     * Scan the record for tag {@code key},  decoding only its value
+     */
     @Override
     public Object getAttribute(String key) {
+        if (key.length() != 2) {
+            return key.equals("TEMPLATE_ORIENTATION") ? pairOrientation : null;
+        }
+        if (tagDictionary != null) {
+            return tagDictionary.get(key);
+        }
+        byte c0 = (byte) key.charAt(0);
+        byte c1 = (byte) key.charAt(1);
+        int p = getTagsOffset();
+        while (p + 3 <= record.length) {
+            byte type = record[p + 2];
+            if (record[p] == c0 && record[p + 1] == c1) {
+                ByteBuffer byteBuffer = ByteBuffer.wrap(record, p + 3, record.length - p - 3).order(ByteOrder.LITTLE_ENDIAN);
+                return decodeValue((char) type, byteBuffer);
+            }
+            p = skipValue(type, p + 3);
+        }
         return null;
     }
 
+    private int skipValue(byte type, int p) {
+        switch (type) {
+            case 'A':
+            case 'c':
+            case 'C':
+                return p + 1;
+            case 's':
+            case 'S':
+                return p + 2;
+            case 'i':
+            case 'I':
+            case 'f':
+                return p + 4;
+            case 'Z':
+            case 'H':
+                while (p < record.length && record[p] != 0) p++;
+                return p + 1;
+            case 'B':
+                int size = getArrayElementSize(record[p]);
+                int length = BAMReader.readInt(record, p + 1);
+                return p + 5 + size * length;
+            default:
+                return record.length;    // Unrecognized,  stop scanning
+        }
+    }
+
+    private static int getArrayElementSize(byte arrayType) {
+        switch (Character.toLowerCase((char) arrayType)) {
+            case 'c':
+                return 1;
+            case 's':
+                return 2;
+            default:
+                return 4;
+        }
+    }
 
     @Override
     public String getSample() {
-        return null;
+        SAMReadGroupRecord rg = getReadGroupRecord();
+        return rg == null ? null : rg.getSample();
     }
 
     @Override
     public String getReadGroup() {
-        return null;
+        SAMReadGroupRecord rg = getReadGroupRecord();
+        return rg == null ? null : rg.getId();
     }
 
     @Override
     public String getLibrary() {
-        return null;
+        SAMReadGroupRecord rg = getReadGroupRecord();
+        return rg == null ? null : rg.getLibrary();
+    }
+
+    private SAMReadGroupRecord getReadGroupRecord() {
+        if (header == null) {
+            return null;
+        }
+        Object readGroup = getAttribute("RG");
+        return readGroup == null ? null : header.getReadGroup(readGroup.toString());
+    }
+
+    @Override
+    public String toString() {
+        return getReadName() + " " + getChr() + ":" + (getAlignmentStart() + 1) + " " + getCigarString();
     }
 
     @Override
@@ -239,14 +527,16 @@ public class BAMAlignment extends SAMAlignment {
         return buf.toString();
     }
 
+    /**
+     * @return the tags of the record,  in record order
+     */
+    public Map<String, Object> getAttributes() {
+        return Collections.unmodifiableMap(getTagDictionary());
+    }
+
     private Map<String, Object> getTagDictionary() {
         if (this.tagDictionary == null) {
-            if (this.tagBytes == null) {
-                return null;
-            } else {
-                this.tagDictionary = decodeTags(this.tagBytes);
-
-            }
+            this.tagDictionary = decodeTags();
         }
         return this.tagDictionary;
     }
@@ -260,71 +550,76 @@ public class BAMAlignment extends SAMAlignment {
      H [0-9A-F]+ Byte array in the Hex format6
      B [cCsSiIf](,[-+]?[0-9]*\.?[0-9]+([eE][-+]?[0-9]+)?)+ Integer or numeric array
      */
-    private Map<String, Object> decodeTags(byte[] ba) {
+    private Map<String, Object> decodeTags() {
 
         Map<String, Object> tags = new LinkedHashMap<>();
-        ByteBuffer byteBuffer = ByteBuffer.wrap(ba);
+        int tagsOffset = getTagsOffset();
+        ByteBuffer byteBuffer = ByteBuffer.wrap(record, tagsOffset, record.length - tagsOffset);
         byteBuffer.order(ByteOrder.LITTLE_ENDIAN);
 
         while (byteBuffer.hasRemaining()) {
             int p = byteBuffer.position();
-            String tag = new String(ba, p, 2);
+            String tag = new String(record, p, 2);
             byteBuffer.position(p+2);
             char type = (char) byteBuffer.get();
-            Object value;
-
-            switch (type) {
-                case 'Z':
-                    value = readNullTerminatedString(byteBuffer);
-                    break;
-                case 'A':
-                    value = (char)byteBuffer.get();
-                    break;
-                case 'I':
-                    final long val = byteBuffer.getInt() & 0xffffffffL;
-                    if ( val <= Integer.MAX_VALUE ) {
-                        value = (int)val;
-                    }
-                    else {
-                        value = val;
-                    }
-                    break;
-                case 'i':
-                    value =  byteBuffer.getInt();
-                    break;
-                case 's':
-                    value =  byteBuffer.getShort();
-                    break;
-                case 'S':
-                    // Convert to unsigned short stored in an int
-                    value =  (int) byteBuffer.getShort() & 0xffff;
-                    break;
-                case 'c':
-                    value =  byteBuffer.get();
-                    break;
-                case 'C':
-                    // Convert to unsigned byte stored in an int
-                    value =  (int)byteBuffer.get() & 0xff;
-                    break;
-                case 'f':
-                    value = byteBuffer.getFloat();
-                    break;
-                case 'H':
-                    final String hexRep = readNullTerminatedString(byteBuffer);
-                    value = StringUtil.hexStringToBytes(hexRep);
-                    break;
-                case 'B':
-                    value = readArray(byteBuffer);
-                    break;
-                default:
-                    value = "Unrecognized tag type: " + type;
-            }
-
-            tags.put(tag, value);
+            tags.put(tag, decodeValue(type, byteBuffer));
         }
         return tags;
     }
 
+    private static Object decodeValue(char type, ByteBuffer byteBuffer) {
+
+        Object value;
+        switch (type) {
+            case 'Z':
+                value = readNullTerminatedString(byteBuffer);
+                break;
+            case 'A':
+                value = (char)byteBuffer.get();
+                break;
+            case 'I':
+                final long val = byteBuffer.getInt() & 0xffffffffL;
+                if ( val <= Integer.MAX_VALUE ) {
+                    value = (int)val;
+                }
+                else {
+                    value = val;
+                }
+                break;
+            case 'i':
+                value =  byteBuffer.getInt();
+                break;
+            case 's':
+                value =  (int) byteBuffer.getShort();
+                break;
+            case 'S':
+                // Convert to unsigned short stored in an int
+                value =  (int) byteBuffer.getShort() & 0xffff;
+                break;
+            case 'c':
+                value =  (int) byteBuffer.get();
+                break;
+            case 'C':
+                // Convert to unsigned byte stored in an int
+                value =  (int)byteBuffer.get() & 0xff;
+                break;
+            case 'f':
+                value = byteBuffer.getFloat();
+                break;
+            case 'H':
+                final String hexRep = readNullTerminatedString(byteBuffer);
+                value = StringUtil.hexStringToBytes(hexRep);
+                break;
+            case 'B':
+                value = readArray(byteBuffer);
+                break;
+            default:
+                value = "Unrecognized tag type: " + type;
+                byteBuffer.position(byteBuffer.limit());
+        }
+        return value;
+    }
+
     private static String readNullTerminatedString(final ByteBuffer byteBuffer) {
         // Count the number of bytes in the string
         byteBuffer.mark();
@@ -388,5 +683,7 @@ public class BAMAlignment extends SAMAlignment {
         return  value;
     }
 
-
+    private static int readUShort(byte[] ba, int offset) {
+        return (ba[offset] & 0xff) | ((ba[offset + 1] & 0xff) << 8);
+    }
 }
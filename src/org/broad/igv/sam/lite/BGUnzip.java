@@ -1,7 +1,13 @@
 package org.broad.igv.sam.lite;
 
-import java.io.ByteArrayOutputStream;
+import org.broad.igv.util.stream.InflaterPool;
+
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 import java.util.zip.DataFormatException;
 import java.util.zip.Inflater;
 
@@ -9,52 +15,167 @@ import java.util.zip.Inflater;
  * Created by jrobinso on 3/10/17.
  */
 public class BGUnzip {
+
     public static final int BGZIP_HEADER_LENGTH = 18;
+    public static final int BGZIP_FOOTER_LENGTH = 8;
 
-    // Uncompress data,  assumed to be series of bgzipped blocks
+    // Minimum number of blocks inflated in parallel,  fewer are inflated on the calling thread
+    static final int MIN_PARALLEL_BLOCKS = 4;
 
+    /**
+     * Uncompress data,  assumed to be series of bgzipped blocks.  An incomplete block at the end of the data is
+     * ignored.
+     */
     public static byte[] blockUnzip(byte[] data) throws IOException {
+        return inflate(data, data.length).data;
+    }
 
-        Inflater inflater = new Inflater(true);
-
+    /**
+     * Uncompress the complete bgzipped blocks in {@code data[0, length)}.  The blocks are located from their
+     * headers first,  so the uncompressed size is known and each block is inflated directly into its place in a
+     * single output array.  Runs of {@link #MIN_PARALLEL_BLOCKS} or more blocks are inflated in parallel.
+     */
+    public static Blocks inflate(byte[] data, int length) throws IOException {
+
+        // Locate the complete blocks
+        int[] blockStarts = new int[Math.max(1, length / 16384)];
+        int[] uncompressedOffsets = new int[blockStarts.length + 1];
+        int nBlocks = 0;
+        int uncompressedSize = 0;
         int ptr = 0;
+        while (ptr + BGZIP_HEADER_LENGTH <= length) {
+            if (data[ptr] != 31 || data[ptr + 1] != (byte) 139) {
+                throw new IOException("Invalid BGZF block header at offset " + ptr);
+            }
+            int bsize = unpackInt16(data, ptr + 16) + 1;
+            if (ptr + bsize > length) {
+                break;
+            }
+            if (nBlocks == blockStarts.length) {
+                blockStarts = Arrays.copyOf(blockStarts, 2 * nBlocks);
+                uncompressedOffsets = Arrays.copyOf(uncompressedOffsets, 2 * nBlocks + 1);
+            }
+            blockStarts[nBlocks] = ptr;
+            uncompressedOffsets[nBlocks] = uncompressedSize;
+            uncompressedSize += unpackInt32(data, ptr + bsize - 4);
+            nBlocks++;
+            ptr += bsize;
+        }
+        uncompressedOffsets[nBlocks] = uncompressedSize;
 
-        int lim = data.length - BGZIP_HEADER_LENGTH;
-        ByteArrayOutputStream outputStream = new ByteArrayOutputStream(data.length);
-
-        while (ptr < lim) {
+        byte[] output = new byte[uncompressedSize];
+        if (nBlocks >= MIN_PARALLEL_BLOCKS && InflaterPool.isEnabled()) {
+            inflateParallel(data, blockStarts, uncompressedOffsets, nBlocks, output);
+        } else {
+            Inflater inflater = new Inflater(true);
+            try {
+                for (int i = 0; i < nBlocks; i++) {
+                    inflateBlock(inflater, data, blockStarts[i], output, uncompressedOffsets[i],
+                            uncompressedOffsets[i + 1] - uncompressedOffsets[i]);
+                }
+            } finally {
+                inflater.end();
+            }
+        }
 
-            int xlen =  unpackInt16(data, ptr + 10);
-            int si1 = data[ptr + 12];
-            int si2 = data[ptr + 13];
-            int slen =  unpackInt16(data, 14);
-            int bsize = unpackInt16(data, ptr + 16) + 1;
+        return new Blocks(output, ptr, Arrays.copyOf(blockStarts, nBlocks), Arrays.copyOf(uncompressedOffsets, nBlocks + 1));
+    }
 
-            int start = BGZIP_HEADER_LENGTH + ptr;    // Start of CDATA
-            int remainder = data.length - start;
-            if (remainder < (bsize + 8)) break;
+    /**
+     * Inflate the blocks in contiguous runs,  one per thread of the {@link InflaterPool}
+     */
+    private static void inflateParallel(byte[] data, int[] blockStarts, int[] uncompressedOffsets, int nBlocks,
+                                        byte[] output) throws IOException {
+
+        int nTasks = Math.min(InflaterPool.getThreadCount(), nBlocks);
+        List<Future<?>> futures = new ArrayList<>(nTasks);
+        for (int t = 0; t < nTasks; t++) {
+            final int first = (int) ((long) nBlocks * t / nTasks);
+            final int last = (int) ((long) nBlocks * (t + 1) / nTasks);
+            futures.add(InflaterPool.getExecutor().submit(() -> {
+                Inflater inflater = InflaterPool.getInflater();
+                for (int i = first; i < last; i++) {
+                    inflateBlock(inflater, data, blockStarts[i], output, uncompressedOffsets[i],
+                            uncompressedOffsets[i + 1] - uncompressedOffsets[i]);
+                }
+                return null;
+            }));
+        }
+        try {
+            for (Future<?> f : futures) {
+                f.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted inflating BGZF blocks", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            throw cause instanceof IOException ? (IOException) cause : new IOException(cause);
+        } finally {
+            for (Future<?> f : futures) {
+                f.cancel(false);
+            }
+        }
+    }
 
-            int uncLength = unpackInt32(data, ptr + bsize - 4);
+    static void inflateBlock(Inflater inflater, byte[] data, int blockStart, byte[] output, int outputOffset, int uncLength)
+            throws IOException {
 
-            inflater.reset();
-            inflater.setInput(data, start, remainder);
+        int xlen = unpackInt16(data, blockStart + 10);
+        int bsize = unpackInt16(data, blockStart + 16) + 1;
+        int cdataStart = blockStart + 12 + xlen;
+        int cdataLength = bsize - xlen - 12 - BGZIP_FOOTER_LENGTH;
 
-            byte [] output = new byte[uncLength];
-            final int inflatedBytes;
-            try {
-                inflatedBytes = inflater.inflate(output, 0, uncLength);
-            } catch (DataFormatException e) {
-                // Can happen near end of file;
-                break;
+        inflater.reset();
+        inflater.setInput(data, cdataStart, cdataLength);
+        try {
+            int inflatedBytes = inflater.inflate(output, outputOffset, uncLength);
+            if (inflatedBytes != uncLength) {
+                throw new IOException("Unexpected BGZF block length: " + inflatedBytes + " expected " + uncLength);
             }
+        } catch (DataFormatException e) {
+            throw new IOException("Error inflating BGZF block", e);
+        }
+    }
+
+    /**
+     * Uncompressed data of a run of blocks,  with the positions of the blocks in the compressed and uncompressed
+     * data.
+     */
+    public static class Blocks {
+
+        public final byte[] data;
 
-            outputStream.write(output, 0, inflatedBytes);
+        // Length of the compressed data inflated,  the start of the first incomplete block
+        public final int compressedLength;
 
-            ptr += bsize;    // Advance to next block
+        private final int[] blockStarts;
+        private final int[] uncompressedOffsets;
 
+        Blocks(byte[] data, int compressedLength, int[] blockStarts, int[] uncompressedOffsets) {
+            this.data = data;
+            this.compressedLength = compressedLength;
+            this.blockStarts = blockStarts;
+            this.uncompressedOffsets = uncompressedOffsets;
         }
 
-        return outputStream.toByteArray();
+        /**
+         * @param blockStart start of a block,  relative to the start of the compressed data
+         * @return true if the block was inflated
+         */
+        public boolean contains(long blockStart) {
+            return Arrays.binarySearch(blockStarts, (int) Math.min(Integer.MAX_VALUE, blockStart)) >= 0;
+        }
+
+        /**
+         * @param blockStart start of a block,  relative to the start of the compressed data
+         * @param offset     offset within the uncompressed block
+         * @return the corresponding offset in {@link #data},  or data.length if the block was not inflated
+         */
+        public int getOffset(long blockStart, int offset) {
+            int idx = Arrays.binarySearch(blockStarts, (int) Math.min(Integer.MAX_VALUE, blockStart));
+            return idx < 0 ? data.length : Math.min(data.length, uncompressedOffsets[idx] + offset);
+        }
     }
 
     private static int unpackInt16(final byte[] buffer, final int offset) {
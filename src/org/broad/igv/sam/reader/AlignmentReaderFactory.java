@@ -31,9 +31,11 @@ import htsjdk.samtools.SamReaderFactory;
 import htsjdk.samtools.ValidationStringency;
 import org.apache.log4j.Logger;
 import org.broad.igv.exceptions.DataLoadException;
+import org.broad.igv.feature.genome.GenomeManager;
 import org.broad.igv.ga4gh.Ga4ghAlignmentReader;
 import org.broad.igv.ga4gh.Ga4ghProvider;
 import org.broad.igv.goby.GobyAlignmentQueryReader;
+import org.broad.igv.prefs.PreferencesManager;
 import org.broad.igv.util.FileUtils;
 import org.broad.igv.util.ParsingUtils;
 import org.broad.igv.util.ResourceLocator;
@@ -42,6 +44,8 @@ import java.io.BufferedReader;
 import java.io.IOException;
 import java.util.*;
 
+import static org.broad.igv.prefs.Constants.SAM_LITE_BAM_READER;
+
 /**
  * @author jrobinso
  */
@@ -85,7 +89,13 @@ public class AlignmentReaderFactory {
             reader = new GeraldReader(samFile, requireIndex);
         } else if (typeString.endsWith(".bam") || (typeString.endsWith(".cram"))) {
             try {
-                reader = new BAMReader(locator, requireIndex); //, requireIndex);
+                if (requireIndex && typeString.endsWith(".bam") && locator.isLocal() &&
+                        PreferencesManager.getPreferences().getAsBoolean(SAM_LITE_BAM_READER)) {
+                    reader = getLiteBAMReader(locator);
+                }
+                if (reader == null) {
+                    reader = new BAMReader(locator, requireIndex); //, requireIndex);
+                }
             } catch (Exception e) {
                 log.error(e.getMessage(), e);
                 throw new DataLoadException("Error loading BAM file: " + e.toString(), locator.getPath());
@@ -109,6 +119,30 @@ public class AlignmentReaderFactory {
         return reader;
     }
 
+    /**
+     * Return the lightweight reader for a local,  indexed BAM file,  or null if there is no index or the file cannot be
+     * read,  in which case the htsjdk reader is used.
+     */
+    static AlignmentReader getLiteBAMReader(ResourceLocator locator) {
+        String path = locator.getPath();
+        String indexPath = locator.getIndexPath();
+        if (indexPath == null) {
+            indexPath = path + ".bai";
+            if (!FileUtils.resourceExists(indexPath)) {
+                indexPath = path.substring(0, path.length() - 4) + ".bai";
+            }
+        }
+        if (!FileUtils.resourceExists(indexPath)) {
+            return null;
+        }
+        try {
+            return new org.broad.igv.sam.lite.BAMReader(path, indexPath, GenomeManager.getInstance().getCurrentGenome());
+        } catch (Exception e) {
+            log.error("Error opening " + path + ", using the htsjdk reader", e);
+            return null;
+        }
+    }
+
     static AlignmentReader getBamListReader(String listFile, boolean requireIndex) {
 
         List<AlignmentReader> readers = new ArrayList();
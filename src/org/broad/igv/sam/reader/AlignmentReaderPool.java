@@ -0,0 +1,67 @@
+package org.broad.igv.sam.reader;
+
+import org.apache.log4j.Logger;
+import org.broad.igv.util.ResourceLocator;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/**
+ * A pool of independent readers over a single indexed alignment file.  Readers are not thread safe, so concurrent
+ * queries against the same file (e.g. shards of a single query window) each need their own reader.  Readers are
+ * expensive to open (the index is loaded per reader) and are therefore recycled.
+ */
+public class AlignmentReaderPool {
+
+    private static Logger log = Logger.getLogger(AlignmentReaderPool.class);
+
+    private final ResourceLocator locator;
+    private final Deque<AlignmentReader<?>> idleReaders;
+    private boolean closed = false;
+
+    public AlignmentReaderPool(ResourceLocator locator) {
+        this.locator = locator;
+        this.idleReaders = new ArrayDeque<>();
+    }
+
+    public AlignmentReader<?> acquire() throws IOException {
+        synchronized (idleReaders) {
+            if (closed) {
+                throw new IOException("Reader pool is closed: " + locator.getPath());
+            }
+            if (!idleReaders.isEmpty()) {
+                return idleReaders.pop();
+            }
+        }
+        return AlignmentReaderFactory.getReader(locator, true);
+    }
+
+    public void release(AlignmentReader<?> reader) {
+        synchronized (idleReaders) {
+            if (!closed) {
+                idleReaders.push(reader);
+                return;
+            }
+        }
+        closeQuietly(reader);
+    }
+
+    public void close() {
+        synchronized (idleReaders) {
+            closed = true;
+            for (AlignmentReader<?> reader : idleReaders) {
+                closeQuietly(reader);
+            }
+            idleReaders.clear();
+        }
+    }
+
+    private void closeQuietly(AlignmentReader<?> reader) {
+        try {
+            reader.close();
+        } catch (IOException e) {
+            log.error("Error closing reader for " + locator.getPath(), e);
+        }
+    }
+}
@@ -39,6 +39,7 @@ import org.broad.igv.util.HttpUtils;
 import org.broad.igv.util.ResourceLocator;
 import org.broad.igv.util.stream.IGVSeekableBufferedStream;
 import org.broad.igv.util.stream.IGVSeekableStreamFactory;
+import org.broad.igv.util.stream.InflaterPool;
 
 import java.io.*;
 import java.net.MalformedURLException;
@@ -81,9 +82,12 @@ public class BAMReader implements AlignmentReader<PicardAlignment> {
     private SamReader getSamReader(ResourceLocator locator, boolean requireIndex) throws IOException {
 
         boolean isLocal = locator.isLocal();
+        // For local files inflate the blocks ahead of the reader on a background thread.  Read ahead is not
+        // worth the extra transfer for remote files.
         final SamReaderFactory factory = SamReaderFactory.makeDefault().
                 referenceSource(new IGVReferenceSource()).
-                validationStringency(ValidationStringency.SILENT);
+                validationStringency(ValidationStringency.SILENT).
+                setUseAsyncIo(isLocal && InflaterPool.isEnabled());
         SamInputResource resource;
 
         if (isLocal) {
@@ -0,0 +1,210 @@
+package org.broad.igv.sam.reader;
+
+import htsjdk.samtools.util.CloseableIterator;
+import org.apache.log4j.Logger;
+import org.broad.igv.sam.Alignment;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Iterator over the alignments overlapping a query window, where the window is split into contiguous shards that
+ * are queried, decompressed, and decoded concurrently, each shard by its own reader from an {@link AlignmentReaderPool}.
+ * Each shard resolves to its own set of index chunks, so the BGZF blocks of different shards are inflated in parallel.
+ * <p/>
+ * Alignments are returned in exactly the order of a single query over the whole window.  An alignment belongs to
+ * the shard containing its start position (the first shard also owns alignments starting upstream of the window),
+ * and shards are consumed in order.  Order dependent consumers, for example the reservoir downsampling in
+ * AlignmentTile, therefore see the same stream as they would from a serial query.
+ * <p/>
+ * Shards stream their alignments in batches through bounded queues,  so at most {@link #QUEUE_CAPACITY} batches per
+ * shard are held ahead of the consumer.  Downsampling,  filtering and the low memory checks of the consumer bound
+ * memory as they do for a serial query,  and run while later shards are decoded.
+ */
+public class ShardedQueryIterator implements CloseableIterator<Alignment> {
+
+    private static Logger log = Logger.getLogger(ShardedQueryIterator.class);
+
+    /**
+     * Minimum shard width in base pairs.  Smaller shards cost more in redundant decoding of reads spanning shard
+     * boundaries, and in BAI linear index (16 kb) granularity, than they gain.
+     */
+    public static final int MIN_SHARD_SIZE = 10000;
+
+    static final int BATCH_SIZE = 512;
+    static final int QUEUE_CAPACITY = 8;
+
+    private static final int MAX_SHARDS = Math.max(2, Runtime.getRuntime().availableProcessors());
+
+    // Shards run in order of submission,  and a shard waiting on a full queue waits only for the consumer to finish
+    // the shards submitted before it,  so a pool smaller than the number of shards cannot deadlock.
+    private static final ExecutorService shardExecutor = Executors.newFixedThreadPool(MAX_SHARDS, r -> {
+        Thread t = new Thread(r, "alignment-shard-loader");
+        t.setDaemon(true);
+        return t;
+    });
+
+    // End of shard marker,  compared by identity
+    private static final List<Alignment> END = new ArrayList<>(0);
+
+    private final List<Shard> shards;
+    private volatile boolean canceled = false;
+    private int shardIndex = 0;
+    private Iterator<Alignment> currentBatch = Collections.emptyIterator();
+
+    /**
+     * @return the number of shards a query over [start, end) should be split into.  A value < 2 indicates the
+     * window is too small to benefit from sharding.
+     */
+    public static int getShardCount(int start, int end) {
+        return Math.min(MAX_SHARDS, (end - start) / MIN_SHARD_SIZE);
+    }
+
+    public ShardedQueryIterator(AlignmentReaderPool readerPool, String chr, int start, int end, int nShards) {
+
+        nShards = Math.max(1, nShards);
+        shards = new ArrayList<>(nShards);
+
+        final int shardSize = (int) Math.ceil(((double) (end - start)) / nShards);
+        for (int i = 0; i < nShards; i++) {
+            final int shardStart = start + i * shardSize;
+            final int shardEnd = Math.min(end, shardStart + shardSize);
+            if (shardStart >= shardEnd) break;
+            final boolean first = i == 0;
+            final boolean last = shardEnd == end;
+            final Shard shard = new Shard();
+            shards.add(shard);
+            shard.future = shardExecutor.submit(() -> loadShard(shard, readerPool, chr, shardStart, shardEnd, first, last));
+        }
+    }
+
+    private static class Shard {
+        final BlockingQueue<List<Alignment>> queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+        volatile Throwable error;
+        Future<?> future;
+    }
+
+    private void loadShard(Shard shard,
+                           AlignmentReaderPool readerPool,
+                           String chr,
+                           int shardStart,
+                           int shardEnd,
+                           boolean first,
+                           boolean last) {
+
+        AlignmentReader<?> reader = null;
+        CloseableIterator<? extends Alignment> iter = null;
+        try {
+            reader = readerPool.acquire();
+            iter = reader.query(chr, shardStart, shardEnd, false);
+            List<Alignment> batch = new ArrayList<>(BATCH_SIZE);
+            while (iter.hasNext() && !canceled) {
+                Alignment alignment = iter.next();
+                int alignmentStart = alignment.getAlignmentStart();
+                // Keep only alignments owned by this shard,  others are returned by a neighboring shard
+                if ((!first && alignmentStart < shardStart) || (!last && alignmentStart >= shardEnd)) {
+                    continue;
+                }
+                batch.add(alignment);
+                if (batch.size() == BATCH_SIZE) {
+                    put(shard, batch);
+                    batch = new ArrayList<>(BATCH_SIZE);
+                }
+            }
+            if (!batch.isEmpty()) {
+                put(shard, batch);
+            }
+        } catch (Throwable t) {
+            shard.error = t;
+        } finally {
+            try {
+                if (iter != null) {
+                    iter.close();
+                }
+            } catch (RuntimeException e) {
+                log.error("Error closing shard iterator", e);
+            }
+            if (reader != null) {
+                readerPool.release(reader);
+            }
+            put(shard, END);
+        }
+    }
+
+    /**
+     * Put a batch on the shard's queue,  waiting for room unless the query is canceled
+     */
+    private void put(Shard shard, List<Alignment> batch) {
+        boolean interrupted = false;
+        while (!canceled) {
+            try {
+                if (shard.queue.offer(batch, 100, TimeUnit.MILLISECONDS)) {
+                    break;
+                }
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public boolean hasNext() {
+        while (!currentBatch.hasNext()) {
+            if (canceled || shardIndex >= shards.size()) {
+                return false;
+            }
+            Shard shard = shards.get(shardIndex);
+            List<Alignment> batch;
+            try {
+                batch = shard.queue.poll(100, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                close();
+                return false;
+            }
+            if (batch == null) {
+                continue;
+            } else if (batch == END) {
+                shards.set(shardIndex, null);      // Release reference, consumed alignments are owned by the caller
+                shardIndex++;
+                if (shard.error != null) {
+                    close();
+                    Throwable error = shard.error;
+                    if (error instanceof RuntimeException) {
+                        throw (RuntimeException) error;
+                    } else if (error instanceof Error) {
+                        throw (Error) error;
+                    } else {
+                        throw new RuntimeException(error);
+                    }
+                }
+            } else {
+                currentBatch = batch.iterator();
+            }
+        }
+        return true;
+    }
+
+    public Alignment next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        return currentBatch.next();
+    }
+
+    public void remove() {
+        throw new UnsupportedOperationException("Remove is not supported");
+    }
+
+    public void close() {
+        canceled = true;
+        for (Shard shard : shards) {
+            if (shard != null) {
+                shard.future.cancel(false);
+                shard.queue.clear();
+            }
+        }
+        currentBatch = Collections.emptyIterator();
+    }
+}
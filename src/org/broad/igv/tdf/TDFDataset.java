@@ -29,8 +29,8 @@
  */
 package org.broad.igv.tdf;
 
+import org.broad.igv.data.TileCache;
 import org.broad.igv.util.StringUtils;
-import org.broad.igv.util.collections.LRUCache;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
@@ -55,7 +55,7 @@ public class TDFDataset extends TDFEntity {
     long[] tilePositions;  // File position in TDF file
     int[] tileSizes;       // Tile size in bytes
     int nTiles;
-    LRUCache<String, TDFTile> cache = new LRUCache(20);
+    private static final Object NOT_CACHED = new Object();
     // TODO -- refactor this dependency out
     TDFReader reader;
 
@@ -118,15 +118,12 @@ public class TDFDataset extends TDFEntity {
 
     // TODO -- this uses an implied linear index.  Abstract index or replace
     // with general interval index
-    // TODO -- gather all non-cached tiles and read in one chunk.  See BAM
-    // alignment reader class
     public List<TDFTile> getTiles(int startLocation, int endLocation) {
 
         List<TDFTile> tiles = new ArrayList();
         int startTile = (int) (startLocation / tileWidth);
         int endTile = (int) (endLocation / tileWidth);
-        for (int t = startTile; t <= endTile; t++) {
-            TDFTile tile = getTile(t);
+        for (TDFTile tile : getTileRange(startTile, endTile)) {
             if (tile != null && tile.getSize() > 0) {
                 tiles.add(tile);
             }
@@ -137,8 +134,7 @@ public class TDFDataset extends TDFEntity {
 
     public List<TDFTile> getTiles() {
         List<TDFTile> tiles = new ArrayList<TDFTile>();
-        for (int t = 0; t < nTiles; t++) {
-            TDFTile tile = getTile(t);
+        for (TDFTile tile : getTileRange(0, nTiles - 1)) {
             if (tile != null) {
                 tiles.add(tile);
             }
@@ -146,22 +142,62 @@ public class TDFDataset extends TDFEntity {
         return tiles;
     }
 
+    /**
+     * Return tiles startTile through endTile,  null for empty tiles.  Tiles not in the cache are read with a
+     * single call to the reader,  which coalesces reads of adjacent tiles.
+     */
+    private synchronized TDFTile[] getTileRange(int startTile, int endTile) {
+
+        TileCache cache = TileCache.getInstance();
+        int nameId = cache.getNameId(getName());
+        int nTiles = Math.max(0, endTile - startTile + 1);
+        TDFTile[] tiles = new TDFTile[nTiles];
+        int[] missing = new int[nTiles];
+        int nMissing = 0;
+        for (int t = startTile; t <= endTile; t++) {
+            Object tile = cache.get(cache.key(reader.getCacheSource(), nameId, 0, t, 0), NOT_CACHED);
+            if (tile == NOT_CACHED) {
+                missing[nMissing++] = t;
+            } else {
+                tiles[t - startTile] = (TDFTile) tile;
+            }
+        }
+
+        if (nMissing > 0) {
+            int[] tileNumbers = Arrays.copyOf(missing, nMissing);
+            TDFTile[] loaded = reader.readTiles(this, tileNumbers);
+            for (int i = 0; i < nMissing; i++) {
+                int t = tileNumbers[i];
+                tiles[t - startTile] = loaded[i];
+                cache.put(cache.key(reader.getCacheSource(), nameId, 0, t, 0), loaded[i], sizeOf(loaded[i]));
+            }
+        }
+        return tiles;
+    }
+
     // TDFTile computeTile(TDFDataset ds, int t, List<LocusScore> scores, String chr)
     synchronized TDFTile getTile(int t) {
-        String key = getName() + "_" + t;
-
-        TDFTile tile = null;
-        if (!cache.containsKey(key)) {
-            tile = reader.readTile(this, t);
-            cache.put(key, tile);
-        } else {
-            tile = cache.get(key);
-        }
-        return tile;
+        return getTileRange(t, t)[0];
     }
 
     public void clearCache() {
-        cache.clear();
+        TileCache.getInstance().invalidate(reader.getCacheSource(), getName());
+    }
+
+    /**
+     * Estimated size of a tile in bytes,  for the tile cache:  start and end positions plus a value per track for
+     * each point,  and names if present.
+     */
+    long sizeOf(TDFTile tile) {
+        if (tile == null) {
+            return 16;
+        }
+        int nTracks = reader.getTrackNames().length;
+        long size = 64 + (8L + 4L * nTracks) * tile.getSize();
+        if (tile.getNames() != null) {
+            size += 48L * tile.getNames().length;
+        }
+        return size;
     }
 
 
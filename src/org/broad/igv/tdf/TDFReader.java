@@ -29,9 +29,10 @@
  */
 package org.broad.igv.tdf;
 
-import htsjdk.samtools.seekablestream.SeekableStream;
 import org.apache.log4j.Logger;
 import org.broad.igv.Globals;
+import org.broad.igv.data.TileCache;
+import org.broad.igv.data.WholeGenomeSummary;
 import org.broad.igv.exceptions.DataLoadException;
 import org.broad.igv.feature.genome.Genome;
 import org.broad.igv.track.TrackType;
@@ -40,13 +41,17 @@ import org.broad.igv.util.CompressionUtils;
 import org.broad.igv.util.ResourceLocator;
 import org.broad.igv.util.StringUtils;
 import org.broad.igv.util.collections.LRUCache;
-import org.broad.igv.util.stream.IGVSeekableStreamFactory;
+import org.broad.igv.util.stream.InflaterPool;
+import org.broad.igv.util.stream.PositionalReader;
 
 import java.io.IOException;
 import java.nio.BufferUnderflowException;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
 
 /**
  * @author jrobinso
@@ -56,7 +61,19 @@ public class TDFReader {
     static final Logger log = Logger.getLogger(TDFReader.class);
     public static final int GZIP_FLAG = 0x1;
 
-    private SeekableStream seekableStream = null;
+    /**
+     * Tiles separated by no more than this many bytes are read together
+     */
+    static final int MAX_TILE_GAP = 64 * 1024;
+
+    /**
+     * Maximum size of a single read of several tiles
+     */
+    static final int MAX_TILE_CHUNK = 8 * 1024 * 1024;
+
+    private static final ThreadLocal<CompressionUtils> compressionUtils = ThreadLocal.withInitial(CompressionUtils::new);
+
+    private PositionalReader positionalReader = null;
     private int version;
     private Map<String, IndexEntry> datasetIndex;
     private Map<String, IndexEntry> groupIndex;
@@ -66,7 +83,8 @@ public class TDFReader {
     private String genomeId;
     LRUCache<String, TDFGroup> groupCache = new LRUCache(20);
     LRUCache<String, TDFDataset> datasetCache = new LRUCache(20);
-    TDFTile wgTile;
+    Map<WindowFunction, TDFTile> wgTiles = new HashMap<>();
+    private final int cacheSource = TileCache.getInstance().newSource();
 
     Map<WindowFunction, Double> valueCache = new HashMap();
     private List<WindowFunction> windowFunctions;
@@ -75,7 +93,6 @@ public class TDFReader {
     boolean compressed = false;
 
     Set<String> chrNames;
-    private final CompressionUtils compressionUtils;
 
     //private String path;
 
@@ -92,7 +109,7 @@ public class TDFReader {
         this.locator = locator;
         try {
             log.debug("Getting stream");
-            seekableStream = IGVSeekableStreamFactory.getInstance().getStreamFor(locator.getPath());
+            positionalReader = PositionalReader.open(locator.getPath());
             log.debug("Reading header");
             readHeader();
             log.debug("Done reading header");
@@ -101,12 +118,12 @@ public class TDFReader {
             log.error("Error loading file: " + locator.getPath(), ex);
             throw new DataLoadException("Error loading file: " + ex.toString(), locator.getPath());
         }
-        compressionUtils = new CompressionUtils();
     }
 
     public void close() {
+        TileCache.getInstance().removeSource(cacheSource);
         try {
-            seekableStream.close();
+            positionalReader.close();
         } catch (IOException e) {
             log.error("Error closing reader for: " + getPath(), e);
         }
@@ -116,6 +133,13 @@ public class TDFReader {
         return locator.getPath();
     }
 
+    /**
+     * @return the id of this reader's tiles in the shared {@link TileCache}
+     */
+    int getCacheSource() {
+        return cacheSource;
+    }
+
     private void readHeader() throws IOException {
 
         // Buffer for the magic number, version, index position, and index
@@ -316,36 +340,95 @@ public class TDFReader {
     // TODO -- move to dataset class
 
     public TDFTile readTile(TDFDataset ds, int tileNumber) {
+        return readTiles(ds, new int[]{tileNumber})[0];
+    }
 
-        try {
-            if (tileNumber >= ds.tilePositions.length) {
-                // TODO - return empty tile
-                return null;
+    /**
+     * Read tiles {@code tileNumbers} of dataset {@code ds}.  Tiles stored close together are read with a single
+     * request,  and the tiles are decompressed and parsed in parallel.
+     *
+     * @return the tiles,  in the order of {@code tileNumbers}.  Empty or out of range tiles are null.
+     */
+    public TDFTile[] readTiles(TDFDataset ds, int[] tileNumbers) {
+
+        TDFTile[] tiles = new TDFTile[tileNumbers.length];
+
+        // Indices of tiles to read,  in file order
+        List<Integer> indices = new ArrayList<>(tileNumbers.length);
+        for (int i = 0; i < tileNumbers.length; i++) {
+            int t = tileNumbers[i];
+            if (t < ds.tilePositions.length && ds.tilePositions[t] >= 0) {
+                indices.add(i);
             }
+        }
+        indices.sort((i1, i2) -> Long.compare(ds.tilePositions[tileNumbers[i1]], ds.tilePositions[tileNumbers[i2]]));
 
-            long position = ds.tilePositions[tileNumber];
-            if (position < 0) {
+        boolean parallel = indices.size() > 1 && InflaterPool.isEnabled();
+        List<Future<TDFTile>> futures = new ArrayList<>(indices.size());
+        int idx = 0;
+        try {
+            while (idx < indices.size()) {
+
+                // Extend the chunk while the next tile is close to its end
+                long chunkStart = ds.tilePositions[tileNumbers[indices.get(idx)]];
+                long chunkEnd = chunkStart;
+                int last = idx;
+                while (last < indices.size()) {
+                    int t = tileNumbers[indices.get(last)];
+                    long position = ds.tilePositions[t];
+                    long end = Math.max(chunkEnd, position + ds.tileSizes[t]);
+                    if (last > idx && (position - chunkEnd > MAX_TILE_GAP || end - chunkStart > MAX_TILE_CHUNK)) {
+                        break;
+                    }
+                    chunkEnd = end;
+                    last++;
+                }
 
-                // Indicates empty tile
-                // TODO -- return an empty tile?
-                return null;
+                ByteBuffer chunk = positionalReader.readBuffer(chunkStart, (int) (chunkEnd - chunkStart));
+                for (int i = idx; i < last; i++) {
+                    int t = tileNumbers[indices.get(i)];
+                    int offset = (int) (ds.tilePositions[t] - chunkStart);
+                    int nBytes = ds.tileSizes[t];
+                    FutureTask<TDFTile> task = new FutureTask<>(() -> createTile(chunk, offset, nBytes));
+                    if (parallel) {
+                        InflaterPool.getExecutor().execute(task);
+                    } else {
+                        task.run();
+                    }
+                    futures.add(task);
+                }
+                idx = last;
             }
 
-            int nBytes = ds.tileSizes[tileNumber];
-            //fis.seek(position);
-            //byte[] buffer = new byte[nBytes];
-            //readFully(buffer);
-            byte[] buffer = readBytes(position, nBytes);
-            if (compressed) {
-                buffer = compressionUtils.decompress(buffer);
+            for (int i = 0; i < futures.size(); i++) {
+                tiles[indices.get(i)] = futures.get(i).get();
+            }
+            return tiles;
 
+        } catch (IOException | ExecutionException | InterruptedException ex) {
+            for (Future<TDFTile> f : futures) {
+                f.cancel(false);
             }
+            String tileName = ds.getName() + Arrays.toString(tileNumbers);
+            log.error("Error reading data tiles: " + tileName, ex);
+            throw new RuntimeException("System error occured while reading tiles: " + tileName);
+        }
+    }
 
-            return TileFactory.createTile(buffer, trackNames.length);
-        } catch (IOException ex) {
-            String tileName = ds.getName() + "[" + tileNumber + "]";
-            log.error("Error reading data tile: " + tileName, ex);
-            throw new RuntimeException("System error occured while reading tile: " + tileName);
+    /**
+     * Create a tile from {@code nBytes} at {@code offset} in {@code chunk}.  Uncompressed tiles are decoded in place,
+     * compressed tiles are copied for the inflater,  which only accepts arrays.
+     */
+    private TDFTile createTile(ByteBuffer chunk, int offset, int nBytes) throws IOException {
+        ByteBuffer tileBuffer = chunk.duplicate();
+        tileBuffer.position(offset);
+        tileBuffer.limit(Math.min(chunk.limit(), offset + nBytes));
+        if (compressed) {
+            byte[] bytes = new byte[nBytes];
+            tileBuffer.get(bytes, 0, tileBuffer.remaining());
+            return TileFactory.createTile(compressionUtils.get().decompress(bytes), trackNames.length);
+        } else {
+            return TileFactory.createTile(tileBuffer.slice(), trackNames.length);
         }
     }
 
@@ -432,11 +515,8 @@ public class TDFReader {
     }
 
 
-    public synchronized byte[] readBytes(long position, int nBytes) throws IOException {
-        seekableStream.seek(position);
-        byte[] buffer = new byte[nBytes];
-        int read = seekableStream.read(buffer, 0, nBytes);
-        return buffer;
+    public byte[] readBytes(long position, int nBytes) throws IOException {
+        return positionalReader.read(position, nBytes);
     }
 
     /**
@@ -501,9 +581,22 @@ public class TDFReader {
         }
     }
 
-    public TDFTile getWholeGenomeTile(Genome genome, WindowFunction wf) {
+    /**
+     * Return the whole genome tile for {@code wf},  binned from the lowest zoom level of each chromosome.  Tiles are
+     * computed once per file and genome,  see {@link WholeGenomeSummary}.
+     */
+    public synchronized TDFTile getWholeGenomeTile(Genome genome, WindowFunction wf) {
+
+        TDFTile wgTile = wgTiles.get(wf);
+        if (wgTile != null) {
+            return wgTile;
+        }
 
-        if (wgTile == null) {
+        String variant = "tdf:" + wf.name();
+        WholeGenomeSummary summary = WholeGenomeSummary.get(getPath(), genome, variant);
+        if (summary != null) {
+            wgTile = new TDFBedTile(0, summary.getStarts(), summary.getEnds(), summary.getValues());
+        } else {
 
             int binCount = 700;
             int nTracks = this.getTrackNames().length; // TODO -- is there a more direct way to know this?
@@ -563,7 +656,15 @@ public class TDFReader {
             //    public TDFFixedTile(int tileStart, int start, double span, float[][] data) {
             wgTile = new TDFFixedTile(0, 0, binSize, data);
 
+            int[] starts = new int[binCount];
+            int[] ends = new int[binCount];
+            for (int b = 0; b < binCount; b++) {
+                starts[b] = wgTile.getStartPosition(b);
+                ends[b] = wgTile.getEndPosition(b);
+            }
+            WholeGenomeSummary.put(getPath(), genome, variant, new WholeGenomeSummary(starts, ends, data));
         }
+        wgTiles.put(wf, wgTile);
         return wgTile;
     }
 }
\ No newline at end of file
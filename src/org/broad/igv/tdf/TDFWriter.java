@@ -66,7 +66,7 @@ public class TDFWriter {
     Map<String, IndexEntry> groupIndex = new LinkedHashMap();
     long indexPositionPosition;
     boolean compressed;
-    private final CompressionUtils compressionUtils;
+    private static final ThreadLocal<CompressionUtils> compressionUtils = ThreadLocal.withInitial(CompressionUtils::new);
 
     public TDFWriter(File f,
                      String genomeId,
@@ -101,8 +101,6 @@ public class TDFWriter {
             log.error("Error opening output stream to file: " + file, ex);
             throw new DataLoadException("Error creating file", "" + file);
         }
-
-        compressionUtils = new CompressionUtils();
     }
 
     private void writeHeader(String genomeId,
@@ -167,7 +165,7 @@ public class TDFWriter {
     /**
      * Write out the group and dataset index and close the underlying file.
      */
-    public void closeFile() {
+    public synchronized void closeFile() {
 
         try {
             writeDatasets();
@@ -222,7 +220,7 @@ public class TDFWriter {
         return group;
     }
 
-    public TDFDataset createDataset(String name, TDFDataset.DataType dataType,
+    public synchronized TDFDataset createDataset(String name, TDFDataset.DataType dataType,
                                     int tileWidth, int nTiles) {
 
         if (datasetCache.containsKey(name)) {
@@ -238,6 +236,30 @@ public class TDFWriter {
     // Tile layout
 
     public void writeTile(String dsId, int tileNumber, TDFTile tile) throws IOException {
+        writeEncodedTile(dsId, tileNumber, encodeTile(tile));
+    }
+
+    /**
+     * Serialize and optionally compress a tile,  for {@link #writeEncodedTile(String, int, byte[])}.  This is
+     * independent of the file state,  so tiles can be encoded on any thread.
+     */
+    public byte[] encodeTile(TDFTile tile) throws IOException {
+
+        // Write the tile contents to a byte buffer first,  so we can optionally gzip it
+        BufferedByteWriter buffer = new BufferedByteWriter();
+        tile.writeTo(buffer);
+
+        byte[] bytes = buffer.getBytes();
+        if (compressed) {
+            bytes = compressionUtils.get().compress(bytes);
+        }
+        return bytes;
+    }
+
+    /**
+     * Write a tile encoded by {@link #encodeTile(TDFTile)}
+     */
+    public synchronized void writeEncodedTile(String dsId, int tileNumber, byte[] bytes) throws IOException {
 
         TDFDataset dataset = datasetCache.get(dsId);
         if (dataset == null) {
@@ -248,22 +270,8 @@ public class TDFWriter {
 
         if (tileNumber < dataset.tilePositions.length) {
             dataset.tilePositions[tileNumber] = pos;
-
-            // Write the tile contents to a byte buffer first,  so we can optionally gzip it
-
-
-            BufferedByteWriter buffer = new BufferedByteWriter();
-            tile.writeTo(buffer);
-
-            byte[] bytes = buffer.getBytes();
-            if (compressed) {
-                bytes = compressionUtils.compress(bytes);
-            }
-
             write(bytes);
-            int nBytes = bytes.length;
-
-            dataset.tileSizes[tileNumber] = nBytes;
+            dataset.tileSizes[tileNumber] = bytes.length;
         } else {
             // The occasional tile number == tile array size is expected, but tile
             // numbers larger than that are not
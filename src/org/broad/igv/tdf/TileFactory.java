@@ -43,8 +43,14 @@ import java.nio.ByteOrder;
 public class TileFactory {
 
     public static TDFTile createTile(byte[] buffer, int nSamples) throws IOException {
+        return createTile(ByteBuffer.wrap(buffer), nSamples);
+    }
+
+    /**
+     * Create a tile from the bytes remaining in {@code byteBuffer},  which may be a view of a mapped file
+     */
+    public static TDFTile createTile(ByteBuffer byteBuffer, int nSamples) throws IOException {
 
-        ByteBuffer byteBuffer = ByteBuffer.wrap(buffer);
         byteBuffer.order(ByteOrder.LITTLE_ENDIAN);
 
         String typeString = StringUtils.readString(byteBuffer);
@@ -149,6 +149,8 @@ public class IgvTools {
     private static CmdLineParser.Option windowFunctions = null;
     private static CmdLineParser.Option tmpDirOption = null;
     private static CmdLineParser.Option maxZoomOption = null;
+    private static CmdLineParser.Option threadsOption = null;
+    private static CmdLineParser.Option quantileErrorOption = null;
     private static CmdLineParser.Option typeOption = null;
 
     // options for sort
@@ -183,6 +185,16 @@ public class IgvTools {
     // Trackline
     private static CmdLineParser.Option colorOption = null;
 
+    /**
+     * Number of threads used by the preprocessor,  see {@link Preprocessor#setThreadCount(int)}
+     */
+    private int threadCount = 1;
+
+    /**
+     * Rank error of percentile window functions,  see {@link Preprocessor#setQuantileError(double)}
+     */
+    private double quantileError = 0;
+
     /**
      * The general usage string
      */
@@ -345,6 +357,8 @@ public class IgvTools {
                 // Parse out options common to both count and tile
                 validateArgsLength(nonOptionArgs, 4, basic_syntax);
                 int maxZoomValue = (Integer) parser.getOptionValue(maxZoomOption, MAX_ZOOM);
+                threadCount = (Integer) parser.getOptionValue(threadsOption, 1);
+                quantileError = (Double) parser.getOptionValue(quantileErrorOption, 0.0);
                 String ofile = nonOptionArgs[2];
                 setWriteToStdOout(ofile);
 
@@ -567,6 +581,8 @@ public class IgvTools {
             // general options
             windowFunctions = parser.addStringOption('f', "windowFunctions");
             maxZoomOption = parser.addIntegerOption('z', "maxZoom");
+            threadsOption = parser.addIntegerOption("threads");
+            quantileErrorOption = parser.addDoubleOption("quantileError");
 
             // extended options for coverage
             if (command.equals(CMD_COUNT) || command.equals(CMD_BAMTOBED)) {
@@ -714,6 +730,8 @@ public class IgvTools {
         File outputFile = new File(ofile);
         try {
             Preprocessor p = new Preprocessor(outputFile, genome, windowFunctions, nLines, null);
+            p.setThreadCount(threadCount);
+            p.setQuantileError(quantileError);
             if (inputFileOrDir.isDirectory() || inputFileOrDir.getName().endsWith(".list")) {
                 p.setSizeEstimate(0);
                 List<File> files = getFilesFromDirOrList(inputFileOrDir);
@@ -865,6 +883,8 @@ public class IgvTools {
         try {
 
             Preprocessor p = new Preprocessor(tdfFile, genome, windowFunctions, -1, null);
+            p.setThreadCount(threadCount);
+            p.setQuantileError(quantileError);
 
             p.setSkipZeroes(true);
 
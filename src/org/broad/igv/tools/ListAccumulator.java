@@ -37,7 +37,8 @@ import org.broad.igv.track.WindowFunction;
 import java.util.*;
 
 /**
- * Estimating percentiles -- weighted average of multiple estimates
+ * Estimating percentiles -- weighted average of multiple estimates,  or a {@link QuantileSketch} if a quantile error
+ * is given.  The sketch bounds memory per accumulator at the cost of the stated error in rank.
  *
  * @author jrobinso
  */
@@ -62,6 +63,7 @@ public class ListAccumulator {
     List<WindowFunction> quantileFunctions;
     Map<WindowFunction, List<PercentileValue>> percentiles = new HashMap();
     DoubleArrayList values = null;
+    QuantileSketch sketch = null;
     float sum = 0.0f;
     int basesCovered = 0;
     int nPts = 0;
@@ -77,12 +79,24 @@ public class ListAccumulator {
 
 
     public ListAccumulator(Collection<WindowFunction> windowFunctions) {
+        this(windowFunctions, 0);
+    }
+
+    /**
+     * @param quantileError allowed rank error of percentiles,  as a fraction of the number of values.  If 0 all
+     *                      values are kept and percentiles are exact.
+     */
+    public ListAccumulator(Collection<WindowFunction> windowFunctions, double quantileError) {
         this.windowFunctions = new ArrayList(windowFunctions);
         quantileFunctions = new ArrayList();
         for (WindowFunction wf : windowFunctions) {
             if (PERCENTILE_WINDOW_FUNCTIONS.contains(wf)) {
                 quantileFunctions.add(wf);
-                if (values == null) {
+                if (quantileError > 0) {
+                    if (sketch == null) {
+                        sketch = new QuantileSketch(quantileError);
+                    }
+                } else if (values == null) {
                     values = new DoubleArrayList();
                 }
             }
@@ -96,7 +110,9 @@ public class ListAccumulator {
             sum += w*v;
             basesCovered +=w;
             nPts++;
-            if (values != null) {
+            if (sketch != null) {
+                sketch.add(v);
+            } else if (values != null) {
                 values.add(v);
                 if (values.size() > MAX_VALUE_COUNT) {
                     computePercentiles();
@@ -115,7 +131,11 @@ public class ListAccumulator {
 
         mean = Float.isNaN(sum) ? Float.NaN : sum / basesCovered;
 
-        if (values != null) {
+        if (sketch != null) {
+            for (WindowFunction wf : quantileFunctions) {
+                setValue(wf, nPts == 1 ? mean : sketch.getPercentile(getPercentile(wf)));
+            }
+        } else if (values != null) {
             if (nPts == 1) {
                 for (WindowFunction wf : quantileFunctions) {
                     setValue(wf, mean);
@@ -145,6 +165,7 @@ public class ListAccumulator {
             }
         }
         values = null;
+        sketch = null;
         isFinished = true;
 
     }
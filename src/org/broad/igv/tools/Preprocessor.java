@@ -43,6 +43,7 @@ import java.io.File;
 import java.io.IOException;
 import java.io.PrintStream;
 import java.util.*;
+import java.util.concurrent.Callable;
 
 /**
  * @author jrobinso
@@ -75,6 +76,9 @@ public class Preprocessor implements DataConsumer {
     List<String> chromosomes = new ArrayList();
     Set<String> visitedChromosomes = new HashSet();
     Map<String, String> attributes = new HashMap();
+    int threadCount = 1;
+    double quantileError = 0;
+    PreprocessorPipeline pipeline;
 
     List<WindowFunction> allDataFunctions = Arrays.asList(
             WindowFunction.mean,
@@ -139,6 +143,10 @@ public class Preprocessor implements DataConsumer {
             rootGroup.setAttribute("genome", genome.getId());
             rootGroup.setAttribute("maxZoom", String.valueOf(nZoom));
 
+            if (threadCount > 1) {
+                pipeline = new PreprocessorPipeline(this, getNZoom() + 1, threadCount);
+            }
+
         }
     }
 
@@ -202,15 +210,30 @@ public class Preprocessor implements DataConsumer {
         }
 
 
-        // Add to raw data
-        rawData.addData(start, end, data, name);
+        if (pipeline != null) {
+            pipeline.addData(chr, start, end, data, name);
+        } else {
+
+            // Add to raw data
+            rawData.addData(start, end, data, name);
+
+            // Zoom levels
+            for (Zoom zl : zoomLevels) {
+                zl.addData(start, end, data);
+            }
 
-        // Zoom levels
-        for (Zoom zl : zoomLevels) {
-            zl.addData(start, end, data);
+            addGenomeData(chr, start, end, data);
         }
 
-        // Whole genome
+        lastStartPosition = start;
+
+    }
+
+    /**
+     * Add data to the whole genome view and stats
+     */
+    void addGenomeData(String chr, int start, int end, float[] data) {
+
         long offset = genome.getCumulativeOffset(chr);
         int gStart = (int) ((offset + start) / 1000);
         int gEnd = Math.max(gStart + 1, (int) ((offset + end) / 1000));
@@ -223,9 +246,6 @@ public class Preprocessor implements DataConsumer {
                 allDataStats.add(gEnd - gStart, data[i]);
             }
         }
-
-        lastStartPosition = start;
-
     }
 
 
@@ -253,13 +273,15 @@ public class Preprocessor implements DataConsumer {
             chromosomes.add(chr);
 
             log.info("Processing chromosome " + chr);
-            if (zoomLevels != null) {
-                for (Zoom zl : zoomLevels) {
-                    zl.close();
+            if (pipeline == null) {
+                if (zoomLevels != null) {
+                    for (Zoom zl : zoomLevels) {
+                        zl.close();
+                    }
+                }
+                if (rawData != null) {
+                    rawData.close();
                 }
-            }
-            if (rawData != null) {
-                rawData.close();
             }
 
             currentChr = chr;
@@ -270,6 +292,11 @@ public class Preprocessor implements DataConsumer {
             }
 
             rawData = new Raw(chr, currentChrLength, 100000);
+
+            // With a pipeline the previous chromosome is closed by the stages
+            if (pipeline != null) {
+                pipeline.newChromosome(rawData, zoomLevels);
+            }
         }
         lastStartPosition = 0;
 
@@ -313,21 +340,28 @@ public class Preprocessor implements DataConsumer {
             writer.getRootGroup().setAttribute(entry.getKey(), entry.getValue());
         }
 
-        if (zoomLevels != null) {
-            for (Zoom zl : zoomLevels) {
-                zl.close();
+        if (pipeline != null) {
+            pipeline.finish();
+        } else {
+            if (zoomLevels != null) {
+                for (Zoom zl : zoomLevels) {
+                    zl.close();
+                }
+            }
+
+            if (genomeZoom != null) {
+                genomeZoom.close();
             }
-        }
 
-        if (genomeZoom != null) {
-            genomeZoom.close();
+            if (rawData != null) {
+                rawData.close();
+            }
         }
 
         if (rawData == null) {
             // TODO -- delete .tdf file?
             log.warn("No features were found that matched chromosomes in genome: " + genome.getId());
         } else {
-            rawData.close();
 
             // Record max/min
             allDataStats.finish();
@@ -376,6 +410,65 @@ public class Preprocessor implements DataConsumer {
         this.nZoom = nZoom;
     }
 
+    /**
+     * Set the number of threads used to compute and compress tiles.  With more than 1 thread raw data,  each zoom
+     * level and the whole genome view are accumulated as separate pipeline stages,  see
+     * {@link PreprocessorPipeline}.  Must be called before {@link #setTrackParameters}.
+     */
+    public void setThreadCount(int threadCount) {
+        this.threadCount = threadCount;
+    }
+
+    /**
+     * Compute median and percentile window functions with a {@link QuantileSketch} of the given rank error,  so
+     * memory per bin is bounded however many values fall in it.  0,  the default,  keeps all values for exact
+     * percentiles.  Must be called before any data is added.
+     */
+    public void setQuantileError(double quantileError) {
+        this.quantileError = quantileError;
+        allDataStats = new ListAccumulator(allDataFunctions, quantileError);
+    }
+
+    /**
+     * Write tiles produced by {@code encoder}.  Without a pipeline stage they are written immediately,  otherwise
+     * encoding is scheduled on the pipeline's thread pool and the tiles written in order by its writer.
+     */
+    void emit(PreprocessorPipeline.Stage stage, Callable<List<EncodedTile>> encoder) {
+        if (stage != null) {
+            stage.submit(encoder);
+        } else {
+            writeTiles(encoder);
+        }
+    }
+
+    private void writeTiles(Callable<List<EncodedTile>> encoder) {
+        try {
+            for (EncodedTile t : encoder.call()) {
+                writer.writeEncodedTile(t.dsName, t.tileNumber, t.bytes);
+            }
+        } catch (PreprocessingException e) {
+            throw e;
+        } catch (Exception e) {
+            log.error("Error writing tile", e);
+            throw new PreprocessingException(e.getMessage());
+        }
+    }
+
+    /**
+     * A tile serialized by {@link TDFWriter#encodeTile(TDFTile)},  ready to write
+     */
+    static class EncodedTile {
+        final String dsName;
+        final int tileNumber;
+        final byte[] bytes;
+
+        EncodedTile(String dsName, int tileNumber, byte[] bytes) {
+            this.dsName = dsName;
+            this.tileNumber = tileNumber;
+            this.bytes = bytes;
+        }
+    }
+
 
     /**
      * Class representing a tile of raw (as opposed to summarized) data.
@@ -433,29 +526,26 @@ public class Preprocessor implements DataConsumer {
             }
         }
 
-        void close() {
-            try {
-                if (startArray.size() > 0) {
-                    int[] s = startArray.toArray();
-                    int[] e = endArray.toArray();
-                    float[][] d = new float[dataArray.length][dataArray[0].size()];
-                    for (int i = 0; i < dataArray.length; i++) {
-                        d[i] = dataArray[i].toArray();
-                    }
+        List<EncodedTile> encode() throws IOException {
+            if (startArray.size() > 0) {
+                int[] s = startArray.toArray();
+                int[] e = endArray.toArray();
+                float[][] d = new float[dataArray.length][dataArray[0].size()];
+                for (int i = 0; i < dataArray.length; i++) {
+                    d[i] = dataArray[i].toArray();
+                }
 
 
-                    String[] n = nameList == null ? null : nameList.toArray(new String[]{});
-                    TDFBedTile tile = new TDFBedTile(tileStart, s, e, d, n);
-                    writer.writeTile(dsName, tileNumber, tile);
-                    startArray.clear();
-                    endArray.clear();
-                    for (int i = 0; i < dataArray.length; i++) {
-                        dataArray[i].clear();
-                    }
+                String[] n = nameList == null ? null : nameList.toArray(new String[]{});
+                TDFBedTile tile = new TDFBedTile(tileStart, s, e, d, n);
+                startArray.clear();
+                endArray.clear();
+                for (int i = 0; i < dataArray.length; i++) {
+                    dataArray[i].clear();
                 }
-            } catch (IOException ex) {
-                log.error(ex.getMessage(), ex);
+                return Collections.singletonList(new EncodedTile(dsName, tileNumber, writer.encodeTile(tile)));
             }
+            return Collections.emptyList();
         }
     }
 
@@ -471,6 +561,7 @@ public class Preprocessor implements DataConsumer {
         TDFDataset dataset;
         int tileWidth;
         Map<Integer, RawTile> activeTiles = new HashMap();
+        PreprocessorPipeline.Stage stage;
 
         Raw(String chr, int chrLength, int tileWidth) {
 
@@ -497,7 +588,7 @@ public class Preprocessor implements DataConsumer {
                 Integer tileNumber = activeTiles.keySet().iterator().next();
                 if (tileNumber < tmp) {
                     RawTile t = activeTiles.get(tileNumber);
-                    t.close();
+                    emit(stage, t::encode);
                     activeTiles.remove(tileNumber);
                 } else {
                     break;
@@ -527,7 +618,7 @@ public class Preprocessor implements DataConsumer {
 
         void close() {
             for (RawTile t : activeTiles.values()) {
-                t.close();
+                emit(stage, t::encode);
             }
             activeTiles = null;
         }
@@ -544,6 +635,7 @@ public class Preprocessor implements DataConsumer {
         int tileWidth;
         LinkedHashMap<Integer, Tile> activeTiles = new LinkedHashMap();
         Map<WindowFunction, TDFDataset> datasets = new HashMap();
+        PreprocessorPipeline.Stage stage;
 
 
         Zoom(String chr, int level, int chrLength) {
@@ -569,7 +661,7 @@ public class Preprocessor implements DataConsumer {
                 Integer tileNumber = activeTiles.keySet().iterator().next();
                 if (tileNumber < tmp) {
                     Tile t = activeTiles.get(tileNumber);
-                    t.close();
+                    emit(stage, t::encode);
                     activeTiles.remove(tileNumber);
                 } else {
                     break;
@@ -590,7 +682,7 @@ public class Preprocessor implements DataConsumer {
         // Close all active tiles
         public void close() {
             for (Tile t : activeTiles.values()) {
-                t.close();
+                emit(stage, t::encode);
             }
         }
     }
@@ -647,7 +739,7 @@ public class Preprocessor implements DataConsumer {
 
                 for (int b = startBin; b <= endBin; b++) {
                     if (accumulators[t][b] == null) {
-                        accumulators[t][b] = new ListAccumulator(datasets.keySet());
+                        accumulators[t][b] = new ListAccumulator(datasets.keySet(), quantileError);
                     }
                     accumulators[t][b].add(end - start, data[t]);
                 }
@@ -656,9 +748,9 @@ public class Preprocessor implements DataConsumer {
 
 
         /**
-         *
+         * Finish the accumulators and encode a tile for each window function
          */
-        void close() {
+        List<EncodedTile> encode() throws IOException {
 
             // Count non-empty bins.  All tracks should be the same
             nonEmptyBins = 0;
@@ -675,6 +767,7 @@ public class Preprocessor implements DataConsumer {
             }
 
             TDFTile tile = null;
+            List<EncodedTile> encoded = new ArrayList<>(datasets.size());
 
             for (WindowFunction wf : datasets.keySet()) {
 
@@ -709,13 +802,9 @@ public class Preprocessor implements DataConsumer {
                 }
 
                 String dsName = datasets.get(wf).getName();
-                try {
-                    writer.writeTile(dsName, tileNumber, tile);
-                } catch (IOException exc) {
-                    log.error("Error writing tile: " + dsName + " [" + tileNumber + "]", exc);
-                    throw new PreprocessingException(exc.getMessage());
-                }
+                encoded.add(new EncodedTile(dsName, tileNumber, writer.encodeTile(tile)));
             }
+            return encoded;
         }
     }
 
@@ -0,0 +1,297 @@
+package org.broad.igv.tools;
+
+import org.apache.log4j.Logger;
+
+import java.util.List;
+import java.util.concurrent.*;
+
+/**
+ * Runs the work of a {@link Preprocessor} on several threads.  Raw data,  each zoom level and the whole genome view
+ * are accumulated by their own stage,  a single thread fed batches of data by the parser.  Finished tiles are
+ * summarized and compressed on a pool of {@code threadCount} threads,  and written by one writer thread in the
+ * order the stages finished them.
+ * <p/>
+ * All queues are bounded,  so memory use does not depend on the size of the input.
+ */
+class PreprocessorPipeline {
+
+    private static Logger log = Logger.getLogger(PreprocessorPipeline.class);
+
+    static final int BATCH_SIZE = 4096;
+    static final int STAGE_QUEUE_SIZE = 16;
+
+    private final Preprocessor preprocessor;
+    private final Stage[] zoomStages;
+    private final Stage genomeStage;
+    private final Stage rawStage;
+    private final ExecutorService encoders;
+    private final ExecutorService writerExecutor;
+    private final BlockingQueue<Future<List<Preprocessor.EncodedTile>>> writeQueue;
+    private final Future<?> writerTask;
+    private volatile Throwable error;
+
+    private Preprocessor.Raw raw;
+    private Preprocessor.Zoom[] zooms;
+    private Batch batch;
+
+    PreprocessorPipeline(Preprocessor preprocessor, int nZoomLevels, int threadCount) {
+        this.preprocessor = preprocessor;
+        zoomStages = new Stage[nZoomLevels];
+        for (int z = 0; z < nZoomLevels; z++) {
+            zoomStages[z] = new Stage("preprocessor-z" + z);
+        }
+        genomeStage = new Stage("preprocessor-genome");
+        rawStage = new Stage("preprocessor-raw");
+        if (preprocessor.genomeZoom != null) {
+            preprocessor.genomeZoom.stage = genomeStage;
+        }
+
+        encoders = Executors.newFixedThreadPool(threadCount, daemonThreads("preprocessor-encode"));
+        writeQueue = new ArrayBlockingQueue<>(4 * threadCount + STAGE_QUEUE_SIZE);
+        writerExecutor = Executors.newSingleThreadExecutor(daemonThreads("preprocessor-write"));
+        writerTask = writerExecutor.submit(this::writeTiles);
+    }
+
+    /**
+     * Start a new chromosome.  Tiles of the previous chromosome are closed by the stages once they have seen all its
+     * data.
+     */
+    void newChromosome(Preprocessor.Raw newRaw, Preprocessor.Zoom[] newZooms) {
+        flush();
+        Preprocessor.Raw oldRaw = raw;
+        newRaw.stage = rawStage;
+        rawStage.execute(() -> {
+            if (oldRaw != null) oldRaw.close();
+        });
+        for (int z = 0; z < zoomStages.length; z++) {
+            Preprocessor.Zoom oldZoom = zooms == null ? null : zooms[z];
+            newZooms[z].stage = zoomStages[z];
+            zoomStages[z].execute(() -> {
+                if (oldZoom != null) oldZoom.close();
+            });
+        }
+        raw = newRaw;
+        zooms = newZooms;
+    }
+
+    /**
+     * Add a data point of the current chromosome.  {@code data} is copied.
+     */
+    void addData(String chr, int start, int end, float[] data, String name) {
+        checkError();
+        if (batch == null) {
+            batch = new Batch(chr, raw, zooms);
+        }
+        batch.add(start, end, data, name);
+        if (batch.size == BATCH_SIZE) {
+            flush();
+        }
+    }
+
+    private void flush() {
+        if (batch == null) {
+            return;
+        }
+        Batch b = batch;
+        batch = null;
+        rawStage.execute(() -> {
+            for (int i = 0; i < b.size; i++) {
+                b.raw.addData(b.starts[i], b.ends[i], b.data[i], b.names == null ? null : b.names[i]);
+            }
+        });
+        for (int z = 0; z < zoomStages.length; z++) {
+            Preprocessor.Zoom zoom = b.zooms[z];
+            zoomStages[z].execute(() -> {
+                for (int i = 0; i < b.size; i++) {
+                    zoom.addData(b.starts[i], b.ends[i], b.data[i]);
+                }
+            });
+        }
+        genomeStage.execute(() -> {
+            for (int i = 0; i < b.size; i++) {
+                preprocessor.addGenomeData(b.chr, b.starts[i], b.ends[i], b.data[i]);
+            }
+        });
+    }
+
+    /**
+     * Close all tiles and wait until they are written.
+     */
+    void finish() {
+        try {
+            flush();
+            Preprocessor.Raw lastRaw = raw;
+            Preprocessor.Zoom[] lastZooms = zooms;
+            rawStage.execute(() -> {
+                if (lastRaw != null) lastRaw.close();
+            });
+            for (int z = 0; z < zoomStages.length; z++) {
+                Preprocessor.Zoom zoom = lastZooms == null ? null : lastZooms[z];
+                zoomStages[z].execute(() -> {
+                    if (zoom != null) zoom.close();
+                });
+            }
+            genomeStage.execute(() -> {
+                if (preprocessor.genomeZoom != null) preprocessor.genomeZoom.close();
+            });
+
+            rawStage.shutdown();
+            genomeStage.shutdown();
+            for (Stage s : zoomStages) {
+                s.shutdown();
+            }
+            writeQueue.put(CompletableFuture.completedFuture(null));
+            writerTask.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            setError(e);
+        } catch (ExecutionException e) {
+            setError(e.getCause());
+        } finally {
+            encoders.shutdownNow();
+            writerExecutor.shutdownNow();
+        }
+        checkError();
+    }
+
+    /**
+     * Write encoded tiles until the end marker,  a null tile list.  After an error tiles are discarded,  so the
+     * stages are not blocked.
+     */
+    private void writeTiles() {
+        while (true) {
+            List<Preprocessor.EncodedTile> tiles;
+            try {
+                tiles = writeQueue.take().get();
+            } catch (InterruptedException e) {
+                setError(e);
+                return;
+            } catch (ExecutionException e) {
+                setError(e.getCause());
+                continue;
+            }
+            if (tiles == null) {
+                return;
+            }
+            if (error != null) {
+                continue;
+            }
+            try {
+                for (Preprocessor.EncodedTile t : tiles) {
+                    preprocessor.writer.writeEncodedTile(t.dsName, t.tileNumber, t.bytes);
+                }
+            } catch (Exception e) {
+                setError(e);
+            }
+        }
+    }
+
+    private void setError(Throwable t) {
+        if (error == null) {
+            log.error("Error preprocessing data", t);
+            error = t;
+        }
+    }
+
+    private void checkError() {
+        Throwable t = error;
+        if (t instanceof PreprocessingException) {
+            throw (PreprocessingException) t;
+        } else if (t != null) {
+            throw new PreprocessingException(t.getMessage());
+        }
+    }
+
+    private static ThreadFactory daemonThreads(String name) {
+        return r -> {
+            Thread t = new Thread(r, name);
+            t.setDaemon(true);
+            return t;
+        };
+    }
+
+    /**
+     * A single thread running the commands given to it in order.  Submitting blocks while its queue is full.
+     */
+    class Stage {
+
+        private final ThreadPoolExecutor executor;
+
+        Stage(String name) {
+            executor = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+                    new ArrayBlockingQueue<>(STAGE_QUEUE_SIZE), daemonThreads(name),
+                    (r, e) -> {
+                        try {
+                            e.getQueue().put(r);
+                        } catch (InterruptedException ex) {
+                            Thread.currentThread().interrupt();
+                            throw new RejectedExecutionException(ex);
+                        }
+                    });
+        }
+
+        void execute(Runnable command) {
+            executor.execute(() -> {
+                if (error != null) {
+                    return;
+                }
+                try {
+                    command.run();
+                } catch (Throwable t) {
+                    setError(t);
+                }
+            });
+        }
+
+        /**
+         * Schedule encoding of a finished tile.  Called from this stage's thread.
+         */
+        void submit(Callable<List<Preprocessor.EncodedTile>> encoder) {
+            try {
+                writeQueue.put(encoders.submit(encoder));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new PreprocessingException("Interrupted");
+            }
+        }
+
+        void shutdown() throws InterruptedException {
+            executor.shutdown();
+            executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Data points of one chromosome,  shared read-only by all stages
+     */
+    static class Batch {
+
+        final String chr;
+        final Preprocessor.Raw raw;
+        final Preprocessor.Zoom[] zooms;
+        final int[] starts = new int[BATCH_SIZE];
+        final int[] ends = new int[BATCH_SIZE];
+        final float[][] data = new float[BATCH_SIZE][];
+        String[] names;
+        int size;
+
+        Batch(String chr, Preprocessor.Raw raw, Preprocessor.Zoom[] zooms) {
+            this.chr = chr;
+            this.raw = raw;
+            this.zooms = zooms;
+        }
+
+        void add(int start, int end, float[] values, String name) {
+            starts[size] = start;
+            ends[size] = end;
+            data[size] = values.clone();
+            if (name != null) {
+                if (names == null) {
+                    names = new String[BATCH_SIZE];
+                }
+                names[size] = name;
+            }
+            size++;
+        }
+    }
+}
@@ -0,0 +1,161 @@
+package org.broad.igv.tools;
+
+import org.apache.commons.math.stat.StatUtils;
+
+import java.util.Arrays;
+
+/**
+ * Approximate quantiles in bounded memory,  a KLL sketch.  Values are kept in levels of compactors;  a value at level
+ * h stands for 2^h input values.  When a level fills it is sorted and every other value promoted to the next level.
+ * Lower levels get geometrically smaller capacities,  so memory is O(k) however many values are added.
+ * <p/>
+ * The error is stated as a rank error:  the value returned for quantile q has a rank within {@code rankError * n}
+ * of {@code q * n}.  Whether odd or even values are promoted is chosen by a generator with a fixed seed,  so the
+ * result is reproducible.  Until the first compaction all values are kept and quantiles are exact.
+ */
+public class QuantileSketch {
+
+    static final int MIN_CAPACITY = 8;
+
+    private final int k;
+    private float[][] levels = new float[1][];
+    private int[] sizes = new int[1];
+    private long n = 0;
+    private int seed = 0x2545f491;
+
+    /**
+     * @param rankError the allowed error in the rank of a quantile,  as a fraction of the number of values
+     */
+    public QuantileSketch(double rankError) {
+        if (rankError <= 0 || rankError >= 1) {
+            throw new IllegalArgumentException("Rank error must be between 0 and 1: " + rankError);
+        }
+        this.k = Math.max(MIN_CAPACITY, (int) Math.ceil(4.0 / rankError));
+        levels[0] = new float[MIN_CAPACITY];
+    }
+
+    public void add(float v) {
+        if (sizes[0] >= capacity(0)) {
+            compress();
+        }
+        append(0, v);
+        n++;
+    }
+
+    public long getCount() {
+        return n;
+    }
+
+    /**
+     * Number of values retained
+     */
+    public int getRetainedCount() {
+        int count = 0;
+        for (int size : sizes) {
+            count += size;
+        }
+        return count;
+    }
+
+    /**
+     * Return the estimated {@code p}th percentile,  0 < p <= 100,  or NaN if no values were added
+     */
+    public float getPercentile(double p) {
+        if (n == 0) {
+            return Float.NaN;
+        }
+        if (levels.length == 1) {
+            double[] values = new double[sizes[0]];
+            for (int i = 0; i < values.length; i++) {
+                values[i] = levels[0][i];
+            }
+            return (float) StatUtils.percentile(values, p);
+        }
+
+        // Sort the retained values,  each weighted by its level,  and find the first reaching the target rank
+        int count = getRetainedCount();
+        long[] packed = new long[count];
+        int idx = 0;
+        for (int h = 0; h < levels.length; h++) {
+            for (int i = 0; i < sizes[h]; i++) {
+                packed[idx++] = ((long) sortableBits(levels[h][i]) << 8) | h;
+            }
+        }
+        Arrays.sort(packed);
+        double target = p / 100 * n;
+        long rank = 0;
+        for (long e : packed) {
+            rank += 1L << (e & 0xff);
+            if (rank >= target) {
+                return fromSortableBits((int) (e >> 8));
+            }
+        }
+        return fromSortableBits((int) (packed[count - 1] >> 8));
+    }
+
+    private int capacity(int level) {
+        int depth = levels.length - 1 - level;
+        return Math.max(MIN_CAPACITY, (int) Math.ceil(k * Math.pow(2.0 / 3, depth)));
+    }
+
+    private void append(int level, float v) {
+        float[] a = levels[level];
+        if (sizes[level] == a.length) {
+            levels[level] = a = Arrays.copyOf(a, 2 * a.length);
+        }
+        a[sizes[level]++] = v;
+    }
+
+    /**
+     * Compact each level at or over capacity,  from the bottom up,  so a compaction can cascade to the levels above
+     */
+    private void compress() {
+        for (int h = 0; h < levels.length; h++) {
+            if (sizes[h] < capacity(h)) {
+                continue;
+            }
+            if (h == levels.length - 1) {
+                addLevel();
+            }
+            float[] a = levels[h];
+            int size = sizes[h];
+            Arrays.sort(a, 0, size);
+
+            // An odd value out stays at this level
+            int start = size % 2 == 1 ? 1 : 0;
+            int offset = nextBit();
+            for (int i = start + offset; i < size; i += 2) {
+                append(h + 1, a[i]);
+            }
+            sizes[h] = start;
+        }
+    }
+
+    private void addLevel() {
+        int nLevels = levels.length + 1;
+        levels = Arrays.copyOf(levels, nLevels);
+        levels[nLevels - 1] = new float[MIN_CAPACITY];
+        sizes = Arrays.copyOf(sizes, nLevels);
+    }
+
+    /**
+     * A random bit from an xorshift generator with a fixed seed
+     */
+    private int nextBit() {
+        seed ^= seed << 13;
+        seed ^= seed >>> 17;
+        seed ^= seed << 5;
+        return seed >>> 31;
+    }
+
+    // Map floats to ints with the same order,  so values can be sorted with their level packed in the low bits
+
+    private static int sortableBits(float v) {
+        int bits = Float.floatToIntBits(v);
+        return bits ^ ((bits >> 31) & 0x7fffffff);
+    }
+
+    private static float fromSortableBits(int bits) {
+        return Float.intBitsToFloat(bits ^ ((bits >> 31) & 0x7fffffff));
+    }
+}
@@ -990,6 +990,17 @@ public abstract class AbstractTrack implements Track {
         return null;
     }
 
+    /**
+     * Load the frames one at a time
+     */
+    public void loadFrames(List<ReferenceFrame> frames) {
+        for (ReferenceFrame frame : frames) {
+            if (!isReadyToPaint(frame)) {
+                load(frame);
+            }
+        }
+    }
+
 
     public void setWindowFunction(WindowFunction type) {
         // Required method for track interface, ignore
@@ -35,6 +35,7 @@ package org.broad.igv.track;
 
 import org.apache.log4j.Logger;
 import org.broad.igv.Globals;
+import org.broad.igv.data.PackedScores;
 import org.broad.igv.feature.Chromosome;
 import org.broad.igv.feature.FeatureUtils;
 import org.broad.igv.feature.LocusScore;
@@ -42,8 +43,11 @@ import org.broad.igv.feature.genome.Genome;
 import org.broad.igv.feature.genome.GenomeManager;
 import org.broad.igv.prefs.Constants;
 import org.broad.igv.prefs.PreferencesManager;
+import org.broad.igv.renderer.ContinuousColorScale;
+import org.broad.igv.renderer.DataRange;
 import org.broad.igv.renderer.DataRenderer;
 import org.broad.igv.renderer.GraphicUtils;
+import org.broad.igv.renderer.HeatmapRenderer;
 import org.broad.igv.renderer.Renderer;
 import org.broad.igv.renderer.XYPlotRenderer;
 import org.broad.igv.session.IGVSessionReader;
@@ -54,6 +58,7 @@ import org.broad.igv.event.IGVEventBus;
 import org.broad.igv.event.IGVEventObserver;
 import org.broad.igv.ui.panel.FrameManager;
 import org.broad.igv.ui.panel.ReferenceFrame;
+import org.broad.igv.ui.panel.TrackTileCache;
 import org.broad.igv.util.ResourceLocator;
 
 import javax.xml.bind.annotation.XmlAttribute;
@@ -174,6 +179,50 @@ public abstract class DataTrack extends AbstractTrack implements ScalableTrack,
     }
 
 
+    /**
+     * Return the state rendering depends on,  other than the frame and track height,  or null if the track cannot be
+     * rendered in tiles.  Tiles rendered with equal states are the same.
+     */
+    public Object getRenderState(ReferenceFrame frame) {
+        LoadedDataInterval<List<LocusScore>> interval = loadedIntervalCache.get(frame.getName());
+        if (interval == null || Globals.CHR_ALL.equals(frame.getChrName())) {
+            return null;
+        }
+        DataRange range = getDataRange();
+        ContinuousColorScale colorScale = getRenderer() instanceof HeatmapRenderer ? getColorScale() : null;
+        return Arrays.asList(interval, getRenderer().getClass(), getColor(), getAltColor(), getDisplayMode(),
+                range == null ? null : Arrays.asList(range.getMinimum(), range.getBaseline(), range.getMaximum(),
+                        range.isLog(), range.isFlipAxis(), range.getType()),
+                colorScale == null ? null : colorScale.asString());
+    }
+
+    /**
+     * Render the data in {@code rect},  a tile of the track,  without the axis and border.  See
+     * {@link #renderDecorations(RenderContext, Rectangle)}.
+     */
+    public void renderTile(RenderContext context, Rectangle rect) {
+        List<LocusScore> inViewScores = getInViewScores(context.getReferenceFrame());
+        synchronized (inViewScores) {
+            getRenderer().renderScores(this, inViewScores, context, rect);
+        }
+    }
+
+    /**
+     * Render the axis and border over data rendered in tiles
+     */
+    public void renderDecorations(RenderContext context, Rectangle rect) {
+        if (!context.isMerged()) {
+            getRenderer().renderAxis(this, context, rect);
+        }
+        getRenderer().renderBorder(this, context, rect);
+    }
+
+    @Override
+    public void dispose() {
+        super.dispose();
+        TrackTileCache.invalidate(this);
+    }
+
     public List<LocusScore> getInViewScores(ReferenceFrame referenceFrame) {
 
         LoadedDataInterval<List<LocusScore>> interval = loadedIntervalCache.get(referenceFrame.getName());
@@ -216,11 +265,22 @@ public abstract class DataTrack extends AbstractTrack implements ScalableTrack,
         if (scores.size() > 0) {
             float min = Float.MAX_VALUE;
             float max = -Float.MAX_VALUE;
-            for (LocusScore score : scores) {
-                float value = score.getScore();
-                if (!Float.isNaN(value)) {
-                    min = Math.min(value, min);
-                    max = Math.max(value, max);
+            if (scores instanceof PackedScores) {
+                PackedScores packed = (PackedScores) scores;
+                for (int i = 0; i < packed.size(); i++) {
+                    float value = packed.getScore(i);
+                    if (!Float.isNaN(value)) {
+                        min = Math.min(value, min);
+                        max = Math.max(value, max);
+                    }
+                }
+            } else {
+                for (LocusScore score : scores) {
+                    float value = score.getScore();
+                    if (!Float.isNaN(value)) {
+                        min = Math.min(value, min);
+                        max = Math.max(value, max);
+                    }
                 }
             }
             return new Range(min, max);
@@ -29,6 +29,8 @@ import org.broad.igv.Globals;
 import org.broad.igv.data.AbstractDataSource;
 import org.broad.igv.data.DataTile;
 import org.broad.igv.feature.BasicFeature;
+import org.broad.igv.feature.CompactFeatureList;
+import org.broad.igv.feature.FeatureDB;
 import org.broad.igv.feature.FeatureUtils;
 import org.broad.igv.feature.IGVFeature;
 import org.broad.igv.feature.LocusScore;
@@ -92,6 +94,9 @@ public class FeatureCollectionSource implements FeatureSource {
         if (features == null) {
             return Collections.<Feature>emptyList();
         }
+        if (features instanceof CompactFeatureList) {
+            return ((CompactFeatureList) features).getFeatures(chr, start, end);
+        }
         List<Feature> filteredFeatures = CollUtils.filter(features, FeatureUtils.getOverlapPredicate(chr, start, end));
         return filteredFeatures;
     }
@@ -121,14 +126,28 @@ public class FeatureCollectionSource implements FeatureSource {
     private void initFeatures(Iterable<? extends Feature> allFeatures) {
         // Separate features by chromosome
 
-            featureMap = new HashMap();
-            for (Feature f : allFeatures) {
-                List<Feature> fList = featureMap.get(f.getChr());
-                if (fList == null) {
-                    fList = new ArrayList();
-                    featureMap.put(f.getChr(), fList);
+            if (CompactFeatureList.isEnabled()) {
+                // Features are typically in the feature database already,  adding the compact lists replaces them
+                CompactFeatureList.Builder builder = new CompactFeatureList.Builder();
+                for (Feature f : allFeatures) {
+                    builder.add(f.getChr(), f);
+                }
+                featureMap = builder.build();
+                for (List<Feature> featureList : featureMap.values()) {
+                    if (featureList instanceof CompactFeatureList) {
+                        FeatureDB.addFeatures((CompactFeatureList) featureList, genome);
+                    }
+                }
+            } else {
+                featureMap = new HashMap();
+                for (Feature f : allFeatures) {
+                    List<Feature> fList = featureMap.get(f.getChr());
+                    if (fList == null) {
+                        fList = new ArrayList();
+                        featureMap.put(f.getChr(), fList);
+                    }
+                    fList.add(f);
                 }
-                fList.add(f);
             }
 
             for (List<Feature> featureList : featureMap.values()) {
@@ -32,6 +32,7 @@ import org.broad.igv.Globals;
 import org.broad.igv.cli_plugin.PluginFeatureSource;
 import org.broad.igv.cli_plugin.PluginSource;
 import org.broad.igv.feature.*;
+import org.broad.igv.feature.Range;
 import org.broad.igv.feature.genome.Genome;
 import org.broad.igv.feature.genome.GenomeManager;
 import org.broad.igv.prefs.Constants;
@@ -564,18 +565,22 @@ public class FeatureTrack extends AbstractTrack implements IGVEventObserver {
         //If features are stacked we look at only the row.
         //If they are collapsed on top of each other, we get all features in all rows
         int nLevels = areFeaturesStacked() ? packedFeatures.getRowCount() : 1;
+
+        // give a minum 2 pixel or 1/2 bp window, otherwise very narrow features will be missed.
+        double bpPerPixel = frame.getScale();
+        double minWidth = Math.max(0.5, MINIMUM_FEATURE_SPACING * bpPerPixel);
+        int queryStart = (int) Math.floor(position - minWidth / 2) - 1;
+        int queryEnd = (int) Math.ceil(position + minWidth / 2) + 1;
+
         List<IGVFeature> possFeatures = null;
         if ((nLevels > 1) && (featureRow < nLevels)) {
-            possFeatures = packedFeatures.getRows().get(featureRow).getFeatures();
-        } else {
-            possFeatures = packedFeatures.getFeatures();
+            possFeatures = packedFeatures.getRows().get(featureRow).getFeatures(queryStart, queryEnd);
+        } else if (packedFeatures.getFeatures() != null) {
+            possFeatures = packedFeatures.getFeatures(queryStart, queryEnd);
         }
 
         List<Feature> featureList = null;
         if (possFeatures != null) {
-            // give a minum 2 pixel or 1/2 bp window, otherwise very narrow features will be missed.
-            double bpPerPixel = frame.getScale();
-            double minWidth = Math.max(0.5, MINIMUM_FEATURE_SPACING * bpPerPixel);
             int maxFeatureLength = packedFeatures.getMaxFeatureLength();
             featureList = FeatureUtils.getAllFeaturesAt(position, maxFeatureLength, minWidth, possFeatures);
         }
@@ -697,6 +702,84 @@ public class FeatureTrack extends AbstractTrack implements IGVEventObserver {
         loadFeatures(frame.getChrName(), (int) frame.getOrigin(), (int) frame.getEnd(), frame);
     }
 
+    /**
+     * Load several frames,  querying the source once for frames near each other on a chromosome
+     */
+    @Override
+    public void loadFrames(List<ReferenceFrame> frames) {
+
+        List<ReferenceFrame> unloaded = new ArrayList<>();
+        List<Range> ranges = new ArrayList<>();
+        for (ReferenceFrame frame : frames) {
+            if (!isReadyToPaint(frame)) {
+                unloaded.add(frame);
+                ranges.add(getExpandedRange(frame.getChrName(), (int) frame.getOrigin(), (int) frame.getEnd()));
+            }
+        }
+        if (unloaded.size() < 2) {
+            super.loadFrames(unloaded);
+            return;
+        }
+
+        int vw = getVisibilityWindow();
+        int maxLength = vw > 0 && vw < Integer.MAX_VALUE / 2 ? 2 * vw : Integer.MAX_VALUE;
+        for (Range merged : FeatureUtils.mergeRanges(ranges, maxLength)) {
+            List<Feature> features = new ArrayList<>();
+            try {
+                Iterator<Feature> iter = source.getFeatures(merged.getChr(), merged.getStart(), merged.getEnd());
+                while (iter != null && iter.hasNext()) {
+                    features.add(iter.next());
+                }
+            } catch (Exception e) {
+                log.error("Error loading features for interval: " + merged.printString(), e);
+                features = null;
+            }
+
+            for (int i = 0; i < unloaded.size(); i++) {
+                Range range = ranges.get(i);
+                if (!merged.contains(range)) {
+                    continue;
+                }
+                ReferenceFrame frame = unloaded.get(i);
+                if (features == null) {
+                    // Load the frame by itself,  reporting any error
+                    load(frame);
+                } else {
+                    int start = range.getStart();
+                    int end = range.getEnd();
+                    Iterator<Feature> iter = features.stream().
+                            filter(f -> f.getStart() <= end && f.getEnd() > start).iterator();
+                    packedFeaturesMap.put(frame.getName(),
+                            new PackedFeatures(range.getChr(), start, end, iter, getName()));
+                }
+            }
+        }
+    }
+
+    /**
+     * Return the interval loaded for chr:start-end,  expanded by half its width on each side
+     */
+    private Range getExpandedRange(final String chr, final int start, final int end) {
+
+        int delta = (end - start) / 2;
+        int expandedStart = start - delta;
+        int expandedEnd = end + delta;
+
+        //Make sure we are only querying within the chromosome we allow for somewhat pathological cases of start
+        //being negative and end being outside, but only if directly queried. Our expansion should not
+        //set start < 0 or end > chromosomeLength
+        if (start >= 0) {
+            expandedStart = Math.max(0, expandedStart);
+        }
+
+        Genome genome = GenomeManager.getInstance().getCurrentGenome();
+        if (genome != null) {
+            Chromosome c = genome.getChromosome(chr);
+            if (c != null && end < c.getLength()) expandedEnd = Math.min(c.getLength(), expandedEnd);
+        }
+        return new Range(chr, expandedStart, expandedEnd);
+    }
+
     /**
      * Loads and segregates features into rows such that they do not overlap.
      *
@@ -708,26 +791,18 @@ public class FeatureTrack extends AbstractTrack implements IGVEventObserver {
 
         try {
 
-            int delta = (end - start) / 2;
-            int expandedStart = start - delta;
-            int expandedEnd = end + delta;
-
-            //Make sure we are only querying within the chromosome we allow for somewhat pathological cases of start
-            //being negative and end being outside, but only if directly queried. Our expansion should not
-            //set start < 0 or end > chromosomeLength
-            if (start >= 0) {
-                expandedStart = Math.max(0, expandedStart);
-            }
-
-            Genome genome = GenomeManager.getInstance().getCurrentGenome();
-            if (genome != null) {
-                Chromosome c = genome.getChromosome(chr);
-                if (c != null && end < c.getLength()) expandedEnd = Math.min(c.getLength(), expandedEnd);
-            }
+            Range expandedRange = getExpandedRange(chr, start, end);
+            int expandedStart = expandedRange.getStart();
+            int expandedEnd = expandedRange.getEnd();
 
             Iterator<Feature> iter = source.getFeatures(chr, expandedStart, expandedEnd);
 
-            if (iter == null) {
+            // When panning,  keep the rows of the features already packed and add the new ones
+            PackedFeatures current = packedFeaturesMap.get(frame.getName());
+            if (iter != null && current != null && current.canExtend(chr, expandedStart, expandedEnd)) {
+                packedFeaturesMap.put(frame.getName(), current.extend(expandedStart, expandedEnd, iter));
+                log.info("Loaded " + chr + " " + expandedStart + "-" + expandedEnd);
+            } else if (iter == null) {
                 PackedFeatures pf = new PackedFeatures(chr, expandedStart, expandedEnd);
                 packedFeaturesMap.put(frame.getName(), pf);
             } else {
@@ -880,6 +955,12 @@ public class FeatureTrack extends AbstractTrack implements IGVEventObserver {
 
 
         Renderer renderer = getRenderer();
+
+        // The default renderer draws only the features in view,  others may use them all (e.g. to autoscale)
+        boolean visibleOnly = renderer.getClass() == IGVFeatureRenderer.class;
+        int visibleStart = (int) Math.floor(context.getOrigin()) - 1;
+        int visibleEnd = (int) Math.ceil(context.getOrigin() + inputRect.getWidth() * context.getScale()) + 1;
+
         if (areFeaturesStacked()) {
             List<PackedFeatures.FeatureRow> rows = packedFeatures.getRows();
             if (rows != null && rows.size() > 0) {
@@ -897,7 +978,8 @@ public class FeatureTrack extends AbstractTrack implements IGVEventObserver {
                     if (renderer instanceof FeatureRenderer) ((FeatureRenderer) renderer).reset();
                     for (PackedFeatures.FeatureRow row : rows) {
                         levelRects.add(new Rectangle(rect));
-                        renderer.render(row.features, context, levelRects.get(i), this);
+                        List<Feature> rowFeatures = visibleOnly ? row.getFeatures(visibleStart, visibleEnd) : row.features;
+                        renderer.render(rowFeatures, context, levelRects.get(i), this);
                         if (selectedFeatureRowIndex == i) {
                             Graphics2D fontGraphics = context.getGraphic2DForColor(SELECTED_FEATURE_ROW_COLOR);
                             fontGraphics.fillRect(rect.x, rect.y, rect.width, rect.height);
@@ -910,6 +992,9 @@ public class FeatureTrack extends AbstractTrack implements IGVEventObserver {
         } else {
             List<Feature> features = packedFeatures.getFeatures();
             if (features != null) {
+                if (visibleOnly) {
+                    features = packedFeatures.getFeatures(visibleStart, visibleEnd);
+                }
                 renderer.render(features, context, inputRect, this);
             }
         }
@@ -148,6 +148,14 @@ public class MergedTracks extends DataTrack implements ScalableTrack {
         }
     }
 
+    /**
+     * Merged tracks are always rendered directly
+     */
+    @Override
+    public Object getRenderState(ReferenceFrame frame) {
+        return null;
+    }
+
     @Override
     public int getHeight() {
         int height = super.getHeight();
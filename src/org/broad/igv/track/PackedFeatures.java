@@ -26,6 +26,8 @@
 package org.broad.igv.track;
 
 import org.apache.log4j.Logger;
+import org.broad.igv.feature.FeatureIntervalTree;
+import org.broad.igv.feature.FeatureUtils;
 import org.broad.igv.ui.IGV;
 import org.broad.igv.ui.util.MessageUtils;
 import htsjdk.tribble.Feature;
@@ -34,7 +36,8 @@ import java.util.*;
 
 /**
  * Represents a table of features, packed so there is no overlap.
- * Features are packed into rows, accessible via {@link #getRows}
+ * Features are packed into rows, accessible via {@link #getRows}.  Features overlapping a window,  of all rows or
+ * of one,  are found with an interval tree (see {@link #getFeatures(int, int)}).
  *
  * @author jrobinso
  * @date Oct 7, 2010
@@ -49,6 +52,7 @@ public class PackedFeatures<T extends Feature>{
     private static Logger log = Logger.getLogger(PackedFeatures.class);
     protected int maxFeatureLength = 0;
     protected static int maxLevels = 1000000;
+    private volatile FeatureIntervalTree<T> featureTree;
 
     /**
      * No-arg constructor to allow subclassing
@@ -128,7 +132,7 @@ public class PackedFeatures<T extends Feature>{
         LinkedHashMap<Integer, PriorityQueue<T>> bucketArray = new LinkedHashMap();
         Comparator pqComparator = new Comparator<T>() {
             public int compare(Feature row1, Feature row2) {
-                return (row2.getEnd() - row2.getStart()) - (row1.getEnd() - row2.getStart());
+                return (row2.getEnd() - row2.getStart()) - (row1.getEnd() - row1.getStart());
             }
         };
 
@@ -235,6 +239,154 @@ public class PackedFeatures<T extends Feature>{
         return features;
     }
 
+    /**
+     * Return the features overlapping [start, end),  in order of start
+     */
+    public List<T> getFeatures(int start, int end) {
+        FeatureIntervalTree<T> tree = featureTree;
+        if (tree == null) {
+            featureTree = tree = new FeatureIntervalTree<>(features);
+        }
+        return tree.getOverlapping(start, end);
+    }
+
+    /**
+     * Return true if features of this interval can be kept when chr:start-end is loaded,  see {@link #extend}
+     */
+    boolean canExtend(String chr, int start, int end) {
+        return getClass() == PackedFeatures.class && this.chr != null && this.chr.equals(chr) &&
+                start < this.end && end > this.start;
+    }
+
+    /**
+     * Return the features of chr:start-end,  an interval overlapping this one,  packed without repacking the features
+     * already packed.  Features of this interval overlapping the new one keep their rows.  Features of {@code iter}
+     * (all those of the new interval) not already packed are added to the first row with room,  or to a new row.
+     * Rows left empty are removed.
+     */
+    PackedFeatures<T> extend(int start, int end, Iterator<T> iter) {
+
+        PackedFeatures<T> pf = new PackedFeatures<>();
+        pf.trackName = trackName;
+        pf.chr = chr;
+        pf.start = start;
+        pf.end = end;
+        pf.maxFeatureLength = maxFeatureLength;
+
+        // Features not already packed,  left and right of this interval
+        List<T> leftFeatures = new ArrayList<>();
+        List<T> rightFeatures = new ArrayList<>();
+        while (iter != null && iter.hasNext()) {
+            T f = iter.next();
+            if (f.getEnd() > this.start && f.getStart() < this.end) {
+                continue;
+            }
+            if ((f.getStart() >= this.end - 1 || f.getEnd() <= this.start + 1) && isPacked(f)) {
+                continue;     // At the boundary,  and returned by the query of this interval too
+            }
+            pf.maxFeatureLength = Math.max(pf.maxFeatureLength,
+                    getFeatureEndForPacking(f) - getFeatureStartForPacking(f));
+            if (f.getStart() < this.start) {
+                leftFeatures.add(f);
+            } else {
+                rightFeatures.add(f);
+            }
+        }
+        leftFeatures.sort(FeatureUtils.FEATURE_START_COMPARATOR);
+        rightFeatures.sort(FeatureUtils.FEATURE_START_COMPARATOR);
+
+        // Rows of the features kept.  The left features of each row are prepended once all are placed.
+        List<FeatureRow> rows = new ArrayList<>();
+        List<List<T>> leftRows = new ArrayList<>();
+        for (FeatureRow row : this.rows) {
+            FeatureRow newRow = pf.new FeatureRow();
+            for (T f : row.getFeatures(start, end + 1)) {
+                newRow.addFeature(f);
+            }
+            if (newRow.features.size() > 0) {
+                rows.add(newRow);
+                leftRows.add(new ArrayList<>());
+            }
+        }
+
+        for (T f : leftFeatures) {
+            int fEnd = getFeatureEndForPacking(f) + FeatureTrack.MINIMUM_FEATURE_SPACING;
+            int fStart = getFeatureStartForPacking(f);
+            int r = 0;
+            for (; r < rows.size(); r++) {
+                List<T> left = leftRows.get(r);
+                int leftEnd = left.isEmpty() ? Integer.MIN_VALUE :
+                        getFeatureEndForPacking(left.get(left.size() - 1)) + FeatureTrack.MINIMUM_FEATURE_SPACING;
+                FeatureRow row = rows.get(r);
+                if (fStart >= leftEnd && (row.features.isEmpty() || fEnd <= row.start)) {
+                    break;
+                }
+            }
+            if (r == rows.size()) {
+                if (rows.size() >= maxLevels) continue;
+                rows.add(pf.new FeatureRow());
+                leftRows.add(new ArrayList<>());
+            }
+            leftRows.get(r).add(f);
+        }
+        for (int r = 0; r < rows.size(); r++) {
+            List<T> left = leftRows.get(r);
+            if (left.size() > 0) {
+                FeatureRow row = rows.get(r);
+                List<T> rowFeatures = row.features;
+                row.features = new ArrayList<>(left.size() + rowFeatures.size());
+                for (T f : left) row.addFeature(f);
+                for (T f : rowFeatures) row.addFeature(f);
+            }
+        }
+
+        for (T f : rightFeatures) {
+            int fStart = getFeatureStartForPacking(f);
+            FeatureRow target = null;
+            for (FeatureRow row : rows) {
+                if (row.features.isEmpty() || fStart >= row.end + FeatureTrack.MINIMUM_FEATURE_SPACING) {
+                    target = row;
+                    break;
+                }
+            }
+            if (target == null) {
+                if (rows.size() >= maxLevels) continue;
+                target = pf.new FeatureRow();
+                rows.add(target);
+            }
+            target.addFeature(f);
+        }
+        pf.rows = rows;
+
+        // All features,  in order of start.  Features kept may start before new features on the left.
+        List<T> kept = getFeatures(start, end + 1);
+        pf.features = new ArrayList<>(leftFeatures.size() + kept.size() + rightFeatures.size());
+        int i = 0;
+        int j = 0;
+        while (i < leftFeatures.size() || j < kept.size()) {
+            if (j == kept.size() || (i < leftFeatures.size() && leftFeatures.get(i).getStart() <= kept.get(j).getStart())) {
+                pf.features.add(leftFeatures.get(i++));
+            } else {
+                pf.features.add(kept.get(j++));
+            }
+        }
+        pf.features.addAll(rightFeatures);
+        return pf;
+    }
+
+    /**
+     * Return true if a feature equal in location to {@code f} is packed
+     */
+    private boolean isPacked(T f) {
+        for (T packed : getFeatures(f.getStart() - 1, f.getEnd() + 1)) {
+            if (packed.getStart() == f.getStart() && packed.getEnd() == f.getEnd() &&
+                    packed.getClass() == f.getClass()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     public List<FeatureRow> getRows() {
         return rows;
     }
@@ -247,6 +399,7 @@ public class PackedFeatures<T extends Feature>{
         int start;
         int end;
         List<T> features;
+        private volatile FeatureIntervalTree<T> featureTree;
 
         public FeatureRow() {
             this.features = new ArrayList(100);
@@ -263,5 +416,16 @@ public class PackedFeatures<T extends Feature>{
         public List<T> getFeatures() {
             return features;
         }
+
+        /**
+         * Return the features of the row overlapping [start, end),  in order of start
+         */
+        public List<T> getFeatures(int start, int end) {
+            FeatureIntervalTree<T> tree = featureTree;
+            if (tree == null) {
+                featureTree = tree = new FeatureIntervalTree<>(features);
+            }
+            return tree.getOverlapping(start, end);
+        }
     }
 }
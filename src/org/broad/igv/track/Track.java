@@ -78,6 +78,14 @@ public interface Track extends Persistable{
      */
     void load(ReferenceFrame frame);
 
+    /**
+     * Load required resources to paint several reference frames,  e.g. the loci of a gene list.  Tracks that can
+     * query their source for several loci in one pass override this to do so.
+     *
+     * @param frames
+     */
+    void loadFrames(List<ReferenceFrame> frames);
+
     /**
      * Return true if a track can be filtered by sample annotation.
      *
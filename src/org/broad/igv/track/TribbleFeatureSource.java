@@ -127,7 +127,7 @@ abstract public class TribbleFeatureSource implements org.broad.igv.track.Featur
         this.header = reader.getHeader();
         this.featureWindowSize = estimateFeatureWindowSize(reader);
         this.reader = useCache ?
-                new CachingFeatureReader(reader, 5, featureWindowSize) :
+                new CachingFeatureReader(reader, featureWindowSize) :
                 new TribbleReaderWrapper(reader);
     }
 
@@ -292,6 +292,7 @@ abstract public class TribbleFeatureSource implements org.broad.igv.track.Featur
             super(locator, basicReader, codec, genome, false);
 
             featureMap = new HashMap<String, List<Feature>>(25);
+            CompactFeatureList.Builder builder = CompactFeatureList.isEnabled() ? new CompactFeatureList.Builder() : null;
             Iterator<Feature> iter = null;
 
             try {
@@ -303,6 +304,11 @@ abstract public class TribbleFeatureSource implements org.broad.igv.track.Featur
                     String seqName = f.getChr();
                     String igvChr = genome == null ? seqName : genome.getCanonicalChrName(seqName);
 
+                    if (builder != null) {
+                        builder.add(igvChr, f);
+                        continue;
+                    }
+
                     List<Feature> featureList = featureMap.get(igvChr);
                     if (featureList == null) {
                         featureList = new ArrayList();
@@ -317,6 +323,19 @@ abstract public class TribbleFeatureSource implements org.broad.igv.track.Featur
                 }
             }
 
+            if (builder != null) {
+                featureMap = builder.build();
+                for (List<Feature> featureList : featureMap.values()) {
+                    if (featureList instanceof CompactFeatureList) {
+                        FeatureDB.addFeatures((CompactFeatureList) featureList, genome);
+                    } else {
+                        for (Feature f : featureList) {
+                            if (f instanceof NamedFeature) FeatureDB.addFeature((NamedFeature) f, genome);
+                        }
+                    }
+                }
+            }
+
             for (List<Feature> featureList : featureMap.values()) {
                 FeatureUtils.sortFeatureList(featureList);
             }
@@ -350,6 +369,9 @@ abstract public class TribbleFeatureSource implements org.broad.igv.track.Featur
             if (features == null) {
                 return Collections.<Feature>emptyList().iterator();
             }
+            if (features instanceof CompactFeatureList) {
+                return ((CompactFeatureList) features).getFeatures(chr, start, end).iterator();
+            }
             List<Feature> filteredFeatures = CollUtils.filter(features, FeatureUtils.getOverlapPredicate(chr, start, end));
             return filteredFeatures.iterator();
 
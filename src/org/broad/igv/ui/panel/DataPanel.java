@@ -36,6 +36,7 @@ package org.broad.igv.ui.panel;
 import com.google.common.base.Objects;
 import org.apache.log4j.Logger;
 import org.broad.igv.Globals;
+import org.broad.igv.feature.Range;
 import org.broad.igv.feature.RegionOfInterest;
 import org.broad.igv.prefs.Constants;
 import org.broad.igv.prefs.PreferencesManager;
@@ -58,12 +59,11 @@ import java.awt.event.KeyAdapter;
 import java.awt.event.KeyEvent;
 import java.awt.event.MouseEvent;
 import java.awt.event.MouseWheelEvent;
+import java.awt.image.BufferedImage;
 import java.text.DecimalFormat;
 import java.util.*;
 import java.util.List;
 import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import java.util.stream.Collectors;
 
 /**
@@ -77,9 +77,6 @@ public class DataPanel extends JComponent implements Paintable, IGVEventObserver
 
     private static Logger log = Logger.getLogger(DataPanel.class);
 
-    // Thread pool for loading data
-    private static final ExecutorService threadExecutor = Executors.newFixedThreadPool(5);
-
     private boolean isWaitingForToolTipText = false;
 
     private DataPanelTool defaultTool;
@@ -90,7 +87,11 @@ public class DataPanel extends JComponent implements Paintable, IGVEventObserver
     private DataPanelPainter painter;
     private String tooltipText = "";
 
-    private  boolean loadInProgress = false;
+    // The range being loaded,  null if no load is in progress
+    private volatile Range loadingRange = null;
+
+    // Rendered by MultiFramePainter for the next paint,  or null
+    private volatile BufferedImage frameImage = null;
 
     public DataPanel(ReferenceFrame frame, DataPanelContainer parent) {
         init();
@@ -152,13 +153,20 @@ public class DataPanel extends JComponent implements Paintable, IGVEventObserver
             long t0 = System.currentTimeMillis();
 
             if (!allTracksLoaded()) {
-                if (!loadInProgress) {
-                    loadInProgress = true;
-                    load();
+                Range range = frame.getCurrentRange();
+                if (!isLoading(range)) {
+                    loadingRange = range;
+                    load(range);
                 }
                 if(!Globals.isBatch()) return;
             }
 
+            BufferedImage image = frameImage;
+            frameImage = null;
+            if (image == null && parent.isHoldingFrames()) {
+                return;    // Composited when the tracks of every frame are loaded
+            }
+
             Rectangle clipBounds = g.getClipBounds();
             final Rectangle visibleRect = getVisibleRect();
             final Rectangle damageRect = clipBounds == null ? visibleRect : clipBounds.intersection(visibleRect);
@@ -172,7 +180,11 @@ public class DataPanel extends JComponent implements Paintable, IGVEventObserver
 
             computeMousableRegions(groups, trackWidth);
 
-            painter.paint(groups, context, trackWidth, getBackground(), damageRect);
+            if (image != null) {
+                graphics2D.drawImage(image, visibleRect.x, visibleRect.y, visibleRect.width, visibleRect.height, null);
+            } else {
+                painter.paint(groups, context, trackWidth, getBackground(), damageRect);
+            }
 
             // If there is a partial ROI in progress draw it first
             if (currentTool instanceof RegionOfInterestTool) {
@@ -199,6 +211,38 @@ public class DataPanel extends JComponent implements Paintable, IGVEventObserver
     }
 
 
+    /**
+     * Render the tracks into an image,  drawn instead of painting on the next paint.  Called by
+     * {@link MultiFramePainter},  possibly off the event dispatch thread.
+     */
+    void renderImage(Collection<TrackGroup> groups, Rectangle visibleRect, int width, double deviceScale) {
+
+        if (visibleRect.isEmpty()) {
+            return;
+        }
+        int w = (int) Math.ceil(visibleRect.width * deviceScale);
+        int h = (int) Math.ceil(visibleRect.height * deviceScale);
+        GraphicsConfiguration gc = getGraphicsConfiguration();
+        BufferedImage image = gc == null ? new BufferedImage(w, h, BufferedImage.TYPE_INT_ARGB) :
+                gc.createCompatibleImage(w, h);
+
+        Graphics2D g = image.createGraphics();
+        RenderContext context = new RenderContext(this, g, frame, visibleRect);
+        try {
+            g.scale(deviceScale, deviceScale);
+            g.translate(-visibleRect.x, -visibleRect.y);
+            painter.paint(groups, context, width, getBackground(), visibleRect);
+        } finally {
+            context.dispose();
+            g.dispose();
+        }
+        frameImage = image;
+    }
+
+    void clearImage() {
+        frameImage = null;
+    }
+
     public boolean allTracksLoaded() {
         return parent.getTrackGroups().stream().
                 filter(TrackGroup::isVisible).
@@ -214,38 +258,96 @@ public class DataPanel extends JComponent implements Paintable, IGVEventObserver
                 collect(Collectors.toList());
     }
 
-    private void load() {
+    /**
+     * @return true if a load in progress overlaps {@code range}.  A new load is not started while panning within it,
+     * the panel is repainted when it completes and loads whatever remains then.
+     */
+    private boolean isLoading(Range range) {
+        Range r = loadingRange;
+        return r != null && r.overlaps(range);
+    }
+
+    /**
+     * Load the tracks not ready to paint for {@code range}.  Tracks within the visible rectangle are loaded first,
+     * and pending loads for ranges the frame has left are cancelled.
+     */
+    private void load(Range range) {
 
         ReferenceFrame frame = getFrame();
-        Collection<Track> trackList = visibleTracks();
-        List<CompletableFuture> futures = new ArrayList(trackList.size());
+        LoadScheduler scheduler = LoadScheduler.getInstance();
+        scheduler.cancelSuperseded(frame, range);
+
+        final Rectangle visibleRect = getVisibleRect();
+        final Collection<TrackGroup> groups = parent.getTrackGroups();
+
+        // With several frames (e.g. a gene list) each track is loaded for every frame it is not ready for at once
+        final List<ReferenceFrame> frames = parent.getFrames();
+        final boolean multiFrame = frames.size() > 1 && !Globals.isBatch();
+
+        List<CompletableFuture<Void>> futures = new ArrayList<>();
         boolean batchLoaded = false;
-        for (Track track : trackList) {
-            if (track.isReadyToPaint(frame) == false) {
-                final Runnable runnable = () -> {
-                    track.load(frame);
-                };
-
-                if(Globals.isBatch()) {
-                    runnable.run();
-                    batchLoaded = true;
-                } else {
-                    futures.add(CompletableFuture.runAsync(runnable, threadExecutor));
+        int trackY = 0;
+        for (TrackGroup group : groups) {
+            if (!group.isVisible()) continue;
+            if (groups.size() > 1) {
+                trackY += UIConstants.groupGap;
+            }
+            for (Track track : group.getVisibleTracks()) {
+                if (track == null || !track.isVisible()) continue;
+                int trackHeight = track.getHeight();
+                if (track.isReadyToPaint(frame) == false) {
+                    final Runnable runnable = () -> {
+                        track.load(frame);
+                    };
+
+                    if (Globals.isBatch()) {
+                        runnable.run();
+                        batchLoaded = true;
+                    } else {
+                        boolean onScreen = trackY < visibleRect.y + visibleRect.height &&
+                                trackY + trackHeight > visibleRect.y;
+                        LoadScheduler.Priority priority = onScreen ?
+                                LoadScheduler.Priority.VISIBLE : LoadScheduler.Priority.OFFSCREEN;
+                        if (multiFrame) {
+                            List<ReferenceFrame> trackFrames = new ArrayList<>();
+                            List<Range> ranges = new ArrayList<>();
+                            for (ReferenceFrame f : frames) {
+                                if (f == frame || !track.isReadyToPaint(f)) {
+                                    trackFrames.add(f);
+                                    ranges.add(f == frame ? range : f.getCurrentRange());
+                                }
+                            }
+                            futures.add(scheduler.submit(track, trackFrames, ranges, priority,
+                                    () -> track.loadFrames(trackFrames)));
+                        } else {
+                            futures.add(scheduler.submit(track, frame, range.getChr(), range.getStart(), range.getEnd(),
+                                    priority, runnable));
+                        }
+                    }
                 }
+                trackY += trackHeight;
             }
         }
 
         if (futures.size() > 0 || batchLoaded) {
             final CompletableFuture[] futureArray = futures.toArray(new CompletableFuture[futures.size()]);
             WaitCursorManager.CursorToken token = WaitCursorManager.showWaitCursor();
-            CompletableFuture.allOf(futureArray).thenRun(() -> {
+            CompletableFuture.allOf(futureArray).whenComplete((result, e) -> {
 
-                //log.info("Call repaint " + dataPanel.hashCode() + " " + dataPanel.allTracksLoaded());
-                loadInProgress = false;
+                // Completes when canceled or failed too.  If the frame has moved on a later load is in progress.
+                if (loadingRange == range) {
+                    loadingRange = null;
+                }
                 WaitCursorManager.removeWaitCursor(token);
-                repaint();
+                if (multiFrame) {
+                    parent.repaint();    // Other frames were loaded too
+                } else {
+                    repaint();
+                }
 
             });
+        } else {
+            loadingRange = null;
         }
     }
 
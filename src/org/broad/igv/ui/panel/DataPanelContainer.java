@@ -53,6 +53,9 @@ public class DataPanelContainer extends TrackPanelComponent implements Paintable
 
     TrackPanel parent;
 
+    // True while frames are held back,  see MultiFramePainter
+    private volatile boolean holdingFrames = false;
+
 
     public DataPanelContainer(TrackPanel trackPanel) {
         super(trackPanel);
@@ -88,6 +91,34 @@ public class DataPanelContainer extends TrackPanelComponent implements Paintable
     }
 
 
+    /**
+     * @return the frames of the data panels
+     */
+    public List<ReferenceFrame> getFrames() {
+        List<ReferenceFrame> frames = new ArrayList<>();
+        for (DataPanel dp : getDataPanels()) {
+            frames.add(dp.getFrame());
+        }
+        return frames;
+    }
+
+    private List<DataPanel> getDataPanels() {
+        List<DataPanel> panels = new ArrayList<>();
+        for (Component c : getComponents()) {
+            if (c instanceof DataPanel) {
+                panels.add((DataPanel) c);
+            }
+        }
+        return panels;
+    }
+
+    /**
+     * @return true if the data panels render concurrently and wait until the tracks of every frame are loaded
+     */
+    boolean isHoldingFrames() {
+        return holdingFrames;
+    }
+
     public Collection<TrackGroup> getTrackGroups() {
         TrackPanel dataTrackView = (TrackPanel) getParent();
         return dataTrackView.getGroups();
@@ -143,7 +174,27 @@ public class DataPanelContainer extends TrackPanelComponent implements Paintable
 
         autoscale();
 
-        super.paintChildren(g);
+        List<DataPanel> panels = getDataPanels();
+        boolean concurrent = panels.size() > 1 && MultiFramePainter.isEnabled();
+        holdingFrames = concurrent && !panels.stream().allMatch(DataPanel::allTracksLoaded);
+        if (concurrent && !holdingFrames) {
+            Rectangle clipBounds = g.getClipBounds();
+            List<DataPanel> damaged = new ArrayList<>();
+            for (DataPanel dp : panels) {
+                if (clipBounds == null || clipBounds.intersects(dp.getBounds())) {
+                    damaged.add(dp);
+                }
+            }
+            MultiFramePainter.render(damaged, getTrackGroups(), ((Graphics2D) g).getTransform().getScaleX());
+        }
+
+        try {
+            super.paintChildren(g);
+        } finally {
+            for (DataPanel dp : panels) {
+                dp.clearImage();
+            }
+        }
         if (IGV.getInstance().isRulerEnabled()) {
             int start = MouseInfo.getPointerInfo().getLocation().x - getLocationOnScreen().x;
             g.setColor(Color.BLACK);
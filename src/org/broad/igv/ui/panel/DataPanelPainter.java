@@ -99,7 +99,9 @@ public class DataPanelPainter {
                 referenceFrame.origin = start;
             }
         } else {
-            paintFrame(groups, context, width, visibleRect);
+            TrackTileCache tileCache = context.getPanel() != null && TrackTileCache.isEnabled() ?
+                    TrackTileCache.getInstance() : null;
+            paintFrame(groups, context, width, visibleRect, tileCache);
         }
 
     }
@@ -114,14 +116,19 @@ public class DataPanelPainter {
         dG.setClip(dRect);
         context.translateX = px;
 
-        paintFrame(groups, context, w, dRect);
+        paintFrame(groups, context, w, dRect, null);
 
     }
 
 
-    private void paintFrame(Collection<TrackGroup> groups, RenderContext dContext, int width, Rectangle dRect) {
+    /**
+     * Paint the tracks of {@code groups}.  If {@code tileCache} is not null data tracks are painted from tiles.
+     */
+    private void paintFrame(Collection<TrackGroup> groups, RenderContext dContext, int width, Rectangle dRect,
+                            TrackTileCache tileCache) {
         int trackX = 0;
         int trackY = 0;
+        List<TrackTileCache.Request> tileRequests = new ArrayList<>();
 
         for (Iterator<TrackGroup> groupIter = groups.iterator(); groupIter.hasNext(); ) {
             TrackGroup group = groupIter.next();
@@ -162,7 +169,12 @@ public class DataPanelPainter {
 
                         if (track.isVisible()) {
                             Rectangle rect = new Rectangle(trackX, trackY, width, trackHeight);
-                            draw(track, rect, dContext);
+                            Object state = tileCache == null ? null : getRenderState(track, dContext);
+                            if (state != null) {
+                                tileRequests.add(new TrackTileCache.Request((DataTrack) track, rect, state));
+                            } else {
+                                draw(track, rect, dContext);
+                            }
                             trackY += trackHeight;
                         }
                     }
@@ -175,6 +187,28 @@ public class DataPanelPainter {
                 }
             }
         }
+
+        if (tileRequests.size() > 0) {
+            tileCache.paint(tileRequests, dContext, dRect, width);
+        }
+    }
+
+    /**
+     * Return the render state of a data track without overlays,  or null if the track must be drawn directly
+     */
+    private Object getRenderState(Track track, RenderContext context) {
+        if (!(track instanceof DataTrack)) {
+            return null;
+        }
+        List<Track> overlayTracks = IGV.getInstance().getOverlayTracks(track);
+        if (overlayTracks != null) {
+            for (Track overlayTrack : overlayTracks) {
+                if (overlayTrack != track) {
+                    return null;
+                }
+            }
+        }
+        return ((DataTrack) track).getRenderState(context.getReferenceFrame());
     }
 
 
@@ -224,9 +258,15 @@ public class DataPanelPainter {
     }
 
 
+    /**
+     * Draw a track and its overlays.  Frames may be painted concurrently (see {@link MultiFramePainter}),  and
+     * tracks keep state from rendering,  so a track renders one frame at a time.
+     */
     final private void draw(Track track, Rectangle rect, RenderContext context) {
 
-        track.render(context, rect);
+        synchronized (MultiFramePainter.getRenderLock(track)) {
+            track.render(context, rect);
+        }
 
         // Get overlays
 
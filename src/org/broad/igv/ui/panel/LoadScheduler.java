@@ -0,0 +1,287 @@
+package org.broad.igv.ui.panel;
+
+import org.apache.log4j.Logger;
+import org.broad.igv.feature.Range;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Schedules the loading of track data.  Each request records the source it loads (e.g. a track),  the locus,  and
+ * the reference frames it serves.
+ * <ul>
+ * <li>Requests for tracks visible on screen run before those for tracks scrolled out of view.  Prefetch requests run
+ * on a thread of their own,  and only while no request for a visible track is waiting or running.</li>
+ * <li>A request for a source and locus already pending or running is coalesced with it.</li>
+ * <li>A batch request loads a source for several frames at once,  e.g. all loci of a gene list.  It is cancelled
+ * only when every frame it serves has left its locus.</li>
+ * <li>When a frame moves,  pending requests for loci it has left are cancelled (see {@link #cancelSuperseded}),  so
+ * loads for the new locus do not queue behind them.  Requests already running are left to complete.</li>
+ * </ul>
+ */
+public class LoadScheduler {
+
+    private static Logger log = Logger.getLogger(LoadScheduler.class);
+
+    public enum Priority {VISIBLE, OFFSCREEN, PREFETCH}
+
+    static final int THREAD_COUNT = 5;
+
+    private static LoadScheduler instance;
+
+    public static synchronized LoadScheduler getInstance() {
+        if (instance == null) {
+            instance = new LoadScheduler();
+        }
+        return instance;
+    }
+
+    private final ThreadPoolExecutor loadExecutor;
+    private final ThreadPoolExecutor prefetchExecutor;
+    private final Map<Key, Request> requests = new HashMap<>();
+    private final AtomicLong sequence = new AtomicLong();
+    private int pendingVisible = 0;
+
+    LoadScheduler() {
+        loadExecutor = new ThreadPoolExecutor(THREAD_COUNT, THREAD_COUNT, 0, TimeUnit.MILLISECONDS,
+                new PriorityBlockingQueue<>(), r -> {
+            Thread t = new Thread(r, "track-loader");
+            t.setDaemon(true);
+            return t;
+        });
+        prefetchExecutor = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+                new PriorityBlockingQueue<>(), r -> {
+            Thread t = new Thread(r, "track-prefetch");
+            t.setDaemon(true);
+            t.setPriority(Thread.MIN_PRIORITY);
+            return t;
+        });
+    }
+
+    /**
+     * Submit a load of {@code source} over chr:start-end.  If a load of the same source and locus is pending or
+     * running the requests are coalesced,  and the future of the existing request is returned.  Its priority is raised
+     * to {@code priority} if that is higher.
+     *
+     * @param source   the object loaded,  compared by identity
+     * @param frame    the frame the load is for,  or null if it is not for a particular frame (e.g. a prefetch)
+     * @param priority the priority
+     * @param load     the load
+     * @return a future completed when the load is done,  or cancelled if it is superseded before starting
+     */
+    public synchronized CompletableFuture<Void> submit(Object source, ReferenceFrame frame, String chr, int start, int end,
+                                                       Priority priority, Runnable load) {
+        List<ReferenceFrame> frames = frame == null ? null : Collections.singletonList(frame);
+        return submit(source, frames, Collections.singletonList(new Range(chr, start, end)), priority, load);
+    }
+
+    /**
+     * Submit a load of {@code source} for several frames at once.  {@code ranges} are the loci of the frames,  in the
+     * same order.  A batch for the same source and loci pending or running is coalesced as for a single locus.
+     */
+    public synchronized CompletableFuture<Void> submit(Object source, List<ReferenceFrame> frames, List<Range> ranges,
+                                                       Priority priority, Runnable load) {
+
+        Key key = new Key(source, ranges);
+        Request request = requests.get(key);
+        if (request != null && !request.future.isDone()) {
+            if (frames != null && request.frames != null) {
+                request.frames.addAll(frames);
+            }
+            if (!request.started && priority.compareTo(request.priority) < 0 &&
+                    request.priority != Priority.PREFETCH && loadExecutor.getQueue().remove(request)) {
+                setPriority(request, priority);
+                loadExecutor.execute(request);
+            }
+            return request.future;
+        }
+
+        request = new Request(key, frames, ranges, load);
+        requests.put(key, request);
+        setPriority(request, priority);
+        if (priority == Priority.PREFETCH) {
+            prefetchExecutor.execute(request);
+        } else {
+            loadExecutor.execute(request);
+        }
+        return request.future;
+    }
+
+    /**
+     * Cancel pending requests for {@code frame} whose loci no longer overlap the frame's current range.  Requests
+     * serving other frames as well are kept for those frames.
+     */
+    public void cancelSuperseded(ReferenceFrame frame) {
+        cancelSuperseded(frame, frame.getCurrentRange());
+    }
+
+    synchronized void cancelSuperseded(ReferenceFrame frame, Range range) {
+        for (Request request : new ArrayList<>(requests.values())) {
+            if (request.started || request.frames == null || !request.frames.contains(frame)) {
+                continue;
+            }
+            if (!overlaps(range, request.ranges)) {
+                request.frames.remove(frame);
+                if (request.frames.isEmpty()) {
+                    cancel(request);
+                }
+            }
+        }
+    }
+
+    private static boolean overlaps(Range range, List<Range> ranges) {
+        for (Range r : ranges) {
+            if (range.overlaps(r)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return the number of requests pending or running
+     */
+    synchronized int getRequestCount() {
+        return requests.size();
+    }
+
+    void shutdown() {
+        loadExecutor.shutdownNow();
+        prefetchExecutor.shutdownNow();
+    }
+
+    private void cancel(Request request) {
+        (request.priority == Priority.PREFETCH ? prefetchExecutor : loadExecutor).getQueue().remove(request);
+        requests.remove(request.key, request);
+        leavePending(request);
+        request.future.cancel(false);
+    }
+
+    private void setPriority(Request request, Priority priority) {
+        leavePending(request);
+        request.priority = priority;
+        if (priority == Priority.VISIBLE) {
+            request.pendingVisible = true;
+            pendingVisible++;
+        }
+    }
+
+    /**
+     * Stop counting {@code request} as a pending visible request,  when it finishes or is canceled
+     */
+    private void leavePending(Request request) {
+        if (request.pendingVisible) {
+            request.pendingVisible = false;
+            if (--pendingVisible == 0) {
+                notifyAll();
+            }
+        }
+    }
+
+    private synchronized boolean start(Request request) {
+        if (request.priority == Priority.PREFETCH) {
+            while (pendingVisible > 0 && !request.future.isDone()) {
+                try {
+                    wait(100);
+                } catch (InterruptedException e) {
+                    return false;
+                }
+            }
+        }
+        if (request.future.isDone()) {
+            // Canceled,  by the scheduler or the caller
+            requests.remove(request.key, request);
+            leavePending(request);
+            return false;
+        }
+        // A visible request is counted as pending until it finishes,  so prefetches do not compete with it
+        request.started = true;
+        return true;
+    }
+
+    private synchronized void finish(Request request) {
+        requests.remove(request.key, request);
+        leavePending(request);
+    }
+
+    private class Request implements Runnable, Comparable<Request> {
+
+        final Key key;
+        final Set<ReferenceFrame> frames;
+        final List<Range> ranges;
+        final Runnable load;
+        final long sequenceNumber;
+        final CompletableFuture<Void> future = new CompletableFuture<>();
+        Priority priority;
+        boolean started;
+        boolean pendingVisible;
+
+        Request(Key key, List<ReferenceFrame> frames, List<Range> ranges, Runnable load) {
+            this.key = key;
+            this.frames = frames == null ? null : Collections.newSetFromMap(new IdentityHashMap<>());
+            if (frames != null) {
+                this.frames.addAll(frames);
+            }
+            this.ranges = ranges;
+            this.load = load;
+            this.sequenceNumber = sequence.getAndIncrement();
+        }
+
+        public void run() {
+            if (!start(this)) {
+                return;
+            }
+            Throwable error = null;
+            try {
+                load.run();
+            } catch (Throwable e) {
+                log.error("Error loading " + key.locus, e);
+                error = e;
+            }
+
+            // Remove the request before completing it,  so a load submitted on completion is not coalesced with it
+            finish(this);
+            if (error == null) {
+                future.complete(null);
+            } else {
+                future.completeExceptionally(error);
+            }
+        }
+
+        public int compareTo(Request o) {
+            int c = priority.compareTo(o.priority);
+            return c != 0 ? c : Long.compare(sequenceNumber, o.sequenceNumber);
+        }
+    }
+
+    private static class Key {
+
+        final Object source;
+        final String locus;
+
+        Key(Object source, List<Range> ranges) {
+            this.source = source;
+            StringBuilder buffer = new StringBuilder();
+            for (Range r : ranges) {
+                if (buffer.length() > 0) {
+                    buffer.append(' ');
+                }
+                buffer.append(r.printString());
+            }
+            this.locus = buffer.toString();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) return false;
+            Key k = (Key) o;
+            return source == k.source && locus.equals(k.locus);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * System.identityHashCode(source) + locus.hashCode();
+        }
+    }
+}
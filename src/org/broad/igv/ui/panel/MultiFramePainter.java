@@ -0,0 +1,85 @@
+package org.broad.igv.ui.panel;
+
+import org.apache.log4j.Logger;
+import org.broad.igv.prefs.PreferencesManager;
+import org.broad.igv.track.Track;
+import org.broad.igv.track.TrackGroup;
+
+import java.awt.*;
+import java.util.*;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.broad.igv.prefs.Constants.DATA_PANEL_CONCURRENT_FRAMES;
+
+/**
+ * Renders the data panels of a multi-locus (gene list) view concurrently,  each into an image the panel draws on its
+ * next paint.  The view is composited only once the tracks of every frame are loaded,  rather than filling in one
+ * locus at a time.
+ * <p/>
+ * A track renders one frame at a time (see {@link DataPanelPainter}),  so different tracks render concurrently for
+ * different frames.  Enabled by the DATA_PANEL.CONCURRENT_FRAMES preference.
+ */
+class MultiFramePainter {
+
+    private static Logger log = Logger.getLogger(MultiFramePainter.class);
+
+    private static final int THREAD_COUNT = Math.max(1, Runtime.getRuntime().availableProcessors());
+
+    private static final ExecutorService executor = Executors.newFixedThreadPool(THREAD_COUNT, r -> {
+        Thread t = new Thread(r, "frame-render");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private static final Map<Track, Object> renderLocks = Collections.synchronizedMap(new WeakHashMap<>());
+
+    static boolean isEnabled() {
+        return PreferencesManager.getPreferences().getAsBoolean(DATA_PANEL_CONCURRENT_FRAMES);
+    }
+
+    /**
+     * Return the lock held while rendering {@code track},  so a track renders one frame at a time
+     */
+    static Object getRenderLock(Track track) {
+        return renderLocks.computeIfAbsent(track, t -> new Object());
+    }
+
+    /**
+     * Render {@code panels},  all but the last on the worker threads,  the last on this thread.  Returns when all are
+     * rendered.
+     */
+    static void render(List<DataPanel> panels, Collection<TrackGroup> groups, double deviceScale) {
+
+        int n = panels.size();
+        List<Future<?>> futures = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            DataPanel panel = panels.get(i);
+            Rectangle visibleRect = panel.getVisibleRect();
+            int width = panel.getWidth();
+            Runnable task = () -> panel.renderImage(groups, visibleRect, width, deviceScale);
+            if (THREAD_COUNT > 1 && i < n - 1) {
+                futures.add(executor.submit(task));
+            } else {
+                try {
+                    task.run();
+                } catch (Exception e) {
+                    log.error("Error rendering " + panel.getFrame().getName(), e);
+                }
+            }
+        }
+        for (Future<?> future : futures) {
+            try {
+                future.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (ExecutionException e) {
+                log.error("Error rendering frame", e.getCause());
+            }
+        }
+    }
+}
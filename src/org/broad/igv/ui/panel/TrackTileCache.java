@@ -0,0 +1,336 @@
+package org.broad.igv.ui.panel;
+
+import org.apache.log4j.Logger;
+import org.broad.igv.event.IGVEventBus;
+import org.broad.igv.event.IGVEventObserver;
+import org.broad.igv.prefs.PreferencesChangeEvent;
+import org.broad.igv.prefs.PreferencesManager;
+import org.broad.igv.track.DataTrack;
+import org.broad.igv.track.RenderContext;
+
+import javax.swing.*;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.util.*;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.broad.igv.prefs.Constants.DATA_PANEL_TILE_CACHE;
+
+/**
+ * Images of data tracks in columns {@link #TILE_WIDTH} pixels wide,  anchored to the genome,  so a panned view is
+ * composited from tiles already rendered and only newly exposed columns are rendered.  Missing tiles of all tracks
+ * are rendered in parallel.  The axis and border of a track are drawn over its tiles on every paint.
+ * <p/>
+ * A tile is reused while the chromosome,  scale,  track height and {@link DataTrack#getRenderState} are unchanged.
+ * Tracks load data for the view only,  so tiles extending past the edges of the view are rendered but not kept.
+ * All tiles are dropped when preferences change,  and the tiles of a track when it is disposed.  Tiles are keyed by
+ * track id and identity hash,  so the cache does not hold on to tracks.
+ */
+public class TrackTileCache implements IGVEventObserver {
+
+    private static Logger log = Logger.getLogger(TrackTileCache.class);
+
+    static final int TILE_WIDTH = 256;
+    static final long MAX_BYTES = 128L << 20;
+
+    private static final int THREAD_COUNT = Math.max(1, Runtime.getRuntime().availableProcessors());
+
+    private static final ExecutorService executor = Executors.newFixedThreadPool(THREAD_COUNT, r -> {
+        Thread t = new Thread(r, "track-tile-render");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private static TrackTileCache instance;
+
+    private final LinkedHashMap<Key, Tile> tiles = new LinkedHashMap<>(256, 0.75f, true);
+    private long bytes = 0;
+
+    public static synchronized TrackTileCache getInstance() {
+        if (instance == null) {
+            instance = new TrackTileCache();
+        }
+        return instance;
+    }
+
+    private TrackTileCache() {
+        IGVEventBus.getInstance().subscribe(PreferencesChangeEvent.class, this);
+    }
+
+    public static boolean isEnabled() {
+        return PreferencesManager.getPreferences().getAsBoolean(DATA_PANEL_TILE_CACHE);
+    }
+
+    @Override
+    public void receiveEvent(Object event) {
+        if (event instanceof PreferencesChangeEvent) {
+            clear();
+        }
+    }
+
+    public synchronized void clear() {
+        tiles.clear();
+        bytes = 0;
+    }
+
+    /**
+     * Drop the tiles of {@code track},  e.g. when it is removed.  Does nothing if the cache has not been created.
+     */
+    public static void invalidate(DataTrack track) {
+        TrackTileCache cache;
+        synchronized (TrackTileCache.class) {
+            cache = instance;
+        }
+        if (cache != null) {
+            cache.removeTrack(track);
+        }
+    }
+
+    private synchronized void removeTrack(DataTrack track) {
+        String trackId = track.getId();
+        int trackHash = System.identityHashCode(track);
+        Iterator<Map.Entry<Key, Tile>> iter = tiles.entrySet().iterator();
+        while (iter.hasNext()) {
+            Map.Entry<Key, Tile> entry = iter.next();
+            Key key = entry.getKey();
+            if (key.trackHash == trackHash && Objects.equals(key.trackId, trackId)) {
+                bytes -= entry.getValue().getSize();
+                iter.remove();
+            }
+        }
+    }
+
+    synchronized int getTileCount() {
+        return tiles.size();
+    }
+
+    /**
+     * Paint the tracks of {@code requests} into {@code context},  within the columns of {@code clipRect}.
+     * {@code width} is the width of the view.
+     */
+    void paint(List<Request> requests, RenderContext context, Rectangle clipRect, int width) {
+
+        ReferenceFrame frame = context.getReferenceFrame();
+        Graphics2D graphics = context.getGraphics();
+        double deviceScale = graphics.getTransform().getScaleX();
+        double scale = frame.getScale();
+        long originPx = (long) Math.floor(frame.getOrigin() / scale);
+        int x0 = Math.max(0, clipRect.x);
+        int x1 = Math.min(width, clipRect.x + clipRect.width);
+
+        List<Placed> placed = new ArrayList<>();
+        List<Placed> missing = new ArrayList<>();
+        if (x1 > x0) {
+            long firstTile = Math.floorDiv(originPx + x0, TILE_WIDTH);
+            long lastTile = Math.floorDiv(originPx + x1 - 1, TILE_WIDTH);
+            for (Request request : requests) {
+                for (long t = firstTile; t <= lastTile; t++) {
+                    int screenX = (int) (t * TILE_WIDTH - originPx);
+                    Key key = new Key(request.track, frame.getName(), frame.getChrName(), scale, deviceScale, t,
+                            request.rect.height);
+                    Placed p = new Placed(request, key, screenX);
+                    p.image = get(key, request.state);
+                    if (p.image == null) {
+                        missing.add(p);
+                    }
+                    placed.add(p);
+                }
+            }
+        }
+
+        render(missing, context, deviceScale, width);
+
+        for (Placed p : placed) {
+            if (p.image != null) {
+                graphics.drawImage(p.image, p.screenX, p.request.rect.y, TILE_WIDTH, p.request.rect.height, null);
+            }
+        }
+        for (Request request : requests) {
+            request.track.renderDecorations(context, request.rect);
+        }
+    }
+
+    /**
+     * Render tiles,  all but the last on the worker threads,  the last on this thread
+     */
+    private void render(List<Placed> missing, RenderContext context, double deviceScale, int width) {
+
+        int n = missing.size();
+        List<Future<?>> futures = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            Placed p = missing.get(i);
+            Runnable task = () -> {
+                p.image = renderTile(p, context, deviceScale);
+                if (p.screenX >= 0 && p.screenX + TILE_WIDTH <= width) {
+                    put(p.key, new Tile(p.request.state, p.image));
+                }
+            };
+            if (THREAD_COUNT > 1 && i < n - 1) {
+                futures.add(executor.submit(task));
+            } else {
+                runTask(task);
+            }
+        }
+        for (Future<?> future : futures) {
+            try {
+                future.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (ExecutionException e) {
+                log.error("Error rendering track", e.getCause());
+            }
+        }
+    }
+
+    private static void runTask(Runnable task) {
+        try {
+            task.run();
+        } catch (Exception e) {
+            log.error("Error rendering track", e);
+        }
+    }
+
+    private static BufferedImage renderTile(Placed p, RenderContext context, double deviceScale) {
+
+        Rectangle rect = p.request.rect;
+        int w = (int) Math.ceil(TILE_WIDTH * deviceScale);
+        int h = (int) Math.ceil(rect.height * deviceScale);
+        JComponent panel = context.getPanel();
+        GraphicsConfiguration gc = panel == null ? null : panel.getGraphicsConfiguration();
+        BufferedImage image = gc == null ? new BufferedImage(w, h, BufferedImage.TYPE_INT_ARGB) :
+                gc.createCompatibleImage(w, h, Transparency.TRANSLUCENT);
+
+        // Render in panel coordinates,  clipped to the tile
+        Graphics2D g = image.createGraphics();
+        Rectangle tileRect = new Rectangle(p.screenX, rect.y, TILE_WIDTH, rect.height);
+        RenderContext tileContext = new RenderContext(panel, g, context.getReferenceFrame(), tileRect);
+        try {
+            g.scale(deviceScale, deviceScale);
+            g.translate(-p.screenX, -rect.y);
+            g.setClip(tileRect);
+            p.request.track.renderTile(tileContext, tileRect);
+        } finally {
+            tileContext.dispose();
+            g.dispose();
+        }
+        return image;
+    }
+
+    private synchronized BufferedImage get(Key key, Object state) {
+        Tile tile = tiles.get(key);
+        if (tile == null) {
+            return null;
+        } else if (!tile.state.equals(state)) {
+            remove(key);
+            return null;
+        }
+        return tile.image;
+    }
+
+    private synchronized void put(Key key, Tile tile) {
+        remove(key);
+        tiles.put(key, tile);
+        bytes += tile.getSize();
+        Iterator<Tile> iter = tiles.values().iterator();
+        while (bytes > MAX_BYTES && iter.hasNext()) {
+            bytes -= iter.next().getSize();
+            iter.remove();
+        }
+    }
+
+    private void remove(Key key) {
+        Tile old = tiles.remove(key);
+        if (old != null) {
+            bytes -= old.getSize();
+        }
+    }
+
+    /**
+     * A data track to be painted from tiles,  in {@code rect}
+     */
+    static class Request {
+
+        final DataTrack track;
+        final Rectangle rect;
+        final Object state;
+
+        Request(DataTrack track, Rectangle rect, Object state) {
+            this.track = track;
+            this.rect = rect;
+            this.state = state;
+        }
+    }
+
+    private static class Placed {
+
+        final Request request;
+        final Key key;
+        final int screenX;
+        volatile BufferedImage image;
+
+        Placed(Request request, Key key, int screenX) {
+            this.request = request;
+            this.key = key;
+            this.screenX = screenX;
+        }
+    }
+
+    private static class Tile {
+
+        final Object state;
+        final BufferedImage image;
+
+        Tile(Object state, BufferedImage image) {
+            this.state = state;
+            this.image = image;
+        }
+
+        long getSize() {
+            return 64 + 4L * image.getWidth() * image.getHeight();
+        }
+    }
+
+    private static final class Key {
+
+        final String trackId;
+        final int trackHash;
+        final String frameName;
+        final String chr;
+        final double scale;
+        final double deviceScale;
+        final long tile;
+        final int height;
+
+        Key(DataTrack track, String frameName, String chr, double scale, double deviceScale, long tile, int height) {
+            this.trackId = track.getId();
+            this.trackHash = System.identityHashCode(track);
+            this.frameName = frameName;
+            this.chr = chr;
+            this.scale = scale;
+            this.deviceScale = deviceScale;
+            this.tile = tile;
+            this.height = height;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Key)) return false;
+            Key key = (Key) o;
+            return trackHash == key.trackHash && tile == key.tile && height == key.height &&
+                    Double.compare(scale, key.scale) == 0 && Double.compare(deviceScale, key.deviceScale) == 0 &&
+                    Objects.equals(trackId, key.trackId) && Objects.equals(frameName, key.frameName) &&
+                    Objects.equals(chr, key.chr);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(trackHash, trackId, frameName, chr, scale, deviceScale, tile, height);
+        }
+    }
+}
@@ -0,0 +1,151 @@
+package org.broad.igv.util.collections;
+
+import java.util.Arrays;
+
+/**
+ * Map of int keys to int values, implemented as an open addressing hash table with linear probing.  Purpose is to
+ * avoid the boxed Integer keys and values, and the entry objects, of a java.util.HashMap<Integer, Integer>.
+ * <p/>
+ * Removal is not supported.
+ */
+public class IntIntHashMap {
+
+    private static final int FREE_KEY = Integer.MIN_VALUE;
+    private static final float LOAD_FACTOR = 0.5f;
+
+    private int[] keys;
+    private int[] values;
+    private int mask;
+    private int size;
+    private int threshold;
+
+    // FREE_KEY is a legal key,  it is stored outside the table
+    private boolean hasFreeKey;
+    private int freeKeyValue;
+
+    public IntIntHashMap() {
+        this(16);
+    }
+
+    public IntIntHashMap(int expectedSize) {
+        int capacity = Integer.highestOneBit(Math.max(4, (int) (expectedSize / LOAD_FACTOR)) - 1) << 1;
+        allocate(capacity);
+    }
+
+    private void allocate(int capacity) {
+        keys = new int[capacity];
+        Arrays.fill(keys, FREE_KEY);
+        values = new int[capacity];
+        mask = capacity - 1;
+        threshold = (int) (capacity * LOAD_FACTOR);
+    }
+
+    /**
+     * @return the value for {@code key}, or {@code missingValue} if the map does not contain the key
+     */
+    public int get(int key, int missingValue) {
+        if (key == FREE_KEY) {
+            return hasFreeKey ? freeKeyValue : missingValue;
+        }
+        int slot = hash(key) & mask;
+        int k;
+        while ((k = keys[slot]) != FREE_KEY) {
+            if (k == key) {
+                return values[slot];
+            }
+            slot = (slot + 1) & mask;
+        }
+        return missingValue;
+    }
+
+    public boolean containsKey(int key) {
+        if (key == FREE_KEY) {
+            return hasFreeKey;
+        }
+        int slot = hash(key) & mask;
+        int k;
+        while ((k = keys[slot]) != FREE_KEY) {
+            if (k == key) {
+                return true;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return false;
+    }
+
+    public void put(int key, int value) {
+        if (key == FREE_KEY) {
+            if (!hasFreeKey) {
+                size++;
+            }
+            hasFreeKey = true;
+            freeKeyValue = value;
+            return;
+        }
+        int slot = hash(key) & mask;
+        int k;
+        while ((k = keys[slot]) != FREE_KEY) {
+            if (k == key) {
+                values[slot] = value;
+                return;
+            }
+            slot = (slot + 1) & mask;
+        }
+        keys[slot] = key;
+        values[slot] = value;
+        size++;
+        if (size >= threshold) {
+            rehash(keys.length * 2);
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * @return the keys of this map, in no particular order
+     */
+    public int[] keys() {
+        int[] result = new int[size];
+        int idx = 0;
+        if (hasFreeKey) {
+            result[idx++] = FREE_KEY;
+        }
+        for (int k : keys) {
+            if (k != FREE_KEY) {
+                result[idx++] = k;
+            }
+        }
+        return result;
+    }
+
+    private void rehash(int newCapacity) {
+        int[] oldKeys = keys;
+        int[] oldValues = values;
+        allocate(newCapacity);
+        for (int i = 0; i < oldKeys.length; i++) {
+            int key = oldKeys[i];
+            if (key != FREE_KEY) {
+                int slot = hash(key) & mask;
+                while (keys[slot] != FREE_KEY) {
+                    slot = (slot + 1) & mask;
+                }
+                keys[slot] = key;
+                values[slot] = oldValues[i];
+            }
+        }
+    }
+
+    /**
+     * Scramble the key bits.  Genomic positions are sequential, which would otherwise cluster in the table.
+     */
+    private static int hash(int key) {
+        int h = key * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+}
@@ -26,6 +26,7 @@
 package org.broad.igv.util.collections;
 
 import java.util.*;
+import java.util.function.BiConsumer;
 
 /**
  * A "map-like" class that supports multiple values for a given key.
@@ -160,6 +161,22 @@ public class MultiMap<K, V> {
         return allValues;
     }
 
+    /**
+     * Perform the action for each key/value pair,  in order of insertion of the keys
+     */
+    public void forEach(BiConsumer<? super K, ? super V> action) {
+        for (Map.Entry<K, Object> entry : map.entrySet()) {
+            Object value = entry.getValue();
+            if (value instanceof List) {
+                for (V v : ((List<V>) value)) {
+                    action.accept(entry.getKey(), v);
+                }
+            } else {
+                action.accept(entry.getKey(), (V) value);
+            }
+        }
+    }
+
     public void addAll(MultiMap<K, V> attributes) {
         for (K key : attributes.keys()) {
             map.put(key, attributes.get(key));
@@ -28,6 +28,7 @@ package org.broad.igv.util.stream;
 import htsjdk.samtools.seekablestream.ISeekableStreamFactory;
 import htsjdk.samtools.seekablestream.SeekableFileStream;
 import htsjdk.samtools.seekablestream.SeekableStream;
+import htsjdk.samtools.util.BlockCompressedInputStream;
 import org.broad.igv.util.HttpUtils;
 
 import java.io.File;
@@ -87,4 +88,13 @@ public class IGVSeekableStreamFactory implements ISeekableStreamFactory {
         return new IGVSeekableBufferedStream(stream, bufferSize);
     }
 
+    /**
+     * Return a stream of the blocks of the BGZF compressed {@code stream},  inflated in parallel if enabled
+     */
+    public BlockCompressedInputStream getBlockCompressedStream(SeekableStream stream) {
+        return InflaterPool.isEnabled() ?
+                new ParallelBlockCompressedInputStream(stream) :
+                new BlockCompressedInputStream(stream);
+    }
+
 }
@@ -0,0 +1,50 @@
+package org.broad.igv.util.stream;
+
+import org.broad.igv.prefs.PreferencesManager;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.Inflater;
+
+import static org.broad.igv.prefs.Constants.BGZF_PARALLEL_INFLATE;
+
+/**
+ * Threads and inflaters shared by all streams inflating BGZF blocks in parallel,  also used to decompress TDF tiles.
+ * Each pool thread keeps its own {@link Inflater},  reset between blocks,  so no inflater is allocated per block.
+ */
+public class InflaterPool {
+
+    private static final int THREAD_COUNT = Math.max(1, Runtime.getRuntime().availableProcessors());
+
+    private static final ExecutorService inflaterExecutor = Executors.newFixedThreadPool(THREAD_COUNT, r -> {
+        Thread t = new Thread(r, "bgzf-inflater");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private static final ThreadLocal<Inflater> inflaters = ThreadLocal.withInitial(() -> new Inflater(true));
+
+    /**
+     * @return true if blocks should be inflated in parallel,  i.e. it is enabled and there is more than 1 processor
+     */
+    public static boolean isEnabled() {
+        return THREAD_COUNT > 1 && PreferencesManager.getPreferences().getAsBoolean(BGZF_PARALLEL_INFLATE);
+    }
+
+    public static int getThreadCount() {
+        return THREAD_COUNT;
+    }
+
+    public static ExecutorService getExecutor() {
+        return inflaterExecutor;
+    }
+
+    /**
+     * @return the raw (nowrap) inflater of the current thread,  reset for a new block
+     */
+    public static Inflater getInflater() {
+        Inflater inflater = inflaters.get();
+        inflater.reset();
+        return inflater;
+    }
+}
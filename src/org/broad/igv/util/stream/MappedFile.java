@@ -0,0 +1,142 @@
+package org.broad.igv.util.stream;
+
+import org.broad.igv.Globals;
+import org.broad.igv.prefs.PreferencesManager;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.broad.igv.prefs.Constants.MAPPED_FILE_IO;
+
+/**
+ * A read-only memory mapping of a local file,  shared by all readers of the file.  Files over 2 GB are mapped in
+ * chunks.  Successive chunks overlap,  so any range up to {@link #getMaxSliceSize()} bytes lies within a single
+ * chunk and is returned as a view of the mapping,  without copying.
+ * <p/>
+ * Slices are independent views,  and may be read concurrently from any number of threads.  The mapping is released
+ * by the garbage collector once the file is closed by all its readers and no slice remains reachable.  Until then
+ * the file stays open,  which on Windows locks it against being replaced or deleted,  so files are not mapped there.
+ */
+public class MappedFile {
+
+    static final long CHUNK_SIZE = 1L << 30;
+    static final int CHUNK_OVERLAP = 1 << 24;
+
+    private static final Map<String, MappedFile> openFiles = new HashMap<>();
+
+    /**
+     * @return true if {@code path} is a local file and memory mapping is enabled.  Always false on Windows.
+     */
+    public static boolean isMappable(String path) {
+        return !Globals.IS_WINDOWS && PreferencesManager.getPreferences().getAsBoolean(MAPPED_FILE_IO) &&
+                new File(path).isFile();
+    }
+
+    /**
+     * Return the mapping of {@code path},  mapping the file if it is not mapped already.  Each call must be matched
+     * by a call to {@link #close()}.
+     */
+    public static MappedFile open(String path) throws IOException {
+        File file = new File(path).getCanonicalFile();
+        String key = file.getPath();
+        synchronized (openFiles) {
+            MappedFile mf = openFiles.get(key);
+            if (mf == null || mf.length != file.length() || mf.lastModified != file.lastModified()) {
+                mf = new MappedFile(file, CHUNK_SIZE, CHUNK_OVERLAP);
+                openFiles.put(key, mf);
+            }
+            mf.refCount++;
+            return mf;
+        }
+    }
+
+    private final String key;
+    private final long length;
+    private final long lastModified;
+    private final long chunkSize;
+    private final int overlap;
+    private final MappedByteBuffer[] chunks;
+    private int refCount;
+
+    MappedFile(File file, long chunkSize, int overlap) throws IOException {
+        this.key = file.getPath();
+        this.length = file.length();
+        this.lastModified = file.lastModified();
+        this.chunkSize = chunkSize;
+        this.overlap = overlap;
+        int nChunks = (int) Math.max(1, (length + chunkSize - 1) / chunkSize);
+        this.chunks = new MappedByteBuffer[nChunks];
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            for (int i = 0; i < nChunks; i++) {
+                long start = i * chunkSize;
+                long size = Math.min(length - start, chunkSize + overlap);
+                chunks[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, size);
+            }
+        }
+    }
+
+    public long length() {
+        return length;
+    }
+
+    public int getMaxSliceSize() {
+        return overlap;
+    }
+
+    /**
+     * Return {@code nBytes} starting at {@code position},  as a buffer positioned at 0 in big-endian order.  Fewer
+     * bytes are returned if the end of the file is reached.  The buffer is a view of the mapping unless the range
+     * is larger than {@link #getMaxSliceSize()} and crosses a chunk boundary,  in which case it is copied.
+     */
+    public ByteBuffer slice(long position, int nBytes) {
+        if (position < 0 || position > length) {
+            throw new IndexOutOfBoundsException("Position " + position + " is outside file of length " + length);
+        }
+        nBytes = (int) Math.min(nBytes, length - position);
+        int chunk = (int) Math.min(position / chunkSize, chunks.length - 1);
+        long offset = position - chunk * chunkSize;
+        if (offset + nBytes <= chunks[chunk].capacity()) {
+            ByteBuffer b = chunks[chunk].duplicate();
+            b.position((int) offset);
+            b.limit((int) offset + nBytes);
+            return b.slice();
+        }
+
+        ByteBuffer copy = ByteBuffer.allocate(nBytes);
+        while (copy.hasRemaining()) {
+            ByteBuffer b = chunks[chunk].duplicate();
+            b.position((int) offset);
+            b.limit((int) Math.min(b.capacity(), offset + copy.remaining()));
+            copy.put(b);
+            chunk++;
+            offset = overlap;    // Skip the bytes already read from the previous chunk's overlap
+        }
+        copy.flip();
+        return copy;
+    }
+
+    /**
+     * Copy {@code nBytes} starting at {@code position} into a new array.  Fewer bytes are returned if the end of the
+     * file is reached.
+     */
+    public byte[] read(long position, int nBytes) {
+        ByteBuffer b = slice(position, nBytes);
+        byte[] bytes = new byte[b.remaining()];
+        b.get(bytes);
+        return bytes;
+    }
+
+    public void close() {
+        synchronized (openFiles) {
+            if (refCount > 0 && --refCount == 0 && openFiles.get(key) == this) {
+                openFiles.remove(key);
+            }
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package org.broad.igv.util.stream;
+
+import htsjdk.samtools.seekablestream.SeekableStream;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * A {@link SeekableStream} over a {@link MappedFile}.  Each stream has its own position,  but streams over the same
+ * file share its mapping.  Readers which can decode from a buffer use {@link #slice(long, int)} to avoid copying.
+ */
+public class MappedSeekableStream extends SeekableStream {
+
+    private final MappedFile mappedFile;
+    private final String source;
+    private long position = 0;
+    private boolean closed = false;
+
+    public MappedSeekableStream(String path) throws IOException {
+        this.mappedFile = MappedFile.open(path);
+        this.source = path;
+    }
+
+    /**
+     * @see MappedFile#slice(long, int)
+     */
+    public ByteBuffer slice(long position, int nBytes) {
+        return mappedFile.slice(position, nBytes);
+    }
+
+    @Override
+    public long length() {
+        return mappedFile.length();
+    }
+
+    @Override
+    public long position() {
+        return position;
+    }
+
+    @Override
+    public void seek(long position) {
+        this.position = position;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int length) {
+        if (length == 0) {
+            return 0;
+        }
+        if (position >= mappedFile.length()) {
+            return -1;
+        }
+        ByteBuffer b = mappedFile.slice(position, length);
+        int n = b.remaining();
+        b.get(buffer, offset, n);
+        position += n;
+        return n;
+    }
+
+    @Override
+    public int read() {
+        if (position >= mappedFile.length()) {
+            return -1;
+        }
+        return mappedFile.slice(position++, 1).get() & 0xFF;
+    }
+
+    @Override
+    public boolean eof() {
+        return position >= mappedFile.length();
+    }
+
+    @Override
+    public String getSource() {
+        return source;
+    }
+
+    @Override
+    public void close() {
+        if (!closed) {
+            closed = true;
+            mappedFile.close();
+        }
+    }
+}
@@ -0,0 +1,234 @@
+package org.broad.igv.util.stream;
+
+import htsjdk.samtools.seekablestream.SeekableStream;
+import htsjdk.samtools.util.BlockCompressedInputStream;
+import htsjdk.samtools.util.BlockCompressedStreamConstants;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * A {@link BlockCompressedInputStream} which reads ahead of the current block and inflates the blocks read in
+ * parallel on the {@link InflaterPool}.  The compressed blocks are read on the calling thread,  in order,  so the
+ * underlying stream is never shared between threads.  Virtual file pointers,  seeking,  and end of file handling are
+ * those of the superclass.
+ */
+public class ParallelBlockCompressedInputStream extends BlockCompressedInputStream {
+
+    public static final int DEFAULT_READ_AHEAD = 16;
+
+    private final SeekableStream stream;
+    private final int readAhead;
+    private final ArrayDeque<Future<DecompressedBlock>> pending;
+    private final List<byte[]> freeBuffers = new ArrayList<>();
+
+    private long nextBlockAddress = -1;          // -1 to start at the stream position,  e.g. after a seek
+    private long readAheadEnd = Long.MAX_VALUE;
+    private boolean readAheadStopped;
+
+    public ParallelBlockCompressedInputStream(SeekableStream stream) {
+        this(stream, DEFAULT_READ_AHEAD);
+    }
+
+    /**
+     * @param stream    the compressed stream
+     * @param readAhead maximum number of blocks read and inflated ahead of the current block
+     */
+    public ParallelBlockCompressedInputStream(SeekableStream stream, int readAhead) {
+        super(stream);
+        this.stream = stream;
+        this.readAhead = Math.max(1, readAhead);
+        this.pending = new ArrayDeque<>(this.readAhead + 1);
+    }
+
+    /**
+     * Limit read ahead to blocks starting before {@code blockAddress},  for a query with a known end.  Blocks past the
+     * limit are still read,  one at a time,  if requested.
+     */
+    public void setReadAheadEnd(long blockAddress) {
+        this.readAheadEnd = blockAddress;
+    }
+
+    @Override
+    protected DecompressedBlock nextBlock(byte[] bufferAvailableForReuse) {
+
+        if (bufferAvailableForReuse != null) {
+            synchronized (freeBuffers) {
+                if (freeBuffers.size() <= readAhead) {
+                    freeBuffers.add(bufferAvailableForReuse);
+                }
+            }
+        }
+
+        try {
+            if (nextBlockAddress < 0) {
+                nextBlockAddress = stream.position();
+            }
+            if (pending.isEmpty()) {
+                pending.add(readBlock());
+            }
+            while (pending.size() <= readAhead && !readAheadStopped && nextBlockAddress < readAheadEnd) {
+                pending.add(readBlock());
+            }
+            return pending.poll().get();
+        } catch (IOException e) {
+            return new DecompressedBlock(nextBlockAddress, 0, e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return new DecompressedBlock(nextBlockAddress, 0, e);
+        } catch (ExecutionException e) {
+            return new DecompressedBlock(nextBlockAddress, 0, e);
+        }
+    }
+
+    @Override
+    protected void prepareForSeek() {
+        cancelReadAhead();
+        super.prepareForSeek();
+    }
+
+    @Override
+    public void close() throws IOException {
+        cancelReadAhead();
+        super.close();
+    }
+
+    private void cancelReadAhead() {
+        for (Future<DecompressedBlock> f : pending) {
+            f.cancel(false);
+        }
+        pending.clear();
+        nextBlockAddress = -1;
+        readAheadStopped = false;
+    }
+
+    /**
+     * Read the next compressed block and submit it to be inflated.  Read errors are returned as a block with an
+     * exception,  which the superclass throws when the block is reached.
+     */
+    private Future<DecompressedBlock> readBlock() throws IOException {
+
+        final long address = nextBlockAddress;
+        final byte[] header = new byte[BlockCompressedStreamConstants.BLOCK_HEADER_LENGTH];
+        int count = readBytes(header, 0, header.length);
+        if (count == 0) {
+            // End of file
+            readAheadStopped = true;
+            return completed(new DecompressedBlock(address, new byte[0], 0));
+        }
+        if (count != header.length || !isValidBlockHeader(header)) {
+            readAheadStopped = true;
+            return completed(new DecompressedBlock(address, count,
+                    new IOException(INCORRECT_HEADER_SIZE_MSG + stream.getSource())));
+        }
+
+        int blockLength = unpackInt16(header, BlockCompressedStreamConstants.BLOCK_LENGTH_OFFSET) + 1;
+        if (blockLength < BlockCompressedStreamConstants.BLOCK_HEADER_LENGTH ||
+                blockLength > BlockCompressedStreamConstants.MAX_COMPRESSED_BLOCK_SIZE) {
+            readAheadStopped = true;
+            return completed(new DecompressedBlock(address, blockLength,
+                    new IOException(UNEXPECTED_BLOCK_LENGTH_MSG + blockLength + " for " + stream.getSource())));
+        }
+
+        final byte[] block = new byte[blockLength];
+        System.arraycopy(header, 0, block, 0, header.length);
+        count = readBytes(block, header.length, blockLength - header.length);
+        if (count != blockLength - header.length) {
+            readAheadStopped = true;
+            return completed(new DecompressedBlock(address, blockLength,
+                    new IOException(PREMATURE_END_MSG + stream.getSource())));
+        }
+        nextBlockAddress += blockLength;
+
+        int uncompressedLength = unpackInt32(block, blockLength - 4);
+        if (uncompressedLength == 0) {
+            readAheadStopped = true;    // The empty terminator block,  or an empty block which ends reading
+        }
+        return InflaterPool.getExecutor().submit(() -> inflate(address, block));
+    }
+
+    private DecompressedBlock inflate(long address, byte[] block) {
+        try {
+            int uncompressedLength = unpackInt32(block, block.length - 4);
+            byte[] buffer = getBuffer(uncompressedLength);
+            inflateBlock(block, buffer);
+            return new DecompressedBlock(address, buffer, block.length);
+        } catch (Exception e) {
+            return new DecompressedBlock(address, block.length, e);
+        }
+    }
+
+    /**
+     * Inflate the BGZF {@code block} into {@code buffer},  which must be the uncompressed length of the block
+     */
+    private static void inflateBlock(byte[] block, byte[] buffer) throws IOException {
+        int cdataOffset = BlockCompressedStreamConstants.BLOCK_HEADER_LENGTH;
+        int cdataLength = block.length - cdataOffset - BlockCompressedStreamConstants.BLOCK_FOOTER_LENGTH;
+        Inflater inflater = InflaterPool.getInflater();
+        inflater.setInput(block, cdataOffset, cdataLength);
+        try {
+            int inflatedBytes = inflater.inflate(buffer, 0, buffer.length);
+            if (inflatedBytes != buffer.length) {
+                throw new IOException("Did not inflate expected amount");
+            }
+        } catch (DataFormatException e) {
+            throw new IOException(e);
+        }
+    }
+
+    private byte[] getBuffer(int length) {
+        synchronized (freeBuffers) {
+            for (int i = freeBuffers.size() - 1; i >= 0; i--) {
+                if (freeBuffers.get(i).length == length) {
+                    return freeBuffers.remove(i);
+                }
+            }
+        }
+        return new byte[length];
+    }
+
+    private int readBytes(byte[] buffer, int offset, int length) throws IOException {
+        int bytesRead = 0;
+        while (bytesRead < length) {
+            int count = stream.read(buffer, offset + bytesRead, length - bytesRead);
+            if (count <= 0) {
+                break;
+            }
+            bytesRead += count;
+        }
+        return bytesRead;
+    }
+
+    private static Future<DecompressedBlock> completed(DecompressedBlock block) {
+        FutureTask<DecompressedBlock> f = new FutureTask<>(() -> block);
+        f.run();
+        return f;
+    }
+
+    private static boolean isValidBlockHeader(byte[] buffer) {
+        return buffer[0] == BlockCompressedStreamConstants.GZIP_ID1 &&
+                (buffer[1] & 0xFF) == BlockCompressedStreamConstants.GZIP_ID2 &&
+                (buffer[3] & BlockCompressedStreamConstants.GZIP_FLG) != 0 &&
+                buffer[10] == BlockCompressedStreamConstants.GZIP_XLEN &&
+                buffer[12] == BlockCompressedStreamConstants.BGZF_ID1 &&
+                buffer[13] == BlockCompressedStreamConstants.BGZF_ID2;
+    }
+
+    private static int unpackInt16(byte[] buffer, int offset) {
+        return (buffer[offset] & 0xFF) | ((buffer[offset + 1] & 0xFF) << 8);
+    }
+
+    private static int unpackInt32(byte[] buffer, int offset) {
+        return (buffer[offset] & 0xFF) |
+                ((buffer[offset + 1] & 0xFF) << 8) |
+                ((buffer[offset + 2] & 0xFF) << 16) |
+                ((buffer[offset + 3] & 0xFF) << 24);
+    }
+}
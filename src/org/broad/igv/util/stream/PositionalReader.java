@@ -0,0 +1,172 @@
+package org.broad.igv.util.stream;
+
+import htsjdk.samtools.seekablestream.SeekableStream;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Reads byte ranges at absolute positions (pread-style),  for readers shared by many tracks.  Local files are
+ * memory mapped (see {@link MappedFile}),  or read through a {@link FileChannel} if mapping is disabled,  and remote
+ * files with byte range support are read by a stream of their own per read,  so concurrent reads do not wait on each
+ * other.  Other sources fall back to a seek and read on a shared stream.
+ */
+public abstract class PositionalReader {
+
+    public static PositionalReader open(String path) throws IOException {
+        File file = new File(path);
+        if (MappedFile.isMappable(path)) {
+            return new MappedReader(MappedFile.open(path));
+        }
+        if (file.isFile()) {
+            return new FileChannelReader(file);
+        }
+        SeekableStream stream = IGVSeekableStreamFactory.getInstance().getStreamFor(path);
+        if (stream instanceof IGVSeekableHTTPStream) {
+            stream.close();
+            return new HttpRangeReader(new URL(path));
+        }
+        return new StreamReader(stream);
+    }
+
+    /**
+     * Read {@code nBytes} starting at {@code position}.  Fewer bytes are returned if the end of the file is reached.
+     */
+    public abstract byte[] read(long position, int nBytes) throws IOException;
+
+    /**
+     * Read {@code nBytes} starting at {@code position} into a buffer positioned at 0.  For mapped files the buffer
+     * is a view of the mapping,  otherwise it wraps a copy.
+     */
+    public ByteBuffer readBuffer(long position, int nBytes) throws IOException {
+        return ByteBuffer.wrap(read(position, nBytes));
+    }
+
+    public abstract void close() throws IOException;
+
+    static byte[] readFully(SeekableStream stream, byte[] buffer) throws IOException {
+        int n = 0;
+        while (n < buffer.length) {
+            int count = stream.read(buffer, n, buffer.length - n);
+            if (count < 0) {
+                return truncate(buffer, n);
+            }
+            n += count;
+        }
+        return buffer;
+    }
+
+    private static byte[] truncate(byte[] buffer, int n) throws EOFException {
+        if (n == 0) {
+            throw new EOFException("Attempt to read past end of file");
+        }
+        byte[] b = new byte[n];
+        System.arraycopy(buffer, 0, b, 0, n);
+        return b;
+    }
+
+    private static class MappedReader extends PositionalReader {
+
+        final MappedFile mappedFile;
+        boolean closed;
+
+        MappedReader(MappedFile mappedFile) {
+            this.mappedFile = mappedFile;
+        }
+
+        public byte[] read(long position, int nBytes) throws IOException {
+            checkPosition(position);
+            return mappedFile.read(position, nBytes);
+        }
+
+        @Override
+        public ByteBuffer readBuffer(long position, int nBytes) throws IOException {
+            checkPosition(position);
+            return mappedFile.slice(position, nBytes);
+        }
+
+        private void checkPosition(long position) throws EOFException {
+            if (position >= mappedFile.length()) {
+                throw new EOFException("Attempt to read past end of file");
+            }
+        }
+
+        public synchronized void close() {
+            if (!closed) {
+                closed = true;
+                mappedFile.close();
+            }
+        }
+    }
+
+    private static class FileChannelReader extends PositionalReader {
+
+        final FileChannel channel;
+
+        FileChannelReader(File file) throws IOException {
+            channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        }
+
+        public byte[] read(long position, int nBytes) throws IOException {
+            byte[] buffer = new byte[nBytes];
+            ByteBuffer bb = ByteBuffer.wrap(buffer);
+            while (bb.hasRemaining()) {
+                int count = channel.read(bb, position + bb.position());
+                if (count < 0) {
+                    return truncate(buffer, bb.position());
+                }
+            }
+            return buffer;
+        }
+
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+
+    private static class HttpRangeReader extends PositionalReader {
+
+        final URL url;
+
+        HttpRangeReader(URL url) {
+            this.url = url;
+        }
+
+        public byte[] read(long position, int nBytes) throws IOException {
+            IGVSeekableHTTPStream stream = new IGVSeekableHTTPStream(url);
+            try {
+                stream.seek(position);
+                return readFully(stream, new byte[nBytes]);
+            } finally {
+                stream.close();
+            }
+        }
+
+        public void close() {
+            // Nothing to do,  streams are closed after each read
+        }
+    }
+
+    private static class StreamReader extends PositionalReader {
+
+        final SeekableStream stream;
+
+        StreamReader(SeekableStream stream) {
+            this.stream = stream;
+        }
+
+        public synchronized byte[] read(long position, int nBytes) throws IOException {
+            stream.seek(position);
+            return readFully(stream, new byte[nBytes]);
+        }
+
+        public void close() throws IOException {
+            stream.close();
+        }
+    }
+}
@@ -25,10 +25,14 @@
 
 package org.broad.igv.bbfile;
 
+import org.broad.igv.prefs.Constants;
+import org.broad.igv.prefs.PreferencesManager;
 import org.broad.igv.util.TestUtils;
 import org.junit.Test;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 
 import static org.junit.Assert.*;
 
@@ -72,5 +76,49 @@ public class BBFileReaderTest {
 
     }
 
+    /**
+     * Records read through a memory mapping must match those read through a stream
+     */
+    @Test
+    public void testMappedBigWig() throws IOException {
+
+        for (String file : new String[]{"wig/test_fixedStep.bigwig", "wig/dummy_var_sample.bigwig"}) {
+            String path = TestUtils.DATA_DIR + file;
+            boolean mapped = PreferencesManager.getPreferences().getAsBoolean(Constants.MAPPED_FILE_IO);
+            try {
+                PreferencesManager.getPreferences().put(Constants.MAPPED_FILE_IO, "false");
+                List<String> expected = readRecords(path);
+                PreferencesManager.getPreferences().put(Constants.MAPPED_FILE_IO, "true");
+                List<String> records = readRecords(path);
+                assertTrue(expected.size() > 0);
+                assertEquals(expected, records);
+            } finally {
+                PreferencesManager.getPreferences().put(Constants.MAPPED_FILE_IO, String.valueOf(mapped));
+            }
+        }
+    }
+
+    private static List<String> readRecords(String path) throws IOException {
 
+        BBFileReader reader = new BBFileReader(path);
+        List<String> records = new ArrayList<>();
+        for (String chr : reader.getChromosomeNames()) {
+            BigWigIterator wigIter = reader.getBigWigIterator(chr, 0, chr, Integer.MAX_VALUE, false);
+            while (wigIter.hasNext()) {
+                WigItem item = wigIter.next();
+                records.add(item.getChromosome() + ":" + item.getStartBase() + "-" + item.getEndBase() + "=" +
+                        item.getWigValue());
+            }
+            for (int z = 1; z <= reader.getBBFileHeader().getZoomLevels(); z++) {
+                ZoomLevelIterator zlIter = reader.getZoomLevelIterator(z, chr, 0, chr, Integer.MAX_VALUE, false);
+                while (zlIter.hasNext()) {
+                    ZoomDataRecord rec = zlIter.next();
+                    records.add(z + " " + rec.getChromName() + ":" + rec.getChromStart() + "-" + rec.getChromEnd() +
+                            "=" + rec.getSumData() + "," + rec.getMaxVal());
+                }
+            }
+        }
+        reader.close();
+        return records;
+    }
 }
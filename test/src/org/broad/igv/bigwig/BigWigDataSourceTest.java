@@ -0,0 +1,77 @@
+package org.broad.igv.bigwig;
+
+import org.broad.igv.Globals;
+import org.broad.igv.bbfile.BBFileReader;
+import org.broad.igv.bbfile.BigWigIterator;
+import org.broad.igv.bbfile.WigItem;
+import org.broad.igv.data.DataTile;
+import org.broad.igv.util.TestUtils;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static junit.framework.Assert.*;
+
+public class BigWigDataSourceTest {
+
+    @Before
+    public void setUp() {
+        Globals.setHeadless(true);
+    }
+
+    /**
+     * Raw data decoded into arrays must match the items of the BigWig iterator
+     */
+    @Test
+    public void testGetRawData() throws Exception {
+
+        for (String file : new String[]{"wig/test_fixedStep.bigwig", "wig/dummy_var_sample.bigwig"}) {
+            BBFileReader reader = new BBFileReader(TestUtils.DATA_DIR + file);
+            BigWigDataSource source = new BigWigDataSource(reader, null);
+
+            Random random = new Random(7);
+            int nCompared = 0;
+            for (String chr : reader.getChromosomeNames()) {
+                List<WigItem> items = getItems(reader, chr, 0, Integer.MAX_VALUE);
+                assertTrue(items.size() > 0);
+                int chrEnd = items.get(items.size() - 1).getEndBase();
+
+                // Whole chromosome,  then random ranges served from the cached blocks
+                compare(items, source.getRawData(chr, 0, Integer.MAX_VALUE));
+                for (int n = 0; n < 40; n++) {
+                    int start = random.nextInt(chrEnd);
+                    int end = start + random.nextInt(chrEnd - start + 100);
+                    compare(getItems(reader, chr, start, end), source.getRawData(chr, start, end));
+                    nCompared++;
+                }
+            }
+            assertTrue(nCompared > 0);
+
+            DataTile empty = source.getRawData("noSuchChr", 0, 1000);
+            assertTrue(empty.isEmpty());
+            source.dispose();
+        }
+    }
+
+    private static List<WigItem> getItems(BBFileReader reader, String chr, int start, int end) {
+        List<WigItem> items = new ArrayList<>();
+        BigWigIterator iter = reader.getBigWigIterator(chr, start, chr, end, false);
+        while (iter.hasNext()) {
+            items.add(iter.next());
+        }
+        return items;
+    }
+
+    private static void compare(List<WigItem> expected, DataTile tile) {
+        assertEquals(expected.size(), tile.getStartLocations().length);
+        for (int i = 0; i < expected.size(); i++) {
+            WigItem item = expected.get(i);
+            assertEquals(item.getStartBase(), tile.getStartLocations()[i]);
+            assertEquals(item.getEndBase(), tile.getEndLocations()[i]);
+            assertEquals(item.getWigValue(), tile.getValues()[i]);
+        }
+    }
+}
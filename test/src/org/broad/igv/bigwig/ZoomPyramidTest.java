@@ -0,0 +1,178 @@
+package org.broad.igv.bigwig;
+
+import org.broad.igv.Globals;
+import org.broad.igv.bbfile.BBFileReader;
+import org.broad.igv.bbfile.BigWigIterator;
+import org.broad.igv.bbfile.WigItem;
+import org.broad.igv.data.TileCache;
+import org.broad.igv.feature.LocusScore;
+import org.broad.igv.track.WindowFunction;
+import org.broad.igv.util.TestUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.*;
+
+import static junit.framework.Assert.*;
+
+public class ZoomPyramidTest {
+
+    static final String[] FILES = {"wig/test_fixedStep.bigwig", "wig/dummy_var_sample.bigwig"};
+
+    @Before
+    public void setUp() throws Exception {
+        Globals.setHeadless(true);
+        TestUtils.setUpTestEnvironment();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        TestUtils.clearOutputDir();
+    }
+
+    /**
+     * Each bin must hold the statistics of the raw data it covers
+     */
+    @Test
+    public void testBuild() throws Exception {
+
+        int[] reductions = {10, 40, 1000};
+        for (String file : FILES) {
+            BBFileReader reader = new BBFileReader(TestUtils.DATA_DIR + file);
+            ZoomPyramid pyramid = ZoomPyramidBuilder.build(reader, reductions);
+            assertTrue(Arrays.equals(reductions, pyramid.getReductions()));
+
+            for (String chr : reader.getChromosomeNames()) {
+                for (int reduction : reductions) {
+                    ZoomPyramid.Level level = pyramid.getLevel(chr, reduction);
+                    Map<Integer, double[]> expected = computeBins(reader, chr, reduction);
+                    assertEquals(expected.size(), level.size());
+                    for (int i = 0; i < level.size(); i++) {
+                        double[] e = expected.get(level.starts[i] / reduction);
+                        assertNotNull(e);
+                        assertEquals(e[0], level.starts[i], 0);
+                        assertEquals(e[1], level.ends[i], 0);
+                        assertEquals(e[2], level.basesCovered[i], 0);
+                        assertEquals(e[3], level.minVals[i], 1.0e-6);
+                        assertEquals(e[4], level.maxVals[i], 1.0e-6);
+                        assertEquals(e[5], level.sums[i], 1.0e-4 * Math.abs(e[5]) + 1.0e-4);
+                        assertEquals(e[6], level.sumSquares[i], 1.0e-4 * Math.abs(e[6]) + 1.0e-4);
+                    }
+                }
+            }
+            reader.close();
+        }
+    }
+
+    @Test
+    public void testScoresAndSidecar() throws Exception {
+
+        BBFileReader reader = new BBFileReader(TestUtils.DATA_DIR + FILES[1]);
+        ZoomPyramid pyramid = ZoomPyramidBuilder.build(reader, new int[]{1000, 4000});
+        String chr = "chr8";
+        ZoomPyramid.Level level = pyramid.getLevel(chr, 1000);
+        int start = level.starts[level.size() / 3] + 5;
+        int end = level.starts[2 * level.size() / 3] - 5;
+
+        List<LocusScore> scores = pyramid.getScores(chr, start, end, 1000, WindowFunction.mean);
+        int nOverlapping = 0;
+        for (int i = 0; i < level.size(); i++) {
+            if (level.ends[i] > start && level.starts[i] < end) nOverlapping++;
+        }
+        assertTrue(nOverlapping > 0);
+        assertEquals(nOverlapping, scores.size());
+        for (LocusScore s : scores) {
+            assertTrue(s.getEnd() > start && s.getStart() < end);
+        }
+        assertNull(pyramid.getScores(chr, start, end, 40, WindowFunction.mean));
+        assertTrue(pyramid.getScores("noSuchChr", start, end, 1000, WindowFunction.mean).isEmpty());
+
+        assertEquals(1000, pyramid.getReductionForScale(2500));
+        assertEquals(4000, pyramid.getReductionForScale(10000));
+        assertEquals(1000, pyramid.getReductionForScale(700));
+        assertEquals(-1, pyramid.getReductionForScale(400));
+
+        // Round trip through the sidecar file,  which is rejected if the bigWig changes
+        File file = new File(TestUtils.TMP_OUTPUT_DIR, "test.pyramid");
+        pyramid.write(file, "test.bigwig", 100, 200);
+        ZoomPyramid copy = ZoomPyramid.read(file, "test.bigwig", 100, 200);
+        assertTrue(Arrays.equals(pyramid.getReductions(), copy.getReductions()));
+        ZoomPyramid.Level copyLevel = copy.getLevel(chr, 1000);
+        assertTrue(Arrays.equals(level.starts, copyLevel.starts));
+        assertTrue(Arrays.equals(level.sums, copyLevel.sums));
+        assertNull(ZoomPyramid.read(file, "test.bigwig", 100, 201));
+        file.delete();
+        reader.close();
+    }
+
+    /**
+     * Levels moved to the tile cache count against the source,  and are re-read from the sidecar when evicted
+     */
+    @Test
+    public void testMoveToCache() throws Exception {
+
+        BBFileReader reader = new BBFileReader(TestUtils.DATA_DIR + FILES[1]);
+        ZoomPyramid pyramid = ZoomPyramidBuilder.build(reader, new int[]{1000, 4000});
+        reader.close();
+        String chr = "chr8";
+        ZoomPyramid.Level level = pyramid.getLevel(chr, 1000);
+        List<LocusScore> scores = pyramid.getScores(chr, 0, Integer.MAX_VALUE, 1000, WindowFunction.mean);
+
+        File file = new File(TestUtils.TMP_OUTPUT_DIR, "test.pyramid");
+        pyramid.write(file, "test.bigwig", 100, 200);
+        TileCache cache = TileCache.getInstance();
+        int source = cache.newSource();
+        pyramid.moveToCache(source, file, "test.bigwig", 100, 200);
+        assertTrue(cache.getBytes(source) > 28L * level.size());
+        assertTrue(Arrays.equals(level.starts, pyramid.getLevel(chr, 1000).starts));
+
+        cache.invalidate(source);
+        assertEquals(0, cache.getBytes(source));
+        assertTrue(Arrays.equals(level.sums, pyramid.getLevel(chr, 1000).sums));
+        assertEquals(scores.size(), pyramid.getScores(chr, 0, Integer.MAX_VALUE, 1000, WindowFunction.mean).size());
+        assertTrue(pyramid.getScores("noSuchChr", 0, 1000, 1000, WindowFunction.mean).isEmpty());
+
+        // Without the sidecar evicted levels are unavailable,  and callers fall back to the file's zoom levels
+        cache.invalidate(source);
+        file.delete();
+        assertNull(pyramid.getScores(chr, 0, Integer.MAX_VALUE, 1000, WindowFunction.mean));
+        cache.removeSource(source);
+    }
+
+    @Test
+    public void testMissingReductions() {
+        int[] reductions = ZoomPyramidBuilder.getMissingReductions(null);
+        assertEquals(ZoomPyramidBuilder.BASE_REDUCTION, reductions[0]);
+        assertEquals(ZoomPyramidBuilder.MAX_REDUCTION, reductions[reductions.length - 1]);
+    }
+
+    /**
+     * Brute force bin statistics:  start, end, bases covered, min, max, sum, sum of squares
+     */
+    private static Map<Integer, double[]> computeBins(BBFileReader reader, String chr, int reduction) {
+        Map<Integer, double[]> bins = new HashMap<>();
+        BigWigIterator iter = reader.getBigWigIterator(chr, 0, chr, Integer.MAX_VALUE, false);
+        while (iter.hasNext()) {
+            WigItem item = iter.next();
+            float v = item.getWigValue();
+            for (int b = item.getStartBase() / reduction; b <= (item.getEndBase() - 1) / reduction; b++) {
+                int s = Math.max(item.getStartBase(), b * reduction);
+                int e = Math.min(item.getEndBase(), (b + 1) * reduction);
+                double[] bin = bins.get(b);
+                if (bin == null) {
+                    bin = new double[]{s, e, 0, v, v, 0, 0};
+                    bins.put(b, bin);
+                }
+                bin[1] = Math.max(bin[1], e);
+                bin[2] += e - s;
+                bin[3] = Math.min(bin[3], v);
+                bin[4] = Math.max(bin[4], v);
+                bin[5] += (double) v * (e - s);
+                bin[6] += (double) v * v * (e - s);
+            }
+        }
+        return bins;
+    }
+}
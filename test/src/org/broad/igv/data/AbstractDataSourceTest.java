@@ -33,7 +33,10 @@ import org.broad.igv.util.ResourceLocator;
 import org.broad.igv.util.TestUtils;
 import org.junit.Test;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
@@ -128,6 +131,39 @@ public class AbstractDataSourceTest extends AbstractHeadlessTest {
 
     }
 
+    @Test
+    public void testParallelSummaryTiles() throws Exception {
+
+        TestDataSource serial = new TestDataSource();
+        TestDataSource parallel = new TestDataSource(serial.starts, serial.ends, serial.values);
+        parallel.parallel = true;
+        parallel.delay = 5;
+
+        // Several threads request the same tiles at once,  each tile should be computed just once
+        int zoom = 4;
+        List<Thread> threads = new ArrayList<>();
+        List<List<LocusScore>> results = Collections.synchronizedList(new ArrayList<>());
+        for (int i = 0; i < 4; i++) {
+            Thread t = new Thread(() -> results.add(parallel.getSummaryScoresForRange("chr1", 0, 10000, zoom)));
+            threads.add(t);
+            t.start();
+        }
+        for (Thread t : threads) {
+            t.join();
+        }
+        assertEquals(18, parallel.rawDataCount.get());   // 16 tiles,  plus two empty tiles past the end
+
+        List<LocusScore> expected = serial.getSummaryScoresForRange("chr1", 0, 10000, zoom);
+        assertEquals(4, results.size());
+        for (List<LocusScore> scores : results) {
+            assertEquals(expected.size(), scores.size());
+            for (int i = 0; i < expected.size(); i++) {
+                assertEquals(expected.get(i).getStart(), scores.get(i).getStart());
+                assertEquals(expected.get(i).getEnd(), scores.get(i).getEnd());
+                assertEquals(expected.get(i).getScore(), scores.get(i).getScore(), 0);
+            }
+        }
+    }
 
     public class TestDataSource extends AbstractDataSource {
 
@@ -137,6 +173,9 @@ public class AbstractDataSourceTest extends AbstractHeadlessTest {
         int[] ends;
         float[] values;
         String[] probes;
+        boolean parallel = false;
+        int delay = 0;
+        AtomicInteger rawDataCount = new AtomicInteger();
 
         TestDataSource(int[] starts, int[] ends, float[] values) {
             super(null);
@@ -165,9 +204,27 @@ public class AbstractDataSourceTest extends AbstractHeadlessTest {
         }
 
         protected DataTile getRawData(String chr, int startLocation, int endLocation) {
+            rawDataCount.incrementAndGet();
+            if (delay > 0) {
+                try {
+                    Thread.sleep(delay);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
             return new DataTile(starts, ends, values, probes);
         }
 
+        @Override
+        public int getChrLength(String chr) {
+            return nPts;
+        }
+
+        @Override
+        protected boolean isParallelSummaryEnabled() {
+            return parallel;
+        }
+
         @Override
         protected List<LocusScore> getPrecomputedSummaryScores(String chr, int startLocation, int endLocation, int zoom) {
             return null;  //To change body of implemented methods use File | Settings | File Templates.
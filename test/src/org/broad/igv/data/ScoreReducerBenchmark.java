@@ -0,0 +1,60 @@
+package org.broad.igv.data;
+
+import org.broad.igv.feature.LocusScore;
+import org.broad.igv.track.WindowFunction;
+import org.broad.igv.util.BenchmarkUtils;
+import org.junit.Ignore;
+
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Timing comparison of summarizing with score objects and an {@link org.broad.igv.tdf.Accumulator},  and with
+ * {@link ScoreReducer},  followed by the loop a renderer runs over the bins of each track.  Run as an application,
+ * it is not a unit test.
+ */
+@Ignore
+public class ScoreReducerBenchmark {
+
+    static final int N_TRACKS = 100;
+    static final int N_BINS = 700;
+
+    public static void main(String[] args) throws Exception {
+
+        ScoreReducerTest.RawData data = new ScoreReducerTest.RawData(new Random(1), 200000, false);
+        int end = data.starts[data.starts.length - 1];
+
+        for (WindowFunction wf : new WindowFunction[]{WindowFunction.mean, WindowFunction.max, WindowFunction.median}) {
+            double objectTime = time(() -> {
+                List<LocusScore> scores = ScoreReducerTest.legacySummary(data, 0, end, N_BINS, wf);
+                double sum = 0;
+                for (LocusScore score : scores) {
+                    sum += score.getStart() + score.getEnd() + score.getScore();
+                }
+                return sum;
+            });
+            double packedTime = time(() -> {
+                PackedScores scores = ScoreReducer.getInstance().reduce(data.starts, data.ends, data.values,
+                        data.names, 0, end, N_BINS, wf);
+                double sum = 0;
+                for (int i = 0; i < scores.size(); i++) {
+                    sum += scores.getStart(i) + scores.getEnd(i) + scores.getScore(i);
+                }
+                return sum;
+            });
+            System.out.println(String.format("%-10s %d tracks   objects: %8.1f ms   packed: %8.1f ms", wf,
+                    N_TRACKS, objectTime, packedTime));
+        }
+    }
+
+    /**
+     * @return the time to summarize {@link #N_TRACKS} tracks,  in ms
+     */
+    static double time(BenchmarkUtils.Task track) throws Exception {
+        return BenchmarkUtils.time(() -> {
+            double sum = 0;
+            for (int t = 0; t < N_TRACKS; t++) sum += track.run();
+            return sum;
+        });
+    }
+}
@@ -0,0 +1,193 @@
+package org.broad.igv.data;
+
+import org.apache.commons.math.stat.StatUtils;
+import org.broad.igv.feature.LocusScore;
+import org.broad.igv.tdf.Accumulator;
+import org.broad.igv.track.WindowFunction;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class ScoreReducerTest {
+
+    static final WindowFunction[] WINDOW_FUNCTIONS = {WindowFunction.mean, WindowFunction.min, WindowFunction.max,
+            WindowFunction.median, WindowFunction.percentile2, WindowFunction.percentile10,
+            WindowFunction.percentile90, WindowFunction.percentile98, WindowFunction.count, WindowFunction.none};
+
+    /**
+     * The packed summary must match the summary computed with score objects and an {@link Accumulator}
+     */
+    @Test
+    public void testMatchesAccumulator() {
+
+        Random random = new Random(8);
+        for (boolean named : new boolean[]{false, true}) {
+            RawData data = new RawData(random, 20000, named);
+            int[][] intervals = {{0, 1000000}, {12345, 67890}, {500000, 500700}, {0, 10}};
+            for (int[] interval : intervals) {
+                for (int nBins : new int[]{1, 700}) {
+                    for (WindowFunction wf : WINDOW_FUNCTIONS) {
+                        List<LocusScore> expected = legacySummary(data, interval[0], interval[1], nBins, wf);
+                        PackedScores actual = ScoreReducer.getInstance().reduce(data.starts, data.ends, data.values,
+                                data.names, interval[0], interval[1], nBins, wf);
+                        assertScoresEqual(expected, actual);
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testPercentile() {
+        Random random = new Random(3);
+        for (int n = 1; n < 50; n++) {
+            double[] values = new double[n];
+            for (int i = 0; i < n; i++) values[i] = random.nextGaussian();
+            for (double p : new double[]{2, 10, 50, 90, 98}) {
+                double expected = StatUtils.percentile(values, p);
+                assertEquals(expected, ScoreReducer.percentile(values.clone(), n, p), 0);
+            }
+        }
+    }
+
+    @Test
+    public void testSubListAndConcat() {
+
+        RawData data = new RawData(new Random(5), 5000, true);
+        PackedScores a = ScoreReducer.getInstance().reduce(data.starts, data.ends, data.values, data.names,
+                0, 100000, 700, WindowFunction.mean);
+        PackedScores b = ScoreReducer.getInstance().reduce(data.starts, data.ends, data.values, data.names,
+                100000, 200000, 700, WindowFunction.mean);
+
+        List<PackedScores> parts = Arrays.asList(a, PackedScores.EMPTY, (PackedScores) b.subList(3, 10));
+        PackedScores all = PackedScores.concat(parts);
+        assertEquals(a.size() + 7, all.size());
+        List<LocusScore> expected = new ArrayList<>(a);
+        expected.addAll(b.subList(3, 10));
+        assertScoresEqual(expected, all);
+
+        assertSame(a, PackedScores.concat(Arrays.asList(PackedScores.EMPTY, a)));
+        assertEquals(0, PackedScores.concat(new ArrayList<>()).size());
+    }
+
+    private static void assertScoresEqual(List<LocusScore> expected, PackedScores actual) {
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            LocusScore e = expected.get(i);
+            LocusScore a = actual.get(i);
+            assertEquals(e.getStart(), actual.getStart(i));
+            assertEquals(e.getEnd(), actual.getEnd(i));
+            assertEquals(Float.floatToIntBits(e.getScore()), Float.floatToIntBits(actual.getScore(i)));
+            assertEquals(e.getClass(), a.getClass());
+            assertEquals(e.getValueString(0, 0, WindowFunction.mean), a.getValueString(0, 0, WindowFunction.mean));
+        }
+    }
+
+    /**
+     * Summary with score objects and accumulators,  as computed before {@link ScoreReducer}
+     */
+    static List<LocusScore> legacySummary(RawData data, int startLocation, int endLocation, int nBins,
+                                          WindowFunction windowFunction) {
+
+        int[] starts = data.starts;
+        int[] ends = data.ends;
+        float[] values = data.values;
+        String[] features = data.names;
+        List<LocusScore> scores = new ArrayList<>();
+
+        if (windowFunction == WindowFunction.none) {
+            for (int i = 0; i < starts.length; i++) {
+                int s = starts[i];
+                int e = Math.max(s + 1, ends[i]);
+                if (e < startLocation) {
+                    continue;
+                } else if (s >= endLocation) {
+                    break;
+                }
+                scores.add(new NamedScore(s, e, values[i], features == null ? null : features[i]));
+            }
+            return scores;
+        }
+
+        double scale = (double) (endLocation - startLocation) / nBins;
+        Accumulator accumulator = new Accumulator(windowFunction, 5);
+        int accumulatedStart = -1;
+        int accumulatedEnd = -1;
+        int lastEndBin = 0;
+        for (int i = 0; i < starts.length; i++) {
+            int true_end = ends[i];
+            float v = values[i];
+            if (starts[i] >= endLocation) {
+                break;
+            } else if (true_end <= startLocation || Float.isNaN(v)) {
+                continue;
+            }
+            int s = Math.max(startLocation, starts[i]);
+            int e = Math.min(endLocation, true_end);
+            String probeName = features == null ? null : features[i];
+            int endBin = (int) ((e - startLocation) / scale);
+            int startBin = (int) ((s - startLocation) / scale);
+            if (endBin > lastEndBin || endBin > startBin) {
+                if (accumulator.hasData()) {
+                    scores.add(getCompositeScore(accumulator, accumulatedStart, accumulatedEnd, windowFunction));
+                    accumulator = new Accumulator(windowFunction, 5);
+                }
+            }
+            if (endBin > startBin) {
+                scores.add(new NamedScore(s, e, v, probeName));
+            } else {
+                if (!accumulator.hasData()) accumulatedStart = s;
+                accumulatedEnd = e;
+                accumulator.add(e - s, v, probeName);
+            }
+            lastEndBin = endBin;
+        }
+        if (accumulator.hasData()) {
+            scores.add(getCompositeScore(accumulator, accumulatedStart, accumulatedEnd, windowFunction));
+        }
+        return scores;
+    }
+
+    private static LocusScore getCompositeScore(Accumulator accumulator, int start, int end, WindowFunction wf) {
+        if (accumulator.getNpts() == 1) {
+            return new NamedScore(start, end, accumulator.getRepData()[0], accumulator.getRepProbes()[0]);
+        } else {
+            return new CompositeScore(start, end, accumulator.getValue(), accumulator.getRepData(),
+                    accumulator.getRepProbes(), wf);
+        }
+    }
+
+    /**
+     * Sorted features of random length,  with gaps,  overlaps,  zero length features and NaN values
+     */
+    static class RawData {
+
+        final int[] starts;
+        final int[] ends;
+        final float[] values;
+        final String[] names;
+
+        RawData(Random random, int n, boolean named) {
+            starts = new int[n];
+            ends = new int[n];
+            values = new float[n];
+            names = named ? new String[n] : null;
+            int pos = 0;
+            for (int i = 0; i < n; i++) {
+                pos += random.nextInt(100);
+                starts[i] = pos;
+                int r = random.nextInt(20);
+                ends[i] = pos + (r == 0 ? 0 : r < 18 ? random.nextInt(50) + 1 : random.nextInt(5000));
+                values[i] = random.nextInt(50) == 0 ? Float.NaN : (float) (random.nextGaussian() * 10);
+                if (named) {
+                    names[i] = "probe" + i;
+                }
+            }
+        }
+    }
+}
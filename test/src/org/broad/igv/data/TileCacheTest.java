@@ -0,0 +1,81 @@
+package org.broad.igv.data;
+
+import org.junit.Test;
+
+import static junit.framework.Assert.*;
+
+public class TileCacheTest {
+
+    @Test
+    public void testCapacity() {
+        TileCache cache = new TileCache(1000);
+        int s1 = cache.newSource();
+        int s2 = cache.newSource();
+
+        for (int t = 0; t < 5; t++) {
+            cache.put(cache.key(s1, "chr1", 0, t, 0), "tile" + t, 100);
+        }
+        cache.put(cache.key(s2, "chr1", 0, 0, 0), "big", 400);
+        assertEquals(900, cache.getBytes());
+
+        // Touch tile 0 of source 1,  so tile 1 is least recently used
+        assertEquals("tile0", cache.get(cache.key(s1, "chr1", 0, 0, 0)));
+        cache.put(cache.key(s2, "chr2", 0, 0, 0), "tile", 200);
+        assertEquals(1000, cache.getBytes());
+        assertFalse(cache.containsKey(cache.key(s1, "chr1", 0, 1, 0)));
+        assertTrue(cache.containsKey(cache.key(s1, "chr1", 0, 0, 0)));
+        assertEquals(1, cache.getEvictionCount());
+        assertEquals(400, cache.getBytes(s1));
+        assertEquals(600, cache.getBytes(s2));
+
+        // Tiles larger than the cache are not cached
+        cache.put(cache.key(s1, "chr1", 0, 99, 0), "huge", 2000);
+        assertFalse(cache.containsKey(cache.key(s1, "chr1", 0, 99, 0)));
+        assertEquals(1000, cache.getBytes());
+    }
+
+    @Test
+    public void testQuota() {
+        TileCache cache = new TileCache(10000);
+        int limited = cache.newSource(300);
+        int other = cache.newSource();
+        cache.put(cache.key(other, "chr1", 0, 0, 0), "other", 100);
+
+        for (int t = 0; t < 10; t++) {
+            cache.put(cache.key(limited, "chr1", 0, t, 0), "tile" + t, 100);
+        }
+        assertEquals(300, cache.getBytes(limited));
+        assertEquals(400, cache.getBytes());
+        assertTrue(cache.containsKey(cache.key(other, "chr1", 0, 0, 0)));
+        for (int t = 7; t < 10; t++) {
+            assertTrue(cache.containsKey(cache.key(limited, "chr1", 0, t, 0)));
+        }
+    }
+
+    @Test
+    public void testKeysAndMetrics() {
+        TileCache cache = new TileCache(10000);
+        int s = cache.newSource();
+        Object missing = new Object();
+
+        cache.put(cache.key(s, "chr1", 2, 5, 1), null, 16);
+        assertSame(null, cache.get(cache.key(s, "chr1", 2, 5, 1), missing));
+        assertSame(missing, cache.get(cache.key(s, "chr1", 2, 5, 0), missing));
+        assertSame(missing, cache.get(cache.key(s, "chr2", 2, 5, 1), missing));
+        assertSame(missing, cache.get(cache.key(s, "chr1", 3, 5, 1), missing));
+        assertSame(missing, cache.get(cache.key(s, "chr1", 2, 5L << 32, 1), missing));
+        assertEquals(1, cache.getHitCount());
+        assertEquals(4, cache.getMissCount());
+
+        cache.put(cache.key(s, "chr2", 0, 0, 0), "tile", 100);
+        cache.invalidate(s, "chr1");
+        assertEquals(1, cache.getEntryCount());
+        cache.removeSource(s);
+        assertEquals(0, cache.getEntryCount());
+        assertEquals(0, cache.getBytes());
+
+        // Removed sources are not cached
+        cache.put(cache.key(s, "chr1", 0, 0, 0), "tile", 100);
+        assertEquals(0, cache.getEntryCount());
+    }
+}
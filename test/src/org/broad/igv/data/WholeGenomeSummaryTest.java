@@ -0,0 +1,101 @@
+package org.broad.igv.data;
+
+import org.broad.igv.Globals;
+import org.broad.igv.feature.Chromosome;
+import org.broad.igv.feature.genome.Genome;
+import org.broad.igv.tdf.TDFBedTile;
+import org.broad.igv.tdf.TDFReader;
+import org.broad.igv.tdf.TDFTile;
+import org.broad.igv.tools.Preprocessor;
+import org.broad.igv.track.TrackType;
+import org.broad.igv.track.WindowFunction;
+import org.broad.igv.util.TestUtils;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static junit.framework.Assert.*;
+
+public class WholeGenomeSummaryTest {
+
+    @Before
+    public void setUp() {
+        Globals.setHeadless(true);
+        new File(TestUtils.TMP_OUTPUT_DIR).mkdirs();
+    }
+
+    @Test
+    public void testReadWrite() throws Exception {
+        WholeGenomeSummary summary = new WholeGenomeSummary(new int[]{0, 10, 20}, new int[]{10, 20, 30},
+                new float[][]{{1, Float.NaN, 3}, {4, 5, 6}});
+        File file = new File(TestUtils.TMP_OUTPUT_DIR, "test.wg");
+        summary.write(file, "test.tdf", 100, 200, "hg19", "mean");
+
+        WholeGenomeSummary copy = WholeGenomeSummary.read(file, "test.tdf", 100, 200, "hg19", "mean");
+        assertTrue(Arrays.equals(summary.getStarts(), copy.getStarts()));
+        assertTrue(Arrays.equals(summary.getEnds(), copy.getEnds()));
+        assertTrue(Arrays.equals(summary.getValues()[0], copy.getValues()[0]));
+        assertTrue(Arrays.equals(summary.getValues()[1], copy.getValues()[1]));
+        assertEquals(2, copy.getScores(0).size());
+        assertEquals(3, copy.getScores(1).size());
+
+        // Rejected if the file,  genome or variant differ
+        assertNull(WholeGenomeSummary.read(file, "test.tdf", 100, 201, "hg19", "mean"));
+        assertNull(WholeGenomeSummary.read(file, "test.tdf", 100, 200, "hg18", "mean"));
+        assertNull(WholeGenomeSummary.read(file, "test.tdf", 100, 200, "hg19", "max"));
+        file.delete();
+    }
+
+    /**
+     * The whole genome tile of a TDF file is computed once per window function,  and reused by later readers
+     */
+    @Test
+    public void testTDFWholeGenomeTile() throws Exception {
+
+        List<Chromosome> chromosomes = Arrays.asList(new Chromosome(0, "chr1", 3000000),
+                new Chromosome(1, "chr2", 2000000));
+        Genome genome = new Genome("wgtest", chromosomes);
+        File file = new File(TestUtils.TMP_OUTPUT_DIR, "wgtest.tdf");
+
+        Preprocessor p = new Preprocessor(file, genome, Arrays.asList(WindowFunction.mean, WindowFunction.max),
+                -1, null);
+        p.setTrackParameters(TrackType.OTHER, null, new String[]{"a"}, false);
+        Random random = new Random(1);
+        for (Chromosome chr : chromosomes) {
+            p.newChromosome(chr.getName());
+            for (int start = 0; start < chr.getLength() - 100; start += 100) {
+                p.addData(chr.getName(), start, start + 50, new float[]{random.nextFloat()}, null);
+            }
+        }
+        p.finish();
+
+        TDFReader reader = TDFReader.getReader(file.getAbsolutePath());
+        TDFTile mean = reader.getWholeGenomeTile(genome, WindowFunction.mean);
+        TDFTile max = reader.getWholeGenomeTile(genome, WindowFunction.max);
+        assertSame(mean, reader.getWholeGenomeTile(genome, WindowFunction.mean));
+        assertEquals(mean.getSize(), max.getSize());
+        boolean greater = false;
+        for (int i = 0; i < mean.getSize(); i++) {
+            assertTrue(max.getValue(0, i) >= mean.getValue(0, i));
+            greater |= max.getValue(0, i) > mean.getValue(0, i);
+        }
+        assertTrue(greater);
+        reader.close();
+
+        TDFReader reader2 = TDFReader.getReader(file.getAbsolutePath());
+        TDFTile mean2 = reader2.getWholeGenomeTile(genome, WindowFunction.mean);
+        assertTrue(mean2 instanceof TDFBedTile);
+        assertEquals(mean.getSize(), mean2.getSize());
+        for (int i = 0; i < mean.getSize(); i++) {
+            assertEquals(mean.getStartPosition(i), mean2.getStartPosition(i));
+            assertEquals(mean.getEndPosition(i), mean2.getEndPosition(i));
+            assertEquals(mean.getValue(0, i), mean2.getValue(0, i));
+        }
+        reader2.close();
+        file.delete();
+    }
+}
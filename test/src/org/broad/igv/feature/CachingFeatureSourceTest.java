@@ -0,0 +1,232 @@
+package org.broad.igv.feature;
+
+import htsjdk.tribble.Feature;
+import org.broad.igv.track.FeatureSource;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class CachingFeatureSourceTest {
+
+    /**
+     * Cached queries return the features of the source,  and bins adapt to the density of features
+     */
+    @Test
+    public void testQuery() throws Exception {
+
+        // Dense on chr1,  sparse on chr2
+        TestSource source = new TestSource();
+        source.addFeatures("chr1", 1, 200000);
+        source.addFeatures("chr2", 5000, 10000000);
+        CachingFeatureSource cachingSource = new CachingFeatureSource(source, 16000);
+        try {
+            Random random = new Random(1);
+            for (int i = 0; i < 100; i++) {
+                String chr = i % 2 == 0 ? "chr1" : "chr2";
+                int length = chr.equals("chr1") ? 5000 : 500000;
+                int start = random.nextInt(length * 40);
+                int end = start + random.nextInt(length);
+                assertEquals(chr + ":" + start + "-" + end,
+                        getStarts(source.getFeatures(chr, start, end)),
+                        getStarts(cachingSource.getFeatures(chr, start, end)));
+            }
+            assertEquals(16000 >> AbstractCacher.MAX_BIN_SHIFT, cachingSource.getBinSize("chr1"));
+            assertEquals(16000 << AbstractCacher.MAX_BIN_SHIFT, cachingSource.getBinSize("chr2"));
+            assertEquals(16000, cachingSource.getBinSize("chr3"));
+
+            // A query of bins already loaded does not reach the source
+            cachingSource.getFeatures("chr1", 1000, 2000);
+            int queryCount = source.queryCount.get();
+            long hits = cachingSource.getHitCount();
+            cachingSource.getFeatures("chr1", 1000, 2000);
+            assertEquals(queryCount, source.queryCount.get());
+            assertTrue(cachingSource.getHitCount() > hits);
+            assertTrue(cachingSource.getMissCount() > 0);
+            assertTrue(cachingSource.getCachedBytes() > 0);
+        } finally {
+            cachingSource.close();
+        }
+        assertEquals(0, cachingSource.getCachedBytes());
+    }
+
+    /**
+     * A thread needing bins another is loading waits for them rather than loading them again
+     */
+    @Test
+    public void testCoalesce() throws Exception {
+
+        TestSource source = new TestSource();
+        source.addFeatures("chr1", 100, 100000);
+        source.started = new CountDownLatch(1);
+        source.release = new CountDownLatch(1);
+        CachingFeatureSource cachingSource = new CachingFeatureSource(source, 16000);
+        try {
+            List<Integer> first = new ArrayList<>();
+            Thread loader = new Thread(() -> {
+                try {
+                    first.addAll(getStarts(cachingSource.getFeatures("chr1", 1000, 5000)));
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            });
+            loader.start();
+            source.started.await();
+
+            List<Integer> second = new ArrayList<>();
+            Thread waiter = new Thread(() -> {
+                try {
+                    second.addAll(getStarts(cachingSource.getFeatures("chr1", 2000, 4000)));
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            });
+            waiter.start();
+            while (cachingSource.getCoalescedCount() == 0) {
+                Thread.sleep(1);
+            }
+            source.release.countDown();
+            loader.join();
+            waiter.join();
+
+            assertEquals(1, source.queryCount.get());
+            assertEquals(getStarts(source.getFeatures("chr1", 1000, 5000)), first);
+            assertEquals(getStarts(source.getFeatures("chr1", 2000, 4000)), second);
+        } finally {
+            cachingSource.close();
+        }
+    }
+
+    /**
+     * A failed load releases the bins of every run of the query,  for runtime exceptions and errors alike
+     */
+    @Test
+    public void testFailure() throws Exception {
+
+        TestSource source = new TestSource();
+        source.addFeatures("chr1", 16, 100000);     // About 1000 features per bin,  so the bin size is kept
+        CachingFeatureSource cachingSource = new CachingFeatureSource(source, 16000);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            for (Throwable failure : new Throwable[]{new RuntimeException("test"), new AssertionError("test")}) {
+
+                // Load bin 2,  so a query of bins 0-4 is loaded in two runs,  0-1 and 3-4
+                cachingSource.setBinSize(16000);
+                cachingSource.getFeatures("chr1", 2 * 16000 + 10, 2 * 16000 + 20);
+
+                source.failure = failure;
+                try {
+                    cachingSource.getFeatures("chr1", 10, 4 * 16000 + 10);
+                    fail("Expected " + failure);
+                } catch (RuntimeException | Error e) {
+                    assertSame(failure, e);
+                }
+                source.failure = null;
+
+                // Bins of the second run can be loaded,  they are not left in flight
+                Future<List<Integer>> future = executor.submit(() ->
+                        getStarts(cachingSource.getFeatures("chr1", 3 * 16000 + 10, 4 * 16000 + 10)));
+                assertEquals(getStarts(source.getFeatures("chr1", 3 * 16000 + 10, 4 * 16000 + 10)),
+                        future.get(5, TimeUnit.SECONDS));
+                assertEquals(16000, cachingSource.getBinSize("chr1"));
+            }
+        } finally {
+            executor.shutdownNow();
+            cachingSource.close();
+        }
+    }
+
+    /**
+     * Bins are sized by the estimated size of their features
+     */
+    @Test
+    public void testEstimateSize() throws Exception {
+
+        TestSource source = new TestSource();
+        source.addFeatures("chr1", 100, 16000);
+        CachingFeatureSource cachingSource = new CachingFeatureSource(source, 16000);
+        CachingFeatureSource largeSource = new CachingFeatureSource(source, 16000) {
+            @Override
+            protected long estimateSize(Feature feature) {
+                return 100 * super.estimateSize(feature);
+            }
+        };
+        try {
+            cachingSource.getFeatures("chr1", 0, 1000);
+            largeSource.getFeatures("chr1", 0, 1000);
+            assertTrue(largeSource.getCachedBytes() > 50 * cachingSource.getCachedBytes());
+        } finally {
+            cachingSource.close();
+            largeSource.close();
+        }
+    }
+
+    private static List<Integer> getStarts(Iterator<Feature> iter) {
+        List<Integer> starts = new ArrayList<>();
+        while (iter.hasNext()) {
+            starts.add(iter.next().getStart());
+        }
+        return starts;
+    }
+
+    static class TestSource implements FeatureSource<Feature> {
+
+        final List<Feature> features = new ArrayList<>();
+        final AtomicInteger queryCount = new AtomicInteger();
+        CountDownLatch started;
+        CountDownLatch release;
+        volatile Throwable failure;
+
+        void addFeatures(String chr, int spacing, int length) {
+            for (int start = 0; start < length; start += spacing) {
+                features.add(new BasicFeature(chr, start, start + 1 + (start % 700)));
+            }
+        }
+
+        public Iterator<Feature> getFeatures(String chr, int start, int end) {
+            queryCount.incrementAndGet();
+            Throwable failure = this.failure;
+            if (failure instanceof RuntimeException) {
+                throw (RuntimeException) failure;
+            } else if (failure instanceof Error) {
+                throw (Error) failure;
+            }
+            if (started != null) {
+                started.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            List<Feature> result = new ArrayList<>();
+            for (Feature f : features) {
+                if (f.getChr().equals(chr) && f.getEnd() >= start && f.getStart() <= end) {
+                    result.add(f);
+                }
+            }
+            return result.iterator();
+        }
+
+        public List<LocusScore> getCoverageScores(String chr, int start, int end, int zoom) {
+            return null;
+        }
+
+        public int getFeatureWindowSize() {
+            return -1;
+        }
+
+        public void setFeatureWindowSize(int size) {
+        }
+    }
+}
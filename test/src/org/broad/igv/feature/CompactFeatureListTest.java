@@ -0,0 +1,258 @@
+package org.broad.igv.feature;
+
+import htsjdk.tribble.Feature;
+import org.broad.igv.Globals;
+import org.broad.igv.util.collections.MultiMap;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.awt.*;
+import java.util.*;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class CompactFeatureListTest {
+
+    private boolean headless;
+
+    @Before
+    public void setUp() {
+        headless = Globals.isHeadless();
+        Globals.setHeadless(true);
+        FeatureDB.clearFeatures();
+    }
+
+    @After
+    public void tearDown() {
+        FeatureDB.clearFeatures();
+        Globals.setHeadless(headless);
+    }
+
+    /**
+     * Features read back from a compact list equal the features encoded,  in order of start
+     */
+    @Test
+    public void testRoundTrip() {
+
+        List<Feature> features = createFeatures(new Random(1), 2000);
+        CompactFeatureList list = build(features);
+
+        List<Feature> expected = new ArrayList<>(features);
+        expected.sort(FeatureUtils.FEATURE_START_COMPARATOR);
+        assertEquals(expected.size(), list.size());
+        int nObjects = 0;
+        for (int i = 0; i < expected.size(); i++) {
+            Feature original = expected.get(i);
+            Feature actual = list.get(i);
+            if (list.getObject(i) != null) {
+                assertSame(original, actual);
+                nObjects++;
+            } else {
+                assertEquals(BasicFeature.class, actual.getClass());
+                assertEquals(describe((BasicFeature) original), describe((BasicFeature) actual));
+            }
+        }
+        assertTrue(nObjects > 0 && nObjects < expected.size() / 10);
+
+        // Sorting by start leaves the list as it is
+        FeatureUtils.sortFeatureList(list);
+        assertEquals(expected.get(0).getStart(), list.get(0).getStart());
+    }
+
+    /**
+     * Overlap queries match a scan with the overlap predicate
+     */
+    @Test
+    public void testGetFeatures() {
+
+        Random random = new Random(2);
+        List<Feature> features = createFeatures(random, 3000);
+        CompactFeatureList list = build(features);
+
+        for (int q = 0; q < 200; q++) {
+            int start = random.nextInt(1100000) - 50000;
+            int end = start + random.nextInt(q % 10 == 0 ? 200000 : 5000);
+            String chr = q % 20 == 0 ? "1" : "chr1";
+
+            List<Feature> expected = new ArrayList<>();
+            for (Feature f : list) {
+                if (FeatureUtils.getOverlapPredicate(chr, start, end).apply(f)) {
+                    expected.add(f);
+                }
+            }
+            List<Feature> actual = list.getFeatures(chr, start, end);
+            assertEquals(chr + ":" + start + "-" + end, expected.size(), actual.size());
+            for (int i = 0; i < expected.size(); i++) {
+                assertEquals(expected.get(i).getStart(), actual.get(i).getStart());
+                assertEquals(expected.get(i).getEnd(), actual.get(i).getEnd());
+            }
+        }
+    }
+
+    /**
+     * The feature database refers to the rows of a compact list in place of the features encoded,  and returns
+     * materialized features
+     */
+    @Test
+    public void testFeatureDB() {
+
+        List<Feature> features = createFeatures(new Random(3), 500);
+        for (Feature f : features) {
+            FeatureDB.addFeature((NamedFeature) f, null);
+        }
+        CompactFeatureList list = build(features);
+        FeatureDB.addFeatures(list, null);
+
+        BasicFeature original = null;
+        for (Feature f : features) {
+            if (f.getClass() == BasicFeature.class && f.getChr().equals("chr1") &&
+                    ((BasicFeature) f).getName() != null && ((BasicFeature) f).getExonCount() > 0) {
+                original = (BasicFeature) f;
+                break;
+            }
+        }
+        List<NamedFeature> found = FeatureDB.getFeaturesList(original.getName(), 10, false);
+        assertEquals(1, found.size());
+        assertNotSame(original, found.get(0));
+        assertEquals(describe(original), describe((BasicFeature) found.get(0)));
+
+        // Found by identifier and exon attribute too
+        assertEquals(original.getStart(), FeatureDB.getFeature(original.getIdentifier()).getStart());
+        assertEquals(original.getStart(), FeatureDB.getFeature("exon" + original.getStart()).getStart());
+
+        // Features kept as objects are not duplicated
+        for (Feature f : features) {
+            if (f.getClass() != BasicFeature.class && ((NamedFeature) f).getName() != null) {
+                assertEquals(1, FeatureDB.getFeaturesList(((NamedFeature) f).getName(), 10, false).size());
+                assertSame(f, FeatureDB.getFeature(((NamedFeature) f).getName()));
+            }
+        }
+    }
+
+    private static CompactFeatureList build(List<Feature> features) {
+        CompactFeatureList.Builder builder = new CompactFeatureList.Builder();
+        for (Feature f : features) {
+            builder.add("chr1", f);
+        }
+        Map<String, List<Feature>> featureMap = builder.build();
+        assertEquals(1, featureMap.size());
+        return (CompactFeatureList) featureMap.get("chr1");
+    }
+
+    /**
+     * Gene-like features in random order,  with a few subclasses and aliased chromosome names that are kept as objects
+     */
+    private static List<Feature> createFeatures(Random random, int n) {
+
+        Color[] colors = {null, Color.red, new Color(0, 100, 200, 128)};
+        String[] types = {"gene", "mRNA", null};
+        List<Feature> features = new ArrayList<>();
+        for (int i = 0; i < n; i++) {
+            int start = random.nextInt(1000000);
+            int length = random.nextInt(20) == 0 ? random.nextInt(100000) : 1 + random.nextInt(5000);
+            Strand strand = Strand.values()[random.nextInt(Strand.values().length)];
+            String chr = i % 97 == 0 ? "1" : "chr1";
+
+            BasicFeature f = i % 53 == 0 ?
+                    new SpliceJunctionFeature(chr, start, start + length, strand) :
+                    new BasicFeature(chr, start, start + length, strand);
+            f.setName(i % 10 == 0 ? null : "gene" + i);
+            f.setIdentifier("id" + i);
+            f.setType(types[i % types.length]);
+            f.setColor(colors[i % colors.length]);
+            f.setScore(i % 3 == 0 ? Float.NaN : random.nextFloat() * 1000);
+            f.setReadingFrame(i % 4 - 1);
+            f.setURL(i % 5 == 0 ? "http://example.com/" + i : null);
+            if (i % 7 == 0) f.setDescription("Gene number " + i);
+            if (i % 2 == 0) f.setRepresentation("chr1\t" + start + "\tgène" + i);
+            if (i % 3 == 0) f.setParentIds(new String[]{"parent" + (i / 10), null});
+            if (i % 4 != 0) {
+                MultiMap<String, String> attributes = new MultiMap<>();
+                attributes.put("ID", "id" + i);
+                attributes.put("Note", "note");
+                attributes.put("Alias", "alias" + i);
+                attributes.put("Note", "second note");
+                f.setAttributes(attributes);
+            }
+
+            if (i % 5 != 1) {
+                List<Exon> exons = new ArrayList<>();
+                int nExons = random.nextInt(5);
+                for (int e = 0; e < nExons; e++) {
+                    int exonStart = start + e * length / Math.max(1, nExons);
+                    int exonEnd = Math.min(start + length, exonStart + 1 + length / (2 * nExons));
+                    Exon exon = new Exon(chr, exonStart, exonEnd, strand);
+                    if (e == 0) {
+                        exon.setNonCoding(true);
+                        exon.setType("five_prime_UTR");
+                    } else {
+                        exon.setCodingStart(exonStart + e);
+                        exon.setCodingEnd(exonEnd - 1);
+                    }
+                    exon.setNumber(e + 1);
+                    exon.setMrnaBase(e * 100);
+                    exon.setReadingFrame(e % 3);
+                    exon.setName("exon" + start);
+                    if (e == nExons - 1) {
+                        exon.setColor(Color.blue);
+                        exon.setDescription("Last exon");
+                        exon.setAttribute("exon_id", "exon" + start);
+                    }
+                    exons.add(exon);
+                }
+                f.exons = exons;
+            }
+            features.add(f);
+        }
+        Collections.shuffle(features, random);
+        return features;
+    }
+
+    private static String describe(BasicFeature f) {
+        StringBuilder buf = new StringBuilder();
+        buf.append(f.getChr()).append(':').append(f.getStart()).append('-').append(f.getEnd())
+                .append(' ').append(f.getStrand())
+                .append(" thick=").append(f.getThickStart()).append('-').append(f.getThickEnd())
+                .append(" score=").append(f.getScore())
+                .append(" frame=").append(f.getReadingFrame())
+                .append(" name=").append(f.getName())
+                .append(" type=").append(f.getType())
+                .append(" id=").append(f.getIdentifier())
+                .append(" description=").append(f.description)
+                .append(" url=").append(f.getURL())
+                .append(" color=").append(f.getColor())
+                .append(" attributes=").append(describe(f.getAttributes()))
+                .append(" parents=").append(Arrays.toString(f.getParentIds()))
+                .append(" representation=").append(f.getRepresentation());
+        if (f.getExons() == null) {
+            buf.append(" exons=null");
+        } else {
+            for (Exon exon : f.getExons()) {
+                buf.append("\n  ").append(exon.getChr()).append(':').append(exon.getStart()).append('-')
+                        .append(exon.getEnd()).append(' ').append(exon.getStrand())
+                        .append(" coding=").append(exon.getCdStart()).append('-').append(exon.getCdEnd())
+                        .append(" nonCoding=").append(exon.isNonCoding())
+                        .append(" number=").append(exon.getNumber())
+                        .append(" mrnaBase=").append(exon.getMrnaBase())
+                        .append(" frame=").append(exon.getReadingFrame())
+                        .append(" name=").append(exon.getName())
+                        .append(" type=").append(exon.getType())
+                        .append(" description=").append(exon.description)
+                        .append(" color=").append(exon.getColor())
+                        .append(" attributes=").append(describe(exon.getAttributes()));
+            }
+        }
+        return buf.toString();
+    }
+
+    private static String describe(MultiMap<String, String> attributes) {
+        if (attributes == null) {
+            return "null";
+        }
+        StringBuilder buf = new StringBuilder();
+        attributes.forEach((key, value) -> buf.append(key).append('=').append(value).append(';'));
+        return buf.toString();
+    }
+}
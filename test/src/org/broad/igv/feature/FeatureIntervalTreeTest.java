@@ -0,0 +1,49 @@
+package org.broad.igv.feature;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+public class FeatureIntervalTreeTest {
+
+    /**
+     * Overlap queries match a scan of all features,  for tree sizes around powers of 2
+     */
+    @Test
+    public void testGetOverlapping() {
+
+        Random random = new Random(1);
+        int[] sizes = {0, 1, 2, 3, 7, 8, 9, 15, 16, 17, 31, 32, 33, 63, 64, 65, 100, 127, 128, 129, 1000, 1025};
+        for (int n : sizes) {
+            List<BasicFeature> features = new ArrayList<>();
+            for (int i = 0; i < n; i++) {
+                int start = random.nextInt(100000);
+                int length = random.nextInt(10) == 0 ? random.nextInt(20000) : random.nextInt(500);
+                features.add(new BasicFeature("chr1", start, start + length));
+            }
+            Collections.shuffle(features, random);
+
+            FeatureIntervalTree<BasicFeature> tree = new FeatureIntervalTree<>(features);
+            assertEquals(n, tree.size());
+
+            List<BasicFeature> sorted = new ArrayList<>(features);
+            sorted.sort(FeatureUtils.FEATURE_START_COMPARATOR);
+            for (int q = 0; q < 200; q++) {
+                int start = random.nextInt(110000) - 5000;
+                int end = start + random.nextInt(q % 10 == 0 ? 50000 : 1000);
+                List<BasicFeature> expected = new ArrayList<>();
+                for (BasicFeature f : sorted) {
+                    if (f.getStart() < end && f.getEnd() > start) {
+                        expected.add(f);
+                    }
+                }
+                assertEquals("n=" + n + " " + start + "-" + end, expected, tree.getOverlapping(start, end));
+            }
+        }
+    }
+}
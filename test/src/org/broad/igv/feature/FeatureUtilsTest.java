@@ -153,6 +153,35 @@ public class FeatureUtilsTest {
 
     }
 
+    @Test
+    public void testMergeRanges() {
+
+        List<Range> ranges = new ArrayList<>();
+        ranges.add(new Range("chr1", 5000, 6000));
+        ranges.add(new Range("chr2", 0, 1000));
+        ranges.add(new Range("chr1", 0, 1000));
+        ranges.add(new Range("chr1", 500, 1500));       // Overlaps
+        ranges.add(new Range("chr1", 2000, 3000));      // Gap shorter than the range
+        ranges.add(new Range("chr1", 10000, 11000));    // Gap longer than the range
+        ranges.add(new Range("chr1", 11500, 14000));    // Merged range would be too long
+
+        List<Range> merged = FeatureUtils.mergeRanges(ranges, 3000);
+        assertEquals(5, merged.size());
+        assertRange("chr1", 0, 3000, merged.get(0));
+        assertRange("chr1", 5000, 6000, merged.get(1));
+        assertRange("chr1", 10000, 11000, merged.get(2));
+        assertRange("chr1", 11500, 14000, merged.get(3));
+        assertRange("chr2", 0, 1000, merged.get(4));
+
+        assertEquals(4, FeatureUtils.mergeRanges(ranges, Integer.MAX_VALUE).size());
+    }
+
+    private static void assertRange(String chr, int start, int end, Range range) {
+        assertEquals(chr, range.getChr());
+        assertEquals(start, range.getStart());
+        assertEquals(end, range.getEnd());
+    }
+
     static class TestFeature implements LocusScore {
 
         private int start;
@@ -0,0 +1,172 @@
+package org.broad.igv.sam;
+
+import org.broad.igv.Globals;
+import org.broad.igv.feature.SpliceJunctionFeature;
+import org.broad.igv.feature.Strand;
+import org.broad.igv.prefs.PreferencesManager;
+import org.broad.igv.sam.reader.AlignmentReaderFactory;
+import org.broad.igv.util.ResourceLocator;
+import org.broad.igv.util.TestUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.List;
+
+import static junit.framework.Assert.*;
+import static org.broad.igv.prefs.Constants.SAM_QUALITY_THRESHOLD;
+
+public class AlignmentCountsCacheTest {
+
+    private static final byte[] BASES = {'A', 'C', 'G', 'T', 'N'};
+
+    private File bamFile = new File(TestUtils.DATA_DIR + "bam/gstt1_sample.bam");
+    private File cacheDir;
+    private int qualityThreshold;
+
+    @Before
+    public void setUp() {
+        Globals.setHeadless(true);
+        cacheDir = new File(TestUtils.TMP_OUTPUT_DIR, "countsCache");
+        delete(cacheDir);
+        qualityThreshold = PreferencesManager.getPreferences().getAsInt(SAM_QUALITY_THRESHOLD);
+    }
+
+    @After
+    public void tearDown() {
+        PreferencesManager.getPreferences().put(SAM_QUALITY_THRESHOLD, String.valueOf(qualityThreshold));
+        delete(cacheDir);
+    }
+
+    @Test
+    public void testCountsRoundTrip() throws Exception {
+
+        String chr = "chr22";
+        int start = 24375000;
+        int end = 24378000;
+
+        AlignmentTileLoader loader = new AlignmentTileLoader(AlignmentReaderFactory.getReader(new ResourceLocator(bamFile.getAbsolutePath())));
+        SpliceJunctionHelper.LoadOptions loadOptions = new SpliceJunctionHelper.LoadOptions();
+        SpliceJunctionHelper spliceJunctionHelper = new SpliceJunctionHelper(loadOptions);
+        AlignmentTileLoader.AlignmentTile tile = loader.loadTile(chr, start, end, spliceJunctionHelper,
+                new AlignmentDataManager.DownsampleOptions(), null, null, null, true);
+        loader.close();
+        assertTrue(tile.isLoaded());
+
+        AlignmentCountsCache cache = new AlignmentCountsCache(bamFile, cacheDir);
+        assertNull(cache.get(chr, start, end, loadOptions));
+
+        cache.put(chr, tile.getCounts(), spliceJunctionHelper);
+        cache.flush();
+
+        // A contained range is served by the entry, an overlapping one is not
+        AlignmentInterval interval = cache.get(chr, start + 1000, end - 1000, loadOptions);
+        assertNotNull(interval);
+        assertNull(cache.get(chr, start - 100, end, loadOptions));
+        assertNull(cache.get("chr21", start, end, loadOptions));
+
+        assertEquals(start, interval.getStart());
+        assertEquals(end, interval.getEnd());
+        assertEquals(0, interval.getAlignments().size());
+
+        AlignmentCounts expected = tile.getCounts();
+        AlignmentCounts counts = interval.getCounts();
+        int total = 0;
+        for (int pos = start; pos < end; pos++) {
+            assertEquals(expected.getTotalCount(pos), counts.getTotalCount(pos));
+            assertEquals(expected.getTotalQuality(pos), counts.getTotalQuality(pos));
+            assertEquals(expected.getDelCount(pos), counts.getDelCount(pos));
+            assertEquals(expected.getInsCount(pos), counts.getInsCount(pos));
+            for (byte b : BASES) {
+                assertEquals(expected.getPosCount(pos, b), counts.getPosCount(pos, b));
+                assertEquals(expected.getNegCount(pos, b), counts.getNegCount(pos, b));
+                assertEquals(expected.getQuality(pos, b), counts.getQuality(pos, b));
+            }
+            total += counts.getTotalCount(pos);
+        }
+        assertTrue(total > 0);
+        assertEquals(expected.getMaxCount(start, end), counts.getMaxCount(start, end));
+
+        // Entries for other filter settings are kept apart
+        PreferencesManager.getPreferences().put(SAM_QUALITY_THRESHOLD, String.valueOf(qualityThreshold + 1));
+        assertNull(cache.get(chr, start, end, loadOptions));
+    }
+
+    /**
+     * Reduced memory and sparse counts are not cached.  Bisulfite counts are only computed when not headless.
+     */
+    @Test
+    public void testNotCached() throws Exception {
+
+        String chr = "chr22";
+        int start = 1000;
+        int end = 5000;
+
+        SpliceJunctionHelper.LoadOptions loadOptions = new SpliceJunctionHelper.LoadOptions();
+        AlignmentCountsCache cache = new AlignmentCountsCache(bamFile, cacheDir);
+        cache.put(chr, new ReducedMemoryAlignment.ReducedMemoryAlignmentCounts(start, end, 25), new SpliceJunctionHelper(loadOptions));
+        cache.put(chr, new SparseAlignmentCounts(start, end, null), new SpliceJunctionHelper(loadOptions));
+        cache.flush();
+        assertNull(cache.get(chr, start, end, loadOptions));
+
+        cache.put(chr, new DenseAlignmentCounts(start, end, null), new SpliceJunctionHelper(loadOptions));
+        cache.flush();
+        assertNotNull(cache.get(chr, start, end, loadOptions));
+    }
+
+    @Test
+    public void testJunctionsRoundTrip() throws Exception {
+
+        String chr = "chr22";
+        int start = 1000;
+        int end = 5000;
+
+        SpliceJunctionHelper.LoadOptions loadOptions = new SpliceJunctionHelper.LoadOptions();
+        SpliceJunctionHelper spliceJunctionHelper = new SpliceJunctionHelper(loadOptions);
+        SpliceJunctionFeature posJunction = new SpliceJunctionFeature(chr, 2000, 3000, Strand.POSITIVE);
+        posJunction.setJunctionDepth(7);
+        posJunction.setStartFlankingRegionDepthArray(new int[]{1, 2, 3});
+        posJunction.setEndFlankingRegionDepthArray(new int[]{4, 5});
+        posJunction.setStart(1997);
+        posJunction.setEnd(3002);
+        spliceJunctionHelper.addJunction(posJunction);
+        SpliceJunctionFeature negJunction = new SpliceJunctionFeature(chr, 2500, 4000, Strand.NEGATIVE);
+        negJunction.setJunctionDepth(2);
+        spliceJunctionHelper.addJunction(negJunction);
+
+        AlignmentCountsCache cache = new AlignmentCountsCache(bamFile, cacheDir);
+        cache.put(chr, new DenseAlignmentCounts(start, end, null), spliceJunctionHelper);
+        cache.flush();
+
+        AlignmentInterval interval = cache.get(chr, start, end, loadOptions);
+        assertNotNull(interval);
+        List<SpliceJunctionFeature> junctions = interval.getSpliceJunctionHelper().allSpliceJunctionFeatures;
+        assertEquals(2, junctions.size());
+
+        SpliceJunctionFeature pos = junctions.get(0);
+        assertEquals(Strand.POSITIVE, pos.getStrand());
+        assertEquals(2000, pos.getJunctionStart());
+        assertEquals(3000, pos.getJunctionEnd());
+        assertEquals(1997, pos.getStart());
+        assertEquals(3002, pos.getEnd());
+        assertEquals(7, pos.getJunctionDepth());
+        assertEquals(3, pos.getStartFlankingRegionDepthArray()[2]);
+        assertEquals(2, pos.getEndFlankingRegionDepthArray().length);
+
+        SpliceJunctionFeature neg = junctions.get(1);
+        assertEquals(Strand.NEGATIVE, neg.getStrand());
+        assertEquals(2, neg.getJunctionDepth());
+        assertNull(neg.getStartFlankingRegionDepthArray());
+    }
+
+    private static void delete(File dir) {
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File f : files) {
+                delete(f);
+            }
+        }
+        dir.delete();
+    }
+}
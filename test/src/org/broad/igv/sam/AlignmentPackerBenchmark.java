@@ -0,0 +1,75 @@
+package org.broad.igv.sam;
+
+import org.broad.igv.util.BenchmarkUtils;
+import org.junit.Ignore;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Timing comparison of the packing engines of {@link AlignmentPacker}:  the start position buckets
+ * (DenseBucketCollection for windows < 10 mb,  SparseBucketCollection otherwise) and {@link RowPacker}.
+ * Run as an application,  it is not a unit test.
+ */
+@Ignore
+public class AlignmentPackerBenchmark {
+
+    public static void main(String[] args) throws Exception {
+
+        // 40x coverage over a 1 mb window (dense buckets)
+        List<Alignment> dense = alignments(1, 1000000, 1000000, 400000);
+
+        // 5 kb targets at 40x spread over 50 mb (sparse buckets)
+        List<Alignment> sparse = alignments(200, 5000, 50000000, 400000);
+
+        // Amplicon-like pileup,  thousands of rows
+        List<Alignment> deep = alignments(1, 5000, 5000, 400000);
+
+        AlignmentTrack.RenderOptions renderOptions = new AlignmentTrack.RenderOptions();
+        AlignmentTrack.RenderOptions groupedOptions = new AlignmentTrack.RenderOptions();
+        groupedOptions.setGroupByOption(AlignmentTrack.GroupOption.STRAND);
+
+        run("dense", dense, renderOptions);
+        run("dense, grouped by strand", dense, groupedOptions);
+        run("sparse", sparse, renderOptions);
+        run("sparse, grouped by strand", sparse, groupedOptions);
+        run("deep", deep, renderOptions);
+    }
+
+    static void run(String name, List<Alignment> alignments, AlignmentTrack.RenderOptions renderOptions) throws Exception {
+        Alignment last = alignments.get(alignments.size() - 1);
+        AlignmentInterval interval = new AlignmentInterval("chr1", 0, last.getEnd(), alignments, null, null, null);
+        double bucketTime = time(new AlignmentPacker(false), interval, renderOptions);
+        double intervalTime = time(new AlignmentPacker(true), interval, renderOptions);
+        System.out.println(String.format("%-30s buckets: %8.1f ms   intervals: %8.1f ms", name, bucketTime, intervalTime));
+    }
+
+    static double time(AlignmentPacker packer, AlignmentInterval interval, AlignmentTrack.RenderOptions renderOptions)
+            throws Exception {
+        return BenchmarkUtils.time(() -> packer.packAlignments(interval, renderOptions).getNLevels());
+    }
+
+    /**
+     * @return {@code count} 100 bp reads in {@code nClusters} equally spaced clusters of width {@code clusterSize}
+     * over [0, span)
+     */
+    static List<Alignment> alignments(int nClusters, int clusterSize, int span, int count) {
+        Random random = new Random(1);
+        int perCluster = count / nClusters;
+        List<Alignment> alignments = new ArrayList<>(count);
+        for (int c = 0; c < nClusters; c++) {
+            int clusterStart = c * (span / nClusters);
+            int[] starts = new int[perCluster];
+            for (int i = 0; i < perCluster; i++) {
+                starts[i] = clusterStart + random.nextInt(clusterSize);
+            }
+            Arrays.sort(starts);
+            for (int i = 0; i < perCluster; i++) {
+                alignments.add(new DotAlignedAlignment("chr1", starts[i], starts[i] + 100, random.nextBoolean(), "r" + c + "." + i));
+            }
+        }
+        return alignments;
+    }
+}
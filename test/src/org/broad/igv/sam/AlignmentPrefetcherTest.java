@@ -0,0 +1,127 @@
+package org.broad.igv.sam;
+
+import org.broad.igv.Globals;
+import org.broad.igv.feature.Range;
+import org.broad.igv.prefs.PreferencesManager;
+import org.broad.igv.ui.panel.ReferenceFrame;
+import org.broad.igv.util.ResourceLocator;
+import org.broad.igv.util.TestUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static junit.framework.Assert.*;
+import static org.broad.igv.prefs.Constants.SAM_DOWNSAMPLE_READS;
+import static org.broad.igv.prefs.Constants.SAM_PREFETCH;
+
+public class AlignmentPrefetcherTest {
+
+    private boolean prefetch;
+    private boolean downsample;
+
+    @Before
+    public void setUp() {
+        Globals.setHeadless(true);
+        prefetch = PreferencesManager.getPreferences().getAsBoolean(SAM_PREFETCH);
+        downsample = PreferencesManager.getPreferences().getAsBoolean(SAM_DOWNSAMPLE_READS);
+        PreferencesManager.getPreferences().put(SAM_PREFETCH, true);
+        PreferencesManager.getPreferences().put(SAM_DOWNSAMPLE_READS, false);
+    }
+
+    @After
+    public void tearDown() {
+        PreferencesManager.getPreferences().put(SAM_PREFETCH, prefetch);
+        PreferencesManager.getPreferences().put(SAM_DOWNSAMPLE_READS, downsample);
+    }
+
+    @Test
+    public void testPrefetchAhead() throws Exception {
+
+        ResourceLocator locator = new ResourceLocator(TestUtils.DATA_DIR + "bam/gstt1_sample.bam");
+        AlignmentDataManager dataManager = new AlignmentDataManager(locator, null);
+        AlignmentTrack.RenderOptions renderOptions = new AlignmentTrack.RenderOptions();
+
+        TestFrame frame = new TestFrame("chr22", 24372000, 24373000);
+        dataManager.load(frame, renderOptions, true);
+        AlignmentInterval loaded = dataManager.getLoadedInterval(frame);
+        assertNotNull(loaded);
+
+        // Pan right,  within the loaded interval
+        dataManager.prefetch(frame, renderOptions);
+        Thread.sleep(50);
+        frame.shift(200);
+        assertTrue(dataManager.isLoaded(frame));
+        dataManager.prefetch(frame, renderOptions);
+
+        // Jump to a range beyond the loaded interval, but within the next one
+        frame.shift(2800);
+        assertFalse(dataManager.isLoaded(frame));
+        dataManager.load(frame, renderOptions, true);
+
+        AlignmentInterval next = dataManager.getLoadedInterval(frame);
+        assertNotNull(next);
+        int viewWidth = frame.getCurrentRange().getLength();
+        assertEquals("Expected the prefetched interval", loaded.getEnd() - viewWidth, next.getStart());
+        assertEquals(loaded.getEnd() - loaded.getStart(), next.getEnd() - next.getStart());
+
+        AlignmentInterval expected = dataManager.loadInterval("chr22", next.getStart(), next.getEnd(), renderOptions);
+        assertTrue(expected.getAlignments().size() > 0);
+        assertEquals(expected.getAlignments().size(), next.getAlignments().size());
+        assertNotNull(next.getPackedAlignments());
+    }
+
+    @Test
+    public void testStationaryFrame() throws Exception {
+
+        ResourceLocator locator = new ResourceLocator(TestUtils.DATA_DIR + "bam/gstt1_sample.bam");
+        AlignmentDataManager dataManager = new AlignmentDataManager(locator, null);
+        AlignmentTrack.RenderOptions renderOptions = new AlignmentTrack.RenderOptions();
+
+        TestFrame frame = new TestFrame("chr22", 24372000, 24373000);
+        dataManager.load(frame, renderOptions, true);
+        AlignmentInterval loaded = dataManager.getLoadedInterval(frame);
+
+        dataManager.prefetch(frame, renderOptions);
+        dataManager.prefetch(frame, renderOptions);
+
+        // Nothing was prefetched,  so this is a fresh load centered on the frame
+        frame.shift(3500);
+        dataManager.load(frame, renderOptions, true);
+        AlignmentInterval next = dataManager.getLoadedInterval(frame);
+        assertFalse(next.getStart() == loaded.getEnd() - frame.getCurrentRange().getLength());
+    }
+
+    static class TestFrame extends ReferenceFrame {
+
+        String chr;
+        int start;
+        int end;
+
+        TestFrame(String chr, int start, int end) {
+            super("test");
+            this.chr = chr;
+            this.start = start;
+            this.end = end;
+        }
+
+        void shift(int delta) {
+            start += delta;
+            end += delta;
+        }
+
+        @Override
+        public Range getCurrentRange() {
+            return new Range(chr, start, end);
+        }
+
+        @Override
+        public String getChrName() {
+            return chr;
+        }
+
+        @Override
+        public int getChromosomeLength() {
+            return 50000000;
+        }
+    }
+}
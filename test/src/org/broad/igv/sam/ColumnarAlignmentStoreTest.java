@@ -0,0 +1,151 @@
+package org.broad.igv.sam;
+
+import htsjdk.samtools.SAMRecord;
+import htsjdk.samtools.util.CloseableIterator;
+import org.broad.igv.sam.reader.AlignmentReader;
+import org.broad.igv.sam.reader.AlignmentReaderFactory;
+import org.broad.igv.util.TestUtils;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static junit.framework.Assert.*;
+
+public class ColumnarAlignmentStoreTest {
+
+    @Test
+    public void testEncodeDecode() throws Exception {
+
+        String path = TestUtils.DATA_DIR + "bam/gstt1_sample.bam";
+        AlignmentReader reader = AlignmentReaderFactory.getReader(path, true);
+        CloseableIterator<Alignment> iter = reader.query("chr22", 24376000, 24376600, false);
+        List<Alignment> alignments = new ArrayList<>();
+        while (iter.hasNext()) {
+            alignments.add(iter.next());
+        }
+        iter.close();
+        reader.close();
+        assertTrue(alignments.size() > 0);
+
+        ColumnarAlignmentStore store = ColumnarAlignmentStore.encode(alignments);
+        List<Alignment> views = store.asList();
+        assertEquals(alignments.size(), views.size());
+
+        for (int i = 0; i < alignments.size(); i++) {
+            Alignment expected = alignments.get(i);
+            Alignment actual = views.get(i);
+
+            assertEquals(expected.getReadName(), actual.getReadName());
+            assertEquals(expected.getChr(), actual.getChr());
+            assertEquals(expected.getStart(), actual.getStart());
+            assertEquals(expected.getEnd(), actual.getEnd());
+            assertEquals(expected.getAlignmentStart(), actual.getAlignmentStart());
+            assertEquals(expected.getAlignmentEnd(), actual.getAlignmentEnd());
+            assertEquals(expected.getCigarString(), actual.getCigarString());
+            assertEquals(expected.getReadSequence(), actual.getReadSequence());
+            assertEquals(expected.getMappingQuality(), actual.getMappingQuality());
+            assertEquals(expected.getInferredInsertSize(), actual.getInferredInsertSize());
+            assertEquals(expected.isPaired(), actual.isPaired());
+            assertEquals(expected.isProperPair(), actual.isProperPair());
+            assertEquals(expected.isNegativeStrand(), actual.isNegativeStrand());
+            assertEquals(expected.isFirstOfPair(), actual.isFirstOfPair());
+            assertEquals(expected.isDuplicate(), actual.isDuplicate());
+            assertEquals(expected.isPrimary(), actual.isPrimary());
+            assertEquals(expected.getReadStrand(), actual.getReadStrand());
+            assertEquals(expected.getFirstOfPairStrand(), actual.getFirstOfPairStrand());
+            assertEquals(expected.getPairOrientation(), actual.getPairOrientation());
+            assertEquals(expected.getReadGroup(), actual.getReadGroup());
+            assertEquals(expected.getSample(), actual.getSample());
+
+            ReadMate expectedMate = expected.getMate();
+            if (expectedMate == null) {
+                assertNull(actual.getMate());
+            } else {
+                assertEquals(expectedMate.getChr(), actual.getMate().getChr());
+                assertEquals(expectedMate.getStart(), actual.getMate().getStart());
+                assertEquals(expectedMate.isMapped(), actual.getMate().isMapped());
+                assertEquals(expectedMate.isNegativeStrand(), actual.getMate().isNegativeStrand());
+            }
+
+            assertBlocksEqual(expected.getAlignmentBlocks(), actual.getAlignmentBlocks());
+            assertBlocksEqual(expected.getInsertions(), actual.getInsertions());
+
+            List<Gap> expectedGaps = expected.getGaps();
+            List<Gap> actualGaps = actual.getGaps();
+            assertEquals(expectedGaps == null, actualGaps == null);
+            if (expectedGaps != null) {
+                assertEquals(expectedGaps.size(), actualGaps.size());
+                for (int g = 0; g < expectedGaps.size(); g++) {
+                    assertEquals(expectedGaps.get(g).getStart(), actualGaps.get(g).getStart());
+                    assertEquals(expectedGaps.get(g).getnBases(), actualGaps.get(g).getnBases());
+                    assertEquals(expectedGaps.get(g).getType(), actualGaps.get(g).getType());
+                }
+            }
+
+            SAMRecord record = ((PicardAlignment) expected).getRecord();
+            for (SAMRecord.SAMTagAndValue tag : record.getAttributes()) {
+                if (!tag.value.getClass().isArray()) {
+                    assertEquals(tag.value.toString(), actual.getAttribute(tag.tag).toString());
+                }
+            }
+        }
+    }
+
+    /**
+     * Views are stable,  and changes to start and end are written to the store
+     */
+    @Test
+    public void testViews() throws Exception {
+
+        String path = TestUtils.DATA_DIR + "bam/gstt1_sample.bam";
+        AlignmentReader reader = AlignmentReaderFactory.getReader(path, true);
+        CloseableIterator<Alignment> iter = reader.query("chr22", 24376000, 24376600, false);
+        List<Alignment> alignments = new ArrayList<>();
+        while (iter.hasNext()) {
+            alignments.add(iter.next());
+        }
+        iter.close();
+        reader.close();
+
+        ColumnarAlignmentStore store = ColumnarAlignmentStore.encode(alignments);
+        List<Alignment> views = store.asList();
+        Alignment view = views.get(3);
+        assertEquals(view, views.get(3));
+        assertEquals(view.hashCode(), store.get(3).hashCode());
+        assertFalse(view.equals(views.get(4)));
+
+        // Pixel ranges recorded by renderers are kept by the store,  not the decoded blocks
+        view.getAlignmentBlocks()[0].setPixelRange(100, 120);
+        AlignmentBlock block = store.get(3).getAlignmentBlocks()[0];
+        assertNotSame(view.getAlignmentBlocks()[0], block);
+        assertTrue(block.containsPixel(110));
+        assertFalse(block.containsPixel(121));
+        assertFalse(views.get(4).getAlignmentBlocks()[0].containsPixel(110));
+
+        int start = view.getStart();
+        view.setStart(start - 10);
+        view.setEnd(start + 1000);
+        assertEquals(start - 10, store.get(3).getStart());
+        assertEquals(start + 1000, store.get(3).getEnd());
+        assertEquals(alignments.get(4).getStart(), views.get(4).getStart());
+
+        views.clear();
+        assertEquals(0, views.size());
+        assertEquals(alignments.size(), store.size());
+    }
+
+    private static void assertBlocksEqual(AlignmentBlock[] expected, AlignmentBlock[] actual) {
+        assertEquals(expected == null, actual == null);
+        if (expected == null) return;
+        assertEquals(expected.length, actual.length);
+        for (int b = 0; b < expected.length; b++) {
+            assertEquals(expected[b].getStart(), actual[b].getStart());
+            assertEquals(expected[b].getLength(), actual[b].getLength());
+            assertEquals(expected[b].isSoftClipped(), actual[b].isSoftClipped());
+            assertTrue(Arrays.equals(expected[b].getBases(), actual[b].getBases()));
+            assertTrue(Arrays.equals(expected[b].getQualities(), actual[b].getQualities()));
+        }
+    }
+}
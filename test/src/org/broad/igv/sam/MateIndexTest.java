@@ -0,0 +1,130 @@
+package org.broad.igv.sam;
+
+import org.junit.Test;
+
+import java.util.*;
+
+import static junit.framework.Assert.*;
+
+public class MateIndexTest {
+
+    @Test
+    public void testPutRemove() {
+
+        MateIndex<Alignment> index = new MateIndex<>();
+        int n = 20000;
+        List<Alignment> alignments = new ArrayList<>();
+        for (int i = 0; i < n; i++) {
+            Alignment a = new DotAlignedAlignment("chr1", i, i + 100, false, "read" + i);
+            alignments.add(a);
+            index.put(a.getReadName(), a, i + 500);
+        }
+        assertEquals(n, index.size());
+        assertNull(index.get("read" + n));
+
+        // Remove every other entry,  then check the rest are still found after the table is compacted
+        for (int i = 0; i < n; i += 2) {
+            assertSame(alignments.get(i), index.remove("read" + i));
+        }
+        assertEquals(n / 2, index.size());
+        for (int i = 0; i < n; i++) {
+            Alignment a = index.get("read" + i);
+            if (i % 2 == 0) {
+                assertNull(a);
+            } else {
+                assertSame(alignments.get(i), a);
+            }
+        }
+        assertNull(index.remove("read0"));
+    }
+
+    @Test
+    public void testPositionEviction() {
+
+        int window = 100;
+        MateIndex<Alignment> index = new MateIndex<>(window, MateIndex.DEFAULT_MAX_SIZE);
+        index.put("near", new DotAlignedAlignment("chr1", 0, 100, false, "near"), 1000);
+        index.put("far", new DotAlignedAlignment("chr1", 10, 110, false, "far"), 1000000);
+
+        index.advance(1000 + window);
+        assertNotNull(index.get("near"));
+        index.advance(1001 + window);
+        assertNull(index.get("near"));
+
+        // Mates far apart are retained until their position is reached, however many reads lie between
+        for (int i = 0; i < 50000; i++) {
+            String name = "r" + i;
+            int start = 2000 + i * 10;
+            index.advance(start);
+            index.put(name, new DotAlignedAlignment("chr1", start, start + 100, false, name), start + 300);
+        }
+        assertNotNull(index.get("far"));
+        assertTrue(index.size() < 100);
+    }
+
+    @Test
+    public void testMaxSize() {
+
+        MateIndex<Alignment> index = new MateIndex<>(0, 100);
+        for (int i = 0; i < 1000; i++) {
+            String name = "read" + i;
+            index.put(name, new DotAlignedAlignment("chr1", i, i + 100, false, name), i);
+        }
+        assertEquals(100, index.size());
+
+        // The entries with the earliest mate positions were evicted
+        assertNull(index.get("read0"));
+        assertNotNull(index.get("read999"));
+        assertNotNull(index.get("read900"));
+        assertNull(index.get("read899"));
+    }
+
+    @Test
+    public void testPairs() {
+
+        // Pairs with mates 0 - 50 kb apart,  10 reads per bp
+        Random random = new Random(3);
+        List<Alignment> alignments = new ArrayList<>();
+        int nPairs = 20000;
+        for (int i = 0; i < nPairs; i++) {
+            int start = 1000 + i / 10;
+            int mateStart = start + random.nextInt(50000);
+            alignments.add(new TestMate("pair" + i, start, mateStart));
+            alignments.add(new TestMate("pair" + i, mateStart, start));
+        }
+        alignments.sort(Comparator.comparingInt(Alignment::getAlignmentStart));
+
+        MateIndex<Alignment> index = new MateIndex<>(0, MateIndex.DEFAULT_MAX_SIZE);
+        int paired = 0;
+        for (Alignment a : alignments) {
+            index.advance(a.getAlignmentStart());
+            if (index.remove(a.getReadName()) != null) {
+                paired++;
+            } else {
+                index.put(a.getReadName(), a, a.getMate().getStart());
+            }
+        }
+        assertEquals(nPairs, paired);
+        assertEquals(0, index.size());
+    }
+
+    private static class TestMate extends DotAlignedAlignment {
+
+        private final ReadMate mate;
+
+        TestMate(String readName, int start, int mateStart) {
+            super("chr1", start, start + 100, false, readName);
+            this.mate = new ReadMate("chr1", mateStart, false, false);
+        }
+
+        @Override
+        public ReadMate getMate() {
+            return mate;
+        }
+
+        @Override
+        public int getAlignmentStart() {
+            return getStart();
+        }
+    }
+}
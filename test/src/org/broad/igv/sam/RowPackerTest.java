@@ -0,0 +1,163 @@
+package org.broad.igv.sam;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertTrue;
+
+public class RowPackerTest {
+
+    static List<Alignment> randomAlignments(int count, int seed) {
+        Random random = new Random(seed);
+        List<Alignment> alignments = new ArrayList<>(count);
+        int start = 1000;
+        for (int i = 0; i < count; i++) {
+            start += 1 + random.nextInt(10);       // Distinct start positions,  so layouts are unique
+            int length = 50 + random.nextInt(100);
+            alignments.add(new DotAlignedAlignment("chr1", start, start + length, random.nextBoolean(), "read" + i));
+        }
+        return alignments;
+    }
+
+    @Test
+    public void testSameLayoutAsBucketPacking() {
+
+        List<Alignment> alignments = randomAlignments(5000, 7);
+        AlignmentInterval interval = new AlignmentInterval("chr1", 0, 100000, alignments, null, null, null);
+        AlignmentTrack.RenderOptions renderOptions = new AlignmentTrack.RenderOptions();
+
+        List<Row> expected = new AlignmentPacker(false).packAlignments(interval, renderOptions).get("");
+        List<Row> actual = new AlignmentPacker(true).packAlignments(interval, renderOptions).get("");
+
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(expected.get(i).alignments, actual.get(i).alignments);
+        }
+    }
+
+    /**
+     * Alignments with equal starts are placed longest first,  as in the buckets.  Rows are compared by extent,  as
+     * alignments with equal starts and ends may be placed in either order.
+     */
+    @Test
+    public void testEqualStarts() {
+
+        Random random = new Random(17);
+        List<Alignment> alignments = new ArrayList<>();
+        int start = 1000;
+        for (int i = 0; i < 5000; i++) {
+            start += random.nextInt(3);
+            int length = 50 + random.nextInt(100);
+            alignments.add(new DotAlignedAlignment("chr1", start, start + length, random.nextBoolean(), "read" + i));
+        }
+        AlignmentInterval interval = new AlignmentInterval("chr1", 0, 100000, alignments, null, null, null);
+        AlignmentTrack.RenderOptions renderOptions = new AlignmentTrack.RenderOptions();
+
+        List<Row> expected = new AlignmentPacker(false).packAlignments(interval, renderOptions).get("");
+        List<Row> actual = new AlignmentPacker(true).packAlignments(interval, renderOptions).get("");
+
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(extents(expected.get(i)), extents(actual.get(i)));
+        }
+    }
+
+    private static List<String> extents(Row row) {
+        List<String> extents = new ArrayList<>();
+        for (Alignment a : row.alignments) {
+            extents.add(a.getStart() + "-" + a.getEnd());
+        }
+        return extents;
+    }
+
+    @Test
+    public void testIncrementalAdd() {
+
+        List<Alignment> alignments = randomAlignments(2000, 11);
+
+        List<Row> expected = new ArrayList<>();
+        RowPacker packer = new RowPacker(expected);
+        for (Alignment a : alignments) {
+            packer.add(a);
+        }
+
+        // Pack the first half,  then extend the packing with the second
+        List<Row> actual = new ArrayList<>();
+        packer = new RowPacker(actual);
+        for (Alignment a : alignments.subList(0, 1000)) {
+            packer.add(a);
+        }
+        packer = new RowPacker(actual);
+        for (Alignment a : alignments.subList(1000, 2000)) {
+            packer.add(a);
+        }
+
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            List<Alignment> row = actual.get(i).alignments;
+            assertEquals(expected.get(i).alignments, row);
+            for (int j = 1; j < row.size(); j++) {
+                assertTrue(row.get(j).getStart() - row.get(j - 1).getEnd() >= AlignmentPacker.MIN_ALIGNMENT_SPACING);
+            }
+        }
+    }
+
+    /**
+     * Extending the packing of an interval panned to the right keeps its rows,  with the layout of a single packing
+     */
+    @Test
+    public void testExtendPacking() {
+
+        List<Alignment> alignments = randomAlignments(2000, 13);
+        int end = alignments.get(1999).getEnd();
+        int previousEnd = alignments.get(1000).getStart();
+        int start = alignments.get(500).getStart();
+
+        List<Alignment> previousAlignments = new ArrayList<>();
+        List<Alignment> currentAlignments = new ArrayList<>();
+        for (Alignment a : alignments) {
+            if (a.getStart() < previousEnd) previousAlignments.add(a);
+            if (a.getEnd() > start) currentAlignments.add(a);
+        }
+        AlignmentInterval previous = new AlignmentInterval("chr1", 0, previousEnd, previousAlignments, null, null, null);
+        AlignmentInterval current = new AlignmentInterval("chr1", start, end, currentAlignments, null, null, null);
+        AlignmentTrack.RenderOptions renderOptions = new AlignmentTrack.RenderOptions();
+        AlignmentPacker packer = new AlignmentPacker(true);
+        previous.packAlignments(renderOptions);
+        List<Row> previousRows = previous.getPackedAlignments().get("");
+
+        List<Row> actual = packer.packAlignments(current, renderOptions, previous).get("");
+        List<Row> expected = new ArrayList<>();
+        RowPacker rowPacker = new RowPacker(expected);
+        for (Alignment a : alignments) {
+            rowPacker.add(a);
+        }
+
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            List<Alignment> expectedRow = new ArrayList<>();
+            for (Alignment a : expected.get(i).alignments) {
+                if (a.getEnd() > start) expectedRow.add(a);
+            }
+            assertEquals(expectedRow, actual.get(i).alignments);
+            if (i < previousRows.size() && !expectedRow.isEmpty() && expectedRow.get(0).getStart() < previousEnd) {
+                assertTrue(previousRows.get(i).alignments.contains(expectedRow.get(0)));
+            }
+        }
+
+        // A packing with other group options is not extended
+        renderOptions.groupByOption = AlignmentTrack.GroupOption.STRAND;
+        assertEquals(2, packer.packAlignments(current, renderOptions, previous).size());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testOutOfOrder() {
+        RowPacker packer = new RowPacker(new ArrayList<>());
+        packer.add(new DotAlignedAlignment("chr1", 100, 200, false, "a"));
+        packer.add(new DotAlignedAlignment("chr1", 50, 200, false, "b"));
+    }
+}
@@ -0,0 +1,78 @@
+package org.broad.igv.sam;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static junit.framework.Assert.assertEquals;
+
+public class SparseAlignmentCountsTest {
+
+    /**
+     * Sparse and dense counts are different storage strategies for the same data,  results should be identical
+     */
+    @Test
+    public void testCompareToDense() {
+
+        int start = 1000;
+        int end = 3000;
+        DenseAlignmentCounts dense = new DenseAlignmentCounts(start, end, null);
+        SparseAlignmentCounts sparse = new SparseAlignmentCounts(start, end, null, 10);
+
+        byte[] bases = {'A', 'C', 'G', 'T', 'N', 'a', 'R'};
+        Random random = new Random(42);
+        for (int i = 0; i < 20000; i++) {
+            // Cover only a subset of positions
+            int pos = start + 2 * random.nextInt((end - start) / 4);
+            byte b = bases[random.nextInt(bases.length)];
+            byte q = (byte) random.nextInt(40);
+            boolean negativeStrand = random.nextBoolean();
+            dense.incPositionCount(pos, b, q, negativeStrand);
+            sparse.incPositionCount(pos, b, q, negativeStrand);
+            if (i % 10 == 0) {
+                dense.incrementDeletion(pos + 1, negativeStrand);
+                sparse.incrementDeletion(pos + 1, negativeStrand);
+            }
+        }
+        dense.finish();
+        sparse.finish();
+
+        int lastPosition = -1;
+        for (int idx = 0; idx < sparse.getNumberOfPoints(); idx++) {
+            int pos = sparse.getPosition(idx);
+            assertEquals(true, pos > lastPosition);
+            lastPosition = pos;
+        }
+
+        for (int pos = start; pos < end; pos++) {
+            assertEquals(dense.getTotalCount(pos), sparse.getTotalCount(pos));
+            assertEquals(dense.getTotalQuality(pos), sparse.getTotalQuality(pos));
+            assertEquals(dense.getDelCount(pos), sparse.getDelCount(pos));
+            for (char c : BaseAlignmentCounts.nucleotides) {
+                byte b = (byte) c;
+                assertEquals(dense.getCount(pos, b), sparse.getCount(pos, b));
+                assertEquals(dense.getPosCount(pos, b), sparse.getPosCount(pos, b));
+                assertEquals(dense.getNegCount(pos, b), sparse.getNegCount(pos, b));
+                assertEquals(dense.getQuality(pos, b), sparse.getQuality(pos, b));
+            }
+        }
+        assertEquals(0, sparse.getTotalCount(start + 1));
+    }
+
+    /**
+     * Insertions are between bases,  the sparse counts increment the insertion count on either side
+     */
+    @Test
+    public void testInsertion() {
+        SparseAlignmentCounts sparse = new SparseAlignmentCounts(0, 1000, null);
+        sparse.incrementInsertion(new AlignmentBlockImpl(100, new byte[]{'A'}, new byte[]{30}));
+        sparse.incrementInsertion(new AlignmentBlockImpl(100, new byte[]{'A', 'C'}, new byte[]{30, 30}));
+        sparse.finish();
+
+        assertEquals(2, sparse.getNumberOfPoints());
+        assertEquals(99, sparse.getPosition(0));
+        assertEquals(2, sparse.getInsCount(99));
+        assertEquals(2, sparse.getInsCount(100));
+        assertEquals(0, sparse.getInsCount(101));
+    }
+}
@@ -0,0 +1,58 @@
+package org.broad.igv.sam.lite;
+
+import htsjdk.samtools.util.CloseableIterator;
+import org.broad.igv.Globals;
+import org.broad.igv.sam.Alignment;
+import org.broad.igv.sam.reader.AlignmentReader;
+import org.broad.igv.util.BenchmarkUtils;
+import org.broad.igv.util.ResourceLocator;
+import org.broad.igv.util.TestUtils;
+import org.junit.Ignore;
+
+/**
+ * Timing comparison of the htsjdk BAM reader and the lightweight {@link BAMReader},  querying the same regions
+ * and touching the fields used to pack and count alignments.  Run as an application,  it is not a unit test.
+ * <p/>
+ * Arguments:  [bam path, chr, start, end, window size].  By default the test data file gstt1_sample.bam is used.
+ */
+@Ignore
+public class BAMReaderBenchmark {
+
+    public static void main(String[] args) throws Exception {
+
+        Globals.setHeadless(true);
+
+        String path = args.length > 0 ? args[0] : TestUtils.DATA_DIR + "bam/gstt1_sample.bam";
+        String chr = args.length > 1 ? args[1] : "chr22";
+        int start = args.length > 2 ? Integer.parseInt(args[2]) : 24370000;
+        int end = args.length > 3 ? Integer.parseInt(args[3]) : 24390000;
+        int window = args.length > 4 ? Integer.parseInt(args[4]) : 5000;
+
+        AlignmentReader htsjdkReader = new org.broad.igv.sam.reader.BAMReader(new ResourceLocator(path), true);
+        AlignmentReader liteReader = new BAMReader(path);
+
+        double htsjdkTime = time(htsjdkReader, chr, start, end, window);
+        double liteTime = time(liteReader, chr, start, end, window);
+        System.out.println(String.format("htsjdk: %8.1f ms   lite: %8.1f ms", htsjdkTime, liteTime));
+
+        htsjdkReader.close();
+        liteReader.close();
+    }
+
+    static double time(AlignmentReader reader, String chr, int start, int end, int window) throws Exception {
+        return BenchmarkUtils.time(() -> scan(reader, chr, start, end, window));
+    }
+
+    static long scan(AlignmentReader<Alignment> reader, String chr, int start, int end, int window) throws Exception {
+        long sum = 0;
+        for (int s = start; s < end; s += window) {
+            CloseableIterator<Alignment> iter = reader.query(chr, s, s + window, false);
+            while (iter.hasNext()) {
+                Alignment a = iter.next();
+                sum += a.getAlignmentEnd() + a.getMappingQuality() + a.getAlignmentBlocks().length;
+            }
+            iter.close();
+        }
+        return sum;
+    }
+}
@@ -1,20 +1,33 @@
 package org.broad.igv.sam.lite;
 
 import htsjdk.samtools.util.CloseableIterator;
+import htsjdk.samtools.util.RuntimeIOException;
+import org.broad.igv.Globals;
 import org.broad.igv.sam.Alignment;
+import org.broad.igv.sam.AlignmentBlock;
+import org.broad.igv.sam.PicardAlignment;
+import org.broad.igv.util.ResourceLocator;
 import org.broad.igv.util.TestUtils;
+import org.junit.Before;
 import org.junit.Test;
 
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.util.*;
 
-import static junit.framework.Assert.assertEquals;
-import static junit.framework.Assert.assertTrue;
+import static junit.framework.Assert.*;
 
 /**
  * Created by jrobinso on 3/14/17.
  */
 public class BAMReaderTest {
 
+    @Before
+    public void setUp() {
+        Globals.setHeadless(true);
+    }
+
     @Test
     public void readAlignments() throws Exception {
 
@@ -69,4 +82,169 @@ public class BAMReaderTest {
 
 
     }
+
+    @Test
+    public void compareWithHtsjdk() throws Exception {
+
+        String bamPath = TestUtils.DATA_DIR + "bam/gstt1_sample.bam";
+        String chr = "chr22";
+        int beg = 24375199;
+        int end = 24378544;
+
+        BAMReader bamReader = new BAMReader(bamPath);
+        org.broad.igv.sam.reader.BAMReader htsjdkReader =
+                new org.broad.igv.sam.reader.BAMReader(new ResourceLocator(bamPath), true);
+
+        List<Alignment> alignments = toList(bamReader.query(chr, beg, end, false));
+        List<Alignment> expectedAlignments = toList(htsjdkReader.query(chr, beg, end, false));
+        assertTrue(expectedAlignments.size() > 0);
+        assertEquals(expectedAlignments.size(), alignments.size());
+
+        for (int i = 0; i < alignments.size(); i++) {
+            PicardAlignment expected = (PicardAlignment) expectedAlignments.get(i);
+            BAMAlignment alignment = (BAMAlignment) alignments.get(i);
+
+            assertEquals(expected.getReadName(), alignment.getReadName());
+            assertEquals(expected.getChr(), alignment.getChr());
+            assertEquals(expected.getStart(), alignment.getStart());
+            assertEquals(expected.getEnd(), alignment.getEnd());
+            assertEquals(expected.getAlignmentStart(), alignment.getAlignmentStart());
+            assertEquals(expected.getAlignmentEnd(), alignment.getAlignmentEnd());
+            assertEquals(expected.getCigarString(), alignment.getCigarString());
+            assertEquals(expected.getMappingQuality(), alignment.getMappingQuality());
+            assertEquals(expected.getInferredInsertSize(), alignment.getInferredInsertSize());
+            assertEquals(expected.getReadSequence(), alignment.getReadSequence());
+            assertEquals(expected.isNegativeStrand(), alignment.isNegativeStrand());
+            assertEquals(expected.isPaired(), alignment.isPaired());
+            assertEquals(expected.isProperPair(), alignment.isProperPair());
+            assertEquals(expected.isFirstOfPair(), alignment.isFirstOfPair());
+            assertEquals(expected.isDuplicate(), alignment.isDuplicate());
+            assertEquals(expected.isPrimary(), alignment.isPrimary());
+            assertEquals(expected.getPairOrientation(), alignment.getPairOrientation());
+            assertEquals(expected.getReadGroup(), alignment.getReadGroup());
+            assertEquals(expected.getSample(), alignment.getSample());
+            assertEquals(expected.getAttribute("NM"), alignment.getAttribute("NM"));
+            assertEquals(expected.getAttribute("RG"), alignment.getAttribute("RG"));
+            assertNull(alignment.getAttribute("XX"));
+
+            if (expected.getMate() == null) {
+                assertNull(alignment.getMate());
+            } else {
+                assertEquals(expected.getMate().getChr(), alignment.getMate().getChr());
+                assertEquals(expected.getMate().getStart(), alignment.getMate().getStart());
+                assertEquals(expected.getMate().isMapped(), alignment.getMate().isMapped());
+                assertEquals(expected.getMate().isNegativeStrand(), alignment.getMate().isNegativeStrand());
+            }
+
+            AlignmentBlock[] expectedBlocks = expected.getAlignmentBlocks();
+            AlignmentBlock[] blocks = alignment.getAlignmentBlocks();
+            assertEquals(expectedBlocks.length, blocks.length);
+            for (int b = 0; b < blocks.length; b++) {
+                assertEquals(expectedBlocks[b].getStart(), blocks[b].getStart());
+                assertEquals(expectedBlocks[b].getLength(), blocks[b].getLength());
+                assertTrue(Arrays.equals(expectedBlocks[b].getBases(), blocks[b].getBases()));
+                assertTrue(Arrays.equals(expectedBlocks[b].getQualities(), blocks[b].getQualities()));
+                assertEquals(expectedBlocks[b].isSoftClipped(), blocks[b].isSoftClipped());
+            }
+            assertEquals(expected.getInsertions() == null ? 0 : expected.getInsertions().length,
+                    alignment.getInsertions() == null ? 0 : alignment.getInsertions().length);
+        }
+
+        bamReader.close();
+        htsjdkReader.close();
+    }
+
+    /**
+     * Reading a chunk in windows of a block or two,  with records split across windows,  gives the same alignments
+     * as reading it at once
+     */
+    @Test
+    public void readInWindows() throws Exception {
+
+        String bamPath = TestUtils.DATA_DIR + "bam/gstt1_sample.bam";
+        BAMReader bamReader = new BAMReader(bamPath);
+        List<Alignment> expectedAlignments = bamReader.readAlignments("chr22", 0, Integer.MAX_VALUE);
+        assertTrue(expectedAlignments.size() > 0);
+
+        bamReader.fetchSize = 16384;   // Larger than any block of the file
+        List<Alignment> alignments = bamReader.readAlignments("chr22", 0, Integer.MAX_VALUE);
+        assertEquals(expectedAlignments.size(), alignments.size());
+        for (int i = 0; i < alignments.size(); i++) {
+            assertEquals(expectedAlignments.get(i).getReadName(), alignments.get(i).getReadName());
+            assertEquals(expectedAlignments.get(i).getStart(), alignments.get(i).getStart());
+            assertEquals(expectedAlignments.get(i).getReadSequence(), alignments.get(i).getReadSequence());
+        }
+        bamReader.close();
+    }
+
+    @Test
+    public void iterateFile() throws Exception {
+
+        String bamPath = TestUtils.DATA_DIR + "bam/gstt1_sample.bam";
+
+        BAMReader bamReader = new BAMReader(bamPath);
+        org.broad.igv.sam.reader.BAMReader htsjdkReader =
+                new org.broad.igv.sam.reader.BAMReader(new ResourceLocator(bamPath), true);
+
+        List<Alignment> alignments = toList(bamReader.iterator());
+        List<Alignment> expectedAlignments = toList(htsjdkReader.iterator());
+        assertEquals(expectedAlignments.size(), alignments.size());
+        for (int i = 0; i < alignments.size(); i += 100) {
+            assertEquals(expectedAlignments.get(i).getReadName(), alignments.get(i).getReadName());
+            assertEquals(expectedAlignments.get(i).getStart(), alignments.get(i).getStart());
+        }
+
+        assertEquals(htsjdkReader.getSequenceNames(), bamReader.getSequenceNames());
+        assertEquals(htsjdkReader.getPlatforms(), bamReader.getPlatforms());
+    }
+
+    @Test
+    public void queryUnknownChr() throws Exception {
+        String bamPath = TestUtils.DATA_DIR + "bam/four.reads.bam";
+        BAMReader bamReader = new BAMReader(bamPath);
+        assertFalse(bamReader.query("noSuchChr", 0, 1000, false).hasNext());
+    }
+
+    @Test(expected = NoSuchElementException.class)
+    public void nextWhenExhausted() throws Exception {
+        String bamPath = TestUtils.DATA_DIR + "bam/four.reads.bam";
+        BAMReader bamReader = new BAMReader(bamPath);
+        bamReader.query("noSuchChr", 0, 1000, false).next();
+    }
+
+    private static List<Alignment> toList(CloseableIterator<? extends Alignment> iter) {
+        List<Alignment> alignments = new ArrayList<>();
+        while (iter.hasNext()) {
+            alignments.add(iter.next());
+        }
+        iter.close();
+        return alignments;
+    }
+
+    /**
+     * A read error ends a query with an exception,  not silently
+     */
+    @Test(expected = RuntimeIOException.class)
+    public void truncatedFile() throws Exception {
+
+        File bamFile = new File(TestUtils.DATA_DIR + "bam/gstt1_sample.bam");
+        File truncated = new File(TestUtils.TMP_OUTPUT_DIR, "truncated.bam");
+        truncated.getParentFile().mkdirs();
+        byte[] bytes = Files.readAllBytes(bamFile.toPath());
+        Files.write(truncated.toPath(), Arrays.copyOf(bytes, bytes.length / 2));
+        Files.copy(new File(bamFile.getPath() + ".bai").toPath(), new File(truncated.getPath() + ".bai").toPath(),
+                StandardCopyOption.REPLACE_EXISTING);
+
+        BAMReader bamReader = new BAMReader(truncated.getAbsolutePath());
+        try {
+            CloseableIterator<Alignment> iter = bamReader.query("chr22", 0, Integer.MAX_VALUE, false);
+            while (iter.hasNext()) {
+                iter.next();
+            }
+        } finally {
+            bamReader.close();
+            truncated.delete();
+            new File(truncated.getPath() + ".bai").delete();
+        }
+    }
 }
@@ -0,0 +1,85 @@
+package org.broad.igv.sam.reader;
+
+import htsjdk.samtools.util.CloseableIterator;
+import org.broad.igv.sam.Alignment;
+import org.broad.igv.util.ResourceLocator;
+import org.broad.igv.util.TestUtils;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertTrue;
+
+public class ShardedQueryIteratorTest {
+
+    @Test
+    public void testSameOrderAsSerialQuery() throws Exception {
+
+        ResourceLocator locator = new ResourceLocator(TestUtils.DATA_DIR + "bam/gstt1_sample.bam");
+        String chr = "chr22";
+        int start = 24376000;
+        int end = 24376600;
+
+        AlignmentReader reader = AlignmentReaderFactory.getReader(locator);
+        List<String> expected = toStrings(reader.query(chr, start, end, false));
+        reader.close();
+        assertTrue(expected.size() > 0);
+
+        AlignmentReaderPool pool = new AlignmentReaderPool(locator);
+        try {
+            // Shards narrower than the reads,  so many alignments span shard boundaries
+            for (int nShards : new int[]{1, 2, 7, 20}) {
+                List<String> actual = toStrings(new ShardedQueryIterator(pool, chr, start, end, nShards));
+                assertEquals("nShards = " + nShards, expected, actual);
+            }
+        } finally {
+            pool.close();
+        }
+    }
+
+    /**
+     * Closing a query before the end stops its shards and returns their readers to the pool
+     */
+    @Test
+    public void testCloseEarly() throws Exception {
+
+        ResourceLocator locator = new ResourceLocator(TestUtils.DATA_DIR + "bam/gstt1_sample.bam");
+        String chr = "chr22";
+        int start = 24376000;
+        int end = 24376600;
+
+        AlignmentReaderPool pool = new AlignmentReaderPool(locator);
+        try {
+            List<String> expected = toStrings(new ShardedQueryIterator(pool, chr, start, end, 1));
+            for (int i = 0; i < 5; i++) {
+                ShardedQueryIterator iter = new ShardedQueryIterator(pool, chr, start, end, 7);
+                assertTrue(iter.hasNext());
+                iter.next();
+                iter.close();
+                assertFalse(iter.hasNext());
+            }
+            assertEquals(expected, toStrings(new ShardedQueryIterator(pool, chr, start, end, 7)));
+        } finally {
+            pool.close();
+        }
+    }
+
+    @Test
+    public void testShardCount() {
+        assertEquals(0, ShardedQueryIterator.getShardCount(0, ShardedQueryIterator.MIN_SHARD_SIZE - 1));
+        assertTrue(ShardedQueryIterator.getShardCount(0, 100 * ShardedQueryIterator.MIN_SHARD_SIZE) >= 2);
+    }
+
+    private static List<String> toStrings(CloseableIterator<? extends Alignment> iter) {
+        List<String> result = new ArrayList<>();
+        while (iter.hasNext()) {
+            Alignment a = iter.next();
+            result.add(a.getReadName() + ":" + a.getAlignmentStart() + ":" + a.isFirstOfPair());
+        }
+        iter.close();
+        return result;
+    }
+}
@@ -26,12 +26,16 @@
 package org.broad.igv.tdf;
 
 import org.broad.igv.util.ResourceLocator;
+import org.broad.igv.util.TestUtils;
 import org.junit.Test;
 
+import java.util.Arrays;
+import java.util.List;
 import java.util.Set;
 
 import static junit.framework.Assert.assertEquals;
 import static junit.framework.Assert.assertNotNull;
+import static junit.framework.Assert.assertNull;
 import static junit.framework.Assert.assertTrue;
 
 /**
@@ -70,4 +74,44 @@ public class TDFReaderTest {
         assertNotNull(tile);
 
     }
+
+    /**
+     * Tiles read in a batch must match those read one at a time
+     */
+    @Test
+    public void testReadTiles() throws Exception {
+
+        String path = TestUtils.DATA_DIR + "tdf/NA12878.SLX.egfr.sam.tdf";
+        TDFReader reader = new TDFReader(new ResourceLocator(path));
+
+        int nTilesRead = 0;
+        for (String name : reader.getDatasetNames()) {
+            TDFDataset dataset = reader.getDataset(name);
+            int[] tileNumbers = new int[dataset.nTiles + 1];       // Including one out of range
+            for (int t = 0; t < tileNumbers.length; t++) {
+                tileNumbers[t] = tileNumbers.length - 1 - t;         // Out of file order
+            }
+
+            TDFTile[] tiles = reader.readTiles(dataset, tileNumbers);
+            assertEquals(tileNumbers.length, tiles.length);
+            assertNull(tiles[0]);
+            for (int i = 0; i < tileNumbers.length; i++) {
+                TDFTile expected = reader.readTile(dataset, tileNumbers[i]);
+                if (expected == null) {
+                    assertNull(tiles[i]);
+                } else {
+                    assertTrue(Arrays.equals(expected.getStart(), tiles[i].getStart()));
+                    assertTrue(Arrays.equals(expected.getEnd(), tiles[i].getEnd()));
+                    assertTrue(Arrays.equals(expected.getData(0), tiles[i].getData(0)));
+                    nTilesRead++;
+                }
+            }
+
+            // Through the dataset,  which caches tiles
+            List<TDFTile> datasetTiles = dataset.getTiles();
+            assertEquals(datasetTiles.size(), dataset.getTiles().size());
+        }
+        assertTrue(nTilesRead > 0);
+        reader.close();
+    }
 }
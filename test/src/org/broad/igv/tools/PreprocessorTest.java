@@ -0,0 +1,99 @@
+package org.broad.igv.tools;
+
+import org.broad.igv.Globals;
+import org.broad.igv.feature.Chromosome;
+import org.broad.igv.feature.genome.Genome;
+import org.broad.igv.tdf.TDFReader;
+import org.broad.igv.tdf.TDFTile;
+import org.broad.igv.track.TrackType;
+import org.broad.igv.track.WindowFunction;
+import org.broad.igv.util.TestUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.*;
+
+import static junit.framework.Assert.*;
+
+public class PreprocessorTest {
+
+    @Before
+    public void setUp() throws Exception {
+        Globals.setHeadless(true);
+        TestUtils.setUpTestEnvironment();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        TestUtils.clearOutputDir();
+    }
+
+    /**
+     * Preprocessing with several threads must produce the same datasets and tiles as on one thread,  though the
+     * tiles may be written in a different order.
+     */
+    @Test
+    public void testThreads() throws Exception {
+
+        List<Chromosome> chromosomes = Arrays.asList(new Chromosome(0, "chr1", 3000000),
+                new Chromosome(1, "chr2", 2000000), new Chromosome(2, "chrM", 16000));
+        Genome genome = new Genome("test", chromosomes);
+
+        File file1 = new File(TestUtils.TMP_OUTPUT_DIR, "sequential.tdf");
+        File file2 = new File(TestUtils.TMP_OUTPUT_DIR, "threads.tdf");
+        preprocess(genome, file1, 1);
+        preprocess(genome, file2, 3);
+
+        TDFReader reader1 = TDFReader.getReader(file1.getAbsolutePath());
+        TDFReader reader2 = TDFReader.getReader(file2.getAbsolutePath());
+        assertEquals(new HashSet<>(reader1.getDatasetNames()), new HashSet<>(reader2.getDatasetNames()));
+        assertTrue(reader1.getDatasetNames().contains("/" + Globals.CHR_ALL + "/z0/mean"));
+        assertEquals(reader1.getDataMax(), reader2.getDataMax());
+        assertEquals(reader1.getUpperLimit(), reader2.getUpperLimit());
+
+        for (String dsName : reader1.getDatasetNames()) {
+            List<TDFTile> tiles1 = reader1.getDataset(dsName).getTiles();
+            List<TDFTile> tiles2 = reader2.getDataset(dsName).getTiles();
+            assertEquals(dsName, tiles1.size(), tiles2.size());
+            for (int t = 0; t < tiles1.size(); t++) {
+                TDFTile t1 = tiles1.get(t);
+                TDFTile t2 = tiles2.get(t);
+                assertEquals(t1.getTileStart(), t2.getTileStart());
+                assertEquals(t1.getSize(), t2.getSize());
+                for (int i = 0; i < t1.getSize(); i++) {
+                    assertEquals(t1.getStartPosition(i), t2.getStartPosition(i));
+                    assertEquals(t1.getEndPosition(i), t2.getEndPosition(i));
+                    for (int track = 0; track < 2; track++) {
+                        assertEquals(t1.getValue(track, i), t2.getValue(track, i));
+                    }
+                }
+            }
+        }
+        reader1.close();
+        reader2.close();
+        file1.delete();
+        file2.delete();
+    }
+
+    private static void preprocess(Genome genome, File file, int threadCount) {
+        Preprocessor p = new Preprocessor(file, genome, Arrays.asList(WindowFunction.mean, WindowFunction.max),
+                -1, null);
+        p.setNZoom(3);
+        p.setThreadCount(threadCount);
+        p.setTrackParameters(TrackType.OTHER, null, new String[]{"a", "b"});
+
+        Random random = new Random(1);
+        float[] data = new float[2];
+        for (Chromosome chr : genome.getChromosomes()) {
+            p.newChromosome(chr.getName());
+            for (int start = 0; start < chr.getLength() - 100; start += 50 + random.nextInt(100)) {
+                data[0] = random.nextFloat();
+                data[1] = 10 * random.nextFloat();
+                p.addData(chr.getName(), start, start + 50, data, null);
+            }
+        }
+        p.finish();
+    }
+}
@@ -0,0 +1,128 @@
+package org.broad.igv.tools;
+
+import org.apache.commons.math.stat.StatUtils;
+import org.broad.igv.track.WindowFunction;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static junit.framework.Assert.*;
+
+public class QuantileSketchTest {
+
+    static final double[] PERCENTILES = {2, 10, 50, 90, 98};
+
+    /**
+     * The rank of each estimated percentile must be within the stated error of the exact rank
+     */
+    @Test
+    public void testRankError() {
+        for (double rankError : new double[]{0.05, 0.01, 0.005}) {
+            for (int n : new int[]{1000, 100000, 1000000}) {
+                for (int dist = 0; dist < 4; dist++) {
+                    Random random = new Random(n + dist);
+                    QuantileSketch sketch = new QuantileSketch(rankError);
+                    float[] values = new float[n];
+                    for (int i = 0; i < n; i++) {
+                        values[i] = nextValue(random, dist, i);
+                        sketch.add(values[i]);
+                    }
+                    Arrays.sort(values);
+                    for (double p : PERCENTILES) {
+                        double error = rankError(values, sketch.getPercentile(p), p);
+                        assertTrue("error=" + error + " p=" + p + " n=" + n + " distribution=" + dist,
+                                error <= rankError);
+                    }
+                    assertEquals(n, sketch.getCount());
+                    assertTrue(sketch.getRetainedCount() < 2000 / rankError);
+                }
+            }
+        }
+    }
+
+    /**
+     * Until the first compaction percentiles are exact
+     */
+    @Test
+    public void testSmall() {
+        QuantileSketch sketch = new QuantileSketch(0.01);
+        assertTrue(Float.isNaN(sketch.getPercentile(50)));
+        double[] values = new double[101];
+        Random random = new Random(1);
+        for (int i = 0; i < values.length; i++) {
+            values[i] = random.nextFloat();
+            sketch.add((float) values[i]);
+        }
+        for (double p : PERCENTILES) {
+            assertEquals((float) StatUtils.percentile(values, p), sketch.getPercentile(p));
+        }
+    }
+
+    /**
+     * Compare the sketch and exact paths of ListAccumulator
+     */
+    @Test
+    public void testListAccumulator() {
+        double rankError = 0.01;
+        int n = 300000;
+        ListAccumulator exact = new ListAccumulator(Arrays.asList(WindowFunction.values()));
+        ListAccumulator approx = new ListAccumulator(Arrays.asList(WindowFunction.values()), rankError);
+        Random random = new Random(2);
+        float[] values = new float[n];
+        for (int i = 0; i < n; i++) {
+            values[i] = nextValue(random, 2, i);
+            exact.add(1, values[i]);
+            approx.add(1, values[i]);
+        }
+        exact.finish();
+        approx.finish();
+        Arrays.sort(values);
+
+        assertEquals(exact.getValue(WindowFunction.mean), approx.getValue(WindowFunction.mean));
+        assertEquals(exact.getValue(WindowFunction.max), approx.getValue(WindowFunction.max));
+        for (WindowFunction wf : ListAccumulator.PERCENTILE_WINDOW_FUNCTIONS) {
+            double p = exact.getPercentile(wf);
+            double exactError = rankError(values, exact.getValue(wf), p);
+            double approxError = rankError(values, approx.getValue(wf), p);
+            assertTrue(wf + " error=" + approxError, approxError <= rankError + exactError);
+        }
+    }
+
+    private static float nextValue(Random random, int distribution, int i) {
+        switch (distribution) {
+            case 0:
+                return random.nextFloat();
+            case 1:
+                return (float) random.nextGaussian();
+            case 2:
+                return (float) Math.exp(3 * random.nextGaussian());    // Heavy tailed
+            default:
+                return i % 1000;                                        // Ties,  in order
+        }
+    }
+
+    /**
+     * Distance,  as a fraction of the number of values,  from the target rank of percentile {@code p} to the nearest
+     * rank of {@code v} in {@code sorted}
+     */
+    private static double rankError(float[] sorted, float v, double p) {
+        int lo = 0;
+        int hi = sorted.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (sorted[mid] < v) lo = mid + 1;
+            else hi = mid;
+        }
+        int first = lo;
+        hi = sorted.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (sorted[mid] <= v) lo = mid + 1;
+            else hi = mid;
+        }
+        double target = p / 100 * sorted.length;
+        double error = target < first ? first - target : target > lo ? target - lo : 0;
+        return error / sorted.length;
+    }
+}
@@ -0,0 +1,168 @@
+package org.broad.igv.track;
+
+import htsjdk.tribble.Feature;
+import org.broad.igv.Globals;
+import org.broad.igv.feature.BasicFeature;
+import org.broad.igv.feature.Chromosome;
+import org.broad.igv.feature.IGVFeature;
+import org.broad.igv.feature.LocusScore;
+import org.broad.igv.feature.genome.Genome;
+import org.broad.igv.feature.genome.GenomeManager;
+import org.broad.igv.ui.panel.ReferenceFrame;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.*;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.*;
+
+public class FeatureTrackTest {
+
+    private Genome previousGenome;
+
+    @Before
+    public void setUp() {
+        Globals.setHeadless(true);
+        previousGenome = GenomeManager.getInstance().getCurrentGenome();
+        Genome genome = new Genome("featureTrackTest", Arrays.asList(new Chromosome(0, "chr1", 1000000)));
+        GenomeManager.getInstance().setCurrentGenome(genome);
+    }
+
+    @After
+    public void tearDown() {
+        GenomeManager.getInstance().setCurrentGenome(previousGenome);
+    }
+
+    /**
+     * Frames near each other are loaded with one query,  with the features of loading each frame by itself
+     */
+    @Test
+    public void testLoadFrames() {
+
+        List<ReferenceFrame> frames = new ArrayList<>();
+        int[] starts = {100000, 103000, 106000, 600000};
+        for (int i = 0; i < starts.length; i++) {
+            ReferenceFrame frame = new ReferenceFrame("frame" + i);
+            frame.setBounds(0, 500);
+            frame.jumpTo("chr1", starts[i], starts[i] + 2000);
+            frames.add(frame);
+        }
+
+        TestFeatureSource batchSource = new TestFeatureSource();
+        FeatureTrack batchTrack = new FeatureTrack("batch", "batch", batchSource);
+        batchTrack.loadFrames(frames);
+        assertEquals(2, batchSource.queryCount);
+
+        TestFeatureSource source = new TestFeatureSource();
+        FeatureTrack track = new FeatureTrack("single", "single", source);
+        for (ReferenceFrame frame : frames) {
+            assertTrue(batchTrack.isReadyToPaint(frame));
+            track.load(frame);
+            PackedFeatures expected = track.packedFeaturesMap.get(frame.getName());
+            PackedFeatures actual = batchTrack.packedFeaturesMap.get(frame.getName());
+            assertEquals(expected.getStart(), actual.getStart());
+            assertEquals(expected.getEnd(), actual.getEnd());
+            assertEquals(expected.getRowCount(), actual.getRowCount());
+            assertEquals(getStarts(expected.getFeatures()), getStarts(actual.getFeatures()));
+            assertTrue(actual.getFeatures().size() > 0);
+        }
+
+        // Loaded frames are not queried again
+        batchTrack.loadFrames(frames);
+        assertEquals(2, batchSource.queryCount);
+    }
+
+    /**
+     * Panning keeps the rows of features already packed,  and loads the features of a fresh load
+     */
+    @Test
+    public void testPanning() {
+
+        ReferenceFrame frame = new ReferenceFrame("pan");
+        frame.setBounds(0, 500);
+        TestFeatureSource source = new TestFeatureSource();
+        FeatureTrack track = new FeatureTrack("pan", "pan", source);
+
+        int[] starts = {100000, 102000, 99500, 96000, 300000};
+        PackedFeatures<IGVFeature> previous = null;
+        for (int start : starts) {
+            frame.jumpTo("chr1", start, start + 2000);
+            track.load(frame);
+            PackedFeatures<IGVFeature> actual = track.packedFeaturesMap.get(frame.getName());
+
+            ReferenceFrame freshFrame = new ReferenceFrame("fresh");
+            freshFrame.setBounds(0, 500);
+            freshFrame.jumpTo("chr1", start, start + 2000);
+            FeatureTrack freshTrack = new FeatureTrack("fresh", "fresh", new TestFeatureSource());
+            freshTrack.load(freshFrame);
+            PackedFeatures<IGVFeature> expected = freshTrack.packedFeaturesMap.get(freshFrame.getName());
+
+            assertEquals(expected.getStart(), actual.getStart());
+            assertEquals(expected.getEnd(), actual.getEnd());
+            assertEquals(getStarts(expected.getFeatures()), getStarts(actual.getFeatures()));
+
+            // Rows do not overlap,  and hold all the features
+            int count = 0;
+            for (PackedFeatures<IGVFeature>.FeatureRow row : actual.getRows()) {
+                List<IGVFeature> features = row.getFeatures();
+                assertTrue(features.size() > 0);
+                for (int i = 1; i < features.size(); i++) {
+                    assertTrue(features.get(i).getStart() >= features.get(i - 1).getEnd());
+                }
+                count += features.size();
+            }
+            assertEquals(actual.getFeatures().size(), count);
+
+            // Features kept stay together in their row
+            if (previous != null && previous.overlapsInterval("chr1", actual.getStart(), actual.getEnd())) {
+                Map<Feature, Integer> rowIndex = new IdentityHashMap<>();
+                for (int r = 0; r < actual.getRows().size(); r++) {
+                    for (Feature f : actual.getRows().get(r).getFeatures()) rowIndex.put(f, r);
+                }
+                for (PackedFeatures<IGVFeature>.FeatureRow row : previous.getRows()) {
+                    Set<Integer> rows = new HashSet<>();
+                    for (Feature f : row.getFeatures()) {
+                        if (rowIndex.containsKey(f)) rows.add(rowIndex.get(f));
+                    }
+                    assertTrue(rows.size() <= 1);
+                }
+            }
+            previous = actual;
+        }
+    }
+
+    private static List<Integer> getStarts(List<? extends Feature> features) {
+        return features.stream().map(Feature::getStart).collect(Collectors.toList());
+    }
+
+    static class TestFeatureSource implements FeatureSource<Feature> {
+
+        final List<Feature> features = new ArrayList<>();
+        int queryCount = 0;
+
+        TestFeatureSource() {
+            Random random = new Random(1);
+            for (int start = 0; start < 1000000; start += 1 + random.nextInt(200)) {
+                features.add(new BasicFeature("chr1", start, start + 1 + random.nextInt(1000)));
+            }
+        }
+
+        public Iterator<Feature> getFeatures(String chr, int start, int end) {
+            queryCount++;
+            return features.stream().filter(f -> f.getStart() <= end && f.getEnd() > start).iterator();
+        }
+
+        public List<LocusScore> getCoverageScores(String chr, int start, int end, int zoom) {
+            return null;
+        }
+
+        public int getFeatureWindowSize() {
+            return -1;
+        }
+
+        public void setFeatureWindowSize(int size) {
+        }
+    }
+}
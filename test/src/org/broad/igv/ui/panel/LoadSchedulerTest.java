@@ -0,0 +1,205 @@
+package org.broad.igv.ui.panel;
+
+import org.broad.igv.Globals;
+import org.broad.igv.feature.Range;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static junit.framework.Assert.*;
+
+public class LoadSchedulerTest {
+
+    private LoadScheduler scheduler;
+    private Semaphore release;
+
+    @Before
+    public void setUp() {
+        Globals.setHeadless(true);
+        scheduler = new LoadScheduler();
+        release = new Semaphore(0);
+    }
+
+    @After
+    public void tearDown() {
+        release.release(LoadScheduler.THREAD_COUNT);
+        scheduler.shutdown();
+    }
+
+    @Test
+    public void testPriority() throws Exception {
+
+        ReferenceFrame frame = new ReferenceFrame("test");
+        List<String> order = Collections.synchronizedList(new ArrayList<>());
+
+        blockLoaders(frame);
+
+        CompletableFuture<Void> offscreen = scheduler.submit(new Object(), frame, "chr1", 0, 100,
+                LoadScheduler.Priority.OFFSCREEN, () -> order.add("offscreen"));
+        CompletableFuture<Void> visible = scheduler.submit(new Object(), frame, "chr1", 0, 100,
+                LoadScheduler.Priority.VISIBLE, () -> order.add("visible"));
+        CompletableFuture<Void> prefetch = scheduler.submit(new Object(), null, "chr1", 0, 100,
+                LoadScheduler.Priority.PREFETCH, () -> order.add("prefetch"));
+
+        // The prefetch waits for the pending visible load
+        Thread.sleep(200);
+        assertTrue(order.isEmpty());
+
+        // Free one loader,  which takes the visible load
+        release.release();
+        visible.get(5, TimeUnit.SECONDS);
+        assertEquals("visible", order.get(0));
+
+        release.release(LoadScheduler.THREAD_COUNT);
+        CompletableFuture.allOf(prefetch, offscreen).get(5, TimeUnit.SECONDS);
+        assertEquals(3, order.size());
+    }
+
+    @Test
+    public void testRaisePriority() throws Exception {
+
+        ReferenceFrame frame = new ReferenceFrame("test");
+        List<String> order = Collections.synchronizedList(new ArrayList<>());
+        Object track = new Object();
+
+        blockLoaders(frame);
+
+        CompletableFuture<Void> other = scheduler.submit(new Object(), frame, "chr1", 0, 100,
+                LoadScheduler.Priority.OFFSCREEN, () -> order.add("other"));
+        CompletableFuture<Void> offscreen = scheduler.submit(track, frame, "chr1", 0, 100,
+                LoadScheduler.Priority.OFFSCREEN, () -> order.add("track"));
+
+        // The track is scrolled into view
+        CompletableFuture<Void> visible = scheduler.submit(track, frame, "chr1", 0, 100,
+                LoadScheduler.Priority.VISIBLE, () -> order.add("track"));
+        assertSame(offscreen, visible);
+
+        release.release();
+        visible.get(5, TimeUnit.SECONDS);
+        release.release(LoadScheduler.THREAD_COUNT);
+        CompletableFuture.allOf(other, visible).get(5, TimeUnit.SECONDS);
+        assertEquals(2, order.size());
+        assertEquals("track", order.get(0));
+        assertEquals("other", order.get(1));
+    }
+
+    @Test
+    public void testCoalesce() throws Exception {
+
+        ReferenceFrame frame1 = new ReferenceFrame("frame1");
+        ReferenceFrame frame2 = new ReferenceFrame("frame2");
+        AtomicInteger count = new AtomicInteger();
+        Object track = new Object();
+
+        blockLoaders(frame1);
+
+        CompletableFuture<Void> f1 = scheduler.submit(track, frame1, "chr1", 0, 100,
+                LoadScheduler.Priority.VISIBLE, count::incrementAndGet);
+        CompletableFuture<Void> f2 = scheduler.submit(track, frame2, "chr1", 0, 100,
+                LoadScheduler.Priority.VISIBLE, count::incrementAndGet);
+        assertSame(f1, f2);
+
+        // Still wanted by frame2
+        scheduler.cancelSuperseded(frame1, new Range("chr2", 0, 100));
+        assertFalse(f1.isCancelled());
+
+        release.release(LoadScheduler.THREAD_COUNT);
+        f1.get(5, TimeUnit.SECONDS);
+        assertEquals(1, count.get());
+
+        // A new load once the first has completed
+        scheduler.submit(track, frame1, "chr1", 0, 100, LoadScheduler.Priority.VISIBLE, count::incrementAndGet)
+                .get(5, TimeUnit.SECONDS);
+        assertEquals(2, count.get());
+    }
+
+    @Test
+    public void testCancelSuperseded() throws Exception {
+
+        ReferenceFrame frame = new ReferenceFrame("test");
+        AtomicInteger count = new AtomicInteger();
+
+        List<CompletableFuture<Void>> blocked = blockLoaders(frame);
+
+        CompletableFuture<Void> left = scheduler.submit(new Object(), frame, "chr1", 0, 100,
+                LoadScheduler.Priority.VISIBLE, count::incrementAndGet);
+        CompletableFuture<Void> overlapping = scheduler.submit(new Object(), frame, "chr1", 1000, 2000,
+                LoadScheduler.Priority.VISIBLE, count::incrementAndGet);
+
+        // The frame moves to chr1:1500-2500.  Loads already running are kept.
+        scheduler.cancelSuperseded(frame, new Range("chr1", 1500, 2500));
+        assertTrue(left.isCancelled());
+        assertFalse(overlapping.isCancelled());
+        for (CompletableFuture<Void> f : blocked) {
+            assertFalse(f.isCancelled());
+        }
+
+        release.release(LoadScheduler.THREAD_COUNT);
+        overlapping.get(5, TimeUnit.SECONDS);
+        CompletableFuture.allOf(blocked.toArray(new CompletableFuture[blocked.size()])).get(5, TimeUnit.SECONDS);
+        assertEquals(1, count.get());
+        assertEquals(0, scheduler.getRequestCount());
+    }
+
+    @Test
+    public void testBatch() throws Exception {
+
+        ReferenceFrame frame1 = new ReferenceFrame("frame1");
+        ReferenceFrame frame2 = new ReferenceFrame("frame2");
+        List<ReferenceFrame> frames = Arrays.asList(frame1, frame2);
+        List<Range> ranges = Arrays.asList(new Range("chr1", 0, 100), new Range("chr2", 0, 100));
+        AtomicInteger count = new AtomicInteger();
+        Object track = new Object();
+
+        blockLoaders(frame1);
+
+        CompletableFuture<Void> f1 = scheduler.submit(track, frames, ranges, LoadScheduler.Priority.VISIBLE,
+                count::incrementAndGet);
+        CompletableFuture<Void> f2 = scheduler.submit(track, Arrays.asList(frame2, frame1),
+                Arrays.asList(new Range("chr1", 0, 100), new Range("chr2", 0, 100)), LoadScheduler.Priority.VISIBLE,
+                count::incrementAndGet);
+        assertSame(f1, f2);
+
+        // Frame 1 moves to another locus of the batch,  then away.  The batch is kept while frame 2 needs it.
+        scheduler.cancelSuperseded(frame1, new Range("chr2", 50, 150));
+        scheduler.cancelSuperseded(frame1, new Range("chr3", 0, 100));
+        assertFalse(f1.isCancelled());
+        scheduler.cancelSuperseded(frame2, new Range("chr3", 0, 100));
+        assertTrue(f1.isCancelled());
+
+        release.release(LoadScheduler.THREAD_COUNT);
+        scheduler.submit(track, frames, ranges, LoadScheduler.Priority.VISIBLE, count::incrementAndGet)
+                .get(5, TimeUnit.SECONDS);
+        assertEquals(1, count.get());
+    }
+
+    /**
+     * Occupy every load thread,  each until a {@code release} permit is available
+     */
+    private List<CompletableFuture<Void>> blockLoaders(ReferenceFrame frame) throws InterruptedException {
+        CountDownLatch started = new CountDownLatch(LoadScheduler.THREAD_COUNT);
+        List<CompletableFuture<Void>> futures = new ArrayList<>();
+        for (int i = 0; i < LoadScheduler.THREAD_COUNT; i++) {
+            futures.add(scheduler.submit(new Object(), frame, "chr1", 0, 10, LoadScheduler.Priority.VISIBLE, () -> {
+                started.countDown();
+                try {
+                    release.acquire();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }));
+        }
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        return futures;
+    }
+}
@@ -0,0 +1,190 @@
+package org.broad.igv.ui.panel;
+
+import org.broad.igv.Globals;
+import org.broad.igv.data.AbstractDataSource;
+import org.broad.igv.data.DataTile;
+import org.broad.igv.feature.Chromosome;
+import org.broad.igv.feature.LocusScore;
+import org.broad.igv.feature.genome.Genome;
+import org.broad.igv.feature.genome.GenomeManager;
+import org.broad.igv.renderer.BarChartRenderer;
+import org.broad.igv.renderer.LineplotRenderer;
+import org.broad.igv.track.DataSourceTrack;
+import org.broad.igv.track.RenderContext;
+import org.broad.igv.track.TrackType;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static junit.framework.Assert.*;
+
+public class TrackTileCacheTest {
+
+    static final int WIDTH = 1000;
+    static final int TRACK_HEIGHT = 40;
+
+    private Genome previousGenome;
+
+    @Before
+    public void setUp() {
+        Globals.setHeadless(true);
+        previousGenome = GenomeManager.getInstance().getCurrentGenome();
+        Genome genome = new Genome("tileTest", Arrays.asList(new Chromosome(0, "chr1", 1000000)));
+        GenomeManager.getInstance().setCurrentGenome(genome);
+        TrackTileCache.getInstance().clear();
+    }
+
+    @After
+    public void tearDown() {
+        GenomeManager.getInstance().setCurrentGenome(previousGenome);
+        TrackTileCache.getInstance().clear();
+    }
+
+    /**
+     * Painting from tiles must give the same image as rendering directly,  before and after panning
+     */
+    @Test
+    public void testPaint() {
+
+        ReferenceFrame frame = new ReferenceFrame("tileTest");
+        frame.setBounds(0, WIDTH);
+        frame.jumpTo("chr1", 100000, 200000);
+
+        List<DataSourceTrack> tracks = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            DataSourceTrack track = new DataSourceTrack(null, "track" + i, "track" + i, new TestDataSource(i));
+            track.setRendererClass(i == 2 ? LineplotRenderer.class : BarChartRenderer.class);
+            tracks.add(track);
+        }
+
+        assertSameImage(paintDirect(tracks, frame), paintTiles(tracks, frame));
+        int nTiles = TrackTileCache.getInstance().getTileCount();
+        assertTrue(nTiles >= 3 * (WIDTH / TrackTileCache.TILE_WIDTH - 1));
+
+        // Pan less than a tile.  Tiles still inside the view are reused.
+        frame.shiftOriginPixels(100);
+        assertSameImage(paintDirect(tracks, frame), paintTiles(tracks, frame));
+        assertTrue(TrackTileCache.getInstance().getTileCount() > nTiles);
+
+        // Tiles are not reused after the data range changes
+        tracks.get(0).getDataRange().setDrawBaseline(false);
+        tracks.get(1).setDataRange(new org.broad.igv.renderer.DataRange(0, 0, 50));
+        assertSameImage(paintDirect(tracks, frame), paintTiles(tracks, frame));
+
+        // Disposing a track drops its tiles only
+        int count = TrackTileCache.getInstance().getTileCount();
+        tracks.get(2).dispose();
+        int remaining = TrackTileCache.getInstance().getTileCount();
+        assertTrue(remaining > 0 && remaining < count);
+        tracks.get(0).dispose();
+        tracks.get(1).dispose();
+        assertEquals(0, TrackTileCache.getInstance().getTileCount());
+    }
+
+    private static BufferedImage paintDirect(List<DataSourceTrack> tracks, ReferenceFrame frame) {
+        BufferedImage image = new BufferedImage(WIDTH, TRACK_HEIGHT * tracks.size(), BufferedImage.TYPE_INT_ARGB);
+        Graphics2D g = image.createGraphics();
+        RenderContext context = new RenderContext(null, g, frame, new Rectangle(0, 0, image.getWidth(), image.getHeight()));
+        for (int i = 0; i < tracks.size(); i++) {
+            DataSourceTrack track = tracks.get(i);
+            track.load(frame);
+            track.render(context, new Rectangle(0, i * TRACK_HEIGHT, WIDTH, TRACK_HEIGHT));
+        }
+        context.dispose();
+        g.dispose();
+        return image;
+    }
+
+    private static BufferedImage paintTiles(List<DataSourceTrack> tracks, ReferenceFrame frame) {
+        BufferedImage image = new BufferedImage(WIDTH, TRACK_HEIGHT * tracks.size(), BufferedImage.TYPE_INT_ARGB);
+        Graphics2D g = image.createGraphics();
+        Rectangle visibleRect = new Rectangle(0, 0, image.getWidth(), image.getHeight());
+        RenderContext context = new RenderContext(null, g, frame, visibleRect);
+        List<TrackTileCache.Request> requests = new ArrayList<>();
+        for (int i = 0; i < tracks.size(); i++) {
+            DataSourceTrack track = tracks.get(i);
+            track.load(frame);
+            Object state = track.getRenderState(frame);
+            assertNotNull(state);
+            requests.add(new TrackTileCache.Request(track, new Rectangle(0, i * TRACK_HEIGHT, WIDTH, TRACK_HEIGHT), state));
+        }
+        TrackTileCache.getInstance().paint(requests, context, visibleRect, WIDTH);
+        context.dispose();
+        g.dispose();
+        return image;
+    }
+
+    /**
+     * Compare images,  except the first 2 columns.  Renderers truncate pixel positions,  so features starting left of
+     * the view are drawn up to a pixel to the right when rendered directly.
+     */
+    private static void assertSameImage(BufferedImage expected, BufferedImage actual) {
+        int nDifferent = 0;
+        for (int y = 0; y < expected.getHeight(); y++) {
+            for (int x = 2; x < expected.getWidth(); x++) {
+                if (expected.getRGB(x, y) != actual.getRGB(x, y)) nDifferent++;
+            }
+        }
+        assertEquals(0, nDifferent);
+    }
+
+    static class TestDataSource extends AbstractDataSource {
+
+        final int[] starts;
+        final int[] ends;
+        final float[] values;
+
+        TestDataSource(int seed) {
+            super(null);
+            Random random = new Random(seed);
+            int n = 20000;
+            starts = new int[n];
+            ends = new int[n];
+            values = new float[n];
+            for (int i = 0; i < n; i++) {
+                starts[i] = i * 50;
+                ends[i] = starts[i] + 1 + random.nextInt(50);
+                values[i] = random.nextFloat() * 100;
+            }
+        }
+
+        @Override
+        protected DataTile getRawData(String chr, int startLocation, int endLocation) {
+            return new DataTile(starts, ends, values, null);
+        }
+
+        @Override
+        public int getChrLength(String chr) {
+            return 1000000;
+        }
+
+        @Override
+        protected List<LocusScore> getPrecomputedSummaryScores(String chr, int startLocation, int endLocation, int zoom) {
+            return null;
+        }
+
+        @Override
+        public int getLongestFeature(String chr) {
+            return 50;
+        }
+
+        public double getDataMax() {
+            return 100;
+        }
+
+        public double getDataMin() {
+            return 0;
+        }
+
+        public TrackType getTrackType() {
+            return TrackType.OTHER;
+        }
+    }
+}
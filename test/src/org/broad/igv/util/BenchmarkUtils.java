@@ -0,0 +1,36 @@
+package org.broad.igv.util;
+
+/**
+ * Timing harness for the benchmarks run as applications.  A task is run {@link #WARMUP_ITERATIONS} times for the
+ * JIT to compile it,  then timed over {@link #ITERATIONS} runs.
+ */
+public class BenchmarkUtils {
+
+    public static final int WARMUP_ITERATIONS = 5;
+    public static final int ITERATIONS = 20;
+
+    public interface Task {
+
+        /**
+         * @return a value derived from the work done,  summed over runs so the work is not optimized away
+         */
+        double run() throws Exception;
+    }
+
+    /**
+     * @return the mean time of a run of {@code task},  in ms
+     */
+    public static double time(Task task) throws Exception {
+        double sum = 0;
+        for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+            sum += task.run();
+        }
+        long t0 = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            sum += task.run();
+        }
+        long dt = System.nanoTime() - t0;
+        if (sum == 0) System.out.println("No results");    // Keep the work live
+        return dt / 1.0e6 / ITERATIONS;
+    }
+}
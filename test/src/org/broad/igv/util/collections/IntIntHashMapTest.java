@@ -0,0 +1,41 @@
+package org.broad.igv.util.collections;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class IntIntHashMapTest {
+
+    @Test
+    public void testPutGet() {
+        IntIntHashMap map = new IntIntHashMap(4);
+        Map<Integer, Integer> expected = new HashMap<>();
+        Random random = new Random(123);
+        for (int i = 0; i < 100000; i++) {
+            int key = random.nextInt(50000) - 1000;
+            map.put(key, i);
+            expected.put(key, i);
+        }
+        // Sentinel value used internally for empty slots must still be a legal key
+        map.put(Integer.MIN_VALUE, -5);
+        expected.put(Integer.MIN_VALUE, -5);
+
+        assertEquals(expected.size(), map.size());
+        for (Map.Entry<Integer, Integer> entry : expected.entrySet()) {
+            assertTrue(map.containsKey(entry.getKey()));
+            assertEquals((int) entry.getValue(), map.get(entry.getKey(), -1));
+        }
+        assertFalse(map.containsKey(60000));
+        assertEquals(-1, map.get(60000, -1));
+
+        int[] keys = map.keys();
+        Arrays.sort(keys);
+        int[] expectedKeys = expected.keySet().stream().mapToInt(Integer::intValue).sorted().toArray();
+        assertArrayEquals(expectedKeys, keys);
+    }
+}
@@ -0,0 +1,87 @@
+package org.broad.igv.util.stream;
+
+import org.broad.igv.util.TestUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+import static junit.framework.Assert.*;
+
+public class MappedFileTest {
+
+    private File file;
+    private byte[] bytes;
+
+    @Before
+    public void setUp() throws IOException {
+        file = new File(TestUtils.TMP_OUTPUT_DIR, "mappedFile.bin");
+        file.getParentFile().mkdirs();
+        bytes = new byte[100000];
+        new Random(3).nextBytes(bytes);
+        try (FileOutputStream os = new FileOutputStream(file)) {
+            os.write(bytes);
+        }
+    }
+
+    @After
+    public void tearDown() {
+        file.delete();
+    }
+
+    @Test
+    public void testSlice() throws IOException {
+
+        // Small chunks,  so slices cross chunk boundaries
+        MappedFile mf = new MappedFile(file, 1000, 100);
+        assertEquals(bytes.length, mf.length());
+
+        Random random = new Random(5);
+        for (int n = 0; n < 1000; n++) {
+            int position = random.nextInt(bytes.length);
+            int nBytes = random.nextInt(n % 2 == 0 ? 100 : 3000);
+            ByteBuffer b = mf.slice(position, nBytes);
+            int expectedLength = Math.min(nBytes, bytes.length - position);
+            assertEquals(0, b.position());
+            assertEquals(expectedLength, b.remaining());
+
+            byte[] slice = new byte[b.remaining()];
+            b.get(slice);
+            assertTrue(Arrays.equals(Arrays.copyOfRange(bytes, position, position + expectedLength), slice));
+            assertTrue(Arrays.equals(slice, mf.read(position, nBytes)));
+        }
+    }
+
+    @Test
+    public void testShared() throws IOException {
+        MappedFile mf1 = MappedFile.open(file.getAbsolutePath());
+        MappedFile mf2 = MappedFile.open(file.getAbsolutePath());
+        assertSame(mf1, mf2);
+        mf1.close();
+        mf2.close();
+
+        MappedFile mf3 = MappedFile.open(file.getAbsolutePath());
+        assertNotSame(mf1, mf3);
+        mf3.close();
+    }
+
+    @Test
+    public void testStream() throws IOException {
+        MappedSeekableStream stream = new MappedSeekableStream(file.getAbsolutePath());
+        stream.seek(bytes.length - 10);
+        byte[] buffer = new byte[20];
+        assertEquals(10, stream.read(buffer, 0, 20));
+        assertTrue(stream.eof());
+        assertEquals(-1, stream.read(buffer, 0, 20));
+        stream.seek(5);
+        assertEquals(bytes[5] & 0xFF, stream.read());
+        assertEquals(6, stream.position());
+        stream.close();
+    }
+}
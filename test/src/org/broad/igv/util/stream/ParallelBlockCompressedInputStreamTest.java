@@ -0,0 +1,126 @@
+package org.broad.igv.util.stream;
+
+import htsjdk.samtools.seekablestream.SeekableFileStream;
+import htsjdk.samtools.util.BlockCompressedInputStream;
+import htsjdk.samtools.util.BlockCompressedOutputStream;
+import org.broad.igv.util.TestUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static junit.framework.Assert.*;
+
+public class ParallelBlockCompressedInputStreamTest {
+
+    private File file;
+    private List<String> lines;
+    private List<Long> filePointers;
+
+    @Before
+    public void setUp() throws IOException {
+
+        // Enough random text for several hundred blocks
+        file = new File(TestUtils.TMP_OUTPUT_DIR, "parallelInflate.txt.gz");
+        Random random = new Random(5);
+        lines = new ArrayList<>();
+        filePointers = new ArrayList<>();
+        BlockCompressedOutputStream os = new BlockCompressedOutputStream(file);
+        for (int i = 0; i < 200000; i++) {
+            StringBuilder buf = new StringBuilder("line" + i + "\t");
+            int length = random.nextInt(100);
+            for (int j = 0; j < length; j++) {
+                buf.append("ACGT".charAt(random.nextInt(4)));
+            }
+            String line = buf.toString();
+            filePointers.add(os.getFilePointer());
+            lines.add(line);
+            os.write((line + "\n").getBytes());
+        }
+        os.close();
+    }
+
+    @After
+    public void tearDown() {
+        file.delete();
+    }
+
+    @Test
+    public void testRead() throws IOException {
+
+        byte[] expected = readAll(new BlockCompressedInputStream(file));
+        assertTrue(expected.length > 100 * 65536);
+
+        for (int readAhead : new int[]{1, 4, ParallelBlockCompressedInputStream.DEFAULT_READ_AHEAD}) {
+            byte[] bytes = readAll(new ParallelBlockCompressedInputStream(new SeekableFileStream(file), readAhead));
+            assertTrue(Arrays.equals(expected, bytes));
+        }
+    }
+
+    @Test
+    public void testReadLine() throws IOException {
+
+        ParallelBlockCompressedInputStream is = new ParallelBlockCompressedInputStream(new SeekableFileStream(file));
+        for (int i = 0; i < lines.size(); i++) {
+            assertEquals(filePointers.get(i).longValue(), is.getFilePointer());
+            assertEquals(lines.get(i), is.readLine());
+        }
+        assertNull(is.readLine());
+        assertEquals(-1, is.read());
+        is.close();
+    }
+
+    @Test
+    public void testSeek() throws IOException {
+
+        Random random = new Random(7);
+        ParallelBlockCompressedInputStream is = new ParallelBlockCompressedInputStream(new SeekableFileStream(file));
+        for (int n = 0; n < 200; n++) {
+            int i = random.nextInt(lines.size() - 1000);
+            is.seek(filePointers.get(i));
+
+            // Read a variable number of lines,  to leave read ahead pending at the next seek
+            int count = 1 + random.nextInt(1000);
+            for (int j = i; j < i + count; j++) {
+                assertEquals(lines.get(j), is.readLine());
+            }
+        }
+
+        // Read ahead limited to the block of the first line
+        int i = lines.size() / 2;
+        is.setReadAheadEnd((filePointers.get(i) >> 16) + 1);
+        is.seek(filePointers.get(i));
+        for (int j = i; j < i + 5000; j++) {
+            assertEquals(lines.get(j), is.readLine());
+        }
+        is.close();
+    }
+
+    @Test
+    public void testFactory() throws IOException {
+        BlockCompressedInputStream is = IGVSeekableStreamFactory.getInstance().getBlockCompressedStream(
+                IGVSeekableStreamFactory.getInstance().getStreamFor(file.getAbsolutePath()));
+        assertEquals(InflaterPool.isEnabled(), is instanceof ParallelBlockCompressedInputStream);
+        assertEquals(lines.get(0), is.readLine());
+        is.close();
+    }
+
+    private static byte[] readAll(InputStream is) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        byte[] buffer = new byte[10000];
+        int count;
+        while ((count = is.read(buffer)) >= 0) {
+            bytes.write(buffer, 0, count);
+        }
+        is.close();
+        return bytes.toByteArray();
+    }
+}